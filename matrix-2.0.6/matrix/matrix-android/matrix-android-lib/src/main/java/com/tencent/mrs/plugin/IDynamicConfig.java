@@ -50,6 +50,9 @@ public interface IDynamicConfig {
         clicfg_matrix_io_repeated_read_enable,
         clicfg_matrix_io_repeated_read_threshold,
         clicfg_matrix_io_closeable_leak_enable,
+        clicfg_matrix_io_lazy_java_context_enable,
+        clicfg_matrix_io_stats_enable,
+        clicfg_matrix_io_stats_export_interval,
 
         //battery
         clicfg_matrix_battery_detect_wake_lock_enable,
@@ -74,6 +77,7 @@ public interface IDynamicConfig {
         clicfg_matrix_resource_detect_interval_millis_bg,
         clicfg_matrix_resource_max_detect_times,
         clicfg_matrix_resource_dump_hprof_enable,
+        clicfg_matrix_resource_gc_quiet_period_millis,
 
         //thread
         clicfg_matrix_thread_check_time,
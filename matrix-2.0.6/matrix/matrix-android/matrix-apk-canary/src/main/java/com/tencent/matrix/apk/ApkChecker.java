@@ -68,7 +68,10 @@ public final class ApkChecker {
                 + JobConstants.OPTION_UNSTRIPPED_SO + "  " + JobConstants.PARAM_TOOL_NM + " TOOL-NM-PATH\n"
                 + "     Find out the unstripped shared library file.\n"
                 + JobConstants.OPTION_COUNT_CLASS + " [" + JobConstants.PARAM_GROUP + " GROUP-BY ('" + JobConstants.GROUP_PACKAGE + "')]\n"
-                + "     Count classes in dex file, output results group by package name.";
+                + "     Count classes in dex file, output results group by package name.\n"
+                + JobConstants.OPTION_DIFF + " [" + JobConstants.PARAM_BASELINE + " BASELINE-APK-PATH|BASELINE-APK-HASH] [" + JobConstants.PARAM_BASELINE_MAPPING_TXT + " BASELINE-MAPPING-FILE-PATH] [" + JobConstants.PARAM_BASELINE_RES_MAPPING_TXT + " BASELINE-RESGUARD-MAPPING-FILE-PATH] [" + JobConstants.PARAM_CACHE_DIR + " SNAPSHOT-CACHE-DIR] [" + JobConstants.PARAM_MIN_SIZE_IN_KB + " DOWN-LIMIT-SIZE (KB)]\n"
+                + "     Cache the snapshot of the apk by its hash, and find out what changed since the baseline build.\n"
+                + "     The baseline is mapped through its own mapping files, or taken from a snapshot mapped the same way as the apk.";
 
 
     private ApkChecker() {
@@ -21,6 +21,7 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.tencent.matrix.apk.ApkChecker;
+import com.tencent.matrix.apk.model.exception.TaskInitException;
 import com.tencent.matrix.apk.model.output.MMTaskResultRegistry;
 import com.tencent.matrix.apk.model.result.JobResult;
 import com.tencent.matrix.apk.model.result.JobResultFactory;
@@ -44,12 +45,17 @@ import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
@@ -75,6 +81,11 @@ public final class ApkJob {
     private List<ApkTask> taskList;
     private List<JobResult> jobResults;
 
+    private CompletionService<TaskResult> completionService;
+    private List<ApkTask> waitingTasks;
+    private List<Future<TaskResult>> futures;
+    private int readyInputs;
+
     public ApkJob(String[] args) {
         this(args, 0, 0);
     }
@@ -89,9 +100,12 @@ public final class ApkJob {
             this.threadNum = threadNum;
         }
         executor = Executors.newFixedThreadPool(this.threadNum);
+        completionService = new ExecutorCompletionService<>(executor);
         this.preTasks = new ArrayList<>();
         this.taskList = new ArrayList<>();
         this.jobResults = new ArrayList<>();
+        this.waitingTasks = new LinkedList<>();
+        this.futures = new ArrayList<>();
     }
 
     private int parseParams(int start, String[] params, Map<String, String> result) {
@@ -153,6 +167,8 @@ public final class ApkJob {
             task = TaskFactory.factory(TaskFactory.TASK_TYPE_UNSTRIPPED_SO, jobConfig, params);
         } else if (JobConstants.OPTION_COUNT_CLASS.equals(name)) {
             task = TaskFactory.factory(TaskFactory.TASK_TYPE_COUNT_CLASS, jobConfig, params);
+        } else if (JobConstants.OPTION_DIFF.equals(name)) {
+            task = TaskFactory.factory(TaskFactory.TASK_TYPE_DIFF, jobConfig, params);
         }
         return task;
     }
@@ -502,49 +518,99 @@ public final class ApkJob {
         }
     }
 
+    private void addTaskResult(TaskResult taskResult) throws Exception {
+        if (taskResult != null) {
+            TaskResult formatResult = null;
+            for (JobResult jobResult : jobResults) {
+                formatResult = TaskResultFactory.transferTaskResult(taskResult.taskType, taskResult, jobResult.getFormat(), jobConfig, jobResults.size() > 1);
+                if (formatResult != null) {
+                    jobResult.addTaskResult(formatResult);
+                } else {
+                    jobResult.removePendingTaskType(taskResult.taskType);
+                }
+            }
+        }
+    }
+
+    /*
+     *  start the waiting tasks whose inputs are all ready
+     */
+    private synchronized void onInputReady(int inputs) throws TaskInitException {
+        readyInputs |= inputs;
+        Iterator<ApkTask> iterator = waitingTasks.iterator();
+        while (iterator.hasNext()) {
+            ApkTask task = iterator.next();
+            if ((task.getInputs() & readyInputs) == task.getInputs()) {
+                iterator.remove();
+                task.init();
+                futures.add(completionService.submit(task));
+            }
+        }
+    }
+
     private void execute() throws Exception {
+        boolean finished = false;
         try {
-
+            int requiredInputs = 0;
+            List<Integer> taskTypes = new ArrayList<>();
             for (ApkTask preTask : preTasks) {
-                preTask.init();
-                TaskResult taskResult = preTask.call();
-                if (taskResult != null) {
-                    TaskResult formatResult = null;
-                    for (JobResult jobResult : jobResults) {
-                        formatResult = TaskResultFactory.transferTaskResult(taskResult.taskType, taskResult, jobResult.getFormat(), jobConfig);
-                        if (formatResult != null) {
-                            jobResult.addTaskResult(formatResult);
-                        }
-                    }
-                }
+                taskTypes.add(preTask.getType());
             }
             for (ApkTask task : taskList) {
-                task.init();
+                requiredInputs |= task.getInputs();
+                taskTypes.add(task.getType());
             }
-            List<Future<TaskResult>> futures = executor.invokeAll(taskList, timeoutSeconds, TimeUnit.SECONDS);
-            for (Future<TaskResult> future : futures) {
-                TaskResult taskResult = future.get();
-                if (taskResult != null) {
-                    TaskResult formatResult = null;
-                    for (JobResult jobResult : jobResults) {
-                        formatResult = TaskResultFactory.transferTaskResult(taskResult.taskType, taskResult, jobResult.getFormat(), jobConfig);
-                        if (formatResult != null) {
-                            jobResult.addTaskResult(formatResult);
-                        }
+            jobConfig.setRequiredInputs(requiredInputs);
+            for (JobResult jobResult : jobResults) {
+                jobResult.setPendingTaskTypes(taskTypes);
+            }
+            waitingTasks.addAll(taskList);
+            ApkTask.ApkTaskInputListener inputListener = new ApkTask.ApkTaskInputListener() {
+                @Override
+                public void onInputReady(int inputs) throws TaskInitException {
+                    ApkJob.this.onInputReady(inputs);
+                }
+            };
+
+            for (ApkTask preTask : preTasks) {
+                preTask.addInputListener(inputListener);
+                preTask.init();
+                addTaskResult(preTask.call());
+            }
+            onInputReady(ApkTask.INPUT_UNZIP_TREE);
+
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(timeoutSeconds);
+            for (int i = 0; i < futures.size(); i++) {
+                Future<TaskResult> future = completionService.poll(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+                if (future == null) {
+                    for (Future<TaskResult> item : futures) {
+                        item.cancel(true);
                     }
+                    throw new TimeoutException("Tasks are not finished in " + timeoutSeconds + " seconds!");
                 }
+                addTaskResult(future.get());
             }
-            executor.shutdownNow();
 
             for (JobResult jobResult : jobResults) {
                 jobResult.output();
             }
+            finished = true;
             Log.d(TAG, "parse apk end, try to delete tmp un zip files");
             FileUtils.deleteDirectory(new File(jobConfig.getUnzipPath()));
 
         } catch (Exception e) {
             Log.e(TAG, "Task executor execute with error:" + e.getMessage());
             throw e;
+        } finally {
+            executor.shutdownNow();
+            if (!finished) {
+                for (JobResult jobResult : jobResults) {
+                    jobResult.abort();
+                }
+            }
+            if (jobConfig.getApkArchive() != null) {
+                jobConfig.getApkArchive().close();
+            }
         }
     }
 }
@@ -19,6 +19,9 @@ package com.tencent.matrix.apk.model.job;
 import com.google.gson.JsonArray;
 
 import com.android.utils.Pair;
+import com.tencent.matrix.apk.model.task.ApkTask;
+import com.tencent.matrix.apk.model.task.util.ApkArchive;
+import com.tencent.matrix.apk.model.task.util.ApkModel;
 
 import java.util.List;
 import java.util.Map;
@@ -42,6 +45,9 @@ public final class JobConfig {
     private Map<String, String> resguardMap;
     private Map<String, Pair<Long, Long>> entrySizeMap;
     private Map<String, String> entryNameMap;
+    private int requiredInputs = ApkTask.INPUT_UNZIP_TREE;
+    private ApkArchive apkArchive;
+    private ApkModel apkModel;
 
     public String getInputDir() {
         return inputDir;
@@ -131,6 +137,35 @@ public final class JobConfig {
         this.entryNameMap = entryNameMap;
     }
 
+    /*
+     *  union of the inputs of all the tasks, the apk is only extracted if one of them reads the unzip tree
+     */
+    public int getRequiredInputs() {
+        return requiredInputs;
+    }
+
+    public void setRequiredInputs(int requiredInputs) {
+        this.requiredInputs = requiredInputs;
+    }
+
+    public synchronized ApkArchive getApkArchive() {
+        return apkArchive;
+    }
+
+    public synchronized void setApkArchive(ApkArchive apkArchive) {
+        this.apkArchive = apkArchive;
+    }
+
+    /*
+     *  decoded code of the apk, shared by all tasks
+     */
+    public synchronized ApkModel getApkModel() {
+        if (apkModel == null) {
+            apkModel = new ApkModel(apkArchive);
+        }
+        return apkModel;
+    }
+
     public JsonArray getOutputConfig() {
         return outputConfig;
     }
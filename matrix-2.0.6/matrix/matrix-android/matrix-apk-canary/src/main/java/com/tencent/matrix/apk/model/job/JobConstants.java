@@ -42,6 +42,10 @@ public final class JobConstants {
     public static final String PARAM_RES_MAPPING_TXT = "--resMappingTxt";
     public static final String PARAM_IGNORE_ASSETS_LIST = "--ignoreAssets";
     public static final String PARAM_LOG_LEVEL = "--log";
+    public static final String PARAM_BASELINE = "--baseline";
+    public static final String PARAM_CACHE_DIR = "--cacheDir";
+    public static final String PARAM_BASELINE_MAPPING_TXT = "--baselineMappingTxt";
+    public static final String PARAM_BASELINE_RES_MAPPING_TXT = "--baselineResMappingTxt";
 
     public static final String OPTION_MANIFEST = "-manifest";
     public static final String OPTION_FILE_SIZE = "-fileSize";
@@ -57,6 +61,7 @@ public final class JobConstants {
     public static final String OPTION_UNUSED_ASSETS = "-unusedAssets";
     public static final String OPTION_UNSTRIPPED_SO = "-unstrippedSo";
     public static final String OPTION_COUNT_CLASS = "-countClass";
+    public static final String OPTION_DIFF = "-diff";
 
     public static final String ORDER_ASC = "asc";
     public static final String ORDER_DESC = "desc";
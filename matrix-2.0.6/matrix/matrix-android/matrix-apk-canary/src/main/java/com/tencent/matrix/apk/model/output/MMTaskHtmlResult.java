@@ -52,6 +52,11 @@ public class MMTaskHtmlResult extends TaskHtmlResult {
         super(type, config);
     }
 
+    @Override
+    protected boolean isJsonModified() {
+        return true;
+    }
+
     @Override
     public void format(JsonObject jsonObject) throws ParserConfigurationException {
         MMTaskJsonResult.formatJson(jsonObject, null, config);
@@ -96,13 +101,15 @@ public class MMTaskHtmlResult extends TaskHtmlResult {
                 document.appendChild(element);
                 break;
             }
-            default:
+            default: {
                 jsonObject.remove("taskType");
                 jsonObject.remove("start-time");
                 jsonObject.remove("end-time");
-                super.format(jsonObject);
-                foldElement((Element) document.getFirstChild());
+                Element element = toElement(document, jsonObject);
+                foldElement(element);
+                document.appendChild(element);
                 break;
+            }
         }
 
     }
@@ -46,6 +46,11 @@ public class MMTaskJsonResult extends TaskJsonResult {
         super(type, config);
     }
 
+    @Override
+    protected boolean isJsonModified() {
+        return true;
+    }
+
     @Override
     public void format(JsonObject jsonObject) {
         formatJson(jsonObject, this.jsonObject, config);
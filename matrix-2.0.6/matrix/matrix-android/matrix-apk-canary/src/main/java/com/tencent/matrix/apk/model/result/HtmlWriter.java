@@ -0,0 +1,173 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.apk.model.result;
+
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Incremental html emitter, elements are written to the underlying writer as they are started,
+ * so a report never has to be held in memory as a whole.
+ */
+
+public final class HtmlWriter implements Closeable {
+
+    private final Writer out;
+    private final Deque<String> openElements;
+    private boolean inStartTag;
+
+    public HtmlWriter(Writer out) {
+        this.out = out;
+        this.openElements = new ArrayDeque<>();
+    }
+
+    public HtmlWriter startElement(String name) throws IOException {
+        closeStartTag();
+        out.write('<');
+        out.write(name);
+        openElements.push(name);
+        inStartTag = true;
+        return this;
+    }
+
+    public HtmlWriter attribute(String name, String value) throws IOException {
+        if (!inStartTag) {
+            throw new IllegalStateException("attribute " + name + " is not in a start tag!");
+        }
+        out.write(' ');
+        out.write(name);
+        out.write("=\"");
+        escape(value, true);
+        out.write('"');
+        return this;
+    }
+
+    public HtmlWriter text(String text) throws IOException {
+        closeStartTag();
+        escape(text, false);
+        return this;
+    }
+
+    public HtmlWriter endElement() throws IOException {
+        if (openElements.isEmpty()) {
+            throw new IllegalStateException("no element to end!");
+        }
+        closeStartTag();
+        out.write("</");
+        out.write(openElements.pop());
+        out.write('>');
+        return this;
+    }
+
+    /*
+     *  void element such as <br/>, which has no content and no end tag
+     */
+    public HtmlWriter emptyElement(String name) throws IOException {
+        closeStartTag();
+        out.write('<');
+        out.write(name);
+        out.write("/>");
+        return this;
+    }
+
+    /*
+     *  write an element of a dom document with all its descendants
+     */
+    public HtmlWriter node(Node node) throws IOException {
+        switch (node.getNodeType()) {
+            case Node.ELEMENT_NODE:
+                startElement(node.getNodeName());
+                NamedNodeMap attributes = node.getAttributes();
+                for (int i = 0; i < attributes.getLength(); i++) {
+                    Node attribute = attributes.item(i);
+                    attribute(attribute.getNodeName(), attribute.getNodeValue());
+                }
+                NodeList children = node.getChildNodes();
+                for (int i = 0; i < children.getLength(); i++) {
+                    node(children.item(i));
+                }
+                endElement();
+                break;
+            case Node.TEXT_NODE:
+            case Node.CDATA_SECTION_NODE:
+                text(node.getNodeValue());
+                break;
+            case Node.DOCUMENT_NODE:
+                NodeList roots = node.getChildNodes();
+                for (int i = 0; i < roots.getLength(); i++) {
+                    node(roots.item(i));
+                }
+                break;
+            default:
+                break;
+        }
+        return this;
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void closeStartTag() throws IOException {
+        if (inStartTag) {
+            out.write('>');
+            inStartTag = false;
+        }
+    }
+
+    private void escape(String value, boolean inAttribute) throws IOException {
+        if (value == null) {
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&':
+                    out.write("&amp;");
+                    break;
+                case '<':
+                    out.write("&lt;");
+                    break;
+                case '>':
+                    out.write("&gt;");
+                    break;
+                case '"':
+                    if (inAttribute) {
+                        out.write("&quot;");
+                    } else {
+                        out.write(c);
+                    }
+                    break;
+                default:
+                    out.write(c);
+                    break;
+            }
+        }
+    }
+}
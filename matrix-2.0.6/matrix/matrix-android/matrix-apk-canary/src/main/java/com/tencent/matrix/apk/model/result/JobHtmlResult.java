@@ -18,23 +18,17 @@ package com.tencent.matrix.apk.model.result;
 
 import com.tencent.matrix.javalib.util.Log;
 
-import org.w3c.dom.Document;
-
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.util.ArrayList;
-import java.util.Collections;
-
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Created by jinqiuchen on 17/6/13.
+ *
+ * The results are streamed into the html body through a HtmlWriter, each one as soon as it is added.
  */
 
 public class JobHtmlResult extends JobResult {
@@ -42,82 +36,57 @@ public class JobHtmlResult extends JobResult {
     private static final String TAG = "JobHtmlResult";
 
     private final File outputFile;
+    private HtmlWriter htmlWriter;
 
     public JobHtmlResult(String format, String outputPath) {
         this.format = format;
         outputFile = new File(outputPath + "." + TaskResultFactory.TASK_RESULT_TYPE_HTML);
-        this.resultList = new ArrayList<>();
     }
 
-    private void writeHtmlStart() throws IOException {
-        PrintWriter printWriter = null;
-        try {
+    private HtmlWriter getHtmlWriter() throws IOException {
+        if (htmlWriter == null) {
             if (outputFile.exists() && !outputFile.delete()) {
-                Log.e(TAG, "file " + outputFile.getName() + " is already exists and delete it failed!");
-                return;
-            }
-            if (!outputFile.createNewFile()) {
-                Log.e(TAG, "create output file " + outputFile.getName() + " failed!");
-                return;
-            }
-            printWriter = new PrintWriter(outputFile, "UTF-8");
-            printWriter.append("<html>");
-            printWriter.append("<body>");
-        } finally {
-            if (printWriter != null) {
-                printWriter.close();
+                throw new IOException("file " + outputFile.getName() + " is already exists and delete it failed!");
             }
+            htmlWriter = new HtmlWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputFile), StandardCharsets.UTF_8)));
+            htmlWriter.startElement("html");
+            htmlWriter.startElement("body");
         }
+        return htmlWriter;
     }
 
-    private void writeDocument(DOMSource domSource) throws Exception {
-        Transformer transformer = null;
-        try {
-            transformer = TransformerFactory.newInstance().newTransformer();
-            if (outputFile.isFile() && outputFile.exists()) {
-                FileWriter writer = new FileWriter(outputFile, true);
-                writer.append("<br/>");
-                StreamResult result = new StreamResult(outputFile);
-                result.setWriter(writer);
-                transformer.transform(domSource, result);
-            }
-        } catch (TransformerException | IOException e) {
-            throw e;
+    @Override
+    protected void writeTaskResult(TaskResult taskResult) throws IOException {
+        if (taskResult instanceof TaskHtmlResult) {
+            HtmlWriter writer = getHtmlWriter();
+            writer.emptyElement("br");
+            ((TaskHtmlResult) taskResult).writeTo(writer);
         }
     }
 
-    private void writeHtmlEnd() throws IOException {
+    @Override
+    protected void close() throws IOException {
         try {
-            FileWriter writer = null;
-            try {
-                writer = new FileWriter(outputFile, true);
-                writer.append("</body>");
-                writer.append("</html>");
-            } finally {
-                if (writer != null) {
-                    writer.close();
-                }
+            getHtmlWriter().endElement().endElement();
+        } finally {
+            if (htmlWriter != null) {
+                htmlWriter.close();
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
     }
 
     @Override
-    public void output() {
-        try {
-            writeHtmlStart();
-            if (!resultList.isEmpty()) {
-                Collections.sort(resultList, new TaskResultComparator());
-                for (TaskResult taskResult : resultList) {
-                    if (taskResult.getResult() != null && taskResult.getResult() instanceof Document) {
-                        writeDocument(new DOMSource((Document) taskResult.getResult()));
-                    }
-                }
+    protected void discard() {
+        if (htmlWriter != null) {
+            try {
+                htmlWriter.close();
+            } catch (IOException e) {
+                Log.d(TAG, "close %s failed: %s", outputFile.getName(), e.getMessage());
+            }
+            htmlWriter = null;
+            if (outputFile.exists() && !outputFile.delete()) {
+                Log.w(TAG, "delete partial report %s failed!", outputFile.getName());
             }
-            writeHtmlEnd();
-        } catch (Exception e) {
-            e.printStackTrace();
         }
     }
 }
@@ -17,20 +17,23 @@
 package com.tencent.matrix.apk.model.result;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+
 import com.tencent.matrix.javalib.util.Log;
 
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Created by jinqiuchen on 17/6/13.
+ *
+ * The results are streamed into a json array through a JsonWriter, each one as soon as it is added.
  */
 
 public class JobJsonResult extends JobResult {
@@ -38,92 +41,61 @@ public class JobJsonResult extends JobResult {
     private static final String TAG = "JobJsonResult";
 
     private final File outputFile;
-    private int elementCount;
+    private final Gson gson;
+    private JsonWriter jsonWriter;
 
     public JobJsonResult(String format, String outputPath) {
         this.format = format;
         this.outputFile = new File(outputPath + "." + TaskResultFactory.TASK_RESULT_TYPE_JSON);
-        this.resultList = new ArrayList<>();
+        this.gson = new Gson();
     }
 
-    private void writeJsonArrayStart() throws IOException {
-        PrintWriter printWriter = null;
-        try {
+    private JsonWriter getJsonWriter() throws IOException {
+        if (jsonWriter == null) {
             if (outputFile.exists() && !outputFile.delete()) {
-                Log.e(TAG, "file " + outputFile.getName() + " is already exists and delete it failed!");
-                return;
-            }
-            if (!outputFile.createNewFile()) {
-                Log.e(TAG, "create output file " + outputFile.getName() + " failed!");
-                return;
-            }
-            printWriter = new PrintWriter(outputFile, "UTF-8");
-            printWriter.append("[");
-        } finally {
-            if (printWriter != null) {
-                printWriter.close();
+                throw new IOException("file " + outputFile.getName() + " is already exists and delete it failed!");
             }
+            jsonWriter = new JsonWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputFile), StandardCharsets.UTF_8)));
+            jsonWriter.setIndent("  ");
+            jsonWriter.beginArray();
         }
+        return jsonWriter;
     }
 
-    private void writeJsonElement(JsonElement jsonElement) {
-        if (jsonElement != null) {
+    @Override
+    protected void writeTaskResult(TaskResult taskResult) throws IOException {
+        if (taskResult.getResult() != null && taskResult.getResult() instanceof JsonObject) {
             try {
-                FileWriter writer = null;
-                Gson gson = new GsonBuilder().setPrettyPrinting().create();
-                try {
-                    writer = new FileWriter(outputFile, true);
-                    if (elementCount > 0) {
-                        writer.append(",\n" + gson.toJson(jsonElement));
-                    } else {
-                        writer.append(gson.toJson(jsonElement));
-                    }
-                    elementCount++;
-                } finally {
-                    if (writer != null) {
-                        writer.close();
-                    }
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
+                gson.toJson((JsonObject) taskResult.getResult(), getJsonWriter());
+            } catch (JsonIOException e) {
+                throw new IOException(e.getMessage(), e);
             }
         }
     }
 
-    private void writeJsonArrayEnd() {
+    @Override
+    protected void close() throws IOException {
         try {
-            FileWriter writer = null;
-            try {
-                writer = new FileWriter(outputFile, true);
-                writer.append("]");
-            } finally {
-                if (writer != null) {
-                    writer.close();
-                }
+            getJsonWriter().endArray();
+        } finally {
+            if (jsonWriter != null) {
+                jsonWriter.close();
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
     }
 
     @Override
-    public void output() {
-        try {
-            writeJsonArrayStart();
-            if (!resultList.isEmpty()) {
-                Collections.sort(resultList, new TaskResultComparator());
-                for (TaskResult taskResult : resultList) {
-                    if (taskResult.getResult() != null && taskResult.getResult() instanceof JsonObject) {
-                        writeJsonElement((JsonObject) taskResult.getResult());
-                    }
-                }
+    protected void discard() {
+        if (jsonWriter != null) {
+            try {
+                jsonWriter.close();
+            } catch (IOException e) {
+                Log.d(TAG, "close %s failed: %s", outputFile.getName(), e.getMessage());
+            }
+            jsonWriter = null;
+            if (outputFile.exists() && !outputFile.delete()) {
+                Log.w(TAG, "delete partial report %s failed!", outputFile.getName());
             }
-            writeJsonArrayEnd();
-
-        } catch (Exception e) {
-            e.printStackTrace();
         }
     }
-
-
 }
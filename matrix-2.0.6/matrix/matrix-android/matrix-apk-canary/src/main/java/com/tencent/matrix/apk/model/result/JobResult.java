@@ -17,6 +17,11 @@
 package com.tencent.matrix.apk.model.result;
 
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
 import java.util.List;
 
 /**
@@ -27,18 +32,108 @@ public abstract class JobResult {
 
     protected String format = TaskResultFactory.TASK_RESULT_TYPE_HTML;
 
-    protected List<TaskResult> resultList;
+    /*
+     *  results waiting for the tasks ordered before them, by TaskResultComparator and then by
+     *  the order the tasks were given in, whatever order they finish in
+     */
+    protected List<TaskResult> resultList = new ArrayList<>();
+
+    private final List<Integer> pendingTaskTypes = new LinkedList<>();
+
+    private final List<Integer> taskOrder = new ArrayList<>();
+
+    private final Comparator<TaskResult> comparator = new Comparator<TaskResult>() {
+        private final TaskResultComparator importComparator = new TaskResultComparator();
+
+        @Override
+        public int compare(TaskResult taskResult1, TaskResult taskResult2) {
+            int result = importComparator.compare(taskResult1, taskResult2);
+            if (result == 0) {
+                result = taskOrder.indexOf(taskResult1.taskType) - taskOrder.indexOf(taskResult2.taskType);
+            }
+            return result;
+        }
+    };
 
     public String getFormat() {
         return format;
     }
 
-    public void addTaskResult(TaskResult result) {
-        if (resultList != null) {
-            resultList.add(result);
+    /*
+     *  types of the tasks that will report to this job result, so that every result can be
+     *  written out as soon as no task ordered before it is still running
+     */
+    public synchronized void setPendingTaskTypes(List<Integer> taskTypes) {
+        pendingTaskTypes.clear();
+        pendingTaskTypes.addAll(taskTypes);
+        taskOrder.clear();
+        taskOrder.addAll(taskTypes);
+    }
+
+    public synchronized void addTaskResult(TaskResult result) throws IOException {
+        pendingTaskTypes.remove(Integer.valueOf(result.taskType));
+        resultList.add(result);
+        Collections.sort(resultList, comparator);
+        writeReadyResults();
+    }
+
+    /*
+     *  the task has no result in this format, so the results ordered after it need not wait for it
+     */
+    public synchronized void removePendingTaskType(int taskType) throws IOException {
+        pendingTaskTypes.remove(Integer.valueOf(taskType));
+        writeReadyResults();
+    }
+
+    public synchronized void output() throws IOException {
+        try {
+            while (!resultList.isEmpty()) {
+                writeTaskResult(resultList.remove(0));
+            }
+        } finally {
+            close();
         }
     }
 
-    public abstract void output();
+    /*
+     *  the job failed, release the output file and delete the partial report
+     */
+    public synchronized void abort() {
+        resultList.clear();
+        pendingTaskTypes.clear();
+        discard();
+    }
+
+    /*
+     *  write the result into the output file right away, it is not referenced afterwards
+     */
+    protected abstract void writeTaskResult(TaskResult result) throws IOException;
+
+    /*
+     *  finish and close the output file
+     */
+    protected abstract void close() throws IOException;
+
+    /*
+     *  close the output file without finishing it and delete it
+     */
+    protected abstract void discard();
 
+    private void writeReadyResults() throws IOException {
+        while (!resultList.isEmpty() && !isPrecededByPendingTask(resultList.get(0))) {
+            writeTaskResult(resultList.remove(0));
+        }
+    }
+
+    private boolean isPrecededByPendingTask(TaskResult result) {
+        int importLevel = TaskResultComparator.getImportLevel(result.taskType);
+        int order = taskOrder.indexOf(result.taskType);
+        for (int taskType : pendingTaskTypes) {
+            int pendingLevel = TaskResultComparator.getImportLevel(taskType);
+            if (pendingLevel < importLevel || pendingLevel == importLevel && taskOrder.indexOf(taskType) < order) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
@@ -22,6 +22,7 @@ import com.google.gson.JsonObject;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
+import java.io.IOException;
 import java.util.Map;
 
 import javax.xml.parsers.DocumentBuilder;
@@ -40,6 +41,8 @@ public class TaskHtmlResult extends TaskResult {
 
     protected JsonObject config;
 
+    private JsonObject jsonObject;
+
     public TaskHtmlResult(int taskType, JsonObject config) throws ParserConfigurationException {
         super(taskType);
         this.config = config;
@@ -51,12 +54,34 @@ public class TaskHtmlResult extends TaskResult {
         document.appendChild(root);
     }
 
+    /*
+     *  the json is kept as it is and written into the report directly, the document is
+     *  only built if it is asked for by getResult()
+     */
     public void format(JsonObject jsonObject) throws ParserConfigurationException {
-        add(toElement(document, jsonObject));
+        this.jsonObject = jsonObject;
+    }
+
+    /*
+     *  whether format() modifies the json it is given, the json result is shared with the other
+     *  output formats so it is only copied for the html results that do
+     */
+    protected boolean isJsonModified() {
+        return false;
     }
 
+    /*
+     *  write the result into the html report
+     */
+    public void writeTo(HtmlWriter writer) throws IOException {
+        if (jsonObject != null) {
+            writeElement(writer, jsonObject);
+        } else {
+            writer.node(document);
+        }
+    }
 
-    private Element toElement(Document document, JsonElement jsonElement) throws ParserConfigurationException {
+    protected Element toElement(Document document, JsonElement jsonElement) throws ParserConfigurationException {
 
         if (jsonElement == null) {
             return null;
@@ -120,13 +145,59 @@ public class TaskHtmlResult extends TaskResult {
         return null;
     }
 
+    private void writeElement(HtmlWriter writer, JsonElement jsonElement) throws IOException {
+
+        if (jsonElement == null) {
+            return;
+        }
+
+        if (jsonElement.isJsonPrimitive()) {
+            writer.startElement("span").text(jsonElement.getAsString()).endElement();
+        } else if (jsonElement.isJsonObject()) {
+            writer.startElement("table").attribute("border", "1").attribute("width", "100%");
+            for (Map.Entry<String, JsonElement> entry : ((JsonObject) jsonElement).entrySet()) {
+                JsonElement jsonValue = entry.getValue();
+                if (jsonValue.isJsonPrimitive() || jsonValue.isJsonObject() || jsonValue.isJsonArray()) {
+                    writer.startElement("tr");
+                    writer.startElement("td").attribute("valign", "top").attribute("width", "30%").text(entry.getKey()).endElement();
+                    writer.startElement("td");
+                    if (jsonValue.isJsonPrimitive()) {
+                        writer.text(jsonValue.getAsString());
+                    } else if (jsonValue.isJsonObject()) {
+                        writeElement(writer, jsonValue);
+                    } else {
+                        JsonArray array = (JsonArray) jsonValue;
+                        writer.startElement("ul").attribute("style", "list-style-type:none");
+                        for (int i = 0; i < array.size(); i++) {
+                            writer.startElement("li");
+                            writeElement(writer, array.get(i));
+                            writer.endElement();
+                        }
+                        writer.endElement();
+                    }
+                    writer.endElement();
+                    writer.endElement();
+                }
+            }
+            writer.endElement();
+        }
+    }
+
     @Override
     public String toString() {
-        return document.toString();
+        return getResult().toString();
     }
 
     @Override
     public Document getResult() {
+        if (jsonObject != null) {
+            try {
+                add(toElement(document, jsonObject));
+            } catch (ParserConfigurationException e) {
+                throw new IllegalStateException(e);
+            }
+            jsonObject = null;
+        }
         return document;
     }
 }
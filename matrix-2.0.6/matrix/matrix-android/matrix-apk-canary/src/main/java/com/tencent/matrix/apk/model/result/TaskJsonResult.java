@@ -82,6 +82,13 @@ public class TaskJsonResult extends TaskResult {
         //do nothing
     }
 
+    /*
+     *  whether format() modifies the json it is given, see TaskHtmlResult.isJsonModified()
+     */
+    protected boolean isJsonModified() {
+        return false;
+    }
+
     @Override
     public String toString() {
         return jsonObject.toString();
@@ -43,6 +43,7 @@ public class TaskResultComparator implements Comparator<TaskResult> {
         switch (taskType) {
             case TaskFactory.TASK_TYPE_UNZIP:
             case TaskFactory.TASK_TYPE_MANIFEST:
+            case TaskFactory.TASK_TYPE_DIFF:
                 level = TASK_IMPORT_LEVEL_1;
                 break;
             case TaskFactory.TASK_TYPE_CHECK_RESGUARD:
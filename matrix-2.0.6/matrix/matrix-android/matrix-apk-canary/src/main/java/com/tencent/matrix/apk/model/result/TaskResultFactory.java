@@ -20,7 +20,6 @@ package com.tencent.matrix.apk.model.result;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 import com.tencent.matrix.apk.model.job.JobConfig;
 import com.tencent.matrix.apk.model.task.TaskFactory;
 import com.tencent.matrix.javalib.util.Log;
@@ -77,15 +76,23 @@ public final class TaskResultFactory {
     }
 
     public static TaskResult transferTaskResult(int taskType, TaskResult source, String destResultType, JobConfig config) {
+        return transferTaskResult(taskType, source, destResultType, config, true);
+    }
+
+    /*
+     *  shared: the source is also transferred to other formats, the results that modify the json
+     *  are given a copy of it then, otherwise the json is handed over as it is
+     */
+    public static TaskResult transferTaskResult(int taskType, TaskResult source, String destResultType, JobConfig config, boolean shared) {
         TaskResult result = null;
         try {
             if (source instanceof TaskJsonResult) {
                 if (TaskResultFactory.customHtmlResultMap.containsKey(destResultType) || destResultType.equals(TaskResultFactory.TASK_RESULT_TYPE_HTML)) {
                     result = TaskResultFactory.factory(taskType, destResultType, config);
-                    transferJsonToHtml((TaskJsonResult) source, (TaskHtmlResult) result);
+                    transferJsonToHtml((TaskJsonResult) source, (TaskHtmlResult) result, shared);
                 } else if (TaskResultFactory.customJsonResultMap.containsKey(destResultType)) {
                     result = TaskResultFactory.factory(taskType, destResultType, config);
-                    formatJson((TaskJsonResult) source, (TaskJsonResult) result);
+                    formatJson((TaskJsonResult) source, (TaskJsonResult) result, shared);
                 } else {
                     result = source;
                 }
@@ -97,13 +104,40 @@ public final class TaskResultFactory {
         return result;
     }
 
-    private static void transferJsonToHtml(TaskJsonResult source, TaskHtmlResult dest) throws ParserConfigurationException {
-        JsonObject jsonObject = (JsonObject) new JsonParser().parse(source.toString());
-        dest.format(jsonObject);
+    private static void transferJsonToHtml(TaskJsonResult source, TaskHtmlResult dest, boolean shared) throws ParserConfigurationException {
+        if (shared && dest.isJsonModified()) {
+            dest.format((JsonObject) copyJson(source.jsonObject));
+        } else {
+            dest.format(source.jsonObject);
+        }
     }
 
-    private static void formatJson(TaskJsonResult source, TaskJsonResult dest) {
-        dest.format(source.jsonObject);
+    /*
+     *  copy the tree instead of printing and parsing it again, primitives are immutable and shared
+     */
+    private static JsonElement copyJson(JsonElement jsonElement) {
+        if (jsonElement.isJsonObject()) {
+            JsonObject copy = new JsonObject();
+            for (Map.Entry<String, JsonElement> entry : jsonElement.getAsJsonObject().entrySet()) {
+                copy.add(entry.getKey(), copyJson(entry.getValue()));
+            }
+            return copy;
+        } else if (jsonElement.isJsonArray()) {
+            JsonArray copy = new JsonArray();
+            for (JsonElement element : jsonElement.getAsJsonArray()) {
+                copy.add(copyJson(element));
+            }
+            return copy;
+        }
+        return jsonElement;
+    }
+
+    private static void formatJson(TaskJsonResult source, TaskJsonResult dest, boolean shared) {
+        if (shared && dest.isJsonModified()) {
+            dest.format((JsonObject) copyJson(source.jsonObject));
+        } else {
+            dest.format(source.jsonObject);
+        }
     }
 
     public static void addCustomTaskHtmlResult(Map<String, Class<? extends TaskHtmlResult>> customTaskHtmlResult) {
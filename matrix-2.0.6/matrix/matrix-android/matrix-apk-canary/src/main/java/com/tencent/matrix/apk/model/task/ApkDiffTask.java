@@ -0,0 +1,287 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.apk.model.task;
+
+import com.android.utils.Pair;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.tencent.matrix.apk.model.exception.TaskExecuteException;
+import com.tencent.matrix.apk.model.exception.TaskInitException;
+import com.tencent.matrix.apk.model.job.JobConfig;
+import com.tencent.matrix.apk.model.job.JobConstants;
+import com.tencent.matrix.apk.model.result.TaskJsonResult;
+import com.tencent.matrix.apk.model.result.TaskResult;
+import com.tencent.matrix.apk.model.result.TaskResultFactory;
+import com.tencent.matrix.apk.model.task.util.ApkArchive;
+import com.tencent.matrix.apk.model.task.util.ApkConstants;
+import com.tencent.matrix.apk.model.task.util.ApkMapping;
+import com.tencent.matrix.apk.model.task.util.ApkModel;
+import com.tencent.matrix.apk.model.task.util.ApkSnapshot;
+import com.tencent.matrix.javalib.util.FileUtil;
+import com.tencent.matrix.javalib.util.Log;
+import com.tencent.matrix.javalib.util.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static com.tencent.matrix.apk.model.task.TaskFactory.TASK_TYPE_DIFF;
+
+/**
+ * Compare the apk with the apk of a baseline build.
+ *
+ * The snapshot of the apk is cached under its hash and the hashes of its mapping files every time,
+ * so the baseline is usually read from the cache of its own run, and the comparison does not
+ * analyse it again. Names are only compared between snapshots mapped through the same kinds
+ * of mapping files, otherwise every mapped package or resource would look added or removed.
+ */
+
+public class ApkDiffTask extends ApkTask {
+
+    private static final String TAG = "Matrix.ApkDiffTask";
+
+    private File inputFile;
+    private File cacheDir;
+    private String baseline;
+    private File baselineMappingTxt;
+    private File baselineResMappingTxt;
+    private long downLimitSize;
+
+    public ApkDiffTask(JobConfig config, Map<String, String> params) {
+        super(config, params);
+        type = TASK_TYPE_DIFF;
+        inputs = INPUT_APK_ENTRIES | INPUT_DEX;
+    }
+
+    @Override
+    public void init() throws TaskInitException {
+        super.init();
+        String inputPath = config.getApkPath();
+        if (Util.isNullOrNil(inputPath)) {
+            throw new TaskInitException(TAG + "---APK-FILE-PATH can not be null!");
+        }
+        inputFile = new File(inputPath);
+        if (!FileUtil.isLegalFile(inputFile)) {
+            throw new TaskInitException(TAG + "---APK-FILE-PATH '" + inputPath + "' is illegal!");
+        }
+
+        if (params.containsKey(JobConstants.PARAM_CACHE_DIR) && !Util.isNullOrNil(params.get(JobConstants.PARAM_CACHE_DIR))) {
+            cacheDir = new File(params.get(JobConstants.PARAM_CACHE_DIR));
+        } else {
+            cacheDir = new File(new File(config.getOutputPath()).getAbsoluteFile().getParentFile(), ApkConstants.DEFAULT_SNAPSHOT_DIR_NAME);
+        }
+        if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+            throw new TaskInitException(TAG + "---CACHE-DIR '" + cacheDir.getAbsolutePath() + "' can not be created!");
+        }
+
+        baseline = params.get(JobConstants.PARAM_BASELINE);
+        baselineMappingTxt = getMappingFile(JobConstants.PARAM_BASELINE_MAPPING_TXT);
+        baselineResMappingTxt = getMappingFile(JobConstants.PARAM_BASELINE_RES_MAPPING_TXT);
+        if (params.containsKey(JobConstants.PARAM_MIN_SIZE_IN_KB)) {
+            try {
+                downLimitSize = Long.parseLong(params.get(JobConstants.PARAM_MIN_SIZE_IN_KB)) * ApkConstants.K1024;
+            } catch (NumberFormatException e) {
+                Log.e(TAG, "DOWN-LIMIT-SIZE '" + params.get(JobConstants.PARAM_MIN_SIZE_IN_KB) + "' is not number format!");
+            }
+        }
+    }
+
+    private File getMappingFile(String param) throws TaskInitException {
+        if (!params.containsKey(param) || Util.isNullOrNil(params.get(param))) {
+            return null;
+        }
+        File mappingFile = new File(params.get(param));
+        if (!FileUtil.isLegalFile(mappingFile)) {
+            throw new TaskInitException(TAG + "---" + param + " '" + params.get(param) + "' is illegal!");
+        }
+        return mappingFile;
+    }
+
+    private static File toFile(String path) {
+        return Util.isNullOrNil(path) ? null : new File(path);
+    }
+
+    /*
+     *  the snapshot of the apk being checked, mapped through the mapping files of the job
+     */
+    private ApkSnapshot getSnapshot() throws IOException {
+        ApkSnapshot.Key key = new ApkSnapshot.Key(ApkSnapshot.hashApk(inputFile),
+                ApkSnapshot.hashMapping(toFile(config.getMappingFilePath())), ApkSnapshot.hashMapping(toFile(config.getResMappingFilePath())));
+        ApkSnapshot snapshot = readCache(key);
+        if (snapshot == null) {
+            snapshot = ApkSnapshot.create(key, config.getApkArchive(), config.getApkModel(), config.getEntryNameMap(),
+                    config.getProguardClassMap(), config.getResguardMap());
+            snapshot.writeCache(cacheDir);
+        }
+        return snapshot;
+    }
+
+    /*
+     *  the baseline is the path of an apk or the hash of an apk checked before.
+     *  with the mapping files of the baseline, it is the snapshot mapped through them, analysed here if the apk is given,
+     *  without them, it is a cached snapshot mapped the same way as the apk, or the apk analysed unmapped if the apk is unmapped too
+     */
+    private ApkSnapshot getBaselineSnapshot(ApkSnapshot.Key key) throws IOException {
+        File baselineFile = new File(baseline);
+        boolean isApk = FileUtil.isLegalFile(baselineFile);
+        String apkHash = isApk ? ApkSnapshot.hashApk(baselineFile) : baseline;
+        ApkSnapshot snapshot = null;
+        if (baselineMappingTxt != null || baselineResMappingTxt != null) {
+            ApkSnapshot.Key baselineKey = new ApkSnapshot.Key(apkHash, ApkSnapshot.hashMapping(baselineMappingTxt), ApkSnapshot.hashMapping(baselineResMappingTxt));
+            snapshot = readCache(baselineKey);
+            if (snapshot == null && isApk) {
+                snapshot = createSnapshot(baselineFile, baselineKey, ApkMapping.read(baselineMappingTxt, baselineResMappingTxt));
+            }
+        } else {
+            for (ApkSnapshot cached : ApkSnapshot.readCaches(cacheDir, apkHash)) {
+                if (cached.getKey().isMappedAs(key)) {
+                    snapshot = cached;
+                    break;
+                }
+            }
+            if (snapshot == null && isApk && !key.isClassMapped() && !key.isResMapped()) {
+                snapshot = createSnapshot(baselineFile, new ApkSnapshot.Key(apkHash, "", ""), null);
+            }
+        }
+        if (snapshot == null) {
+            throw new TaskExecuteException(TAG + "---BASELINE '" + baseline + "' has no snapshot in '" + cacheDir.getAbsolutePath()
+                    + "' mapped the same way as " + key + ", give its mapping files with " + JobConstants.PARAM_BASELINE_MAPPING_TXT
+                    + " and " + JobConstants.PARAM_BASELINE_RES_MAPPING_TXT + "!");
+        }
+        if (!snapshot.getKey().isMappedAs(key)) {
+            throw new TaskExecuteException(TAG + "---BASELINE " + snapshot.getKey() + " and " + key + " are not mapped through the same kinds of mapping files!");
+        }
+        return snapshot;
+    }
+
+    private ApkSnapshot createSnapshot(File apkFile, ApkSnapshot.Key key, ApkMapping mapping) throws IOException {
+        Log.i(TAG, "baseline apk %s is not in the cache, analyse it as %s.", apkFile.getName(), key);
+        ApkSnapshot snapshot;
+        ApkArchive apkArchive = ApkArchive.open(apkFile);
+        try {
+            if (mapping == null) {
+                snapshot = ApkSnapshot.create(key, apkArchive, new ApkModel(apkArchive), null, null, null);
+            } else {
+                snapshot = ApkSnapshot.create(key, apkArchive, new ApkModel(apkArchive), mapping.getEntryNameMap(apkArchive),
+                        mapping.getProguardClassMap(), mapping.getResguardMap());
+            }
+        } finally {
+            apkArchive.close();
+        }
+        snapshot.writeCache(cacheDir);
+        return snapshot;
+    }
+
+    private ApkSnapshot readCache(ApkSnapshot.Key key) {
+        try {
+            return ApkSnapshot.readCache(cacheDir, key);
+        } catch (IOException e) {
+            Log.w(TAG, "read snapshot %s failed, %s", key, e.getMessage());
+            return null;
+        }
+    }
+
+    private Map<String, Long> getCompressedSizes(ApkSnapshot snapshot) {
+        Map<String, Long> sizes = new HashMap<>();
+        for (Map.Entry<String, Pair<Long, Long>> entry : snapshot.getFileSizes().entrySet()) {
+            sizes.put(entry.getKey(), entry.getValue().getSecond());
+        }
+        return sizes;
+    }
+
+    /*
+     *  the items whose value changed, in desc order of the change
+     */
+    private JsonArray diff(Map<String, ? extends Number> baselineMap, Map<String, ? extends Number> map, String valueName, long downLimit) {
+        TreeSet<String> names = new TreeSet<>(baselineMap.keySet());
+        names.addAll(map.keySet());
+        List<JsonObject> items = new ArrayList<>();
+        for (String name : names) {
+            long baselineValue = baselineMap.containsKey(name) ? baselineMap.get(name).longValue() : 0;
+            long value = map.containsKey(name) ? map.get(name).longValue() : 0;
+            long delta = value - baselineValue;
+            if (delta != 0 && Math.abs(delta) >= downLimit) {
+                JsonObject item = new JsonObject();
+                item.addProperty("name", name);
+                item.addProperty("baseline-" + valueName, baselineValue);
+                item.addProperty(valueName, value);
+                item.addProperty("delta", delta);
+                items.add(item);
+            }
+        }
+        Collections.sort(items, new Comparator<JsonObject>() {
+            @Override
+            public int compare(JsonObject item1, JsonObject item2) {
+                return Long.compare(item2.get("delta").getAsLong(), item1.get("delta").getAsLong());
+            }
+        });
+        JsonArray jsonArray = new JsonArray();
+        for (JsonObject item : items) {
+            jsonArray.add(item);
+        }
+        return jsonArray;
+    }
+
+    private long sumOfValue(Map<String, ? extends Number> map) {
+        long sum = 0;
+        for (Number value : map.values()) {
+            sum += value.longValue();
+        }
+        return sum;
+    }
+
+    @Override
+    public TaskResult call() throws TaskExecuteException {
+        try {
+            TaskResult taskResult = TaskResultFactory.factory(type, TaskResultFactory.TASK_RESULT_TYPE_JSON, config);
+            if (taskResult == null) {
+                return null;
+            }
+            long startTime = System.currentTimeMillis();
+            ApkSnapshot snapshot = getSnapshot();
+            ((TaskJsonResult) taskResult).add("apk-hash", snapshot.getApkHash());
+            ((TaskJsonResult) taskResult).add("apk-size", snapshot.getApkSize());
+
+            if (!Util.isNullOrNil(baseline)) {
+                ApkSnapshot baselineSnapshot = getBaselineSnapshot(snapshot.getKey());
+                ((TaskJsonResult) taskResult).add("baseline-apk-hash", baselineSnapshot.getApkHash());
+                ((TaskJsonResult) taskResult).add("baseline-apk-size", baselineSnapshot.getApkSize());
+                ((TaskJsonResult) taskResult).add("apk-size-delta", snapshot.getApkSize() - baselineSnapshot.getApkSize());
+
+                ((TaskJsonResult) taskResult).add("methods-delta", sumOfValue(snapshot.getPackageMethods()) - sumOfValue(baselineSnapshot.getPackageMethods()));
+                ((TaskJsonResult) taskResult).add("resources-delta", snapshot.getResourceConfigs().size() - baselineSnapshot.getResourceConfigs().size());
+                ((TaskJsonResult) taskResult).add("R-fields-delta", sumOfValue(snapshot.getRClassFields()) - sumOfValue(baselineSnapshot.getRClassFields()));
+
+                ((TaskJsonResult) taskResult).add("files", diff(getCompressedSizes(baselineSnapshot), getCompressedSizes(snapshot), "entry-size", downLimitSize));
+                ((TaskJsonResult) taskResult).add("packages", diff(baselineSnapshot.getPackageMethods(), snapshot.getPackageMethods(), "methods", 0));
+                ((TaskJsonResult) taskResult).add("resources", diff(baselineSnapshot.getResourceConfigs(), snapshot.getResourceConfigs(), "configs", 0));
+                ((TaskJsonResult) taskResult).add("R-classes", diff(baselineSnapshot.getRClassFields(), snapshot.getRClassFields(), "field-count", 0));
+            }
+            taskResult.setStartTime(startTime);
+            taskResult.setEndTime(System.currentTimeMillis());
+            return taskResult;
+        } catch (Exception e) {
+            throw new TaskExecuteException(e.getMessage(), e);
+        }
+    }
+}
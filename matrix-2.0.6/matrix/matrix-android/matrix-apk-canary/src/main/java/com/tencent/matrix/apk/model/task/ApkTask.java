@@ -35,26 +35,47 @@ public abstract class ApkTask implements Callable<TaskResult> {
 
     private static final String TAG = "Matrix.ApkTask";
 
+    /*
+     *  inputs a task reads from the apk, it is started as soon as all of them are ready.
+     *  the dex files and the entries are read from the apk archive, the others from the unzip tree.
+     */
+    public static final int INPUT_MANIFEST = 1;
+    public static final int INPUT_ARSC = 1 << 1;
+    public static final int INPUT_DEX = 1 << 2;
+    public static final int INPUT_APK_ENTRIES = 1 << 3;
+    public static final int INPUT_UNZIP_TREE = INPUT_MANIFEST | INPUT_ARSC | INPUT_DEX | INPUT_APK_ENTRIES | 1 << 4;
+
     protected int type;
+    protected int inputs = INPUT_UNZIP_TREE;
     protected JobConfig config;
     protected Map<String, String> params;
     protected List<ApkTaskProgressListener> progressListeners;
+    protected List<ApkTaskInputListener> inputListeners;
 
     public interface ApkTaskProgressListener {
         void getProgress(int progress, String message);
     }
 
+    public interface ApkTaskInputListener {
+        void onInputReady(int inputs) throws TaskInitException;
+    }
+
 
     public ApkTask(JobConfig config, Map<String, String> params) {
         this.params = params;
         this.config = config;
         progressListeners = new LinkedList<>();
+        inputListeners = new LinkedList<>();
     }
 
     public int getType() {
         return type;
     }
 
+    public int getInputs() {
+        return inputs;
+    }
+
     public void init() throws TaskInitException {
         if (config == null) {
             throw new TaskInitException(TAG + "---jobConfig can not be null!");
@@ -83,6 +104,24 @@ public abstract class ApkTask implements Callable<TaskResult> {
         }
     }
 
+    public void addInputListener(ApkTaskInputListener listener) {
+        if (listener != null) {
+            inputListeners.add(listener);
+        }
+    }
+
+    public void removeInputListener(ApkTaskInputListener listener) {
+        if (listener != null) {
+            inputListeners.remove(listener);
+        }
+    }
+
+    protected void notifyInputReady(int inputs) throws TaskInitException {
+        for (ApkTaskInputListener listener : inputListeners) {
+            listener.onInputReady(inputs);
+        }
+    }
+
     @Override
     public abstract TaskResult call() throws TaskExecuteException;
 }
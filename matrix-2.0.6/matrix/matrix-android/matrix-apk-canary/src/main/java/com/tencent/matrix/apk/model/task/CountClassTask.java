@@ -18,7 +18,6 @@
 package com.tencent.matrix.apk.model.task;
 
 import com.android.dexdeps.ClassRef;
-import com.android.dexdeps.DexData;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.tencent.matrix.apk.model.exception.TaskExecuteException;
@@ -28,14 +27,12 @@ import com.tencent.matrix.apk.model.job.JobConstants;
 import com.tencent.matrix.apk.model.result.TaskJsonResult;
 import com.tencent.matrix.apk.model.result.TaskResult;
 import com.tencent.matrix.apk.model.result.TaskResultFactory;
-import com.tencent.matrix.apk.model.task.util.ApkConstants;
+import com.tencent.matrix.apk.model.task.util.ApkModel;
 import com.tencent.matrix.apk.model.task.util.ApkUtil;
 import com.tencent.matrix.javalib.util.Log;
 import com.tencent.matrix.javalib.util.Util;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -56,13 +53,12 @@ public class CountClassTask extends ApkTask {
     private File inputFile;
     private String group = JobConstants.GROUP_PACKAGE;
     private final List<String> dexFileNameList;
-    private final List<RandomAccessFile> dexFileList;
 
     public CountClassTask(JobConfig config, Map<String, String> params) {
         super(config, params);
         type = TASK_TYPE_COUNT_CLASS;
+        inputs = INPUT_DEX;
         dexFileNameList = new ArrayList<>();
-        dexFileList = new ArrayList<>();
     }
 
     @Override
@@ -84,20 +80,7 @@ public class CountClassTask extends ApkTask {
             throw new TaskInitException(TAG + "---APK-UNZIP-PATH '" + inputPath + "' is not directory!");
         }
 
-        File[] files = inputFile.listFiles();
-        try {
-            if (files != null) {
-                for (File file : files) {
-                    if (file.isFile() && file.getName().endsWith(ApkConstants.DEX_FILE_SUFFIX)) {
-                        dexFileNameList.add(file.getName());
-                        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
-                        dexFileList.add(randomAccessFile);
-                    }
-                }
-            }
-        } catch (FileNotFoundException e) {
-            throw new TaskInitException(e.getMessage(), e);
-        }
+        dexFileNameList.addAll(config.getApkModel().getDexFileNames());
 
         if (params.containsKey(JobConstants.PARAM_GROUP)) {
             if (JobConstants.GROUP_PACKAGE.equals(params.get(JobConstants.PARAM_GROUP))) {
@@ -117,12 +100,9 @@ public class CountClassTask extends ApkTask {
             Map<String, String> classProguardMap = config.getProguardClassMap();
             JsonArray dexFiles = new JsonArray();
 
-            for (int i = 0; i < dexFileList.size(); i++) {
-                RandomAccessFile dexFile = dexFileList.get(i);
-                DexData dexData = new DexData(dexFile);
-                dexData.load();
-                dexFile.close();
-                ClassRef[] defClassRefs = dexData.getInternalReferences();
+            for (int i = 0; i < dexFileNameList.size(); i++) {
+                ApkModel.DexTables dexTables = config.getApkModel().getDexTables(dexFileNameList.get(i));
+                ClassRef[] defClassRefs = dexTables.getInternalReferences();
                 Set<String> classNameSet = new HashSet<>();
                 for (ClassRef classRef : defClassRefs) {
                     String className = ApkUtil.getNormalClassName(classRef.getName());
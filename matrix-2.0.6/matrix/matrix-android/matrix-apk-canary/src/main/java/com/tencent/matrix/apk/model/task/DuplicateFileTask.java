@@ -24,21 +24,24 @@ import com.tencent.matrix.apk.model.job.JobConfig;
 import com.tencent.matrix.apk.model.result.TaskJsonResult;
 import com.tencent.matrix.apk.model.result.TaskResult;
 import com.tencent.matrix.apk.model.result.TaskResultFactory;
+import com.tencent.matrix.apk.model.task.util.ApkArchive;
 import com.android.utils.Pair;
+import com.tencent.matrix.javalib.util.Log;
 import com.tencent.matrix.javalib.util.Util;
 
-import java.io.BufferedInputStream;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * Created by jinqiuchen on 17/6/27.
@@ -48,7 +51,7 @@ public class DuplicateFileTask extends ApkTask {
 
     private static final String TAG = "Matrix.DuplicateFileTask";
 
-    private File inputFile;
+    private ApkArchive apkArchive;
     private Map<String, List<String>> md5Map;
     private List<Pair<String, Long>> fileSizeList;
     private Map<String, Pair<Long, Long>> entrySizeMap;
@@ -57,20 +60,15 @@ public class DuplicateFileTask extends ApkTask {
     public DuplicateFileTask(JobConfig config, Map<String, String> params) {
         super(config, params);
         type = TaskFactory.TASK_TYPE_DUPLICATE_FILE;
+        inputs = INPUT_APK_ENTRIES;
     }
 
     @Override
     public void init() throws TaskInitException {
         super.init();
-        String inputPath = config.getUnzipPath();
-        if (Util.isNullOrNil(inputPath)) {
-            throw new TaskInitException(TAG + "---APK-UNZIP-PATH can not be null!");
-        }
-        inputFile = new File(inputPath);
-        if (!inputFile.exists()) {
-            throw new TaskInitException(TAG + "---APK-UNZIP-PATH '" + inputPath + "'is not exists!");
-        } else if (!inputFile.isDirectory()) {
-            throw new TaskInitException(TAG + "---APK-UNZIP-PATH '" + inputPath + "' is not directory!");
+        apkArchive = config.getApkArchive();
+        if (apkArchive == null) {
+            throw new TaskInitException(TAG + "---APK-ARCHIVE can not be null!");
         }
         md5Map = new HashMap<>();
         fileSizeList = new ArrayList<>();
@@ -78,41 +76,127 @@ public class DuplicateFileTask extends ApkTask {
         entryNameMap = config.getEntryNameMap();
     }
 
-    private void computeMD5(File file) throws NoSuchAlgorithmException, IOException {
-        if (file != null) {
-            if (file.isDirectory()) {
-                File[] files = file.listFiles();
-                for (File resFile : files) {
-                    computeMD5(resFile);
+    /*
+     *  only the entries sharing the same size and crc with another one are read, as candidates
+     */
+    private void findDuplicateFiles() throws Exception {
+        Map<String, List<ApkArchive.Entry>> buckets = new LinkedHashMap<>();
+        for (ApkArchive.Entry entry : apkArchive.getEntries()) {
+            if (entry.isDirectory() || entry.getSize() == 0) {
+                continue;
+            }
+            String key = entry.getSize() + "-" + entry.getCrc();
+            List<ApkArchive.Entry> bucket = buckets.get(key);
+            if (bucket == null) {
+                bucket = new ArrayList<>(1);
+                buckets.put(key, bucket);
+            }
+            bucket.add(entry);
+        }
+        List<Callable<List<DuplicateGroup>>> bucketTasks = new ArrayList<>();
+        for (List<ApkArchive.Entry> bucket : buckets.values()) {
+            if (bucket.size() > 1) {
+                bucketTasks.add(new CompareBucketTask(apkArchive, bucket));
+            }
+        }
+        Log.i(TAG, "%d entries in %d buckets, %d buckets to compare", apkArchive.getEntries().size(), buckets.size(), bucketTasks.size());
+
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            for (Future<List<DuplicateGroup>> future : pool.invokeAll(bucketTasks)) {
+                for (DuplicateGroup group : future.get()) {
+                    addDuplicateGroup(group);
                 }
-            } else {
-                MessageDigest msgDigest = MessageDigest.getInstance("MD5");
-                BufferedInputStream inputStream = new BufferedInputStream(new FileInputStream(file));
-                byte[] buffer = new byte[512];
-                int readSize = 0;
-                long totalRead = 0;
-                while ((readSize = inputStream.read(buffer)) > 0) {
-                    msgDigest.update(buffer, 0, readSize);
-                    totalRead += readSize;
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void addDuplicateGroup(DuplicateGroup group) {
+        List<String> filenames = new ArrayList<>();
+        for (ApkArchive.Entry entry : group.entries) {
+            String filename = entry.getName();
+            if (entryNameMap.containsKey(filename)) {
+                filename = entryNameMap.get(filename);
+            }
+            filenames.add(filename);
+        }
+        md5Map.put(group.md5, filenames);
+        if (entrySizeMap.containsKey(filenames.get(0))) {
+            fileSizeList.add(Pair.of(group.md5, entrySizeMap.get(filenames.get(0)).getFirst()));
+        } else {
+            fileSizeList.add(Pair.of(group.md5, group.entries.get(0).getSize()));
+        }
+    }
+
+    private static final class DuplicateGroup {
+        private final String md5;
+        private final List<ApkArchive.Entry> entries;
+
+        DuplicateGroup(String md5, List<ApkArchive.Entry> entries) {
+            this.md5 = md5;
+            this.entries = entries;
+        }
+    }
+
+    /*
+     *  split a bucket by a fast hash of the content, and confirm the duplicates byte by byte
+     */
+    private static final class CompareBucketTask implements Callable<List<DuplicateGroup>> {
+        private final ApkArchive apkArchive;
+        private final List<ApkArchive.Entry> bucket;
+
+        CompareBucketTask(ApkArchive apkArchive, List<ApkArchive.Entry> bucket) {
+            this.apkArchive = apkArchive;
+            this.bucket = bucket;
+        }
+
+        @Override
+        public List<DuplicateGroup> call() throws Exception {
+            int count = bucket.size();
+            ByteBuffer[] data = new ByteBuffer[count];
+            long[] hashes = new long[count];
+            for (int i = 0; i < count; i++) {
+                data[i] = apkArchive.getData(bucket.get(i));
+                hashes[i] = hash(data[i]);
+            }
+            List<DuplicateGroup> groups = new ArrayList<>();
+            boolean[] grouped = new boolean[count];
+            for (int i = 0; i < count; i++) {
+                if (grouped[i]) {
+                    continue;
                 }
-                inputStream.close();
-                if (totalRead > 0) {
-                    final String md5 = Util.byteArrayToHex(msgDigest.digest());
-                    String filename = file.getAbsolutePath().substring(inputFile.getAbsolutePath().length() + 1);
-                    if (entryNameMap.containsKey(filename)) {
-                        filename = entryNameMap.get(filename);
-                    }
-                    if (!md5Map.containsKey(md5)) {
-                        md5Map.put(md5, new ArrayList<String>());
-                        if (entrySizeMap.containsKey(filename)) {
-                            fileSizeList.add(Pair.of(md5, entrySizeMap.get(filename).getFirst()));
-                        } else {
-                            fileSizeList.add(Pair.of(md5, totalRead));
+                List<ApkArchive.Entry> entries = null;
+                for (int j = i + 1; j < count; j++) {
+                    if (!grouped[j] && hashes[j] == hashes[i] && data[j].equals(data[i])) {
+                        if (entries == null) {
+                            entries = new ArrayList<>();
+                            entries.add(bucket.get(i));
                         }
+                        entries.add(bucket.get(j));
+                        grouped[j] = true;
                     }
-                    md5Map.get(md5).add(filename);
                 }
+                if (entries != null) {
+                    MessageDigest msgDigest = MessageDigest.getInstance("MD5");
+                    msgDigest.update(data[i].duplicate());
+                    groups.add(new DuplicateGroup(Util.byteArrayToHex(msgDigest.digest()), entries));
+                }
+            }
+            return groups;
+        }
+
+        private static long hash(ByteBuffer data) {
+            ByteBuffer buffer = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            long hash = 0x9E3779B97F4A7C15L ^ buffer.remaining();
+            while (buffer.remaining() >= 8) {
+                hash = Long.rotateLeft(hash ^ buffer.getLong() * 0xC2B2AE3D27D4EB4FL, 31) * 0x9E3779B97F4A7C15L;
+            }
+            while (buffer.hasRemaining()) {
+                hash = (hash ^ (buffer.get() & 0xFF)) * 0x100000001B3L;
             }
+            return hash ^ (hash >>> 33);
         }
     }
 
@@ -124,7 +208,7 @@ public class DuplicateFileTask extends ApkTask {
             long startTime = System.currentTimeMillis();
             JsonArray jsonArray = new JsonArray();
 
-            computeMD5(inputFile);
+            findDuplicateFiles();
 
             Collections.sort(fileSizeList, new Comparator<Pair<String, Long>>() {
                 @Override
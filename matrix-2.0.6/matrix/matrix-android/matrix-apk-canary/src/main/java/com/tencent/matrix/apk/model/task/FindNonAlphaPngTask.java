@@ -19,6 +19,7 @@ package com.tencent.matrix.apk.model.task;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.tencent.matrix.apk.model.task.util.ApkArchive;
 import com.tencent.matrix.apk.model.task.util.ApkConstants;
 import com.tencent.matrix.apk.model.exception.TaskExecuteException;
 import com.tencent.matrix.apk.model.exception.TaskInitException;
@@ -32,8 +33,8 @@ import com.tencent.matrix.javalib.util.Util;
 import com.android.utils.Pair;
 import java.awt.image.BufferedImage;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -52,7 +53,7 @@ public class FindNonAlphaPngTask extends ApkTask {
 
     private static final String TAG = "Matrix.FindNonAlphaPngTask";
 
-    private File inputFile;
+    private ApkArchive apkArchive;
     private List<Pair<String, Long>> nonAlphaPngList;
     private long downLimitSize;
     private Map<String, Pair<Long, Long>> entrySizeMap;
@@ -61,20 +62,15 @@ public class FindNonAlphaPngTask extends ApkTask {
     public FindNonAlphaPngTask(JobConfig config, Map<String, String> params) {
         super(config, params);
         type = TASK_TYPE_FIND_NON_ALPHA_PNG;
+        inputs = INPUT_APK_ENTRIES;
     }
 
     @Override
     public void init() throws TaskInitException {
         super.init();
-        String inputPath = config.getUnzipPath();
-        if (Util.isNullOrNil(inputPath)) {
-            throw new TaskInitException(TAG + "---APK-UNZIP-PATH can not be null!");
-        }
-        inputFile = new File(inputPath);
-        if (!inputFile.exists()) {
-            throw new TaskInitException(TAG + "---APK-UNZIP-PATH '" + inputPath + "'is not exists!");
-        } else if (!inputFile.isDirectory()) {
-            throw new TaskInitException(TAG + "---APK-UNZIP-PATH '" + inputPath + "' is not directory!");
+        apkArchive = config.getApkArchive();
+        if (apkArchive == null) {
+            throw new TaskInitException(TAG + "---APK-ARCHIVE can not be null!");
         }
         if (params.containsKey(JobConstants.PARAM_MIN_SIZE_IN_KB)) {
             try {
@@ -88,46 +84,53 @@ public class FindNonAlphaPngTask extends ApkTask {
         entryNameMap = config.getEntryNameMap();
     }
 
-    private void findNonAlphaPng(File file) throws IOException {
-        if (file != null) {
-            if (file.isDirectory()) {
-                File[] files = file.listFiles();
-                for (File tempFile : files) {
-                    findNonAlphaPng(tempFile);
+    private void findNonAlphaPng(String resDirPrefix) throws IOException {
+        for (ApkArchive.Entry entry : apkArchive.getEntries()) {
+            String name = entry.getName();
+            if (name.startsWith(resDirPrefix) && name.endsWith(ApkConstants.PNG_FILE_SUFFIX) && !name.endsWith(ApkConstants.NINE_PNG)) {
+                BufferedImage bufferedImage;
+                InputStream inputStream = apkArchive.openStream(entry);
+                try {
+                    bufferedImage = ImageIO.read(inputStream);
+                } finally {
+                    inputStream.close();
                 }
-            } else if (file.isFile() && file.getName().endsWith(ApkConstants.PNG_FILE_SUFFIX) && !file.getName().endsWith(ApkConstants.NINE_PNG)) {
-                BufferedImage bufferedImage = ImageIO.read(file);
                 if (bufferedImage != null && bufferedImage.getColorModel() != null && !bufferedImage.getColorModel().hasAlpha()) {
-                    String filename = file.getAbsolutePath().substring(inputFile.getAbsolutePath().length() + 1);
+                    String filename = name;
                     if (entryNameMap.containsKey(filename)) {
                         filename = entryNameMap.get(filename);
                     }
-                    long size = file.length();
+                    long size = entry.getSize();
                     if (entrySizeMap.containsKey(filename)) {
                         size = entrySizeMap.get(filename).getFirst();
                     }
                     if (size >= downLimitSize * ApkConstants.K1024) {
-                        nonAlphaPngList.add(Pair.of(filename, file.length()));
+                        nonAlphaPngList.add(Pair.of(filename, entry.getSize()));
                     }
                 }
             }
         }
     }
 
+    private boolean hasDirectory(String dirPrefix) {
+        for (ApkArchive.Entry entry : apkArchive.getEntries()) {
+            if (entry.getName().startsWith(dirPrefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     public TaskResult call() throws TaskExecuteException {
-        File resDir = new File(inputFile, ApkConstants.RESOURCE_DIR_PROGUARD_NAME);
         TaskResult taskResult = null;
         try {
             taskResult = TaskResultFactory.factory(getType(), TaskResultFactory.TASK_RESULT_TYPE_JSON, config);
             long startTime = System.currentTimeMillis();
-            if (resDir.exists() && resDir.isDirectory()) {
-                findNonAlphaPng(resDir);
+            if (hasDirectory(ApkConstants.RESOURCE_DIR_PROGUARD_NAME + "/")) {
+                findNonAlphaPng(ApkConstants.RESOURCE_DIR_PROGUARD_NAME + "/");
             } else {
-                resDir = new File(inputFile, ApkConstants.RESOURCE_DIR_NAME);
-                if (resDir.exists() && resDir.isDirectory()) {
-                    findNonAlphaPng(resDir);
-                }
+                findNonAlphaPng(ApkConstants.RESOURCE_DIR_NAME + "/");
             }
 
             Collections.sort(nonAlphaPngList, new Comparator<Pair<String, Long>>() {
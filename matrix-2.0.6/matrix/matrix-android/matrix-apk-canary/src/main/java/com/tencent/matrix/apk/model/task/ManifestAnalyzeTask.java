@@ -49,6 +49,7 @@ public class ManifestAnalyzeTask extends ApkTask {
     public ManifestAnalyzeTask(JobConfig config, Map<String, String> params) {
         super(config, params);
         type = TASK_TYPE_MANIFEST;
+        inputs = INPUT_MANIFEST | INPUT_ARSC;
     }
 
     @Override
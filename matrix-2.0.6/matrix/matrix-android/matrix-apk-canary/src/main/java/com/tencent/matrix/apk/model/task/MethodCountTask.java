@@ -17,11 +17,9 @@
 package com.tencent.matrix.apk.model.task;
 
 import com.android.dexdeps.ClassRef;
-import com.android.dexdeps.DexData;
 import com.android.dexdeps.MethodRef;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
-import com.tencent.matrix.apk.model.task.util.ApkConstants;
 import com.tencent.matrix.apk.model.exception.TaskExecuteException;
 import com.tencent.matrix.apk.model.exception.TaskInitException;
 import com.tencent.matrix.apk.model.job.JobConfig;
@@ -29,14 +27,12 @@ import com.tencent.matrix.apk.model.job.JobConstants;
 import com.tencent.matrix.apk.model.result.TaskJsonResult;
 import com.tencent.matrix.apk.model.result.TaskResult;
 import com.tencent.matrix.apk.model.result.TaskResultFactory;
+import com.tencent.matrix.apk.model.task.util.ApkModel;
 import com.tencent.matrix.apk.model.task.util.ApkUtil;
 import com.tencent.matrix.javalib.util.Log;
 import com.tencent.matrix.javalib.util.Util;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -60,7 +56,6 @@ public class MethodCountTask extends ApkTask {
     private File inputFile;
     private String group = JobConstants.GROUP_PACKAGE;
     private final List<String>           dexFileNameList;
-    private final List<RandomAccessFile> dexFileList;
     private final Map<String, Integer> classInternalMethod;
     private final Map<String, Integer> classExternalMethod;
     private final Map<String, Integer> pkgInternalRefMethod;
@@ -69,8 +64,8 @@ public class MethodCountTask extends ApkTask {
     public MethodCountTask(JobConfig config, Map<String, String> params) {
         super(config, params);
         type = TASK_TYPE_COUNT_METHOD;
+        inputs = INPUT_DEX;
         dexFileNameList = new ArrayList<String>();
-        dexFileList = new ArrayList<RandomAccessFile>();
         classInternalMethod = new HashMap<String, Integer>();
         classExternalMethod = new HashMap<String, Integer>();
         pkgInternalRefMethod = new HashMap<String, Integer>();
@@ -91,20 +86,7 @@ public class MethodCountTask extends ApkTask {
         } else if (!inputFile.isDirectory()) {
             throw new TaskInitException(TAG + "---APK-UNZIP-PATH '" + inputPath + "' is not directory!");
         }
-        File[] files = inputFile.listFiles();
-        try {
-            if (files != null) {
-                for (File file : files) {
-                    if (file.isFile() && file.getName().endsWith(ApkConstants.DEX_FILE_SUFFIX)) {
-                        dexFileNameList.add(file.getName());
-                        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
-                        dexFileList.add(randomAccessFile);
-                    }
-                }
-            }
-        } catch (FileNotFoundException e) {
-            throw new TaskInitException(e.getMessage(), e);
-        }
+        dexFileNameList.addAll(config.getApkModel().getDexFileNames());
         if (params.containsKey(JobConstants.PARAM_GROUP)) {
             if (JobConstants.GROUP_PACKAGE.equals(params.get(JobConstants.PARAM_GROUP))) {
                 group = JobConstants.GROUP_PACKAGE;
@@ -116,15 +98,13 @@ public class MethodCountTask extends ApkTask {
         }
     }
 
-    private void countDex(RandomAccessFile dexFile) throws IOException {
+    private void countDex(ApkModel.DexTables dexTables) {
         classInternalMethod.clear();
         classExternalMethod.clear();
         pkgInternalRefMethod.clear();
         pkgExternalMethod.clear();
-        DexData dexData = new DexData(dexFile);
-        dexData.load();
-        MethodRef[] methodRefs = dexData.getMethodRefs();
-        ClassRef[] externalClassRefs = dexData.getExternalReferences();
+        MethodRef[] methodRefs = dexTables.getMethodRefs();
+        ClassRef[] externalClassRefs = dexTables.getExternalReferences();
         Map<String, String> proguardClassMap = config.getProguardClassMap();
         String className = null;
         for (ClassRef classRef : externalClassRefs) {
@@ -201,10 +181,8 @@ public class MethodCountTask extends ApkTask {
             }
             long startTime = System.currentTimeMillis();
             JsonArray jsonArray = new JsonArray();
-            for (int i = 0; i < dexFileList.size(); i++) {
-                RandomAccessFile dexFile = dexFileList.get(i);
-                countDex(dexFile);
-                dexFile.close();
+            for (int i = 0; i < dexFileNameList.size(); i++) {
+                countDex(config.getApkModel().getDexTables(dexFileNameList.get(i)));
                 int totalInternalMethods = sumOfValue(classInternalMethod);
                 int totalExternalMethods = sumOfValue(classExternalMethod);
                 JsonObject jsonObject = new JsonObject();
@@ -23,11 +23,12 @@ import com.tencent.matrix.apk.model.job.JobConfig;
 import com.tencent.matrix.apk.model.result.TaskJsonResult;
 import com.tencent.matrix.apk.model.result.TaskResult;
 import com.tencent.matrix.apk.model.result.TaskResultFactory;
+import com.tencent.matrix.apk.model.task.util.ApkArchive;
 import com.tencent.matrix.javalib.util.Log;
-import com.tencent.matrix.javalib.util.Util;
 
-import java.io.File;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 
 import static com.tencent.matrix.apk.model.result.TaskResultFactory.TASK_RESULT_TYPE_JSON;
 import static com.tencent.matrix.apk.model.task.TaskFactory.TASK_TYPE_CHECK_MULTILIB;
@@ -40,22 +41,22 @@ public class MultiLibCheckTask extends ApkTask {
 
     private static final String TAG = "Matrix.MultiLibCheckTask";
 
-    private File libDir;
+    private static final String LIB_DIR_PREFIX = "lib/";
+
+    private ApkArchive apkArchive;
 
     public MultiLibCheckTask(JobConfig jobConfig, Map<String, String> params) {
         super(jobConfig, params);
         type = TASK_TYPE_CHECK_MULTILIB;
+        inputs = INPUT_APK_ENTRIES;
     }
 
     @Override
     public void init() throws TaskInitException {
         super.init();
-        String inputPath = config.getUnzipPath();
-        if (!Util.isNullOrNil(inputPath)) {
-            Log.i(TAG, "inputPath:%s", inputPath);
-            libDir = new File(inputPath, "lib");
-        } else {
-            throw new TaskInitException(TAG + "---APK-UNZIP-PATH can not be null!");
+        apkArchive = config.getApkArchive();
+        if (apkArchive == null) {
+            throw new TaskInitException(TAG + "---APK-ARCHIVE can not be null!");
         }
     }
 
@@ -68,14 +69,18 @@ public class MultiLibCheckTask extends ApkTask {
             }
             long startTime = System.currentTimeMillis();
             JsonArray jsonArray = new JsonArray();
-            if (libDir.exists() && libDir.isDirectory()) {
-                File[] dirs = libDir.listFiles();
-                for (File dir : dirs) {
-                    if (dir.isDirectory()) {
-                        jsonArray.add(dir.getName());
-                    }
+            Set<String> libDirs = new LinkedHashSet<>();
+            for (ApkArchive.Entry entry : apkArchive.getEntries()) {
+                String name = entry.getName();
+                int index = name.indexOf('/', LIB_DIR_PREFIX.length());
+                if (name.startsWith(LIB_DIR_PREFIX) && index > LIB_DIR_PREFIX.length()) {
+                    libDirs.add(name.substring(LIB_DIR_PREFIX.length(), index));
                 }
             }
+            for (String dir : libDirs) {
+                Log.i(TAG, "find lib dir %s", dir);
+                jsonArray.add(dir);
+            }
             ((TaskJsonResult) taskResult).add("lib-dirs", jsonArray);
             if (jsonArray.size() > 1) {
                 ((TaskJsonResult) taskResult).add("multi-lib", true);
@@ -60,6 +60,7 @@ public class ShowFileSizeTask extends ApkTask {
     public ShowFileSizeTask(JobConfig jobConfig, Map<String, String> params) {
         super(jobConfig, params);
         type = TASK_TYPE_SHOW_FILE_SIZE;
+        inputs = INPUT_APK_ENTRIES;
     }
 
     @Override
@@ -48,6 +48,7 @@ public final class TaskFactory {
     public static final int TASK_TYPE_UNUSED_ASSETS = 13;
     public static final int TASK_TYPE_UNSTRIPPED_SO = 14;
     public static final int TASK_TYPE_COUNT_CLASS = 15;
+    public static final int TASK_TYPE_DIFF = 16;
 
     public static final List<String> TaskDescription = Collections.unmodifiableList(Arrays.asList(
             "Useless Task for default task type.",
@@ -65,7 +66,8 @@ public final class TaskFactory {
             "Find out the unused resources.",
             "Find out the unused assets.",
             "Find out the unstripped shared library files.",
-            "Count classes in dex file, output results group by package name."));
+            "Count classes in dex file, output results group by package name.",
+            "Compare with the apk of a baseline build."));
 
 
 
@@ -84,7 +86,8 @@ public final class TaskFactory {
             JobConstants.OPTION_UNUSED_RESOURCES,
             JobConstants.OPTION_UNUSED_ASSETS,
             JobConstants.OPTION_UNSTRIPPED_SO,
-            JobConstants.OPTION_COUNT_CLASS
+            JobConstants.OPTION_COUNT_CLASS,
+            JobConstants.OPTION_DIFF
     ));
 
 
@@ -136,6 +139,9 @@ public final class TaskFactory {
             case TASK_TYPE_COUNT_CLASS:
                 task = new CountClassTask(config, params);
                 break;
+            case TASK_TYPE_DIFF:
+                task = new ApkDiffTask(config, params);
+                break;
             default:
                 break;
         }
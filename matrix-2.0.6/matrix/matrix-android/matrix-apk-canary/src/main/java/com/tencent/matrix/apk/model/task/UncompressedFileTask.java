@@ -55,6 +55,7 @@ public class UncompressedFileTask extends ApkTask {
     public UncompressedFileTask(JobConfig config, Map<String, String> params) {
         super(config, params);
         type = TASK_TYPE_UNCOMPRESSED_FILE;
+        inputs = INPUT_APK_ENTRIES;
     }
 
     @Override
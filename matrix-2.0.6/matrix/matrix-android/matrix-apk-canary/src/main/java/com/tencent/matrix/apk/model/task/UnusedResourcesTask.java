@@ -17,7 +17,6 @@
 package com.tencent.matrix.apk.model.task;
 
 
-import com.google.common.collect.Ordering;
 import com.google.gson.JsonArray;
 import com.tencent.matrix.apk.model.task.util.ApkConstants;
 import com.tencent.matrix.apk.model.exception.TaskExecuteException;
@@ -27,26 +26,21 @@ import com.tencent.matrix.apk.model.job.JobConstants;
 import com.tencent.matrix.apk.model.result.TaskJsonResult;
 import com.tencent.matrix.apk.model.result.TaskResult;
 import com.tencent.matrix.apk.model.result.TaskResultFactory;
+import com.tencent.matrix.apk.model.task.util.ApkModel;
+import com.tencent.matrix.apk.model.task.util.IntHashSet;
 import com.tencent.matrix.apk.model.task.util.ApkResourceDecoder;
 import com.tencent.matrix.apk.model.task.util.ApkUtil;
 import com.tencent.matrix.javalib.util.FileUtil;
 import com.tencent.matrix.javalib.util.Log;
 import com.tencent.matrix.javalib.util.Util;
-import org.jf.baksmali.BaksmaliOptions;
-import org.jf.dexlib2.DexFileFactory;
-import org.jf.dexlib2.Opcodes;
-import org.jf.dexlib2.dexbacked.DexBackedDexFile;
-import org.jf.dexlib2.iface.ClassDef;
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
@@ -66,7 +60,6 @@ public class UnusedResourcesTask extends ApkTask {
     private File resourceTxt;
     private File mappingTxt;
     private File resMappingTxt;
-    private final List<String> dexFileNameList;
     private final Map<String, String> rclassProguardMap;
     private final Map<String, String> resourceDefMap;
     private final Map<String, Set<String>> styleableMap;
@@ -79,7 +72,6 @@ public class UnusedResourcesTask extends ApkTask {
     public UnusedResourcesTask(JobConfig config, Map<String, String> params) {
         super(config, params);
         type = TaskFactory.TASK_TYPE_UNUSED_RESOURCES;
-        dexFileNameList = new ArrayList<>();
         ignoreSet = new HashSet<>();
         rclassProguardMap = new HashMap<>();
         resourceDefMap = new HashMap<>();
@@ -130,15 +122,6 @@ public class UnusedResourcesTask extends ApkTask {
             }
         }
 
-        File[] files = inputFile.listFiles();
-        if (files != null) {
-            for (File file : files) {
-                if (file.isFile() && file.getName().endsWith(ApkConstants.DEX_FILE_SUFFIX)) {
-                    dexFileNameList.add(file.getName());
-                }
-            }
-        }
-
     }
 
     private String parseResourceId(String resId) {
@@ -271,95 +254,38 @@ public class UnusedResourcesTask extends ApkTask {
         }
     }
 
-    private void decodeCode() throws IOException {
-        for (String dexFileName : dexFileNameList) {
-            DexBackedDexFile dexFile = DexFileFactory.loadDexFile(new File(inputFile, dexFileName), Opcodes.forApi(15));
-
-            BaksmaliOptions options = new BaksmaliOptions();
-            List<? extends ClassDef> classDefs = Ordering.natural().sortedCopy(dexFile.getClasses());
-
-            for (ClassDef classDef : classDefs) {
-                String[] lines = ApkUtil.disassembleClass(classDef, options);
-                if (lines != null) {
-                    readSmaliLines(lines);
-                }
-            }
-
-        }
-    }
-
     /*
+        Resources referenced by the code:
 
-        1. const
+        1. const literals and array-data of resource ids
 
         const v6, 0x7f0c0061
 
-        2. sget
+        2. sget of R fields
 
         sget v6, Lcom/tencent/mm/R$string;->chatting_long_click_menu_revoke_msg:I
         sget v1, Lcom/tencent/mm/libmmui/R$id;->property_anim:I
 
-        3. sput
-
-        sput-object v0, Lcom/tencent/mm/plugin_welab_api/R$styleable;->ActionBar:[I   //define resource in R.java
-
-        4. array-data
-
-        :array_0
-        .array-data 4
-            0x7f0a0022
-            0x7f0a0023
-        .end array-data
-
     */
-
-    private void readSmaliLines(String[] lines) {
-        if (lines == null) {
-            return;
+    private void decodeCode() throws IOException {
+        ApkModel.CodeIndex codeIndex = config.getApkModel().getCodeIndex();
+        IntHashSet literals = codeIndex.getLiterals();
+        for (Map.Entry<String, String> entry : resourceDefMap.entrySet()) {
+            if (literals.contains((int) Long.parseLong(entry.getKey().substring(2), 16))) {
+                resourceRefSet.add(entry.getValue());
+            }
         }
-        boolean arrayData = false;
-        for (String line : lines) {
-            line = line.trim();
-            if (!Util.isNullOrNil(line)) {
-                if (line.startsWith("const")) {
-                    String[] columns = line.split(" ");
-                    if (columns.length >= 3) {
-                        final String resId = parseResourceId(columns[2].trim());
-                        if (!Util.isNullOrNil(resId) && resourceDefMap.containsKey(resId)) {
-                            resourceRefSet.add(resourceDefMap.get(resId));
-                        }
-                    }
-                } else if (line.startsWith("sget")) {
-                    String[] columns = line.split(" ");
-                    if (columns.length >= 3) {
-                        final String resourceRef = parseResourceNameFromProguard(columns[2].trim());
-                        if (!Util.isNullOrNil(resourceRef)) {
-                            Log.d(TAG, "find resource reference %s", resourceRef);
-                            if (styleableMap.containsKey(resourceRef)) {
-                                //reference of R.styleable.XXX
-                                for (String attr : styleableMap.get(resourceRef)) {
-                                    resourceRefSet.add(resourceDefMap.get(attr));
-                                }
-                            } else {
-                                resourceRefSet.add(resourceRef);
-                            }
-                        }
-                    }
-                } else if (line.startsWith(".array-data 4")) {
-                    arrayData = true;
-                } else if (line.startsWith(".end array-data")) {
-                    arrayData = false;
-                } else  {
-                    if (arrayData) {
-                        String[] columns = line.split(" ");
-                        if (columns.length > 0) {
-                            final String resId = parseResourceId(columns[0].trim());
-                            if (!Util.isNullOrNil(resId) && resourceDefMap.containsKey(resId)) {
-                                Log.d(TAG, "array field resource, %s", resId);
-                                resourceRefSet.add(resourceDefMap.get(resId));
-                            }
-                        }
+        for (String fieldRef : codeIndex.getStaticFieldRefs()) {
+            final String resourceRef = parseResourceNameFromProguard(fieldRef);
+            if (!Util.isNullOrNil(resourceRef)) {
+                Log.d(TAG, "find resource reference %s", resourceRef);
+                if (styleableMap.containsKey(resourceRef)) {
+                    //reference of R.styleable.XXX
+                    for (String attr : styleableMap.get(resourceRef)) {
+                        resourceRefSet.add(resourceDefMap.get(attr));
                     }
+                } else {
+                    resourceRefSet.add(resourceRef);
                 }
             }
         }
@@ -24,6 +24,9 @@ import com.tencent.matrix.apk.model.job.JobConfig;
 import com.tencent.matrix.apk.model.result.TaskJsonResult;
 import com.tencent.matrix.apk.model.result.TaskResult;
 import com.tencent.matrix.apk.model.result.TaskResultFactory;
+import com.tencent.matrix.apk.model.task.util.ApkArchive;
+import com.tencent.matrix.apk.model.task.util.ApkConstants;
+import com.tencent.matrix.apk.model.task.util.ApkMapping;
 import com.android.utils.Pair;
 import com.tencent.matrix.javalib.util.FileUtil;
 import com.tencent.matrix.javalib.util.Log;
@@ -32,17 +35,13 @@ import com.tencent.matrix.javalib.util.Util;
 import org.apache.commons.io.FileUtils;
 
 import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 import static com.tencent.matrix.apk.model.result.TaskResultFactory.TASK_RESULT_TYPE_JSON;
 import static com.tencent.matrix.apk.model.task.TaskFactory.TASK_TYPE_UNZIP;
 
@@ -59,18 +58,12 @@ public class UnzipTask extends ApkTask {
     private File outputFile;
     private File mappingTxt;
     private File resMappingTxt;
-    private final Map<String, String> proguardClassMap;
-    private final Map<String, String> resguardMap;
-    private final Map<String, String> resDirMap;
     private final Map<String, String> entryNameMap;
     private final Map<String, Pair<Long, Long>> entrySizeMap;
 
     public UnzipTask(JobConfig config, Map<String, String> params) {
         super(config, params);
         type = TASK_TYPE_UNZIP;
-        proguardClassMap = new HashMap<>();
-        resguardMap = new HashMap<>();
-        resDirMap = new HashMap<>();
         entryNameMap = new HashMap<>();
         entrySizeMap = new HashMap<>();
     }
@@ -107,173 +100,31 @@ public class UnzipTask extends ApkTask {
         }
     }
 
-    private void readMappingTxtFile() throws IOException {
-        if (mappingTxt != null) {
-            BufferedReader bufferedReader = new BufferedReader(new FileReader(mappingTxt));
-            String line = bufferedReader.readLine();
-            String beforeClass = "", afterClass = "";
-            try {
-                while (line != null) {
-                    if (!line.startsWith(" ")) {
-                        String[] pair = line.split("->");
-                        if (pair.length == 2) {
-                            beforeClass = pair[0].trim();
-                            afterClass = pair[1].trim();
-                            afterClass = afterClass.substring(0, afterClass.length() - 1);
-                            if (!Util.isNullOrNil(beforeClass) && !Util.isNullOrNil(afterClass)) {
-                                Log.d(TAG, "before:%s,after:%s", beforeClass, afterClass);
-                                proguardClassMap.put(afterClass, beforeClass);
-                            }
-                        }
-                    }
-                    line = bufferedReader.readLine();
-                }
-            } finally {
-                bufferedReader.close();
-            }
-        }
-    }
-
-    private String parseResourceNameFromResguard(String resName) {
-        if (!Util.isNullOrNil(resName)) {
-            int index = resName.indexOf('R');
-            if (index >= 0) {
-                return resName.substring(index);
-            }
-        }
-        return "";
-    }
-
-
-    private void readResMappingTxtFile() throws IOException {
-        if (resMappingTxt != null) {
-            BufferedReader bufferedReader = new BufferedReader(new FileReader(resMappingTxt));
-            try {
-                String line = bufferedReader.readLine();
-                boolean readResStart = false;
-                boolean readPathStart = false;
-                while (line != null) {
-                    if (line.trim().equals("res path mapping:")) {
-                      readPathStart = true;
-                    } else if (line.trim().equals("res id mapping:")) {
-                        readResStart = true;
-                        readPathStart = false;
-                    } else if (readPathStart) {
-                        String[] columns = line.split("->");
-                        if (columns.length == 2) {
-                            String before = columns[0].trim();
-                            String after = columns[1].trim();
-                            if (!Util.isNullOrNil(before) && !Util.isNullOrNil(after)) {
-                                Log.d(TAG, "%s->%s", before, after);
-                                resDirMap.put(after, before);
-                            }
-                        }
-                    } else if (readResStart) {
-                        String[] columns = line.split("->");
-                        if (columns.length == 2) {
-                            String before = parseResourceNameFromResguard(columns[0].trim());
-                            String after = parseResourceNameFromResguard(columns[1].trim());
-                            if (!Util.isNullOrNil(before) && !Util.isNullOrNil(after)) {
-                                Log.d(TAG, "%s->%s", before, after);
-                                resguardMap.put(after, before);
-                            }
-                        }
-                    }
-                    line = bufferedReader.readLine();
-                }
-            } finally {
-                bufferedReader.close();
-            }
-        }
-    }
-
-    private String parseResourceNameFromPath(String dir, String filename) {
-        if (Util.isNullOrNil(dir) || Util.isNullOrNil(filename)) {
-            return "";
-        }
-
-        String type = dir.substring(dir.indexOf('/') + 1);
-        int index = type.indexOf('-');
-        if (index >= 0) {
-            type = type.substring(0, index);
+    private void writeEntry(ApkArchive apkArchive, ApkArchive.Entry entry) throws IOException {
+        String entryName = entry.getName();
+        if (entry.isDirectory() || Util.preventZipSlip(outputFile, entryName)) {
+            return;
         }
-        index = filename.indexOf('.');
-        if (index >= 0) {
-            filename = filename.substring(0, index);
+        File file = new File(outputFile, entryName);
+        File dir = file.getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.e(TAG, "%s mkdirs failed!", dir.getAbsolutePath());
+            return;
         }
-        return "R." + type + "." + filename;
-    }
-
-    private String reverseResguard(String dirName, String filename) {
-        String outEntryName = "";
-        if (resDirMap.containsKey(dirName)) {
-            String newDirName = resDirMap.get(dirName);
-            final String resource = parseResourceNameFromPath(newDirName, filename);
-            int suffixIndex = filename.indexOf('.');
-            String suffix = "";
-            if (suffixIndex >= 0) {
-                suffix = filename.substring(suffixIndex);
-            }
-            if (resguardMap.containsKey(resource)) {
-                int lastIndex =  resguardMap.get(resource).lastIndexOf('.');
-                if (lastIndex >= 0) {
-                    filename = resguardMap.get(resource).substring(lastIndex + 1) + suffix;
-                }
-            }
-            outEntryName = newDirName + "/" + filename;
-        }
-        return outEntryName;
-    }
-
-    private String writeEntry(ZipFile zipFile, ZipEntry entry) throws IOException {
-
-        String entryName = entry.getName();
-        if (Util.preventZipSlip(outputFile, entryName)) {
-            Log.e(TAG, "writeEntry entry %s failed!", entryName);
-            return null;
+        if (!file.createNewFile()) {
+            Log.e(TAG, "create file %s failed!", file.getAbsolutePath());
+            return;
         }
 
         int readSize;
         byte[] readBuffer = new byte[4096];
         BufferedOutputStream bufferedOutput = null;
         InputStream zipInputStream = null;
-        String outEntryName = null;
-        String filename;
-        File dir;
-        File file = null;
-        int index = entryName.lastIndexOf('/');
-        if (index >= 0) {
-            filename = entryName.substring(index + 1);
-            String dirName = entryName.substring(0, index);
-            dir = new File(outputFile, dirName);
-            if (!dir.exists() && !dir.mkdirs()) {
-                Log.e(TAG, "%s mkdirs failed!", dir.getAbsolutePath());
-                return null;
-            }
-            if (!Util.isNullOrNil(filename)) {
-                file = new File(dir, filename);
-                outEntryName = reverseResguard(dirName, filename);
-                if (Util.isNullOrNil(outEntryName)) {
-                    outEntryName = entryName;
-                }
-            }
-        } else {
-            file = new File(outputFile, entryName);
-            outEntryName = entryName;
-        }
         try {
-            if (file != null) {
-                if (!file.createNewFile()) {
-                    Log.e(TAG, "create file %s failed!", file.getAbsolutePath());
-                    return null;
-                }
-                bufferedOutput = new BufferedOutputStream(new FileOutputStream(file));
-                zipInputStream = zipFile.getInputStream(entry);
-                while ((readSize = zipInputStream.read(readBuffer)) != -1) {
-                    bufferedOutput.write(readBuffer, 0, readSize);
-                }
-            } else {
-                return null;
+            bufferedOutput = new BufferedOutputStream(new FileOutputStream(file));
+            zipInputStream = apkArchive.openStream(entry);
+            while ((readSize = zipInputStream.read(readBuffer)) != -1) {
+                bufferedOutput.write(readBuffer, 0, readSize);
             }
         } finally {
             if (zipInputStream != null) {
@@ -283,14 +134,21 @@ public class UnzipTask extends ApkTask {
                 bufferedOutput.close();
             }
         }
-        return outEntryName;
+    }
+
+    private int getEntryInput(ApkArchive.Entry entry) {
+        String entryName = entry.getName();
+        if (ApkConstants.MANIFEST_FILE_NAME.equals(entryName)) {
+            return INPUT_MANIFEST;
+        } else if (ApkConstants.ARSC_FILE_NAME.equals(entryName)) {
+            return INPUT_ARSC;
+        }
+        return 0;
     }
 
     @Override
     public TaskResult call() throws TaskExecuteException {
-        ZipFile zipFile = null;
         try {
-            zipFile = new ZipFile(inputFile);
             if (outputFile.isDirectory() && outputFile.exists()) {
                 Log.i(TAG, "%s exists, delete it.", outputFile.getAbsolutePath());
                 FileUtils.deleteDirectory(outputFile);
@@ -308,17 +166,20 @@ public class UnzipTask extends ApkTask {
 
             ((TaskJsonResult) taskResult).add("total-size", inputFile.length());
 
-            readMappingTxtFile();
-            config.setProguardClassMap(proguardClassMap);
-            readResMappingTxtFile();
-            config.setResguardMap(resguardMap);
+            ApkMapping mapping = ApkMapping.read(mappingTxt, resMappingTxt);
+            config.setProguardClassMap(mapping.getProguardClassMap());
+            config.setResguardMap(mapping.getResguardMap());
 
-            Enumeration entries = zipFile.entries();
+            ApkArchive apkArchive = ApkArchive.open(inputFile);
+            config.setApkArchive(apkArchive);
+            List<ApkArchive.Entry> entries = apkArchive.getEntries();
             JsonArray jsonArray = new JsonArray();
-            String outEntryName = "";
-            while (entries.hasMoreElements()) {
-                ZipEntry entry = (ZipEntry) entries.nextElement();
-                outEntryName = writeEntry(zipFile, entry);
+            for (ApkArchive.Entry entry : entries) {
+                if (Util.preventZipSlip(outputFile, entry.getName())) {
+                    Log.e(TAG, "writeEntry entry %s failed!", entry.getName());
+                    continue;
+                }
+                String outEntryName = mapping.getOutEntryName(entry.getName());
                 if (!Util.isNullOrNil(outEntryName)) {
                     JsonObject fileItem = new JsonObject();
                     fileItem.addProperty("entry-name", outEntryName);
@@ -328,23 +189,36 @@ public class UnzipTask extends ApkTask {
                     entryNameMap.put(entry.getName(), outEntryName);
                 }
             }
-
             config.setEntrySizeMap(entrySizeMap);
             config.setEntryNameMap(entryNameMap);
+            notifyInputReady(INPUT_APK_ENTRIES | INPUT_DEX);
+
+            // the manifest and the arsc are always extracted, they are small and parsed from files
+            for (int input : new int[]{INPUT_MANIFEST, INPUT_ARSC}) {
+                for (ApkArchive.Entry entry : entries) {
+                    if (getEntryInput(entry) == input) {
+                        writeEntry(apkArchive, entry);
+                    }
+                }
+                notifyInputReady(input);
+            }
+            if ((config.getRequiredInputs() & INPUT_UNZIP_TREE) == INPUT_UNZIP_TREE) {
+                for (ApkArchive.Entry entry : entries) {
+                    if (getEntryInput(entry) == 0) {
+                        writeEntry(apkArchive, entry);
+                    }
+                }
+            } else {
+                Log.i(TAG, "no task reads the unzip tree, skip extracting the other entries");
+            }
+            notifyInputReady(INPUT_UNZIP_TREE);
+
             ((TaskJsonResult) taskResult).add("entries", jsonArray);
             taskResult.setStartTime(startTime);
             taskResult.setEndTime(System.currentTimeMillis());
             return taskResult;
         } catch (Exception e) {
             throw new TaskExecuteException(e.getMessage(), e);
-        } finally {
-            if (zipFile != null) {
-                try {
-                    zipFile.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
         }
     }
 }
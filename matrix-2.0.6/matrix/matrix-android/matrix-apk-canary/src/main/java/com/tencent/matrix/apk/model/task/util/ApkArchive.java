@@ -0,0 +1,323 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.apk.model.task.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Read-only view of the entries of an apk, without extracting them.
+ *
+ * The apk is mapped once and its central directory is parsed from the mapping.
+ * Stored entries are read as slices of the mapping and deflated entries are
+ * inflated from it, so the tasks can read entries concurrently.
+ */
+
+public final class ApkArchive implements Closeable {
+
+    public static final int METHOD_STORED = 0;
+    public static final int METHOD_DEFLATED = 8;
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_SIGNATURE = 0x06054b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_OF_CENTRAL_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final long UINT32_MASK = 0xFFFFFFFFL;
+
+    private final File apkFile;
+    private final RandomAccessFile randomAccessFile;
+    private final ByteBuffer buffer;
+    private final List<Entry> entries;
+    private final Map<String, Entry> entryMap;
+
+    private ApkArchive(File apkFile, RandomAccessFile randomAccessFile, ByteBuffer buffer) {
+        this.apkFile = apkFile;
+        this.randomAccessFile = randomAccessFile;
+        this.buffer = buffer;
+        this.entries = new ArrayList<>();
+        this.entryMap = new HashMap<>();
+    }
+
+    public static ApkArchive open(File apkFile) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(apkFile, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new ZipException("apk " + apkFile.getName() + " is too large to map, size " + channel.size());
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            ApkArchive apkArchive = new ApkArchive(apkFile, randomAccessFile, buffer);
+            apkArchive.readCentralDirectory();
+            return apkArchive;
+        } catch (IOException | RuntimeException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    public File getApkFile() {
+        return apkFile;
+    }
+
+    /*
+     *  entries in the order of the central directory
+     */
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    public Entry getEntry(String name) {
+        return entryMap.get(name);
+    }
+
+    /*
+     *  data of the entry, a slice of the mapped apk if it is stored, inflated into the heap otherwise
+     */
+    public ByteBuffer getData(Entry entry) throws IOException {
+        if (entry.method == METHOD_STORED) {
+            return slice(getDataOffset(entry), entry.size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return ByteBuffer.wrap(readBytes(entry)).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public byte[] readBytes(Entry entry) throws IOException {
+        if (entry.size > Integer.MAX_VALUE) {
+            throw new ZipException("entry " + entry.name + " is too large, size " + entry.size);
+        }
+        byte[] data = new byte[(int) entry.size];
+        if (entry.method == METHOD_STORED) {
+            slice(getDataOffset(entry), entry.size).get(data);
+        } else if (entry.method == METHOD_DEFLATED) {
+            byte[] compressed = new byte[(int) entry.compressedSize];
+            slice(getDataOffset(entry), entry.compressedSize).get(compressed);
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(compressed);
+                int count = 0;
+                while (count < data.length && !inflater.finished()) {
+                    int inflated = inflater.inflate(data, count, data.length - count);
+                    if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    count += inflated;
+                }
+                if (count != data.length) {
+                    throw new ZipException("entry " + entry.name + " is truncated, inflated " + count + " of " + data.length);
+                }
+            } catch (DataFormatException e) {
+                throw new ZipException("entry " + entry.name + " is corrupt, " + e.getMessage());
+            } finally {
+                inflater.end();
+            }
+        } else {
+            throw new ZipException("entry " + entry.name + " has unsupported compression method " + entry.method);
+        }
+        return data;
+    }
+
+    public InputStream openStream(Entry entry) throws IOException {
+        if (entry.method == METHOD_STORED) {
+            return new ByteBufferInputStream(slice(getDataOffset(entry), entry.size));
+        } else if (entry.method == METHOD_DEFLATED) {
+            // the inflater of nowrap mode needs an extra dummy byte after the deflated data
+            InputStream compressed = new SequenceInputStream(new ByteBufferInputStream(slice(getDataOffset(entry), entry.compressedSize)),
+                    new ByteArrayInputStream(new byte[1]));
+            return new EntryInflaterInputStream(compressed, new Inflater(true));
+        }
+        throw new ZipException("entry " + entry.name + " has unsupported compression method " + entry.method);
+    }
+
+    @Override
+    public void close() throws IOException {
+        randomAccessFile.close();
+    }
+
+    private void readCentralDirectory() throws IOException {
+        int endOfCentral = -1;
+        int minOffset = Math.max(0, buffer.limit() - END_OF_CENTRAL_SIZE - MAX_COMMENT_SIZE);
+        for (int offset = buffer.limit() - END_OF_CENTRAL_SIZE; offset >= minOffset; offset--) {
+            if (buffer.getInt(offset) == END_OF_CENTRAL_SIGNATURE) {
+                endOfCentral = offset;
+                break;
+            }
+        }
+        if (endOfCentral < 0) {
+            throw new ZipException("end of central directory not found in " + apkFile.getName());
+        }
+        long centralSize = buffer.getInt(endOfCentral + 12) & UINT32_MASK;
+        long centralOffset = buffer.getInt(endOfCentral + 16) & UINT32_MASK;
+        if (centralOffset + centralSize > endOfCentral) {
+            throw new ZipException("bad central directory in " + apkFile.getName() + ", offset " + centralOffset + ", size " + centralSize);
+        }
+        int offset = (int) centralOffset;
+        int end = (int) (centralOffset + centralSize);
+        while (offset < end) {
+            if (buffer.getInt(offset) != CENTRAL_HEADER_SIGNATURE) {
+                throw new ZipException("bad central directory header at " + offset + " in " + apkFile.getName());
+            }
+            int nameLength = buffer.getShort(offset + 28) & 0xFFFF;
+            int extraLength = buffer.getShort(offset + 30) & 0xFFFF;
+            int commentLength = buffer.getShort(offset + 32) & 0xFFFF;
+            byte[] name = new byte[nameLength];
+            ByteBuffer nameBuffer = buffer.duplicate();
+            nameBuffer.position(offset + CENTRAL_HEADER_SIZE);
+            nameBuffer.get(name);
+
+            Entry entry = new Entry(new String(name, StandardCharsets.UTF_8));
+            entry.method = buffer.getShort(offset + 10) & 0xFFFF;
+            entry.crc = buffer.getInt(offset + 16) & UINT32_MASK;
+            entry.compressedSize = buffer.getInt(offset + 20) & UINT32_MASK;
+            entry.size = buffer.getInt(offset + 24) & UINT32_MASK;
+            entry.localHeaderOffset = buffer.getInt(offset + 42) & UINT32_MASK;
+            entries.add(entry);
+            entryMap.put(entry.name, entry);
+
+            offset += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+    }
+
+    private long getDataOffset(Entry entry) throws IOException {
+        if (entry.dataOffset < 0) {
+            int offset = (int) entry.localHeaderOffset;
+            if (offset + LOCAL_HEADER_SIZE > buffer.limit() || buffer.getInt(offset) != LOCAL_HEADER_SIGNATURE) {
+                throw new ZipException("bad local header of entry " + entry.name);
+            }
+            int nameLength = buffer.getShort(offset + 26) & 0xFFFF;
+            int extraLength = buffer.getShort(offset + 28) & 0xFFFF;
+            entry.dataOffset = offset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+        }
+        return entry.dataOffset;
+    }
+
+    private ByteBuffer slice(long offset, long length) throws IOException {
+        if (offset + length > buffer.limit()) {
+            throw new ZipException("entry data out of range, offset " + offset + ", length " + length);
+        }
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit((int) (offset + length));
+        slice.position((int) offset);
+        return slice.slice();
+    }
+
+    public static final class Entry {
+        private final String name;
+        private int method;
+        private long crc;
+        private long size;
+        private long compressedSize;
+        private long localHeaderOffset;
+        private volatile long dataOffset = -1;
+
+        Entry(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        public int getMethod() {
+            return method;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    private static final class EntryInflaterInputStream extends InflaterInputStream {
+        private boolean closed;
+
+        EntryInflaterInputStream(InputStream in, Inflater inflater) {
+            super(in, inflater, 8192);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                super.close();
+                inf.end();
+            }
+        }
+    }
+}
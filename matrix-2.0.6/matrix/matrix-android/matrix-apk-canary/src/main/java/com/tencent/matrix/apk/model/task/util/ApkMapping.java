@@ -0,0 +1,221 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.apk.model.task.util;
+
+import com.tencent.matrix.javalib.util.Log;
+import com.tencent.matrix.javalib.util.Util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The proguard and resguard mappings of one build of an apk, used to map the obfuscated names
+ * of the classes, resources and entries back to the names in the source.
+ */
+
+public final class ApkMapping {
+
+    private static final String TAG = "Matrix.ApkMapping";
+
+    private final Map<String, String> proguardClassMap;
+    private final Map<String, String> resguardMap;
+    private final Map<String, String> resDirMap;
+
+    private ApkMapping() {
+        proguardClassMap = new HashMap<>();
+        resguardMap = new HashMap<>();
+        resDirMap = new HashMap<>();
+    }
+
+    /*
+     *  either file can be null, its map is then empty
+     */
+    public static ApkMapping read(File mappingTxt, File resMappingTxt) throws IOException {
+        ApkMapping mapping = new ApkMapping();
+        mapping.readMappingTxtFile(mappingTxt);
+        mapping.readResMappingTxtFile(resMappingTxt);
+        return mapping;
+    }
+
+    /*
+     *  obfuscated class name -> class name
+     */
+    public Map<String, String> getProguardClassMap() {
+        return proguardClassMap;
+    }
+
+    /*
+     *  obfuscated R.type.name -> R.type.name
+     */
+    public Map<String, String> getResguardMap() {
+        return resguardMap;
+    }
+
+    /*
+     *  entry name -> entry name before resguard
+     */
+    public Map<String, String> getEntryNameMap(ApkArchive apkArchive) {
+        Map<String, String> entryNameMap = new HashMap<>();
+        for (ApkArchive.Entry entry : apkArchive.getEntries()) {
+            String outEntryName = getOutEntryName(entry.getName());
+            if (!Util.isNullOrNil(outEntryName)) {
+                entryNameMap.put(entry.getName(), outEntryName);
+            }
+        }
+        return entryNameMap;
+    }
+
+    private void readMappingTxtFile(File mappingTxt) throws IOException {
+        if (mappingTxt != null) {
+            BufferedReader bufferedReader = new BufferedReader(new FileReader(mappingTxt));
+            String line = bufferedReader.readLine();
+            String beforeClass = "", afterClass = "";
+            try {
+                while (line != null) {
+                    if (!line.startsWith(" ")) {
+                        String[] pair = line.split("->");
+                        if (pair.length == 2) {
+                            beforeClass = pair[0].trim();
+                            afterClass = pair[1].trim();
+                            afterClass = afterClass.substring(0, afterClass.length() - 1);
+                            if (!Util.isNullOrNil(beforeClass) && !Util.isNullOrNil(afterClass)) {
+                                Log.d(TAG, "before:%s,after:%s", beforeClass, afterClass);
+                                proguardClassMap.put(afterClass, beforeClass);
+                            }
+                        }
+                    }
+                    line = bufferedReader.readLine();
+                }
+            } finally {
+                bufferedReader.close();
+            }
+        }
+    }
+
+    private String parseResourceNameFromResguard(String resName) {
+        if (!Util.isNullOrNil(resName)) {
+            int index = resName.indexOf('R');
+            if (index >= 0) {
+                return resName.substring(index);
+            }
+        }
+        return "";
+    }
+
+
+    private void readResMappingTxtFile(File resMappingTxt) throws IOException {
+        if (resMappingTxt != null) {
+            BufferedReader bufferedReader = new BufferedReader(new FileReader(resMappingTxt));
+            try {
+                String line = bufferedReader.readLine();
+                boolean readResStart = false;
+                boolean readPathStart = false;
+                while (line != null) {
+                    if (line.trim().equals("res path mapping:")) {
+                      readPathStart = true;
+                    } else if (line.trim().equals("res id mapping:")) {
+                        readResStart = true;
+                        readPathStart = false;
+                    } else if (readPathStart) {
+                        String[] columns = line.split("->");
+                        if (columns.length == 2) {
+                            String before = columns[0].trim();
+                            String after = columns[1].trim();
+                            if (!Util.isNullOrNil(before) && !Util.isNullOrNil(after)) {
+                                Log.d(TAG, "%s->%s", before, after);
+                                resDirMap.put(after, before);
+                            }
+                        }
+                    } else if (readResStart) {
+                        String[] columns = line.split("->");
+                        if (columns.length == 2) {
+                            String before = parseResourceNameFromResguard(columns[0].trim());
+                            String after = parseResourceNameFromResguard(columns[1].trim());
+                            if (!Util.isNullOrNil(before) && !Util.isNullOrNil(after)) {
+                                Log.d(TAG, "%s->%s", before, after);
+                                resguardMap.put(after, before);
+                            }
+                        }
+                    }
+                    line = bufferedReader.readLine();
+                }
+            } finally {
+                bufferedReader.close();
+            }
+        }
+    }
+
+    private String parseResourceNameFromPath(String dir, String filename) {
+        if (Util.isNullOrNil(dir) || Util.isNullOrNil(filename)) {
+            return "";
+        }
+
+        String type = dir.substring(dir.indexOf('/') + 1);
+        int index = type.indexOf('-');
+        if (index >= 0) {
+            type = type.substring(0, index);
+        }
+        index = filename.indexOf('.');
+        if (index >= 0) {
+            filename = filename.substring(0, index);
+        }
+        return "R." + type + "." + filename;
+    }
+
+    private String reverseResguard(String dirName, String filename) {
+        String outEntryName = "";
+        if (resDirMap.containsKey(dirName)) {
+            String newDirName = resDirMap.get(dirName);
+            final String resource = parseResourceNameFromPath(newDirName, filename);
+            int suffixIndex = filename.indexOf('.');
+            String suffix = "";
+            if (suffixIndex >= 0) {
+                suffix = filename.substring(suffixIndex);
+            }
+            if (resguardMap.containsKey(resource)) {
+                int lastIndex =  resguardMap.get(resource).lastIndexOf('.');
+                if (lastIndex >= 0) {
+                    filename = resguardMap.get(resource).substring(lastIndex + 1) + suffix;
+                }
+            }
+            outEntryName = newDirName + "/" + filename;
+        }
+        return outEntryName;
+    }
+
+    /*
+     *  the entry name before resguard, null if it is a directory
+     */
+    public String getOutEntryName(String entryName) {
+        int index = entryName.lastIndexOf('/');
+        if (index >= 0) {
+            String filename = entryName.substring(index + 1);
+            if (Util.isNullOrNil(filename)) {
+                return null;
+            }
+            String outEntryName = reverseResguard(entryName.substring(0, index), filename);
+            if (!Util.isNullOrNil(outEntryName)) {
+                return outEntryName;
+            }
+        }
+        return entryName;
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.apk.model.task.util;
+
+import com.android.dexdeps.ClassRef;
+import com.android.dexdeps.DexData;
+import com.android.dexdeps.MethodRef;
+import com.tencent.matrix.javalib.util.Log;
+import com.tencent.matrix.javalib.util.Util;
+
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.Method;
+import org.jf.dexlib2.iface.MethodImplementation;
+import org.jf.dexlib2.iface.instruction.Instruction;
+import org.jf.dexlib2.iface.instruction.NarrowLiteralInstruction;
+import org.jf.dexlib2.iface.instruction.ReferenceInstruction;
+import org.jf.dexlib2.iface.instruction.formats.ArrayPayload;
+import org.jf.dexlib2.iface.reference.FieldReference;
+import org.jf.dexlib2.iface.reference.StringReference;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The decoded code of the apk, shared by all the tasks of a job.
+ *
+ * Every dex is read from the apk archive and parsed once, the first time any task asks for it,
+ * and the instructions of all the classes are scanned once for the
+ * constants the tasks look for, across a ForkJoin pool.
+ *
+ * @see com.tencent.matrix.apk.model.job.JobConfig#getApkModel()
+ */
+
+public final class ApkModel {
+
+    private static final String TAG = "Matrix.ApkModel";
+
+    private final ApkArchive apkArchive;
+    private final DexData.StringPool stringPool;
+    private List<String> dexFileNames;
+    private final Map<String, DexTables> dexTables;
+    private CodeIndex codeIndex;
+
+    public ApkModel(ApkArchive apkArchive) {
+        this.apkArchive = apkArchive;
+        this.stringPool = new DexData.StringPool();
+        this.dexTables = new HashMap<>();
+    }
+
+    /*
+     *  names of the dex files in the root of the apk
+     */
+    public synchronized List<String> getDexFileNames() {
+        if (dexFileNames == null) {
+            List<String> names = new ArrayList<>();
+            for (ApkArchive.Entry entry : apkArchive.getEntries()) {
+                String name = entry.getName();
+                if (name.endsWith(ApkConstants.DEX_FILE_SUFFIX) && name.indexOf('/') < 0) {
+                    names.add(name);
+                }
+            }
+            dexFileNames = Collections.unmodifiableList(names);
+        }
+        return dexFileNames;
+    }
+
+    public synchronized DexTables getDexTables(String dexFileName) throws IOException {
+        DexTables tables = dexTables.get(dexFileName);
+        if (tables == null) {
+            ApkArchive.Entry entry = apkArchive.getEntry(dexFileName);
+            if (entry == null) {
+                throw new FileNotFoundException("dex " + dexFileName + " is not found in " + apkArchive.getApkFile().getName());
+            }
+            byte[] dex = apkArchive.readBytes(entry);
+            DexData dexData = new DexData(dex).setStringPool(stringPool);
+            dexData.load();
+            tables = new DexTables(dexFileName, dex, dexData);
+            dexTables.put(dexFileName, tables);
+        }
+        return tables;
+    }
+
+    public synchronized CodeIndex getCodeIndex() throws IOException {
+        if (codeIndex == null) {
+            long startTime = System.currentTimeMillis();
+            List<ClassDef> classDefs = new ArrayList<>();
+            for (String dexFileName : getDexFileNames()) {
+                DexBackedDexFile dexFile = new DexBackedDexFile(Opcodes.forApi(15), getDexTables(dexFileName).dex);
+                classDefs.addAll(dexFile.getClasses());
+            }
+            ForkJoinPool pool = new ForkJoinPool();
+            try {
+                codeIndex = pool.invoke(new ScanClassesTask(classDefs, 0, classDefs.size()));
+            } finally {
+                pool.shutdown();
+            }
+            Log.i(TAG, "index code of %d classes cost %d ms, literals %d, static fields %d, strings %d", classDefs.size(),
+                    System.currentTimeMillis() - startTime, codeIndex.literals.size(), codeIndex.staticFieldRefs.size(), codeIndex.stringConstants.size());
+        }
+        return codeIndex;
+    }
+
+    /*
+     *  scan a range of classes, split in halves until small enough
+     */
+    private static final class ScanClassesTask extends RecursiveTask<CodeIndex> {
+        private static final int THRESHOLD = 256;
+
+        private final List<ClassDef> classDefs;
+        private final int start;
+        private final int end;
+
+        ScanClassesTask(List<ClassDef> classDefs, int start, int end) {
+            this.classDefs = classDefs;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected CodeIndex compute() {
+            if (end - start <= THRESHOLD) {
+                CodeIndex index = new CodeIndex();
+                for (int i = start; i < end; i++) {
+                    index.scanClass(classDefs.get(i));
+                }
+                return index;
+            }
+            int middle = (start + end) >>> 1;
+            ScanClassesTask left = new ScanClassesTask(classDefs, start, middle);
+            left.fork();
+            CodeIndex index = new ScanClassesTask(classDefs, middle, end).compute();
+            index.merge(left.join());
+            return index;
+        }
+    }
+
+    /*
+     *  class, method and field tables of a dex, each built on the first query
+     */
+    public static final class DexTables {
+        private final String dexFileName;
+        private final byte[] dex;
+        private final DexData dexData;
+        private MethodRef[] methodRefs;
+        private ClassRef[] internalReferences;
+        private ClassRef[] externalReferences;
+
+        DexTables(String dexFileName, byte[] dex, DexData dexData) {
+            this.dexFileName = dexFileName;
+            this.dex = dex;
+            this.dexData = dexData;
+        }
+
+        public String getDexFileName() {
+            return dexFileName;
+        }
+
+        public synchronized MethodRef[] getMethodRefs() {
+            if (methodRefs == null) {
+                methodRefs = dexData.getMethodRefs();
+            }
+            return methodRefs;
+        }
+
+        public synchronized ClassRef[] getInternalReferences() {
+            if (internalReferences == null) {
+                internalReferences = dexData.getInternalReferences();
+            }
+            return internalReferences;
+        }
+
+        public synchronized ClassRef[] getExternalReferences() {
+            if (externalReferences == null) {
+                externalReferences = dexData.getExternalReferences();
+            }
+            return externalReferences;
+        }
+    }
+
+    /*
+     *  constants referenced by the code of all the dex files
+     */
+    public static final class CodeIndex {
+        private final IntHashSet literals = new IntHashSet();
+        private final Set<String> staticFieldRefs = new HashSet<>();
+        private final Set<String> stringConstants = new HashSet<>();
+
+        /*
+         *  literals of const instructions and 4-byte array payloads that may
+         *  be resource ids, i.e. with a package id in the highest byte
+         */
+        public IntHashSet getLiterals() {
+            return literals;
+        }
+
+        /*
+         *  int and int[] static fields read by sget instructions, which
+         *  R fields are, e.g. Lcom/tencent/mm/R$string;->app_name:I
+         */
+        public Set<String> getStaticFieldRefs() {
+            return Collections.unmodifiableSet(staticFieldRefs);
+        }
+
+        /*
+         *  strings loaded by const-string instructions
+         */
+        public Set<String> getStringConstants() {
+            return Collections.unmodifiableSet(stringConstants);
+        }
+
+        private void scanClass(ClassDef classDef) {
+            for (Method method : classDef.getMethods()) {
+                MethodImplementation implementation = method.getImplementation();
+                if (implementation == null) {
+                    continue;
+                }
+                for (Instruction instruction : implementation.getInstructions()) {
+                    scanInstruction(instruction);
+                }
+            }
+        }
+
+        private void scanInstruction(Instruction instruction) {
+            switch (instruction.getOpcode()) {
+                case CONST:
+                case CONST_HIGH16:
+                    addLiteral(((NarrowLiteralInstruction) instruction).getNarrowLiteral());
+                    break;
+                case SGET:
+                case SGET_OBJECT:
+                    FieldReference field = (FieldReference) ((ReferenceInstruction) instruction).getReference();
+                    String type = field.getType();
+                    if ("I".equals(type) || "[I".equals(type)) {
+                        staticFieldRefs.add(field.getDefiningClass() + "->" + field.getName() + ":" + type);
+                    }
+                    break;
+                case CONST_STRING:
+                case CONST_STRING_JUMBO:
+                    String value = ((StringReference) ((ReferenceInstruction) instruction).getReference()).getString();
+                    if (!Util.isNullOrNil(value)) {
+                        stringConstants.add(value);
+                    }
+                    break;
+                case ARRAY_PAYLOAD:
+                    ArrayPayload payload = (ArrayPayload) instruction;
+                    if (payload.getElementWidth() == 4) {
+                        for (Number element : payload.getArrayElements()) {
+                            addLiteral(element.intValue());
+                        }
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void addLiteral(int literal) {
+            if ((literal >>> 24) != 0) {
+                literals.add(literal);
+            }
+        }
+
+        private void merge(CodeIndex other) {
+            literals.addAll(other.literals);
+            staticFieldRefs.addAll(other.staticFieldRefs);
+            stringConstants.addAll(other.stringConstants);
+        }
+    }
+}
@@ -0,0 +1,480 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.apk.model.task.util;
+
+import com.android.dexdeps.ClassRef;
+import com.android.dexdeps.MethodRef;
+import com.android.utils.Pair;
+import com.tencent.matrix.javalib.util.Log;
+import com.tencent.matrix.javalib.util.Util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The analysis model of one build of an apk: the size of its files, the methods of its packages,
+ * the configurations of its resources and the fields of its R classes.
+ *
+ * A snapshot is cached in a compact binary file named after the hash of the apk and of the mapping
+ * files it was mapped through, so the apk of a build only has to be analysed once, and comparing
+ * two builds only reads their snapshots.
+ * The names are sorted and front coded, and the numbers are written as varints.
+ */
+
+public final class ApkSnapshot {
+
+    private static final String TAG = "Matrix.ApkSnapshot";
+
+    private static final int MAGIC = 0x4150534E;
+    private static final int VERSION = 2;
+    private static final String SNAPSHOT_FILE_SUFFIX = ".snapshot";
+    private static final String HASH_ALGORITHM = "SHA-1";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Key key;
+    private long apkSize;
+    private final Map<String, Pair<Long, Long>> fileSizes;
+    private final Map<String, Integer> packageMethods;
+    private final Map<String, Integer> resourceConfigs;
+    private final Map<String, Integer> rClassFields;
+
+    /**
+     * What a snapshot is cached under: the hash of the apk and the hashes of its proguard and
+     * resguard mapping files, which are empty if the names were not mapped through them.
+     */
+    public static final class Key {
+
+        private static final int FILE_NAME_HASH_LENGTH = 8;
+
+        private final String apkHash;
+        private final String classMappingHash;
+        private final String resMappingHash;
+
+        public Key(String apkHash, String classMappingHash, String resMappingHash) {
+            this.apkHash = apkHash;
+            this.classMappingHash = classMappingHash == null ? "" : classMappingHash;
+            this.resMappingHash = resMappingHash == null ? "" : resMappingHash;
+        }
+
+        public String getApkHash() {
+            return apkHash;
+        }
+
+        public String getClassMappingHash() {
+            return classMappingHash;
+        }
+
+        public String getResMappingHash() {
+            return resMappingHash;
+        }
+
+        public boolean isClassMapped() {
+            return !classMappingHash.isEmpty();
+        }
+
+        public boolean isResMapped() {
+            return !resMappingHash.isEmpty();
+        }
+
+        /*
+         *  the names of the two snapshots are comparable only if they are mapped through the same kinds of mapping
+         */
+        public boolean isMappedAs(Key key) {
+            return isClassMapped() == key.isClassMapped() && isResMapped() == key.isResMapped();
+        }
+
+        private String getFileName() {
+            StringBuilder builder = new StringBuilder(apkHash);
+            if (isClassMapped()) {
+                builder.append("-m").append(classMappingHash, 0, Math.min(FILE_NAME_HASH_LENGTH, classMappingHash.length()));
+            }
+            if (isResMapped()) {
+                builder.append("-r").append(resMappingHash, 0, Math.min(FILE_NAME_HASH_LENGTH, resMappingHash.length()));
+            }
+            return builder.append(SNAPSHOT_FILE_SUFFIX).toString();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) obj;
+            return apkHash.equals(key.apkHash) && classMappingHash.equals(key.classMappingHash) && resMappingHash.equals(key.resMappingHash);
+        }
+
+        @Override
+        public int hashCode() {
+            return (apkHash.hashCode() * 31 + classMappingHash.hashCode()) * 31 + resMappingHash.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return getFileName().substring(0, getFileName().length() - SNAPSHOT_FILE_SUFFIX.length());
+        }
+    }
+
+    private ApkSnapshot(Key key) {
+        this.key = key;
+        this.fileSizes = new TreeMap<>();
+        this.packageMethods = new TreeMap<>();
+        this.resourceConfigs = new TreeMap<>();
+        this.rClassFields = new TreeMap<>();
+    }
+
+    public Key getKey() {
+        return key;
+    }
+
+    public String getApkHash() {
+        return key.getApkHash();
+    }
+
+    public long getApkSize() {
+        return apkSize;
+    }
+
+    /*
+     *  entry name -> (size, compressed size)
+     */
+    public Map<String, Pair<Long, Long>> getFileSizes() {
+        return Collections.unmodifiableMap(fileSizes);
+    }
+
+    /*
+     *  package name -> count of the methods defined in the dex files
+     */
+    public Map<String, Integer> getPackageMethods() {
+        return Collections.unmodifiableMap(packageMethods);
+    }
+
+    /*
+     *  R.type.name -> count of the configurations in resources.arsc
+     */
+    public Map<String, Integer> getResourceConfigs() {
+        return Collections.unmodifiableMap(resourceConfigs);
+    }
+
+    /*
+     *  R class name -> count of the fields of it and its inner classes
+     */
+    public Map<String, Integer> getRClassFields() {
+        return Collections.unmodifiableMap(rClassFields);
+    }
+
+    /*
+     *  analyse the apk, the names of the entries, classes and resources are mapped back
+     *  through the given maps, which must be read from the mapping files of the key
+     */
+    public static ApkSnapshot create(Key key, ApkArchive apkArchive, ApkModel apkModel, Map<String, String> entryNameMap,
+                                     Map<String, String> proguardClassMap, Map<String, String> resguardMap) throws IOException {
+        ApkSnapshot snapshot = new ApkSnapshot(key);
+        snapshot.apkSize = apkArchive.getApkFile().length();
+
+        for (ApkArchive.Entry entry : apkArchive.getEntries()) {
+            if (entry.isDirectory()) {
+                continue;
+            }
+            String name = mapName(entryNameMap, entry.getName());
+            snapshot.fileSizes.put(name, Pair.of(entry.getSize(), entry.getCompressedSize()));
+        }
+
+        for (String dexFileName : apkModel.getDexFileNames()) {
+            ApkModel.DexTables dexTables = apkModel.getDexTables(dexFileName);
+            Set<String> externalClasses = new HashSet<>();
+            for (ClassRef classRef : dexTables.getExternalReferences()) {
+                externalClasses.add(classRef.getName());
+            }
+            for (MethodRef methodRef : dexTables.getMethodRefs()) {
+                if (externalClasses.contains(methodRef.getDeclClassName())) {
+                    continue;
+                }
+                String className = mapName(proguardClassMap, ApkUtil.getNormalClassName(methodRef.getDeclClassName()));
+                if (className.indexOf('.') >= 0) {
+                    increase(snapshot.packageMethods, ApkUtil.getPackageName(className), 1);
+                }
+            }
+            for (ClassRef classRef : dexTables.getInternalReferences()) {
+                String className = mapName(proguardClassMap, ApkUtil.getNormalClassName(classRef.getName()));
+                int index = className.indexOf('$');
+                if (index >= 0) {
+                    className = className.substring(0, index);
+                }
+                if (className.endsWith(".R") || "R".equals(className)) {
+                    increase(snapshot.rClassFields, className, classRef.getFieldArray().length);
+                }
+            }
+        }
+
+        ApkArchive.Entry arscEntry = apkArchive.getEntry(ApkConstants.ARSC_FILE_NAME);
+        if (arscEntry != null) {
+            Map<String, Integer> entryConfigs = ResourceTableReader.readEntryConfigs(apkArchive.getData(arscEntry));
+            for (Map.Entry<String, Integer> entry : entryConfigs.entrySet()) {
+                increase(snapshot.resourceConfigs, mapName(resguardMap, entry.getKey()), entry.getValue());
+            }
+        }
+        return snapshot;
+    }
+
+    public static String hashApk(File apkFile) throws IOException {
+        return hashFile(apkFile);
+    }
+
+    /*
+     *  the hash of a mapping file, empty if there is none
+     */
+    public static String hashMapping(File mappingFile) throws IOException {
+        return mappingFile == null ? "" : hashFile(mappingFile);
+    }
+
+    private static String hashFile(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = inputStream.read(buffer)) > 0) {
+                digest.update(buffer, 0, count);
+            }
+        } finally {
+            inputStream.close();
+        }
+        StringBuilder builder = new StringBuilder();
+        for (byte b : digest.digest()) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+    public static File getCacheFile(File cacheDir, Key key) {
+        return new File(cacheDir, key.getFileName());
+    }
+
+    /*
+     *  the snapshot cached under the key, null if there is none or it is of another version
+     */
+    public static ApkSnapshot readCache(File cacheDir, Key key) throws IOException {
+        File file = getCacheFile(cacheDir, key);
+        if (!file.isFile()) {
+            return null;
+        }
+        ApkSnapshot snapshot = readCacheFile(file);
+        if (snapshot != null && !snapshot.key.equals(key)) {
+            throw new IOException("file " + file.getName() + " is the snapshot " + snapshot.key + "!");
+        }
+        return snapshot;
+    }
+
+    /*
+     *  all the snapshots cached for the apk hash, whatever they were mapped through, the latest first
+     */
+    public static List<ApkSnapshot> readCaches(File cacheDir, String apkHash) {
+        List<File> files = new ArrayList<>();
+        File[] children = cacheDir.listFiles();
+        if (children != null) {
+            for (File file : children) {
+                if (file.isFile() && file.getName().startsWith(apkHash) && file.getName().endsWith(SNAPSHOT_FILE_SUFFIX)) {
+                    files.add(file);
+                }
+            }
+        }
+        Collections.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File file1, File file2) {
+                return Long.compare(file2.lastModified(), file1.lastModified());
+            }
+        });
+        List<ApkSnapshot> snapshots = new ArrayList<>();
+        for (File file : files) {
+            try {
+                ApkSnapshot snapshot = readCacheFile(file);
+                if (snapshot != null && snapshot.getApkHash().equals(apkHash)) {
+                    snapshots.add(snapshot);
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "read snapshot %s failed, %s", file.getName(), e.getMessage());
+            }
+        }
+        return snapshots;
+    }
+
+    private static ApkSnapshot readCacheFile(File file) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+        try {
+            if (input.readInt() != MAGIC) {
+                throw new IOException("file " + file.getName() + " is not an apk snapshot!");
+            }
+            if (readVarLong(input) != VERSION) {
+                return null;
+            }
+            ApkSnapshot snapshot = new ApkSnapshot(new Key(input.readUTF(), input.readUTF(), input.readUTF()));
+            snapshot.apkSize = readVarLong(input);
+            String name = "";
+            for (long count = readVarLong(input); count > 0; count--) {
+                name = readName(input, name);
+                long size = readVarLong(input);
+                snapshot.fileSizes.put(name, Pair.of(size, readVarLong(input)));
+            }
+            readCounts(input, snapshot.packageMethods);
+            readCounts(input, snapshot.resourceConfigs);
+            readCounts(input, snapshot.rClassFields);
+            return snapshot;
+        } finally {
+            input.close();
+        }
+    }
+
+    /*
+     *  the file is written aside and renamed, so a reader never sees a partial snapshot
+     */
+    public void writeCache(File cacheDir) throws IOException {
+        if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+            throw new IOException("create cache directory " + cacheDir.getAbsolutePath() + " failed!");
+        }
+        File file = getCacheFile(cacheDir, key);
+        File tmpFile = new File(cacheDir, key.getFileName() + ".tmp");
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), BUFFER_SIZE));
+        try {
+            output.writeInt(MAGIC);
+            writeVarLong(output, VERSION);
+            output.writeUTF(key.getApkHash());
+            output.writeUTF(key.getClassMappingHash());
+            output.writeUTF(key.getResMappingHash());
+            writeVarLong(output, apkSize);
+            writeVarLong(output, fileSizes.size());
+            String name = "";
+            for (Map.Entry<String, Pair<Long, Long>> entry : fileSizes.entrySet()) {
+                writeName(output, name, entry.getKey());
+                name = entry.getKey();
+                writeVarLong(output, entry.getValue().getFirst());
+                writeVarLong(output, entry.getValue().getSecond());
+            }
+            writeCounts(output, packageMethods);
+            writeCounts(output, resourceConfigs);
+            writeCounts(output, rClassFields);
+        } finally {
+            output.close();
+        }
+        if (file.exists() && !file.delete() || !tmpFile.renameTo(file)) {
+            throw new IOException("rename " + tmpFile.getName() + " to " + file.getName() + " failed!");
+        }
+    }
+
+    private static String mapName(Map<String, String> nameMap, String name) {
+        if (nameMap != null && nameMap.containsKey(name)) {
+            return nameMap.get(name);
+        }
+        return name;
+    }
+
+    private static void increase(Map<String, Integer> counts, String name, int count) {
+        if (Util.isNullOrNil(name)) {
+            return;
+        }
+        Integer value = counts.get(name);
+        counts.put(name, value == null ? count : value + count);
+    }
+
+    private static void writeCounts(DataOutputStream output, Map<String, Integer> counts) throws IOException {
+        writeVarLong(output, counts.size());
+        String name = "";
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            writeName(output, name, entry.getKey());
+            name = entry.getKey();
+            writeVarLong(output, entry.getValue());
+        }
+    }
+
+    private static void readCounts(DataInputStream input, Map<String, Integer> counts) throws IOException {
+        String name = "";
+        for (long count = readVarLong(input); count > 0; count--) {
+            name = readName(input, name);
+            counts.put(name, (int) readVarLong(input));
+        }
+    }
+
+    /*
+     *  the length of the prefix shared with the previous name, then the rest of the name
+     */
+    private static void writeName(DataOutputStream output, String previous, String name) throws IOException {
+        int prefix = 0;
+        int max = Math.min(previous.length(), name.length());
+        while (prefix < max && previous.charAt(prefix) == name.charAt(prefix)) {
+            prefix++;
+        }
+        if (prefix > 0 && Character.isHighSurrogate(name.charAt(prefix - 1))) {
+            prefix--;
+        }
+        byte[] suffix = name.substring(prefix).getBytes(StandardCharsets.UTF_8);
+        writeVarLong(output, prefix);
+        writeVarLong(output, suffix.length);
+        output.write(suffix);
+    }
+
+    private static String readName(DataInputStream input, String previous) throws IOException {
+        int prefix = (int) readVarLong(input);
+        byte[] suffix = new byte[(int) readVarLong(input)];
+        input.readFully(suffix);
+        if (prefix > previous.length()) {
+            throw new IOException("bad name prefix " + prefix + " after '" + previous + "'!");
+        }
+        return previous.substring(0, prefix) + new String(suffix, StandardCharsets.UTF_8);
+    }
+
+    private static void writeVarLong(DataOutputStream output, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            output.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        output.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream input) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = input.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("bad varint!");
+    }
+}
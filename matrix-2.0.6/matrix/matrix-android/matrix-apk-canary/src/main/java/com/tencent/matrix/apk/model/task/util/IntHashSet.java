@@ -0,0 +1,139 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.apk.model.task.util;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing set of int values, no boxing.
+ */
+
+public final class IntHashSet {
+
+    private static final int FREE = 0;
+
+    private int[] table;
+    private int size;
+    private boolean hasZero;
+
+    public IntHashSet() {
+        this(64);
+    }
+
+    public IntHashSet(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        table = new int[capacity];
+    }
+
+    public boolean add(int value) {
+        if (value == FREE) {
+            if (hasZero) {
+                return false;
+            }
+            hasZero = true;
+            size++;
+            return true;
+        }
+        int mask = table.length - 1;
+        int index = mix(value) & mask;
+        while (table[index] != FREE) {
+            if (table[index] == value) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+        table[index] = value;
+        size++;
+        if (size * 2 > table.length) {
+            rehash(table.length << 1);
+        }
+        return true;
+    }
+
+    public void addAll(IntHashSet other) {
+        if (other.hasZero) {
+            add(FREE);
+        }
+        for (int value : other.table) {
+            if (value != FREE) {
+                add(value);
+            }
+        }
+    }
+
+    public boolean contains(int value) {
+        if (value == FREE) {
+            return hasZero;
+        }
+        int mask = table.length - 1;
+        int index = mix(value) & mask;
+        while (table[index] != FREE) {
+            if (table[index] == value) {
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /*
+     *  values in ascending order
+     */
+    public int[] toArray() {
+        int[] values = new int[size];
+        int count = 0;
+        if (hasZero) {
+            values[count++] = FREE;
+        }
+        for (int value : table) {
+            if (value != FREE) {
+                values[count++] = value;
+            }
+        }
+        Arrays.sort(values);
+        return values;
+    }
+
+    private void rehash(int capacity) {
+        int[] old = table;
+        table = new int[capacity];
+        size = hasZero ? 1 : 0;
+        int mask = capacity - 1;
+        for (int value : old) {
+            if (value != FREE) {
+                int index = mix(value) & mask;
+                while (table[index] != FREE) {
+                    index = (index + 1) & mask;
+                }
+                table[index] = value;
+                size++;
+            }
+        }
+    }
+
+    private static int mix(int value) {
+        int hash = value * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
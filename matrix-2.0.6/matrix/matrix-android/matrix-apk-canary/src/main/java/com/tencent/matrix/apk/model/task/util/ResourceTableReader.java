@@ -0,0 +1,177 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.apk.model.task.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads the resource entries of a resources.arsc in place, walking the chunks of the table
+ * without decoding the values and without the framework resources.
+ */
+
+public final class ResourceTableReader {
+
+    private static final int RES_STRING_POOL_TYPE = 0x0001;
+    private static final int RES_TABLE_TYPE = 0x0002;
+    private static final int RES_TABLE_PACKAGE_TYPE = 0x0200;
+    private static final int RES_TABLE_TYPE_TYPE = 0x0201;
+    private static final int CHUNK_HEADER_SIZE = 8;
+    private static final int PACKAGE_TYPE_STRINGS_OFFSET = 268;
+    private static final int PACKAGE_KEY_STRINGS_OFFSET = 276;
+    private static final int STRING_POOL_UTF8_FLAG = 1 << 8;
+    private static final int TYPE_FLAG_SPARSE = 0x01;
+    private static final int TYPE_FLAG_OFFSET16 = 0x02;
+    private static final int ENTRY_FLAG_COMPACT = 0x08;
+    private static final int NO_ENTRY = 0xFFFFFFFF;
+    private static final int NO_ENTRY16 = 0xFFFF;
+
+    private ResourceTableReader() {
+    }
+
+    /*
+     *  name of every resource entry in the table, in the form of R.type.name,
+     *  with the number of configurations it has a value for
+     */
+    public static Map<String, Integer> readEntryConfigs(ByteBuffer arsc) throws IOException {
+        ByteBuffer buffer = arsc.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.limit() < CHUNK_HEADER_SIZE || getUnsignedShort(buffer, 0) != RES_TABLE_TYPE) {
+            throw new IOException("not a resource table!");
+        }
+        Map<String, Integer> entryConfigs = new HashMap<>();
+        int end = Math.min(buffer.getInt(4), buffer.limit());
+        int offset = getUnsignedShort(buffer, 2);
+        while (offset + CHUNK_HEADER_SIZE <= end) {
+            int chunkSize = checkChunk(buffer, offset, end);
+            if (getUnsignedShort(buffer, offset) == RES_TABLE_PACKAGE_TYPE) {
+                readPackage(buffer, offset, offset + chunkSize, entryConfigs);
+            }
+            offset += chunkSize;
+        }
+        return entryConfigs;
+    }
+
+    private static void readPackage(ByteBuffer buffer, int start, int end, Map<String, Integer> entryConfigs) throws IOException {
+        String[] typeNames = readStringPool(buffer, start + buffer.getInt(start + PACKAGE_TYPE_STRINGS_OFFSET));
+        String[] keyNames = readStringPool(buffer, start + buffer.getInt(start + PACKAGE_KEY_STRINGS_OFFSET));
+        int offset = start + getUnsignedShort(buffer, start + 2);
+        while (offset + CHUNK_HEADER_SIZE <= end) {
+            int chunkSize = checkChunk(buffer, offset, end);
+            if (getUnsignedShort(buffer, offset) == RES_TABLE_TYPE_TYPE) {
+                readType(buffer, offset, typeNames, keyNames, entryConfigs);
+            }
+            offset += chunkSize;
+        }
+    }
+
+    /*
+     *  a type chunk holds the entries of one resource type in one configuration
+     */
+    private static void readType(ByteBuffer buffer, int start, String[] typeNames, String[] keyNames, Map<String, Integer> entryConfigs) {
+        int typeId = buffer.get(start + 8) & 0xFF;
+        int flags = buffer.get(start + 9) & 0xFF;
+        int entryCount = buffer.getInt(start + 12);
+        int entriesStart = start + buffer.getInt(start + 16);
+        int offsets = start + getUnsignedShort(buffer, start + 2);
+        String typeName = typeId >= 1 && typeId <= typeNames.length ? typeNames[typeId - 1] : "0x" + Integer.toHexString(typeId);
+        for (int i = 0; i < entryCount; i++) {
+            int entryOffset;
+            if ((flags & TYPE_FLAG_SPARSE) != 0) {
+                entryOffset = getUnsignedShort(buffer, offsets + i * 4 + 2) * 4;
+            } else if ((flags & TYPE_FLAG_OFFSET16) != 0) {
+                entryOffset = getUnsignedShort(buffer, offsets + i * 2);
+                if (entryOffset == NO_ENTRY16) {
+                    continue;
+                }
+                entryOffset *= 4;
+            } else {
+                entryOffset = buffer.getInt(offsets + i * 4);
+                if (entryOffset == NO_ENTRY) {
+                    continue;
+                }
+            }
+            int entry = entriesStart + entryOffset;
+            int key = (getUnsignedShort(buffer, entry + 2) & ENTRY_FLAG_COMPACT) != 0 ? getUnsignedShort(buffer, entry) : buffer.getInt(entry + 4);
+            if (key < 0 || key >= keyNames.length) {
+                continue;
+            }
+            String name = ApkConstants.R_PREFIX + typeName + "." + keyNames[key];
+            Integer count = entryConfigs.get(name);
+            entryConfigs.put(name, count == null ? 1 : count + 1);
+        }
+    }
+
+    private static String[] readStringPool(ByteBuffer buffer, int start) throws IOException {
+        if (start < 0 || start + CHUNK_HEADER_SIZE > buffer.limit() || getUnsignedShort(buffer, start) != RES_STRING_POOL_TYPE) {
+            throw new IOException("bad string pool at " + start + "!");
+        }
+        int headerSize = getUnsignedShort(buffer, start + 2);
+        int stringCount = buffer.getInt(start + 8);
+        boolean utf8 = (buffer.getInt(start + 16) & STRING_POOL_UTF8_FLAG) != 0;
+        int stringsStart = start + buffer.getInt(start + 20);
+        String[] strings = new String[stringCount];
+        for (int i = 0; i < stringCount; i++) {
+            int offset = stringsStart + buffer.getInt(start + headerSize + i * 4);
+            if (utf8) {
+                // the length in chars, then the length in bytes
+                offset += (buffer.get(offset) & 0x80) != 0 ? 2 : 1;
+                int length = buffer.get(offset) & 0xFF;
+                if ((length & 0x80) != 0) {
+                    length = ((length & 0x7F) << 8) | (buffer.get(offset + 1) & 0xFF);
+                    offset += 2;
+                } else {
+                    offset += 1;
+                }
+                byte[] bytes = new byte[length];
+                ByteBuffer data = buffer.duplicate();
+                data.position(offset);
+                data.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            } else {
+                int length = getUnsignedShort(buffer, offset);
+                if ((length & 0x8000) != 0) {
+                    length = ((length & 0x7FFF) << 16) | getUnsignedShort(buffer, offset + 2);
+                    offset += 4;
+                } else {
+                    offset += 2;
+                }
+                char[] chars = new char[length];
+                for (int j = 0; j < length; j++) {
+                    chars[j] = buffer.getChar(offset + j * 2);
+                }
+                strings[i] = new String(chars);
+            }
+        }
+        return strings;
+    }
+
+    private static int checkChunk(ByteBuffer buffer, int offset, int end) throws IOException {
+        int chunkSize = buffer.getInt(offset + 4);
+        if (chunkSize < CHUNK_HEADER_SIZE || chunkSize > end - offset) {
+            throw new IOException("bad chunk at " + offset + ", size " + chunkSize + "!");
+        }
+        return chunkSize;
+    }
+
+    private static int getUnsignedShort(ByteBuffer buffer, int offset) {
+        return buffer.getShort(offset) & 0xFFFF;
+    }
+}
@@ -115,7 +115,7 @@ public class ArscUtil {
                 resType.refresh();
             }
             if (resNameStringPoolIndex != -1) {
-                Log.i(TAG, "try to remove %s (%H), find resource %s", resourceName, resourceId, ResStringBlock.resolveStringPoolEntry(resPackage.getResNamePool().getStrings().get(resNameStringPoolIndex).array(), resPackage.getResNamePool().getCharSet()));
+                Log.i(TAG, "try to remove %s (%H), find resource %s", resourceName, resourceId, resPackage.getResNamePool().getString(resNameStringPoolIndex));
             }
             resPackage.shrinkResNameStringPool();
             resPackage.refresh();
@@ -139,7 +139,7 @@ public class ArscUtil {
                     boolean isComplex = (resEntry.getFlag() & ArscConstants.RES_TABLE_ENTRY_FLAG_COMPLEX) != 0;
                     if (!isComplex && resEntry.getResValue() != null) {
                         if (resEntry.getResValue().getDataType() == ArscConstants.RES_VALUE_DATA_TYPE_STRING) {
-                            String filePath = ResStringBlock.resolveStringPoolEntry(resTable.getGlobalStringPool().getStrings().get(resEntry.getResValue().getData()).array(), resTable.getGlobalStringPool().getCharSet());
+                            String filePath = resTable.getGlobalStringPool().getString(resEntry.getResValue().getData());
                             if (filePath.equals(targetFile)) {
                                 targetFileIndex = resEntry.getResValue().getData();
                                 break;
@@ -163,7 +163,7 @@ public class ArscUtil {
                     boolean isComplex = (resEntry.getFlag() & ArscConstants.RES_TABLE_ENTRY_FLAG_COMPLEX) != 0;
                     if (!isComplex && resEntry.getResValue() != null) {
                         if (resEntry.getResValue().getDataType() == ArscConstants.RES_VALUE_DATA_TYPE_STRING) {
-                            String filePath = ResStringBlock.resolveStringPoolEntry(resTable.getGlobalStringPool().getStrings().get(resEntry.getResValue().getData()).array(), resTable.getGlobalStringPool().getCharSet());
+                            String filePath = resTable.getGlobalStringPool().getString(resEntry.getResValue().getData());
                             if (filePath.equals(sourceFile)) {
                                 sourceFileIndex = resEntry.getResValue().getData();
                                 resEntry.getResValue().setData(targetFileIndex);
@@ -261,7 +261,7 @@ public class ArscUtil {
                 int entryId = getResourceEntryId(resId);
                 ResEntry resEntry = resType.getEntryTable().get(entryId);
                 if (resEntry.getResValue().getDataType() == ArscConstants.RES_VALUE_DATA_TYPE_STRING) {
-                    String filePath = ResStringBlock.resolveStringPoolEntry(resTable.getGlobalStringPool().getStrings().get(resEntry.getResValue().getData()).array(), resTable.getGlobalStringPool().getCharSet());
+                    String filePath = resTable.getGlobalStringPool().getString(resEntry.getResValue().getData());
                     if (filePath.equals(srcFileName)) {
                         resTable.getGlobalStringPool().getStrings().set(resEntry.getResValue().getData(), ByteBuffer.wrap(ResStringBlock.encodeStringPoolEntry(targetFileName, resTable.getGlobalStringPool().getCharSet())));
                         result = true;
@@ -106,6 +106,28 @@ public class ResEntry {
         this.resMapValues = resMapValues;
     }
 
+    static ResEntry read(ByteBuffer buffer, ResStringBlock resNamePool) {
+        ResEntry resEntry = new ResEntry();
+        resEntry.setSize(buffer.getShort());
+        resEntry.setFlag(buffer.getShort());
+        resEntry.setStringPoolIndex(buffer.getInt());
+        resEntry.setEntryName(resNamePool.getString(resEntry.getStringPoolIndex()));
+        if ((resEntry.getFlag() & ArscConstants.RES_TABLE_ENTRY_FLAG_COMPLEX) == 0) {
+            resEntry.setResValue(ResValue.read(buffer));
+        } else {
+            resEntry.setParent(buffer.getInt());
+            resEntry.setPairCount(buffer.getInt());
+            if (resEntry.getPairCount() > 0) {
+                List<ResMapValue> mapValues = new ArrayList<ResMapValue>(resEntry.getPairCount());
+                for (int i = 0; i < resEntry.getPairCount(); i++) {
+                    mapValues.add(ResMapValue.read(buffer));
+                }
+                resEntry.setResMapValues(mapValues);
+            }
+        }
+        return resEntry;
+    }
+
     public byte[] toBytes() {
         ByteBuffer headBuffer = ByteBuffer.allocate(size);
         headBuffer.order(ByteOrder.LITTLE_ENDIAN);
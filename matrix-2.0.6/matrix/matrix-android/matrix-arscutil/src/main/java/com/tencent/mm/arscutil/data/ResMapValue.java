@@ -45,6 +45,13 @@ public class ResMapValue {
         this.resValue = resValue;
     }
 
+    static ResMapValue read(ByteBuffer buffer) {
+        ResMapValue resMapValue = new ResMapValue();
+        resMapValue.setName(buffer.getInt());
+        resMapValue.setResValue(ResValue.read(buffer));
+        return resMapValue;
+    }
+
     public byte[] toBytes() {
         ByteBuffer byteBuffer = ByteBuffer.allocate(4 + resValue.getSize());
         byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
@@ -140,9 +140,12 @@ public class ResPackage extends ResChunk {
             }
         }
 
-        for (int index = 0; index < resNamePool.getStringCount(); index++) {
-            if (!countMap.containsKey(index)) {
-                resNamePool.getStrings().set(index, ByteBuffer.wrap(ResStringBlock.encodeStringPoolEntry("", resNamePool.getCharSet())));
+        //所有名称都还被引用时不拆分原始的string数据
+        if (countMap.size() < resNamePool.getStringCount()) {
+            for (int index = 0; index < resNamePool.getStringCount(); index++) {
+                if (!countMap.containsKey(index)) {
+                    resNamePool.getStrings().set(index, ByteBuffer.wrap(ResStringBlock.encodeStringPoolEntry("", resNamePool.getCharSet())));
+                }
             }
         }
         resNamePool.refresh();
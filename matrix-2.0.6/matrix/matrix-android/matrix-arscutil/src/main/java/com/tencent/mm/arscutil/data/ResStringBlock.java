@@ -20,6 +20,8 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -38,6 +40,8 @@ public class ResStringBlock extends ResChunk {
     private List<Integer> styleOffsets; // 记录每个style相对于style列表起始位置的offset
     private List<ByteBuffer> strings; // string列表
     private byte[] styles; // 所有的style
+    private ByteBuffer stringData; // string列表的原始数据, 在用到时才拆分或解码
+    private String[] stringCache; // 已解码的string
 
     private Map<String, Integer> stringIndexMap;
 
@@ -90,6 +94,12 @@ public class ResStringBlock extends ResChunk {
     }
 
     public Map<String, Integer> getStringIndexMap() {
+        if (stringIndexMap == null && (stringData != null || strings != null)) {
+            stringIndexMap = new HashMap<>();
+            for (int i = 0; i < stringCount; i++) {
+                stringIndexMap.put(getString(i), i);
+            }
+        }
         return stringIndexMap;
     }
 
@@ -106,6 +116,18 @@ public class ResStringBlock extends ResChunk {
     }
 
     public List<ByteBuffer> getStrings() {
+        if (strings == null && stringData != null) {
+            List<ByteBuffer> strings = new ArrayList<ByteBuffer>(stringCount);
+            for (int i = 0; i < stringCount; i++) {
+                ByteBuffer string = ByteBuffer.allocate(getStringSize(i));
+                string.order(ByteOrder.LITTLE_ENDIAN);
+                string.put(getStringBuffer(i));
+                strings.add(string);
+            }
+            this.strings = strings;
+            stringData = null;
+            stringCache = null;
+        }
         return strings;
     }
 
@@ -121,6 +143,42 @@ public class ResStringBlock extends ResChunk {
         this.styles = styles;
     }
 
+    /*
+     *  the raw string list read from the table, split into strings only when they are modified
+     */
+    public void setStringData(ByteBuffer stringData) {
+        this.stringData = stringData;
+        this.stringCache = null;
+    }
+
+    public String getString(int index) {
+        if (strings == null && stringData != null) {
+            if (stringCache == null) {
+                stringCache = new String[stringCount];
+            }
+            if (stringCache[index] == null) {
+                byte[] buffer = new byte[getStringSize(index)];
+                getStringBuffer(index).get(buffer);
+                stringCache[index] = resolveStringPoolEntry(buffer, getCharSet());
+            }
+            return stringCache[index];
+        }
+        return resolveStringPoolEntry(getStrings().get(index).array(), getCharSet());
+    }
+
+    //每个string占到下一个string的起始位置, 最后一个string占到列表末尾
+    private int getStringSize(int index) {
+        int end = index < stringCount - 1 ? stringOffsets.get(index + 1) : stringData.limit();
+        return end - stringOffsets.get(index);
+    }
+
+    private ByteBuffer getStringBuffer(int index) {
+        ByteBuffer buffer = stringData.duplicate();
+        buffer.position(stringOffsets.get(index));
+        buffer.limit(stringOffsets.get(index) + getStringSize(index));
+        return buffer;
+    }
+
     public Charset getCharSet() {
         if ((flag & ArscConstants.RES_STRING_POOL_UTF8_FLAG) != 0) {
             return StandardCharsets.UTF_8;
@@ -194,7 +252,16 @@ public class ResStringBlock extends ResChunk {
         chunkSize += stringCount * 4;
         chunkSize += styleCount * 4;
 
-        if (strings != null) {
+        if (strings == null && stringData != null) {
+
+            //未修改过的原始数据, string的相对offset不变
+            stringStart = headSize + styleCount * 4 + stringCount * 4;
+            if (styleCount > 0) {
+                styleStart = stringStart + stringData.limit();
+            }
+            chunkSize += stringData.limit();
+
+        } else if (strings != null) {
 
             stringStart = headSize + styleCount * 4 + stringCount * 4;
 
@@ -259,7 +326,9 @@ public class ResStringBlock extends ResChunk {
                 byteBuffer.putInt(styleOffsets.get(i));
             }
         }
-        if (strings != null) {
+        if (strings == null && stringData != null) {
+            byteBuffer.put(stringData.duplicate());
+        } else if (strings != null) {
             for (int i = 0; i < strings.size(); i++) {
                 byteBuffer.put(strings.get(i).array());
             }
@@ -18,6 +18,7 @@ package com.tencent.mm.arscutil.data;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -38,6 +39,8 @@ public class ResType extends ResChunk {
     private ResConfig resConfigFlags; // configFlag
     private List<Integer> entryOffsets; // entry 偏移数组，给出每个entry的偏移位置, 0xFFFF表示NO_ENTRY
     private List<ResEntry> entryTable; // entry table
+    private ByteBuffer entryData; // entry table的原始数据, 访问entryTable时才解析
+    private ResStringBlock resNamePool; // 解析entry名称用到的资源项名称 string pool
 
     private Map<Integer, Integer> resNameStringCountMap = new HashMap<>();  //保存ResEntry中资源名称字符串的引用计数
 
@@ -98,16 +101,52 @@ public class ResType extends ResChunk {
     }
 
     public List<ResEntry> getEntryTable() {
+        if (entryTable == null && entryData != null) {
+            readEntryTable();
+        }
         return entryTable;
     }
 
     public void setEntryTable(List<ResEntry> entryTable) {
         this.entryTable = entryTable;
+        this.entryData = null;
         if (entryTable != null) {
             updateResNameReferenceCount();
         }
     }
 
+    /*
+     *  the raw entries read from the table, they are parsed when the entry table is first accessed,
+     *  and written back as they are if it never is
+     */
+    public void setEntryData(ByteBuffer entryData, ResStringBlock resNamePool) {
+        this.entryTable = null;
+        this.entryData = entryData;
+        this.resNamePool = resNamePool;
+        updateResNameReferenceCount();
+    }
+
+    private void readEntryTable() {
+        List<ResEntry> entryTable = new ArrayList<ResEntry>(entryCount);
+        ByteBuffer buffer = entryData.duplicate();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        int entryEnd = 0;
+        for (int i = 0; i < entryCount; i++) {
+            if (entryOffsets.get(i) != ArscConstants.NO_ENTRY_INDEX) {
+                buffer.position(entryOffsets.get(i));
+                entryTable.add(ResEntry.read(buffer, resNamePool));
+                entryEnd = buffer.position();
+            } else {
+                entryTable.add(null);
+            }
+        }
+        //原始数据包含了chunk尾部的padding
+        chunkPadding = entryData.limit() - entryEnd;
+        entryData = null;
+        resNamePool = null;
+        setEntryTable(entryTable);
+    }
+
     public Map<Integer, Integer> getResNameStringCountMap() {
         return resNameStringCountMap;
     }
@@ -120,10 +159,18 @@ public class ResType extends ResChunk {
     private void updateResNameReferenceCount() {
         resNameStringCountMap.clear();
         for (int i = 0; i < entryCount; i++) {
-            if (entryTable.get(i) == null) {
-                continue;
+            int resNameStringPoolIndex;
+            if (entryTable != null) {
+                if (entryTable.get(i) == null) {
+                    continue;
+                }
+                resNameStringPoolIndex = entryTable.get(i).stringPoolIndex;
+            } else {
+                if (entryOffsets.get(i) == ArscConstants.NO_ENTRY_INDEX) {
+                    continue;
+                }
+                resNameStringPoolIndex = entryData.getInt(entryOffsets.get(i) + 4);
             }
-            int resNameStringPoolIndex = entryTable.get(i).stringPoolIndex;
             if (!resNameStringCountMap.containsKey(resNameStringPoolIndex)) {
                 resNameStringCountMap.put(resNameStringPoolIndex, 0);
             }
@@ -132,7 +179,7 @@ public class ResType extends ResChunk {
     }
 
     public void refresh()  {
-        if (entryTable != null) {
+        if (getEntryTable() != null) {
             //校正entryOffsets
             int lastOffset = 0;
             for (int i = 0; i < entryCount; i++) {
@@ -208,6 +255,8 @@ public class ResType extends ResChunk {
                     //NO_ENTRY
                 }
             }
+        } else if (entryData != null) {
+            byteBuffer.put(entryData.duplicate());
         }
         if (chunkPadding > 0) {
             byteBuffer.put(new byte[chunkPadding]);
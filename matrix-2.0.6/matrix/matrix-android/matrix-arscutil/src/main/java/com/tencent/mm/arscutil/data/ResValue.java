@@ -88,6 +88,15 @@ public class ResValue {
         }
     }
 
+    static ResValue read(ByteBuffer buffer) {
+        ResValue resValue = new ResValue();
+        resValue.setSize(buffer.getShort());
+        resValue.setResvered(buffer.get());
+        resValue.setDataType(buffer.get());
+        resValue.setData(buffer.getInt());
+        return resValue;
+    }
+
     public byte[] toBytes() {
         ByteBuffer byteBuffer = ByteBuffer.allocate(size);
         byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
@@ -21,23 +21,15 @@ import com.tencent.mm.arscutil.ArscUtil;
 import com.tencent.mm.arscutil.data.ArscConstants;
 import com.tencent.mm.arscutil.data.ResChunk;
 import com.tencent.mm.arscutil.data.ResConfig;
-import com.tencent.mm.arscutil.data.ResEntry;
-import com.tencent.mm.arscutil.data.ResMapValue;
 import com.tencent.mm.arscutil.data.ResPackage;
 import com.tencent.mm.arscutil.data.ResStringBlock;
 import com.tencent.mm.arscutil.data.ResTable;
 import com.tencent.mm.arscutil.data.ResType;
 import com.tencent.mm.arscutil.data.ResTypeSpec;
-import com.tencent.mm.arscutil.data.ResValue;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Created by jinqiuchen on 18/7/29.
@@ -48,9 +40,8 @@ public class ArscReader {
     private static final String TAG = "ArscUtil.ArscReader";
 
     LittleEndianInputStream dataInput;
-    private ResTable globalResTable;
 
-    public ArscReader(String arscFile) throws FileNotFoundException {
+    public ArscReader(String arscFile) throws IOException {
         dataInput = new LittleEndianInputStream(arscFile);
         Log.i(TAG, "read From %s", arscFile);
     }
@@ -59,7 +50,6 @@ public class ArscReader {
         Log.d(TAG, "=============ResTable==============");
         long headStart = 0;
         ResTable resTable = new ResTable();
-        this.globalResTable = resTable;
         resTable.setStart(headStart);
         resTable.setType(dataInput.readShort());
         Log.d(TAG, "table type %d", resTable.getType());
@@ -208,82 +198,15 @@ public class ArscReader {
             }
             resType.setEntryOffsets(resEntryOffsets);
         }
+        //entry在用到时才解析
         dataInput.seek(headStart + resType.getEntryTableOffset());
-        List<ResEntry> entryTable = new ArrayList<ResEntry>();
-        for (int i = 0; i < resType.getEntryCount(); i++) {
-            if (resType.getEntryOffsets().get(i) != ArscConstants.NO_ENTRY_INDEX) {
-                entryTable.add(readResEntry(resPackage,
-                        headStart + resType.getEntryTableOffset() + resType.getEntryOffsets().get(i)));
-            } else {
-                entryTable.add(null);
-            }
-        }
-        resType.setEntryTable(entryTable);
+        resType.setEntryData(dataInput.readBuffer(resType.getChunkSize() - resType.getEntryTableOffset()), resPackage.getResNamePool());
         int chunkPaddingSize = (int) (resType.getChunkSize() + headStart - dataInput.getFilePointer());
         Log.d(TAG, "chunk padding size %d", chunkPaddingSize);
         resType.setChunkPadding(chunkPaddingSize);
         return resType;
     }
 
-    @SuppressWarnings("PMD")
-    private ResEntry readResEntry(ResPackage resPackage, long start) throws IOException {
-        Log.d(TAG, "==============ResEntry=============");
-        dataInput.seek(start);
-        ResEntry resEntry = new ResEntry();
-        resEntry.setSize(dataInput.readShort());
-        //Log.d(TAG, "resEntry size %d", resEntry.getSize());
-        resEntry.setFlag(dataInput.readShort());
-        Log.d(TAG, "resEntry flag %d", resEntry.getFlag());
-        resEntry.setStringPoolIndex(dataInput.readInt());
-
-        String entryName = ResStringBlock.resolveStringPoolEntry(resPackage.getResNamePool().getStrings().get(resEntry.getStringPoolIndex()).array(), resPackage.getResNamePool().getCharSet());
-        Log.d(TAG, "entryName %s", entryName);
-        resEntry.setEntryName(entryName);
-
-        if ((resEntry.getFlag() & ArscConstants.RES_TABLE_ENTRY_FLAG_COMPLEX) == 0) {
-            resEntry.setResValue(readResValue());
-        } else {
-            resEntry.setParent(dataInput.readInt());
-            resEntry.setPairCount(dataInput.readInt());
-            if (resEntry.getPairCount() > 0) {
-                List<ResMapValue> mapValues = new ArrayList<ResMapValue>();
-                for (int i = 0; i < resEntry.getPairCount(); i++) {
-                    mapValues.add(readResMapValue());
-                }
-                resEntry.setResMapValues(mapValues);
-            }
-        }
-        return resEntry;
-    }
-
-    private ResValue readResValue() throws IOException {
-        Log.d(TAG, "============ResValue===============");
-        ResValue resValue = new ResValue();
-        resValue.setSize(dataInput.readShort());
-        //Log.d(TAG, "resValue size %d", resValue.getSize());
-        resValue.setResvered(dataInput.readByte());
-        resValue.setDataType(dataInput.readByte());
-        Log.d(TAG, "resValue data type %d", resValue.getDataType());
-        resValue.setData(dataInput.readInt());
-        //Log.d(TAG, "resValue data %d", resValue.getData());
-
-        if (resValue.getDataType() == ArscConstants.RES_VALUE_DATA_TYPE_STRING) {
-            Log.d(TAG, "resValue string %s", ResStringBlock.resolveStringPoolEntry(globalResTable.getGlobalStringPool().getStrings().get(resValue.getData()).array(), globalResTable.getGlobalStringPool().getCharSet()));
-        } else {
-            Log.d(TAG, "resValue %s", resValue.printData());
-        }
-
-        return resValue;
-    }
-
-    private ResMapValue readResMapValue() throws IOException {
-        Log.d(TAG, "==============ResMapValue=============");
-        ResMapValue resValue = new ResMapValue();
-        resValue.setName(dataInput.readInt());
-        resValue.setResValue(readResValue());
-        return resValue;
-    }
-
     private ResConfig readResConfig() throws IOException {
         Log.d(TAG, "==============ResConfig=============");
         ResConfig config = new ResConfig();
@@ -338,28 +261,9 @@ public class ArscReader {
         }
         dataInput.seek(headStart + stringPool.getStringStart());
         if (stringPool.getStringCount() > 0) {
-            List<ByteBuffer> strings = new ArrayList<ByteBuffer>();
-            Map<String, Integer> stringIndexMap = new HashMap<>();
-            for (int i = 0; i < stringPool.getStringCount(); i++) {
-                byte[] buffer = null;
-                if (i < stringPool.getStringCount() - 1) {
-                    buffer = new byte[stringPool.getStringOffsets().get(i + 1) - stringPool.getStringOffsets().get(i)];
-                } else {
-                    if (stringPool.getStyleCount() > 0) {
-                        buffer = new byte[stringPool.getStyleStart() - (stringPool.getStringOffsets().get(i) + stringPool.getStringStart())];
-                    } else {
-                        buffer = new byte[stringPool.getChunkSize() - stringPool.getStringStart() - stringPool.getStringOffsets().get(i)];
-                    }
-                }
-                dataInput.read(buffer);
-                strings.add(ByteBuffer.allocate(buffer.length));
-                strings.get(i).order(ByteOrder.LITTLE_ENDIAN);
-                strings.get(i).clear();
-                strings.get(i).put(buffer);
-                stringIndexMap.put(ResStringBlock.resolveStringPoolEntry(buffer, stringPool.getCharSet()), i);
-            }
-            stringPool.setStrings(strings);
-            stringPool.setStringIndexMap(stringIndexMap);
+            //string在用到时才解码
+            int stringEnd = stringPool.getStyleCount() > 0 ? stringPool.getStyleStart() : stringPool.getChunkSize();
+            stringPool.setStringData(dataInput.readBuffer(stringEnd - stringPool.getStringStart()));
         }
         if (stringPool.getStyleCount() > 0) {
             byte[] styleBytes = new byte[stringPool.getChunkSize() - stringPool.getStyleStart()];
@@ -16,7 +16,7 @@
 
 package com.tencent.mm.arscutil.io;
 
-import java.io.FileNotFoundException;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
@@ -30,46 +30,54 @@ import java.nio.ByteOrder;
 public class LittleEndianInputStream extends InputStream {
 
     private RandomAccessFile original;
+    private ByteBuffer buffer; // 整个文件一次读入内存, 读取不再逐字节访问文件
 
 
-    public LittleEndianInputStream(String file) throws FileNotFoundException {
+    public LittleEndianInputStream(String file) throws IOException {
         this(new RandomAccessFile(file, "r"));
     }
 
 
-    public LittleEndianInputStream(RandomAccessFile original) {
+    public LittleEndianInputStream(RandomAccessFile original) throws IOException {
         this.original = original;
+        // 不使用文件映射, 映射在被回收前会锁住文件, Windows 上无法覆盖读过的 arsc 文件
+        byte[] content = new byte[(int) original.length()];
+        original.readFully(content);
+        this.buffer = ByteBuffer.wrap(content);
+        this.buffer.order(ByteOrder.LITTLE_ENDIAN);
     }
 
     @Override
     public int read() throws IOException {
-        // TODO Auto-generated method stub
-        return original.read();
+        return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        len = Math.min(len, buffer.remaining());
+        buffer.get(b, off, len);
+        return len;
     }
 
     public short readShort() throws IOException {
-        ByteBuffer byteBuffer = ByteBuffer.allocate(2);
-        byteBuffer.clear();
-        byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
-        byteBuffer.put(original.readByte());
-        byteBuffer.put(original.readByte());
-        byteBuffer.flip();
-        return byteBuffer.getShort();
+        require(2);
+        return buffer.getShort();
     }
 
     public int readInt() throws IOException {
-        ByteBuffer byteBuffer = ByteBuffer.allocate(4);
-        byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
-        byteBuffer.clear();
-        for (int i = 1; i <= 4; i++) {
-            byteBuffer.put(original.readByte());
-        }
-        byteBuffer.flip();
-        return byteBuffer.getInt();
+        require(4);
+        return buffer.getInt();
     }
 
     public byte readByte() throws IOException {
-        return original.readByte();
+        require(1);
+        return buffer.get();
     }
 
     public void readByte(byte[] buffer) throws IOException {
@@ -77,32 +85,47 @@ public class LittleEndianInputStream extends InputStream {
     }
 
     public void readByte(byte[] buffer, int offset, int length) throws IOException {
-        ByteBuffer byteBuffer = ByteBuffer.allocate(length);
-        byteBuffer.clear();
-        for (int i = 1; i <= length; i++) {
-            byteBuffer.put(original.readByte());
-        }
-        byteBuffer.flip();
-        byteBuffer.get(buffer, offset, length);
+        require(length);
+        this.buffer.get(buffer, offset, length);
+    }
+
+    /*
+     *  the next length bytes of the content read in memory, they are not copied again
+     */
+    public ByteBuffer readBuffer(int length) throws IOException {
+        require(length);
+        ByteBuffer slice = buffer.slice();
+        slice.limit(length);
+        slice.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(buffer.position() + length);
+        return slice;
     }
 
     public void seek(long pos) throws IOException {
-        original.seek(pos);
+        buffer.position((int) pos);
     }
 
     public long getFilePointer() throws IOException {
-        return original.getFilePointer();
+        return buffer.position();
     }
 
     public long getFileLength() throws IOException {
-        return original.length();
+        return buffer.limit();
     }
 
+    /*
+     *  the content is kept in memory, so the buffers read before can still be used after the file is closed
+     */
     @Override
     public void close() throws IOException {
-        // TODO Auto-generated method stub
         super.close();
         original.close();
     }
 
+    private void require(int length) throws EOFException {
+        if (length < 0 || buffer.remaining() < length) {
+            throw new EOFException();
+        }
+    }
+
 }
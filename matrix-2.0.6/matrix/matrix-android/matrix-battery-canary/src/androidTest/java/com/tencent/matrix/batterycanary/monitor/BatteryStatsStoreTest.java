@@ -0,0 +1,200 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.batterycanary.monitor;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.tencent.matrix.batterycanary.monitor.feature.JiffiesMonitorFeature;
+import com.tencent.matrix.batterycanary.monitor.feature.JiffiesMonitorFeature.JiffiesSnapshot;
+import com.tencent.matrix.batterycanary.monitor.feature.MonitorFeature.Snapshot.Delta;
+import com.tencent.matrix.batterycanary.monitor.feature.MonitorFeature.Snapshot.Sampler;
+import com.tencent.matrix.batterycanary.utils.BatteryCanaryUtil;
+import com.tencent.matrix.batterycanary.utils.RingFileStore;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(AndroidJUnit4.class)
+public class BatteryStatsStoreTest {
+    static final String TAG = "Matrix.test.BatteryStatsStoreTest";
+
+    Context mContext;
+    File mFile;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mFile = new File(mContext.getCacheDir(), "test-battery-stats.ring");
+        //noinspection ResultOfMethodCallIgnored
+        mFile.delete();
+    }
+
+    @After
+    public void shutDown() {
+        //noinspection ResultOfMethodCallIgnored
+        mFile.delete();
+    }
+
+    @Test
+    public void testRingEviction() throws IOException {
+        RingFileStore ring = RingFileStore.open(mFile, 4096);
+        byte[] data = new byte[100];
+        for (int i = 0; i < 1000; i++) {
+            data[0] = (byte) i;
+            Assert.assertTrue(ring.append(data, 0, data.length));
+        }
+        Assert.assertEquals(1000, ring.getSequence());
+        Assert.assertTrue(ring.getCount() > 0);
+        Assert.assertTrue(ring.getCount() * (data.length + 4) <= ring.getCapacity());
+        Assert.assertFalse(ring.append(new byte[ring.getCapacity()], 0, ring.getCapacity()));
+
+        final List<Long> sequences = new ArrayList<>();
+        ring.forEach(new RingFileStore.Visitor() {
+            @Override
+            public boolean onRecord(long sequence, @NonNull byte[] data, int offset, int length) {
+                Assert.assertEquals(100, length);
+                Assert.assertEquals((byte) (sequence - 1), data[offset]);
+                sequences.add(sequence);
+                return true;
+            }
+        });
+        Assert.assertEquals(ring.getCount(), sequences.size());
+        Assert.assertEquals(1000L, (long) sequences.get(sequences.size() - 1));
+        ring.close();
+    }
+
+    @Test
+    public void testRingSurvivesReopen() throws IOException {
+        RingFileStore ring = RingFileStore.open(mFile, 4096);
+        byte[] data = new byte[]{1, 2, 3};
+        for (int i = 0; i < 10; i++) {
+            ring.append(data, 0, data.length);
+        }
+        ring.close();
+
+        ring = RingFileStore.open(mFile, 4096);
+        Assert.assertEquals(10, ring.getCount());
+        Assert.assertEquals(10, ring.getSequence());
+        ring.close();
+
+        // Resized ring is reset
+        ring = RingFileStore.open(mFile, 8192);
+        Assert.assertEquals(0, ring.getCount());
+        ring.close();
+    }
+
+    @Test
+    public void testQueryThreadJiffies() throws IOException {
+        BatteryStatsStore store = BatteryStatsStore.open(mFile, BatteryMonitorConfig.DEF_STATS_STORE_SIZE);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 5; i++) {
+            JiffiesSnapshot bgn = JiffiesSnapshot.currentJiffiesSnapshot(JiffiesMonitorFeature.ProcessInfo.getProcessInfo(), false);
+            long bgnMillis = System.currentTimeMillis();
+            //noinspection StatementWithEmptyBody
+            while (System.currentTimeMillis() - bgnMillis < 100L) {
+            }
+            JiffiesSnapshot end = JiffiesSnapshot.currentJiffiesSnapshot(JiffiesMonitorFeature.ProcessInfo.getProcessInfo(), false);
+            Delta<JiffiesSnapshot> delta = end.diff(bgn);
+            store.appendJiffies(now - (4 - i) * 10 * BatteryCanaryUtil.ONE_MIN, delta);
+        }
+        store.close();
+
+        store = BatteryStatsStore.open(mFile, BatteryMonitorConfig.DEF_STATS_STORE_SIZE);
+        List<BatteryStatsStore.ThreadJiffies> all = store.queryThreadJiffies(0);
+        List<BatteryStatsStore.ThreadJiffies> last30Min = store.queryThreadJiffies(now - 30 * BatteryCanaryUtil.ONE_MIN + 1);
+        Assert.assertFalse(all.isEmpty());
+        Assert.assertFalse(last30Min.isEmpty());
+        Assert.assertTrue(all.get(0).jiffies >= last30Min.get(0).jiffies);
+        for (int i = 1; i < all.size(); i++) {
+            Assert.assertTrue(all.get(i - 1).jiffies >= all.get(i).jiffies);
+        }
+        Assert.assertTrue(store.queryTotalJiffies(0) >= store.queryTotalJiffies(now));
+
+        final AtomicInteger count = new AtomicInteger();
+        store.query(BatteryStatsStore.KIND_JIFFIES, now - 30 * BatteryCanaryUtil.ONE_MIN + 1, new BatteryStatsStore.RecordVisitor() {
+            @Override
+            public boolean onRecord(int kind, long timeMillis, long duringMillis, @NonNull BatteryStatsStore.Reader reader) {
+                Assert.assertEquals(BatteryStatsStore.KIND_JIFFIES, kind);
+                Assert.assertTrue(duringMillis >= 100L);
+                count.incrementAndGet();
+                return true;
+            }
+        });
+        Assert.assertEquals(3, count.get());
+        store.close();
+    }
+
+    @Test
+    public void testDeviceStats() throws IOException {
+        BatteryStatsStore store = BatteryStatsStore.open(mFile, BatteryMonitorConfig.DEF_STATS_STORE_SIZE);
+        long now = System.currentTimeMillis();
+        AppStats appStats = new AppStats();
+        appStats.isValid = true;
+        appStats.duringMillis = 10 * BatteryCanaryUtil.ONE_MIN;
+        appStats.appFgRatio = 100;
+        appStats.devChargingRatio = 20;
+        appStats.devUnChargingRatio = 10;
+        appStats.devSceneOffRatio = 60;
+        appStats.devLowEnergyRatio = 10;
+        Sampler.Result cpuFreq = new Sampler.Result();
+        cpuFreq.count = 5;
+        cpuFreq.sampleMax = 2400000;
+        cpuFreq.sampleAvg = 1800000.4;
+        store.appendAppStats(now, appStats);
+        store.appendDeviceStats(now, appStats, cpuFreq);
+        store.appendDeviceStats(now + 1, appStats, null);
+        store.close();
+
+        store = BatteryStatsStore.open(mFile, BatteryMonitorConfig.DEF_STATS_STORE_SIZE);
+        final List<long[]> rows = new ArrayList<>();
+        store.query(BatteryStatsStore.KIND_DEVICE_STAT, 0, new BatteryStatsStore.RecordVisitor() {
+            @Override
+            public boolean onRecord(int kind, long timeMillis, long duringMillis, @NonNull BatteryStatsStore.Reader reader) {
+                Assert.assertEquals(BatteryStatsStore.KIND_DEVICE_STAT, kind);
+                Assert.assertEquals(10 * BatteryCanaryUtil.ONE_MIN, duringMillis);
+                long[] row = new long[8];
+                for (int i = 0; i < 6; i++) {
+                    row[i] = reader.readVarint();
+                }
+                if (row[5] > 0) {
+                    row[6] = reader.readVarint();
+                    row[7] = reader.readVarint();
+                }
+                Assert.assertFalse(reader.hasRemaining());
+                rows.add(row);
+                return true;
+            }
+        });
+        Assert.assertEquals(2, rows.size());
+        Assert.assertArrayEquals(new long[]{AppStats.DEV_STAT_SCREEN_OFF, 20, 10, 60, 10, 5, 2400000, 1800000}, rows.get(0));
+        Assert.assertArrayEquals(new long[]{AppStats.DEV_STAT_SCREEN_OFF, 20, 10, 60, 10, 0, 0, 0}, rows.get(1));
+        store.close();
+    }
+}
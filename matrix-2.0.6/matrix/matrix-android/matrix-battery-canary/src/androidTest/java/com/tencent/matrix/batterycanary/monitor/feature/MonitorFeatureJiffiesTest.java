@@ -186,6 +186,61 @@ public class MonitorFeatureJiffiesTest {
         Assert.assertEquals(diff.value.longValue(), curr.value.longValue());
     }
 
+    @Test
+    public void testJiffiesDiffWithManyThreads() {
+        int threadCount = 1000;
+        JiffiesSnapshot.ThreadJiffiesTable bgn = new JiffiesSnapshot.ThreadJiffiesTable(threadCount);
+        JiffiesSnapshot.ThreadJiffiesTable end = new JiffiesSnapshot.ThreadJiffiesTable(threadCount);
+        for (int i = threadCount - 1; i >= 0; i--) {
+            // Half of the threads exited and the others were newly added, one tid reused with a new name
+            if (i % 2 == 0) {
+                bgn.append(10000 + i, "thread-" + i, "S", i, true);
+            }
+            if (i % 2 == 0 || i % 3 == 0) {
+                end.append(10000 + i, i == 0 ? "reused" : "thread-" + i, "R", 2L * i + 1, true);
+            }
+        }
+        bgn.sortByTid();
+        end.sortByTid();
+
+        JiffiesSnapshot.ThreadJiffiesTable delta = end.diff(bgn);
+
+        int expectedCount = 0;
+        for (int i = 0; i < end.size(); i++) {
+            long jiffies = end.getJiffies(i);
+            boolean isNewAdded = true;
+            for (int j = 0; j < bgn.size(); j++) {
+                if (bgn.getTid(j) == end.getTid(i) && bgn.getName(j).equals(end.getName(i))) {
+                    jiffies -= bgn.getJiffies(j);
+                    isNewAdded = false;
+                    break;
+                }
+            }
+            if (jiffies <= 0) {
+                continue;
+            }
+            expectedCount++;
+            boolean found = false;
+            for (int k = 0; k < delta.size(); k++) {
+                if (delta.getTid(k) == end.getTid(i)) {
+                    Assert.assertEquals(jiffies, delta.getJiffies(k));
+                    Assert.assertEquals(isNewAdded, delta.isNewAdded(k));
+                    found = true;
+                    break;
+                }
+            }
+            Assert.assertTrue(found);
+        }
+        Assert.assertEquals(expectedCount, delta.size());
+        for (int k = 1; k < delta.size(); k++) {
+            Assert.assertTrue(delta.getJiffies(k - 1) >= delta.getJiffies(k));
+        }
+
+        JiffiesSnapshot.ThreadJiffiesSnapshot reused = delta.materialize(delta.size() - 1);
+        Assert.assertEquals(10000, reused.tid);
+        Assert.assertTrue(reused.isNewAdded);
+    }
+
     private BatteryMonitorCore mockMonitor() {
         BatteryMonitorConfig config = new BatteryMonitorConfig.Builder()
                 .enable(JiffiesMonitorFeature.class)
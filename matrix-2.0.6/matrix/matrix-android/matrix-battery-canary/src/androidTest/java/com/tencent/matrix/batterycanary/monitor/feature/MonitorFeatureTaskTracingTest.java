@@ -18,6 +18,9 @@ package com.tencent.matrix.batterycanary.monitor.feature;
 
 import android.app.Application;
 import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
 
 import com.tencent.matrix.Matrix;
 import com.tencent.matrix.batterycanary.BatteryCanary;
@@ -35,6 +38,8 @@ import org.junit.Ignore;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
@@ -301,6 +306,79 @@ public class MonitorFeatureTaskTracingTest {
             Assert.assertEquals(0, feat.mTaskJiffiesTrace.size());
             Assert.assertTrue("TIME CONSUMED: " + delta1 + " vs " + delta2 + ", inc: " + incRatio, incRatio <= 0.02f);
         }
+
+        @Test
+        public void benchmarkWithBusyLoopers() throws InterruptedException {
+            if (!TestUtils.isLaunchingFrom(Benchmark.class.getName())) {
+                return;
+            }
+
+            BatteryMonitorConfig config = new BatteryMonitorConfig.Builder()
+                    .enable(LooperTaskMonitorFeature.class)
+                    .build();
+            BatteryMonitorCore core = new BatteryMonitorCore(config);
+            core.start();
+            LooperTaskMonitorFeature feat = new LooperTaskMonitorFeature();
+            feat.configure(core);
+            feat.onTurnOn();
+
+            int looperCount = 16;
+            int loopCount = 200;
+
+            List<HandlerThread> loopers = new ArrayList<>();
+            for (int i = 0; i < looperCount; i++) {
+                HandlerThread handlerThread = new HandlerThread("busy-looper-" + i);
+                handlerThread.start();
+                loopers.add(handlerThread);
+            }
+
+            long delta1 = runBusyTasks(loopers, loopCount);
+            Assert.assertTrue(feat.mTaskRecorders.isEmpty());
+
+            for (HandlerThread item : loopers) {
+                feat.watchLooper(item);
+            }
+            long delta2 = runBusyTasks(loopers, loopCount);
+            float incRatio = (delta2 - delta1) / ((float) delta1);
+            Assert.assertEquals(0, feat.mTaskJiffiesTrace.size());
+            Assert.assertEquals(looperCount, feat.mTaskRecorders.size());
+
+            feat.mergeTaskRecords();
+            Assert.assertFalse(feat.currentJiffies().isEmpty());
+            for (HandlerThread item : loopers) {
+                Assert.assertNotNull(feat.getTaskStamps(item.getThreadId()));
+            }
+
+            feat.onTurnOff();
+            Assert.assertTrue(feat.mTaskRecorders.isEmpty());
+            for (HandlerThread item : loopers) {
+                item.quit();
+            }
+            Assert.assertTrue("TIME CONSUMED: " + delta1 + " vs " + delta2 + ", inc: " + incRatio, incRatio <= 0.05f);
+        }
+
+        private static long runBusyTasks(List<HandlerThread> loopers, int loopCount) throws InterruptedException {
+            final CountDownLatch latch = new CountDownLatch(loopers.size() * loopCount);
+            long bgnMillis = System.currentTimeMillis();
+            for (HandlerThread item : loopers) {
+                Handler handler = new Handler(item.getLooper());
+                for (int i = 0; i < loopCount; i++) {
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            // Keep the cpu busy, so that every task consumes jiffies
+                            long bgn = SystemClock.currentThreadTimeMillis();
+                            //noinspection StatementWithEmptyBody
+                            while (SystemClock.currentThreadTimeMillis() - bgn < 5L) {
+                            }
+                            latch.countDown();
+                        }
+                    });
+                }
+            }
+            latch.await();
+            return System.currentTimeMillis() - bgnMillis;
+        }
     }
 
 
@@ -160,4 +160,71 @@ public class SamplerTest {
         Assert.assertEquals(1d, result.sampleMin, 0.1);
         Assert.assertEquals(55d / samplingCount, result.sampleAvg, 0.1);
     }
+
+    @Test
+    public void testCoalescedSampling() throws InterruptedException {
+        final BatteryMonitorCore monitor = mockMonitor();
+        SamplingScheduler scheduler = monitor.getSamplingScheduler();
+        scheduler.onForeground(true);
+        int wakeupBgn = scheduler.getWakeupCount();
+        int samplingBgn = scheduler.getSamplingCount();
+
+        MonitorFeature.Snapshot.Sampler[] samplers = new MonitorFeature.Snapshot.Sampler[3];
+        for (int i = 0; i < samplers.length; i++) {
+            final AtomicInteger counter = new AtomicInteger(0);
+            samplers[i] = new MonitorFeature.Snapshot.Sampler(scheduler, new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return counter.addAndGet(100);
+                }
+            });
+            samplers[i].setInterval(1000L);
+            samplers[i].start();
+            Thread.sleep(150L);
+        }
+        Thread.sleep(5000L);
+        for (MonitorFeature.Snapshot.Sampler sampler : samplers) {
+            sampler.pause();
+            MonitorFeature.Snapshot.Sampler.Result result = sampler.getResult();
+            Assert.assertNotNull(result);
+            Assert.assertTrue(result.count >= 3);
+        }
+
+        int wakeups = scheduler.getWakeupCount() - wakeupBgn;
+        int samplings = scheduler.getSamplingCount() - samplingBgn;
+        Assert.assertTrue("wakeups = " + wakeups + ", samplings = " + samplings, wakeups * 2 < samplings);
+    }
+
+    @Test
+    public void testStableSamplingBackoff() throws InterruptedException {
+        final BatteryMonitorCore monitor = mockMonitor();
+        MonitorFeature.Snapshot.Sampler stable = new MonitorFeature.Snapshot.Sampler(monitor.getSamplingScheduler(), new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return 1;
+            }
+        });
+        MonitorFeature.Snapshot.Sampler fixed = new MonitorFeature.Snapshot.Sampler(monitor.getSamplingScheduler(), new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return 1;
+            }
+        });
+        stable.setAdaptive(true);
+
+        stable.setInterval(10L);
+        fixed.setInterval(10L);
+        stable.start();
+        fixed.start();
+        Thread.sleep(1000L);
+        stable.pause();
+        fixed.pause();
+
+        MonitorFeature.Snapshot.Sampler.Result stableResult = stable.getResult();
+        MonitorFeature.Snapshot.Sampler.Result fixedResult = fixed.getResult();
+        Assert.assertNotNull(stableResult);
+        Assert.assertNotNull(fixedResult);
+        Assert.assertTrue(stableResult.count * 2 < fixedResult.count);
+        Assert.assertEquals(1d, stableResult.sampleAvg, 0.1);
+    }
 }
@@ -38,7 +38,9 @@ import org.junit.runner.RunWith;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import androidx.annotation.NonNull;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import androidx.test.platform.app.InstrumentationRegistry;
 
@@ -190,4 +192,52 @@ public class StatFeatureCpuTest {
             item.join();
         }
     }
+
+    @Test
+    public void testEnergyEstimator() throws InterruptedException, IOException {
+        CpuStatFeature feature = new CpuStatFeature();
+        feature.configure(mockMonitor());
+        feature.onTurnOn();
+        Assert.assertTrue(feature.isSupported());
+
+        final CpuEnergyEstimator estimator = feature.createEnergyEstimator(4);
+        Assert.assertNotNull(estimator);
+        final AtomicInteger tickCount = new AtomicInteger();
+        final double[] threadMahSum = new double[1];
+        estimator.setListener(new CpuEnergyEstimator.Listener() {
+            @Override
+            public void onTick(@NonNull CpuEnergyEstimator.Series series, @NonNull JiffiesMonitorFeature.JiffiesSnapshot.ThreadJiffiesTable threadDeltas, double mahPerJiffy) {
+                tickCount.incrementAndGet();
+                threadMahSum[0] = 0;
+                for (int row = 0; row < threadDeltas.size(); row++) {
+                    threadMahSum[0] += threadDeltas.getJiffies(row) * mahPerJiffy;
+                }
+            }
+        });
+
+        // First tick primes the counters
+        Assert.assertEquals(0d, estimator.tick(), 0d);
+        Assert.assertEquals(0, estimator.getSeries().size());
+
+        for (int i = 0; i < 6; i++) {
+            long bgn = System.currentTimeMillis();
+            //noinspection StatementWithEmptyBody
+            while (System.currentTimeMillis() - bgn < 200L) {
+            }
+            double procMah = estimator.tick();
+            Assert.assertTrue(procMah >= 0);
+            // Thread attribution adds up to the proc mAh
+            Assert.assertEquals(procMah, threadMahSum[0], 1e-9);
+        }
+
+        CpuEnergyEstimator.Series series = estimator.getSeries();
+        Assert.assertEquals(6, tickCount.get());
+        Assert.assertEquals(4, series.size());
+        Assert.assertEquals(6, series.getCount());
+        Assert.assertTrue(series.getTotalCpuMah() > 0);
+        Assert.assertTrue(series.getTotalProcMah() > 0);
+        for (int i = 1; i < series.size(); i++) {
+            Assert.assertTrue(series.getUptimeMillis(i) > series.getUptimeMillis(i - 1));
+        }
+    }
 }
@@ -0,0 +1,215 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.batterycanary.utils;
+
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.tencent.matrix.batterycanary.TestUtils;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+@SuppressWarnings("SpellCheckingInspection")
+@RunWith(AndroidJUnit4.class)
+public class ProcFileReaderTest {
+
+    @Test
+    public void testReadProcStatSameAsSplits() throws ProcStatUtil.ParseException {
+        for (String path : listThreadStatPaths()) {
+            ProcStatUtil.ProcStat stat = new ProcStatUtil.ProcStat();
+            if (!ProcFileReader.readProcStat(path, stat)) {
+                continue; // thread died
+            }
+            ProcStatUtil.ProcStat expected = ProcStatUtil.parseWithSplits(BatteryCanaryUtil.cat(path));
+            Assert.assertEquals(expected.comm, stat.comm);
+            Assert.assertEquals(expected.stat, stat.stat);
+            // jiffies may grow between two reads
+            Assert.assertTrue(stat.utime >= 0 && Math.abs(expected.utime - stat.utime) <= 1);
+            Assert.assertTrue(stat.stime >= 0 && Math.abs(expected.stime - stat.stime) <= 1);
+            Assert.assertEquals(expected.cutime, stat.cutime);
+            Assert.assertEquals(expected.cstime, stat.cstime);
+        }
+    }
+
+    @Test
+    public void testRereadKeepsComm() throws ProcStatUtil.ParseException {
+        String path = "/proc/" + Process.myPid() + "/task/" + Process.myTid() + "/stat";
+        ProcStatUtil.ProcStat stat = new ProcStatUtil.ProcStat();
+        Assert.assertTrue(ProcFileReader.readProcStat(path, stat));
+        String comm = stat.comm;
+        long jiffies = stat.getJiffies();
+
+        for (int i = 0; i < 100000; i++) {
+            Math.sqrt(i);
+        }
+        Assert.assertTrue(ProcFileReader.readProcStat(path, stat));
+        Assert.assertSame(comm, stat.comm);
+        Assert.assertTrue(stat.getJiffies() >= jiffies);
+    }
+
+    @Test
+    public void testReadDeadThread() throws ProcStatUtil.ParseException {
+        Assert.assertFalse(ProcFileReader.readProcStat("/proc/" + Process.myPid() + "/task/" + Integer.MAX_VALUE + "/stat", new ProcStatUtil.ProcStat()));
+    }
+
+    @Test
+    public void testDeadThreadReadersDropped() throws Exception {
+        // More short-lived threads than the cached readers
+        for (int i = 0; i < 200; i++) {
+            ParkedThread thread = ParkedThread.launch();
+            Assert.assertTrue(ProcFileReader.readProcStat(thread.getStatPath(), new ProcStatUtil.ProcStat()));
+            thread.finish();
+        }
+
+        ParkedThread thread = ParkedThread.launch();
+        try {
+            Assert.assertTrue(ProcFileReader.readProcStat(thread.getStatPath(), new ProcStatUtil.ProcStat()));
+            Assert.assertFalse("cache should be full of dead threads", ProcFileReader.isCached(thread.getStatPath()));
+
+            // What a sweep over /proc/[pid]/task does
+            List<String> paths = listThreadStatPaths();
+            int[] tids = new int[paths.size()];
+            for (int i = 0; i < paths.size(); i++) {
+                tids[i] = Integer.parseInt(new File(paths.get(i)).getParentFile().getName());
+            }
+            Arrays.sort(tids);
+            ProcFileReader.retainThreads(Process.myPid(), tids, tids.length);
+
+            Assert.assertTrue(ProcFileReader.readProcStat(thread.getStatPath(), new ProcStatUtil.ProcStat()));
+            Assert.assertTrue(ProcFileReader.isCached(thread.getStatPath()));
+        } finally {
+            thread.finish();
+        }
+    }
+
+    private static final class ParkedThread extends Thread {
+        private final CountDownLatch mStarted = new CountDownLatch(1);
+        private final CountDownLatch mFinish = new CountDownLatch(1);
+        private volatile int mTid;
+
+        static ParkedThread launch() throws InterruptedException {
+            ParkedThread thread = new ParkedThread();
+            thread.start();
+            thread.mStarted.await();
+            return thread;
+        }
+
+        @Override
+        public void run() {
+            mTid = Process.myTid();
+            mStarted.countDown();
+            try {
+                mFinish.await();
+            } catch (InterruptedException ignored) {
+            }
+        }
+
+        String getStatPath() {
+            return "/proc/" + Process.myPid() + "/task/" + mTid + "/stat";
+        }
+
+        void finish() throws InterruptedException {
+            mFinish.countDown();
+            join();
+        }
+    }
+
+    private static List<String> listThreadStatPaths() {
+        List<String> paths = new ArrayList<>();
+        File[] dirs = new File("/proc/" + Process.myPid() + "/task").listFiles();
+        if (dirs != null) {
+            for (File item : dirs) {
+                if (item.isDirectory()) {
+                    paths.add(new File(item, "stat").getAbsolutePath());
+                }
+            }
+        }
+        return paths;
+    }
+
+    @RunWith(AndroidJUnit4.class)
+    public static class Benchmark {
+
+        @Test
+        public void testThreadStatBenchmark() throws ProcStatUtil.ParseException {
+            if (TestUtils.isAssembleTest()) return;
+
+            List<String> paths = listThreadStatPaths();
+            int times = 100;
+
+            long current = SystemClock.uptimeMillis();
+            for (int i = 0; i < times; i++) {
+                for (String path : paths) {
+                    ProcStatUtil.parseWithSplits(BatteryCanaryUtil.cat(path));
+                }
+            }
+            long splitsConsumed = SystemClock.uptimeMillis() - current;
+
+            current = SystemClock.uptimeMillis();
+            for (int i = 0; i < times; i++) {
+                for (String path : paths) {
+                    ProcStatUtil.BetterProcStatParser.parse(path, ProcStatUtil.getLocalBuffers());
+                }
+            }
+            long procStatReaderConsumed = SystemClock.uptimeMillis() - current;
+
+            ProcStatUtil.ProcStat stat = new ProcStatUtil.ProcStat();
+            current = SystemClock.uptimeMillis();
+            for (int i = 0; i < times; i++) {
+                for (String path : paths) {
+                    ProcFileReader.readProcStat(path, stat);
+                }
+            }
+            long procFileReaderConsumed = SystemClock.uptimeMillis() - current;
+
+            Assert.fail("TIME CONSUMED: splits = " + splitsConsumed + ", ProcStatReader = " + procStatReaderConsumed
+                    + ", ProcFileReader = " + procFileReaderConsumed + ", threads = " + paths.size());
+        }
+
+        @Test
+        public void testProcStatUtilBenchmark() throws ProcStatUtil.ParseException {
+            if (TestUtils.isAssembleTest()) return;
+
+            String path = "/proc/" + Process.myPid() + "/task/" + Process.myTid() + "/stat";
+            int times = 10000;
+
+            long current = SystemClock.uptimeMillis();
+            for (int i = 0; i < times; i++) {
+                ProcStatUtil.parseWithBufferForPath(path, new byte[128]);
+            }
+            long bufferConsumed = SystemClock.uptimeMillis() - current;
+
+            current = SystemClock.uptimeMillis();
+            for (int i = 0; i < times; i++) {
+                ProcStatUtil.parse(path);
+            }
+            long parseConsumed = SystemClock.uptimeMillis() - current;
+
+            Assert.fail("TIME CONSUMED: parseWithBuffer = " + bufferConsumed + ", parse(ProcFileReader) = " + parseConsumed);
+        }
+    }
+}
@@ -18,6 +18,7 @@ package com.tencent.matrix.batterycanary.utils;
 
 import android.content.Context;
 import android.net.wifi.WifiManager;
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.test.platform.app.InstrumentationRegistry;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
@@ -31,6 +32,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.lang.reflect.Method;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 
@@ -124,5 +126,45 @@ public class WifiManagerHookerTest {
         WifiManagerServiceHooker.release();
     }
 
-}
+    @Test
+    public void testBinderTracing() throws Exception {
+        if (TestUtils.isAssembleTest()) return;
+
+        final AtomicInteger scanInc = new AtomicInteger();
+        SystemServiceBinderHooker hooker = new SystemServiceBinderHooker(Context.WIFI_SERVICE, "android.net.wifi.IWifiManager", null);
+        hooker.getTracer()
+                .setStackSampleRate(10)
+                .putHandler("startScan", new BinderTracer.MethodHandler() {
+                    @Override
+                    public void onInvoke(@NonNull Method method, @Nullable Object[] args) {
+                        scanInc.incrementAndGet();
+                    }
+                });
+        Assert.assertTrue(hooker.doHook());
+
+        WifiManager wifiManager = (WifiManager) mContext.getSystemService(Context.WIFI_SERVICE);
+        for (int i = 0; i < 100; i++) {
+            wifiManager.startScan();
+            wifiManager.getScanResults();
+        }
+        hooker.doUnHook();
+        Assert.assertEquals(100, scanInc.get());
+
+        List<BinderTracer.MethodStats> stats = hooker.getTracer().getStats();
+        Assert.assertFalse(stats.isEmpty());
+        long scanCount = 0;
+        for (BinderTracer.MethodStats item : stats) {
+            Assert.assertTrue(item.maxNanos >= item.getAvgNanos());
+            if ("startScan".equals(item.name)) {
+                scanCount += item.count;
+                // All calls come from the same call site
+                Assert.assertEquals(1, item.callSites.size());
+                Assert.assertEquals(10, item.callSites.get(0).hits);
+            }
+        }
+        Assert.assertEquals(100, scanCount);
 
+        hooker.getTracer().reset();
+        Assert.assertTrue(hooker.getTracer().getStats().isEmpty());
+    }
+}
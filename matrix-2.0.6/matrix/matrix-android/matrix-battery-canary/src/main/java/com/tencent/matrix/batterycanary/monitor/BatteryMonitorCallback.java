@@ -354,10 +354,14 @@ public interface BatteryMonitorCallback extends
                         public void accept(final AppStats appStats) {
 
                             final long minute = appStats.getMinute();
-                            for (final ThreadJiffiesEntry threadJiffies : delta.dlt.threadEntries.getList()) {
-                                if (!threadJiffies.stat.toUpperCase().contains("R")) {
+                            // Scan the primitive rows, only running threads are materialized
+                            JiffiesSnapshot.ThreadJiffiesTable threadTable = delta.dlt.getThreadTable();
+                            for (int row = 0; row < threadTable.size(); row++) {
+                                String stat = threadTable.getStat(row);
+                                if (stat == null || !stat.toUpperCase().contains("R")) {
                                     continue;
                                 }
+                                final ThreadJiffiesEntry threadJiffies = threadTable.materialize(row);
                                 monitors.getFeature(JiffiesMonitorFeature.class, new Consumer<JiffiesMonitorFeature>() {
                                     @Override
                                     public void accept(JiffiesMonitorFeature feature) {
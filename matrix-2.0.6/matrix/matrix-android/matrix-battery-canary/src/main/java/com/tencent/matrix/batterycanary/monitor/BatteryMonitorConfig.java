@@ -7,6 +7,7 @@ import androidx.annotation.Nullable;
 import com.tencent.matrix.batterycanary.BuildConfig;
 import com.tencent.matrix.batterycanary.monitor.feature.MonitorFeature;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -25,6 +26,7 @@ public class BatteryMonitorConfig {
     public static final long DEF_JIFFIES_DELAY = 30 * 1000L; // 30s
     public static final long DEF_FOREGROUND_SCHEDULE_TIME = 20 * 60 * 1000L; // 10min
     public static final long DEF_BACKGROUND_SCHEDULE_TIME = 10 * 60 * 1000L; // 10min
+    public static final int DEF_STATS_STORE_SIZE = 1024 * 1024; // 1MB
 
     public static final int AMS_HOOK_FLAG_BT = 0b00000001;
 
@@ -56,6 +58,9 @@ public class BatteryMonitorConfig {
     public List<String> tagBlackList = Collections.emptyList();
     public List<String> looperWatchList = Collections.emptyList();
     public List<String> threadWatchList = Collections.emptyList();
+    @Nullable
+    public File statsStoreFile;
+    public int statsStoreSize = DEF_STATS_STORE_SIZE;
     public final List<MonitorFeature> features = new ArrayList<>(3);
 
     private BatteryMonitorConfig() {
@@ -87,6 +92,8 @@ public class BatteryMonitorConfig {
                 + ", tagBlackList=" + tagBlackList
                 + ", looperWatchList=" + looperWatchList
                 + ", threadWatchList=" + threadWatchList
+                + ", statsStoreFile=" + statsStoreFile
+                + ", statsStoreSize=" + statsStoreSize
                 + ", features=" + features
                 + '}';
     }
@@ -260,6 +267,17 @@ public class BatteryMonitorConfig {
             return this;
         }
 
+        /**
+         * Keep the history of battery metrics in a ring file, see {@link BatteryStatsStore}.
+         */
+        public Builder enableStatsStore(File file, int sizeBytes) {
+            config.statsStoreFile = file;
+            if (sizeBytes > 0) {
+                config.statsStoreSize = sizeBytes;
+            }
+            return this;
+        }
+
         public BatteryMonitorConfig build() {
             Collections.sort(config.features, new Comparator<MonitorFeature>() {
                 @Override
@@ -21,12 +21,14 @@ import com.tencent.matrix.batterycanary.monitor.feature.MonitorFeature.Snapshot.
 import com.tencent.matrix.batterycanary.monitor.feature.MonitorFeature.Snapshot.Entry.ListEntry;
 import com.tencent.matrix.batterycanary.monitor.feature.NotificationMonitorFeature;
 import com.tencent.matrix.batterycanary.monitor.feature.NotificationMonitorFeature.BadNotification;
+import com.tencent.matrix.batterycanary.monitor.feature.SamplingScheduler;
 import com.tencent.matrix.batterycanary.monitor.feature.WakeLockMonitorFeature;
 import com.tencent.matrix.batterycanary.monitor.feature.WakeLockMonitorFeature.WakeLockTrace.WakeLockRecord;
 import com.tencent.matrix.batterycanary.utils.BatteryCanaryUtil;
 import com.tencent.matrix.util.MatrixHandlerThread;
 import com.tencent.matrix.util.MatrixLog;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.concurrent.Callable;
 
@@ -95,9 +97,12 @@ public class BatteryMonitorCore implements
 
     private final BatteryMonitorConfig mConfig;
     @NonNull private final Handler mHandler;
+    @NonNull private final SamplingScheduler mSamplingScheduler;
     @Nullable private ForegroundLoopCheckTask mFgLooperTask;
     @Nullable private BackgroundLoopCheckTask mBgLooperTask;
     @Nullable private TaskJiffiesSnapshot mLastInternalSnapshot;
+    @Nullable private BatteryStatsStore mStatsStore;
+    private boolean mStatsStoreFailed;
 
     @NonNull
     Callable<String> mSupplier = new Callable<String>() {
@@ -124,6 +129,8 @@ public class BatteryMonitorCore implements
         }
 
         mHandler = new Handler(MatrixHandlerThread.getDefaultHandlerThread().getLooper(), this);
+        mSamplingScheduler = SamplingScheduler.of(mHandler.getLooper());
+        mSamplingScheduler.onForeground(mAppForeground);
         enableForegroundLoopCheck(config.isForegroundModeEnabled);
         enableBackgroundLoopCheck(config.isBackgroundModeEnabled);
         mMonitorDelayMillis = config.greyTime;
@@ -190,6 +197,9 @@ public class BatteryMonitorCore implements
                 }
                 mTurnOn = true;
             }
+            if (Matrix.isInstalled()) {
+                mSamplingScheduler.attach(getContext());
+            }
             if (BatteryEventDelegate.isInit()) {
                 BatteryEventDelegate.getInstance().attach(this).startListening();
             }
@@ -224,6 +234,7 @@ public class BatteryMonitorCore implements
             return;
         }
         mAppForeground = isForeground;
+        mSamplingScheduler.onForeground(isForeground);
 
         if (BatteryEventDelegate.isInit()) {
             BatteryEventDelegate.getInstance().onForeground(isForeground);
@@ -280,6 +291,32 @@ public class BatteryMonitorCore implements
         return mHandler;
     }
 
+    @NonNull
+    public SamplingScheduler getSamplingScheduler() {
+        return mSamplingScheduler;
+    }
+
+    /**
+     * Opened on the first call, null if disabled by config or failed to open.
+     */
+    @Nullable
+    public BatteryStatsStore getStatsStore() {
+        if (mConfig.statsStoreFile == null) {
+            return null;
+        }
+        synchronized (this) {
+            if (mStatsStore == null && !mStatsStoreFailed) {
+                try {
+                    mStatsStore = BatteryStatsStore.open(mConfig.statsStoreFile, mConfig.statsStoreSize);
+                } catch (IOException e) {
+                    MatrixLog.printErrStackTrace(TAG, e, "open stats store fail: " + mConfig.statsStoreFile);
+                    mStatsStoreFailed = true;
+                }
+            }
+            return mStatsStore;
+        }
+    }
+
     public Context getContext() {
         // FIXME: context api configs
         return Matrix.with().getApplication();
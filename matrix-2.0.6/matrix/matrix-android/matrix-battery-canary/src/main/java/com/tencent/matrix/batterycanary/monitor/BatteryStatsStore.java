@@ -0,0 +1,479 @@
+package com.tencent.matrix.batterycanary.monitor;
+
+import com.tencent.matrix.batterycanary.monitor.feature.AlarmMonitorFeature.AlarmSnapshot;
+import com.tencent.matrix.batterycanary.monitor.feature.CompositeMonitors;
+import com.tencent.matrix.batterycanary.monitor.feature.DeviceStatMonitorFeature.BatteryTmpSnapshot;
+import com.tencent.matrix.batterycanary.monitor.feature.DeviceStatMonitorFeature.CpuFreqSnapshot;
+import com.tencent.matrix.batterycanary.monitor.feature.JiffiesMonitorFeature.JiffiesSnapshot;
+import com.tencent.matrix.batterycanary.monitor.feature.JiffiesMonitorFeature.JiffiesSnapshot.ThreadJiffiesTable;
+import com.tencent.matrix.batterycanary.monitor.feature.MonitorFeature.Snapshot.Delta;
+import com.tencent.matrix.batterycanary.monitor.feature.MonitorFeature.Snapshot.Entry.BeanEntry;
+import com.tencent.matrix.batterycanary.monitor.feature.MonitorFeature.Snapshot.Entry.DigitEntry;
+import com.tencent.matrix.batterycanary.monitor.feature.MonitorFeature.Snapshot.Sampler;
+import com.tencent.matrix.batterycanary.monitor.feature.WakeLockMonitorFeature.WakeLockSnapshot;
+import com.tencent.matrix.batterycanary.monitor.feature.WakeLockMonitorFeature.WakeLockTrace.WakeLockRecord;
+import com.tencent.matrix.batterycanary.utils.RingFileStore;
+import com.tencent.matrix.util.MatrixLog;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Battery metrics history kept in a {@link RingFileStore}, so that the recent history survives
+ * process death and can be queried without re-reading /proc.
+ * <p>
+ * Every record is one metric of one monitoring window:
+ * <pre>
+ *     kind | timeMillis | duringMillis | body
+ * </pre>
+ * Numbers are varint encoded (zigzag for signed ones), thread rows of jiffies are stored in
+ * columns: tids delta encoded, jiffies, then names deduplicated within the record.
+ *
+ * @see BatteryMonitorConfig.Builder#enableStatsStore(File, int)
+ */
+@SuppressWarnings("SpellCheckingInspection")
+public final class BatteryStatsStore implements Closeable {
+    private static final String TAG = "Matrix.battery.BatteryStatsStore";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static final int KIND_JIFFIES = 1;
+    public static final int KIND_WAKELOCK = 2;
+    public static final int KIND_ALARM = 3;
+    public static final int KIND_TEMPERATURE = 4;
+    public static final int KIND_APP_STAT = 5;
+    public static final int KIND_DEVICE_STAT = 6;
+
+    private static final int MAX_THREAD_ROWS = 512;
+    private static final int MAX_WAKELOCK_ROWS = 32;
+    private static final int MAX_STRING_BYTES = 256;
+
+    public interface RecordVisitor {
+        /**
+         * @param reader positioned at the body of the record, only valid during the call
+         * @return false to stop visiting
+         */
+        boolean onRecord(int kind, long timeMillis, long duringMillis, @NonNull Reader reader);
+    }
+
+    @NonNull
+    public static BatteryStatsStore open(@NonNull File file, int sizeBytes) throws IOException {
+        return new BatteryStatsStore(RingFileStore.open(file, sizeBytes));
+    }
+
+    private final RingFileStore mRing;
+    private final Writer mWriter = new Writer();
+    private final Reader mReader = new Reader();
+
+    private BatteryStatsStore(RingFileStore ring) {
+        mRing = ring;
+    }
+
+    @NonNull
+    public RingFileStore getRing() {
+        return mRing;
+    }
+
+    /**
+     * Append all the metrics finished by the given monitors.
+     */
+    public void append(@NonNull CompositeMonitors monitors) {
+        long timeMillis = System.currentTimeMillis();
+        Delta<JiffiesSnapshot> jiffies = monitors.getDelta(JiffiesSnapshot.class);
+        if (jiffies != null) {
+            appendJiffies(timeMillis, jiffies);
+        }
+        Delta<WakeLockSnapshot> wakeLocks = monitors.getDelta(WakeLockSnapshot.class);
+        if (wakeLocks != null) {
+            appendWakeLocks(timeMillis, wakeLocks);
+        }
+        Delta<AlarmSnapshot> alarms = monitors.getDelta(AlarmSnapshot.class);
+        if (alarms != null) {
+            appendAlarms(timeMillis, alarms);
+        }
+        Delta<BatteryTmpSnapshot> temperature = monitors.getDelta(BatteryTmpSnapshot.class);
+        if (temperature != null) {
+            appendTemperature(timeMillis, temperature);
+        }
+        AppStats appStats = monitors.getAppStats();
+        if (appStats != null && appStats.isValid) {
+            appendAppStats(timeMillis, appStats);
+            appendDeviceStats(timeMillis, appStats, monitors.getSamplingResult(CpuFreqSnapshot.class));
+        }
+    }
+
+    public void appendJiffies(long timeMillis, @NonNull Delta<JiffiesSnapshot> delta) {
+        ThreadJiffiesTable table = delta.dlt.getThreadTable();
+        synchronized (mWriter) {
+            Writer writer = mWriter.begin(KIND_JIFFIES, timeMillis, delta.during);
+            writer.writeVarint(delta.dlt.pid);
+            writer.writeSigned(get(delta.dlt.totalJiffies));
+            writer.writeSigned(get(delta.dlt.threadNum));
+
+            int rows = 0;
+            for (int row = 0; row < table.size() && rows < MAX_THREAD_ROWS; row++) {
+                if (table.getJiffies(row) != 0) {
+                    rows++;
+                }
+            }
+            writer.writeVarint(rows);
+            // Columns, rows of a delta table are sorted by jiffies
+            int lastTid = 0;
+            for (int row = 0, i = 0; row < table.size() && i < rows; row++) {
+                if (table.getJiffies(row) != 0) {
+                    writer.writeSigned(table.getTid(row) - lastTid);
+                    lastTid = table.getTid(row);
+                    i++;
+                }
+            }
+            for (int row = 0, i = 0; row < table.size() && i < rows; row++) {
+                if (table.getJiffies(row) != 0) {
+                    writer.writeSigned(table.getJiffies(row));
+                    i++;
+                }
+            }
+            Map<String, Integer> names = new HashMap<>();
+            for (int row = 0, i = 0; row < table.size() && i < rows; row++) {
+                if (table.getJiffies(row) != 0) {
+                    String name = String.valueOf(table.getName(row));
+                    Integer index = names.get(name);
+                    if (index != null) {
+                        writer.writeVarint(index + 1);
+                    } else {
+                        writer.writeVarint(0);
+                        writer.writeString(name);
+                        names.put(name, names.size());
+                    }
+                    i++;
+                }
+            }
+            commit(writer);
+        }
+    }
+
+    public void appendWakeLocks(long timeMillis, @NonNull Delta<WakeLockSnapshot> delta) {
+        synchronized (mWriter) {
+            Writer writer = mWriter.begin(KIND_WAKELOCK, timeMillis, delta.during);
+            writer.writeSigned(get(delta.dlt.totalWakeLockTime));
+            writer.writeSigned(get(delta.dlt.totalWakeLockCount));
+            writer.writeSigned(get(delta.dlt.totalAcquireCount));
+            writer.writeSigned(get(delta.dlt.totalReleaseCount));
+
+            List<BeanEntry<WakeLockRecord>> records = delta.dlt.totalWakeLockRecords == null
+                    ? Collections.<BeanEntry<WakeLockRecord>>emptyList() : delta.dlt.totalWakeLockRecords.getList();
+            int rows = Math.min(records.size(), MAX_WAKELOCK_ROWS);
+            writer.writeVarint(rows);
+            for (int i = 0; i < rows; i++) {
+                WakeLockRecord record = records.get(i).get();
+                writer.writeString(record == null ? "" : String.valueOf(record.tag));
+                writer.writeVarint(record == null ? 0 : record.flags);
+                writer.writeVarint(record == null ? 0 : record.getLockingTimeMillis());
+            }
+            commit(writer);
+        }
+    }
+
+    public void appendAlarms(long timeMillis, @NonNull Delta<AlarmSnapshot> delta) {
+        synchronized (mWriter) {
+            Writer writer = mWriter.begin(KIND_ALARM, timeMillis, delta.during);
+            writer.writeSigned(get(delta.dlt.totalCount));
+            writer.writeSigned(get(delta.dlt.tracingCount));
+            writer.writeSigned(get(delta.dlt.duplicatedGroup));
+            writer.writeSigned(get(delta.dlt.duplicatedCount));
+            commit(writer);
+        }
+    }
+
+    public void appendTemperature(long timeMillis, @NonNull Delta<BatteryTmpSnapshot> delta) {
+        synchronized (mWriter) {
+            Writer writer = mWriter.begin(KIND_TEMPERATURE, timeMillis, delta.during);
+            writer.writeSigned(get(delta.end.temp));
+            writer.writeSigned(get(delta.dlt.temp));
+            commit(writer);
+        }
+    }
+
+    public void appendAppStats(long timeMillis, @NonNull AppStats appStats) {
+        synchronized (mWriter) {
+            Writer writer = mWriter.begin(KIND_APP_STAT, timeMillis, appStats.duringMillis);
+            writer.writeVarint(appStats.appFgRatio);
+            writer.writeVarint(appStats.appBgRatio);
+            writer.writeVarint(appStats.appFgSrvRatio);
+            writer.writeString(appStats.sceneTop1 == null ? "" : appStats.sceneTop1);
+            writer.writeVarint(appStats.sceneTop1Ratio);
+            commit(writer);
+        }
+    }
+
+    /**
+     * Device status ratios of the window, then the sampled cpu freq (kHz) if any:
+     * <pre>
+     *     devStat | charging | unCharging | screenOff | lowEnergy | count [| max | avg]
+     * </pre>
+     */
+    public void appendDeviceStats(long timeMillis, @NonNull AppStats appStats, @Nullable Sampler.Result cpuFreq) {
+        synchronized (mWriter) {
+            Writer writer = mWriter.begin(KIND_DEVICE_STAT, timeMillis, appStats.duringMillis);
+            writer.writeVarint(appStats.getDevStat());
+            writer.writeVarint(appStats.devChargingRatio);
+            writer.writeVarint(appStats.devUnChargingRatio);
+            writer.writeVarint(appStats.devSceneOffRatio);
+            writer.writeVarint(appStats.devLowEnergyRatio);
+            int count = cpuFreq == null ? 0 : Math.max(cpuFreq.count, 0);
+            writer.writeVarint(count);
+            if (count > 0) {
+                writer.writeVarint(Math.round(cpuFreq.sampleMax));
+                writer.writeVarint(Math.round(cpuFreq.sampleAvg));
+            }
+            commit(writer);
+        }
+    }
+
+    /**
+     * Visit records of the given kind (or all kinds with 0) since the given wall time, oldest first.
+     */
+    public void query(final int kind, final long sinceMillis, @NonNull final RecordVisitor visitor) {
+        synchronized (mReader) {
+            mRing.forEach(new RingFileStore.Visitor() {
+                @Override
+                public boolean onRecord(long sequence, @NonNull byte[] data, int offset, int length) {
+                    Reader reader = mReader.reset(data, offset, length);
+                    try {
+                        int recordKind = (int) reader.readVarint();
+                        long timeMillis = reader.readVarint();
+                        long duringMillis = reader.readVarint();
+                        if ((kind != 0 && recordKind != kind) || timeMillis < sinceMillis) {
+                            return true;
+                        }
+                        return visitor.onRecord(recordKind, timeMillis, duringMillis, reader);
+                    } catch (IndexOutOfBoundsException e) {
+                        MatrixLog.w(TAG, "record corrupted, seq = " + sequence);
+                        return true;
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Jiffies of threads since the given wall time, merged by tid &amp; name and sorted by jiffies
+     * descending, e.g. the top threads of the last 30 min.
+     */
+    @NonNull
+    public List<ThreadJiffies> queryThreadJiffies(long sinceMillis) {
+        final Map<String, ThreadJiffies> merged = new HashMap<>();
+        query(KIND_JIFFIES, sinceMillis, new RecordVisitor() {
+            @Override
+            public boolean onRecord(int kind, long timeMillis, long duringMillis, @NonNull Reader reader) {
+                reader.readVarint(); // pid
+                reader.readSigned(); // totalJiffies
+                reader.readSigned(); // threadNum
+                int rows = (int) reader.readVarint();
+                int[] tids = new int[rows];
+                long[] jiffies = new long[rows];
+                int lastTid = 0;
+                for (int i = 0; i < rows; i++) {
+                    lastTid += (int) reader.readSigned();
+                    tids[i] = lastTid;
+                }
+                for (int i = 0; i < rows; i++) {
+                    jiffies[i] = reader.readSigned();
+                }
+                List<String> names = new ArrayList<>();
+                for (int i = 0; i < rows; i++) {
+                    int index = (int) reader.readVarint();
+                    String name;
+                    if (index == 0) {
+                        name = reader.readString();
+                        names.add(name);
+                    } else {
+                        name = names.get(index - 1);
+                    }
+                    String key = tids[i] + "@" + name;
+                    ThreadJiffies item = merged.get(key);
+                    if (item == null) {
+                        item = new ThreadJiffies(tids[i], name);
+                        merged.put(key, item);
+                    }
+                    item.jiffies += jiffies[i];
+                    item.lastTimeMillis = timeMillis;
+                }
+                return true;
+            }
+        });
+
+        List<ThreadJiffies> list = new ArrayList<>(merged.values());
+        Collections.sort(list, new Comparator<ThreadJiffies>() {
+            @Override
+            public int compare(ThreadJiffies o1, ThreadJiffies o2) {
+                return Long.compare(o2.jiffies, o1.jiffies);
+            }
+        });
+        return list;
+    }
+
+    /**
+     * Total proc jiffies since the given wall time.
+     */
+    public long queryTotalJiffies(long sinceMillis) {
+        final long[] total = new long[1];
+        query(KIND_JIFFIES, sinceMillis, new RecordVisitor() {
+            @Override
+            public boolean onRecord(int kind, long timeMillis, long duringMillis, @NonNull Reader reader) {
+                reader.readVarint(); // pid
+                total[0] += reader.readSigned();
+                return true;
+            }
+        });
+        return total[0];
+    }
+
+    public void clear() {
+        mRing.clear();
+    }
+
+    @Override
+    public void close() {
+        mRing.close();
+    }
+
+    private void commit(Writer writer) {
+        if (!mRing.append(writer.mBuffer, 0, writer.mLength)) {
+            MatrixLog.w(TAG, "record dropped, size = " + writer.mLength);
+        }
+    }
+
+    private static long get(@Nullable DigitEntry<? extends Number> entry) {
+        if (entry == null) {
+            return 0;
+        }
+        Number number = entry.get();
+        return number == null ? 0 : number.longValue();
+    }
+
+    public static final class ThreadJiffies {
+        public final int tid;
+        @NonNull
+        public final String name;
+        public long jiffies;
+        public long lastTimeMillis;
+
+        ThreadJiffies(int tid, @NonNull String name) {
+            this.tid = tid;
+            this.name = name;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "ThreadJiffies{" +
+                    "tid=" + tid +
+                    ", name='" + name + '\'' +
+                    ", jiffies=" + jiffies +
+                    '}';
+        }
+    }
+
+    static final class Writer {
+        byte[] mBuffer = new byte[512];
+        int mLength;
+
+        Writer begin(int kind, long timeMillis, long duringMillis) {
+            mLength = 0;
+            writeVarint(kind);
+            writeVarint(Math.max(timeMillis, 0));
+            writeVarint(Math.max(duringMillis, 0));
+            return this;
+        }
+
+        /**
+         * Unsigned LEB128, negative values take 10 bytes, see {@link #writeSigned(long)}.
+         */
+        void writeVarint(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                mBuffer[mLength++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            mBuffer[mLength++] = (byte) value;
+        }
+
+        void writeSigned(long value) {
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+
+        void writeString(@NonNull String value) {
+            byte[] bytes = value.getBytes(UTF_8);
+            int length = Math.min(bytes.length, MAX_STRING_BYTES);
+            writeVarint(length);
+            ensure(length);
+            System.arraycopy(bytes, 0, mBuffer, mLength, length);
+            mLength += length;
+        }
+
+        private void ensure(int bytes) {
+            if (mLength + bytes > mBuffer.length) {
+                mBuffer = Arrays.copyOf(mBuffer, Math.max(mBuffer.length * 2, mLength + bytes));
+            }
+        }
+    }
+
+    public static final class Reader {
+        private byte[] mBuffer;
+        private int mPosition;
+        private int mLimit;
+
+        Reader reset(byte[] buffer, int offset, int length) {
+            mBuffer = buffer;
+            mPosition = offset;
+            mLimit = offset + length;
+            return this;
+        }
+
+        public boolean hasRemaining() {
+            return mPosition < mLimit;
+        }
+
+        public long readVarint() {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (mPosition >= mLimit) {
+                    throw new IndexOutOfBoundsException("varint truncated");
+                }
+                byte b = mBuffer[mPosition++];
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IndexOutOfBoundsException("varint too long");
+        }
+
+        public long readSigned() {
+            long value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        @NonNull
+        public String readString() {
+            int length = (int) readVarint();
+            if (length < 0 || mPosition + length > mLimit) {
+                throw new IndexOutOfBoundsException("string truncated");
+            }
+            String value = new String(mBuffer, mPosition, length, UTF_8);
+            mPosition += length;
+            return value;
+        }
+    }
+}
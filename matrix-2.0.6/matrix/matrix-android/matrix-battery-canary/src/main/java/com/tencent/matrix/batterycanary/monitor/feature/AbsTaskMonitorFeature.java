@@ -31,6 +31,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.tencent.matrix.batterycanary.monitor.BatteryMonitorConfig.DEF_STAMP_OVERHEAT;
 
@@ -39,6 +40,8 @@ public abstract class AbsTaskMonitorFeature extends AbsMonitorFeature {
     private static final String TAG = "Matrix.battery.AbsTaskMonitorFeature";
     private static final long INITIAL_JIFFIES = 0L;
     private static final long JIFFIES_PORTIONING_DELTA = 10L;
+    private static final long COOLING_DELAY_MILLIS = 1000L;
+    private static final int MAX_PENDING_TASKS = 1024;
 
     public static final String IDLE_TASK = "thread_pool@idle";
 
@@ -51,6 +54,12 @@ public abstract class AbsTaskMonitorFeature extends AbsMonitorFeature {
     @NonNull
     final protected SparseArray<List<TimeBreaker.Stamp>> mTaskStampList = new SparseArray<>();
     @NonNull
+    final protected List<TaskRecorder> mTaskRecorders = new ArrayList<>();
+    @NonNull
+    private final ThreadLocal<TaskRecorder> mCurrRecorder = new ThreadLocal<>();
+    @NonNull
+    private final AtomicBoolean mCoolingPending = new AtomicBoolean();
+    @NonNull
     protected TimeBreaker.Stamp mFirstTaskStamp;
 
     @Nullable
@@ -66,6 +75,8 @@ public abstract class AbsTaskMonitorFeature extends AbsMonitorFeature {
         @SuppressLint("RestrictedApi")
         @Override
         public void run() {
+            mCoolingPending.set(false);
+            mergeTaskRecords();
             onCoolingDown();
         }
     };
@@ -96,6 +107,12 @@ public abstract class AbsTaskMonitorFeature extends AbsMonitorFeature {
         synchronized (mTaskConcurrentTrace) {
             mTaskConcurrentTrace.clear();
         }
+        synchronized (mTaskRecorders) {
+            for (TaskRecorder item : mTaskRecorders) {
+                item.retired = true;
+            }
+            mTaskRecorders.clear();
+        }
         synchronized (mDeltaList) {
             mDeltaList.clear();
         }
@@ -114,6 +131,7 @@ public abstract class AbsTaskMonitorFeature extends AbsMonitorFeature {
         //     }
         // }
 
+        mergeTaskRecords();
         ArrayList<Delta<TaskJiffiesSnapshot>> list;
         synchronized (mDeltaList) {
             list = new ArrayList<>(mDeltaList);
@@ -165,23 +183,28 @@ public abstract class AbsTaskMonitorFeature extends AbsMonitorFeature {
 
     @Nullable
     public ArrayList<TimeBreaker.Stamp> getTaskStamps(int tid) {
+        List<TimeBreaker.Stamp> stamps;
         synchronized (mTaskStampList) {
-            List<TimeBreaker.Stamp> stamps = mTaskStampList.get(tid);
-            if (stamps != null) {
+            stamps = mTaskStampList.get(tid);
+        }
+        if (stamps != null) {
+            synchronized (stamps) {
                 return new ArrayList<>(stamps);
             }
-            return null;
         }
+        return null;
     }
 
     @SuppressLint("RestrictedApi")
     public TimeBreaker.TimePortions getTaskPortions(int tid, long jiffiesDelta, final long jiffiesEnd) {
+        List<TimeBreaker.Stamp> stampList;
         synchronized (mTaskStampList) {
-            if (jiffiesDelta < 0L || mTaskStampList.get(tid) == null) {
-                return TimeBreaker.TimePortions.ofInvalid();
-            }
-
-            List<TimeBreaker.Stamp> stampList = mTaskStampList.get(tid);
+            stampList = mTaskStampList.get(tid);
+        }
+        if (jiffiesDelta < 0L || stampList == null) {
+            return TimeBreaker.TimePortions.ofInvalid();
+        }
+        synchronized (stampList) {
             return TimeBreaker.configurePortions(stampList, jiffiesDelta, JIFFIES_PORTIONING_DELTA, new TimeBreaker.Stamp.Stamper() {
                 @Override
                 public TimeBreaker.Stamp stamp(String name) {
@@ -217,7 +240,7 @@ public abstract class AbsTaskMonitorFeature extends AbsMonitorFeature {
             TaskJiffiesSnapshot end = createSnapshot(key, Process.myTid());
             if (end != null) {
                 end.isFinished = true;
-                updateDeltas(bgn, end);
+                recordDeltas(bgn, end);
             }
             // Update task stamp list
             onStatTask(Process.myTid(), IDLE_TASK,
@@ -290,6 +313,21 @@ public abstract class AbsTaskMonitorFeature extends AbsMonitorFeature {
     }
 
     protected void onStatTask(int tid, @NonNull String taskName, long currJiffies) {
+        TaskRecorder recorder = currentRecorder();
+        List<TimeBreaker.Stamp> stampList = recorder.tid == tid ? recorder.stamps : obtainStampList(tid);
+        synchronized (stampList) {
+            stampList.add(0, new TimeBreaker.Stamp(taskName, currJiffies));
+            if (stampList.size() > mOverHeatCount * 2) {
+                // Busy thread outpaces the cooling, trim in place
+                TimeBreaker.gcList(stampList);
+            }
+        }
+
+        checkOverHeat();
+    }
+
+    @NonNull
+    private List<TimeBreaker.Stamp> obtainStampList(int tid) {
         synchronized (mTaskStampList) {
             List<TimeBreaker.Stamp> stampList = mTaskStampList.get(tid);
             if (stampList == null) {
@@ -297,12 +335,84 @@ public abstract class AbsTaskMonitorFeature extends AbsMonitorFeature {
                 stampList.add(0, mFirstTaskStamp);
                 mTaskStampList.put(tid, stampList);
             }
-            stampList.add(0, new TimeBreaker.Stamp(taskName, currJiffies));
+            return stampList;
+        }
+    }
+
+    /**
+     * The recorder of the calling thread, registered on the first task traced by the thread.
+     */
+    @NonNull
+    private TaskRecorder currentRecorder() {
+        TaskRecorder recorder = mCurrRecorder.get();
+        if (recorder == null || recorder.retired) {
+            int tid = Process.myTid();
+            recorder = new TaskRecorder(Thread.currentThread(), tid, obtainStampList(tid));
+            synchronized (mTaskRecorders) {
+                mTaskRecorders.add(recorder);
+            }
+            mCurrRecorder.set(recorder);
         }
+        return recorder;
+    }
 
+    /**
+     * Buffer the finished task in the recorder of the calling thread, the delta is computed and
+     * aggregated later by {@link #mergeTaskRecords()} on the monitor thread.
+     */
+    @WorkerThread
+    protected void recordDeltas(TaskJiffiesSnapshot bgn, TaskJiffiesSnapshot end) {
+        TaskRecorder recorder = currentRecorder();
+        synchronized (recorder) {
+            if (recorder.pending.size() >= MAX_PENDING_TASKS) {
+                recorder.dropped++;
+                return;
+            }
+            recorder.pending.add(new Pair<>(bgn, end));
+        }
         checkOverHeat();
     }
 
+    /**
+     * Merge the tasks buffered by all the recorders into {@link #mDeltaList}. Recorders of dead
+     * threads are dropped once drained.
+     */
+    @AnyThread
+    public void mergeTaskRecords() {
+        List<TaskRecorder> recorders;
+        synchronized (mTaskRecorders) {
+            if (mTaskRecorders.isEmpty()) {
+                return;
+            }
+            recorders = new ArrayList<>(mTaskRecorders);
+        }
+
+        for (TaskRecorder item : recorders) {
+            List<Pair<TaskJiffiesSnapshot, TaskJiffiesSnapshot>> pending;
+            int dropped;
+            synchronized (item) {
+                pending = item.pending;
+                dropped = item.dropped;
+                if (!pending.isEmpty()) {
+                    item.pending = new ArrayList<>();
+                }
+                item.dropped = 0;
+            }
+            if (dropped > 0) {
+                MatrixLog.w(TAG, "task records overflow, dropped = " + dropped + ", tid = " + item.tid);
+            }
+            //noinspection ConstantConditions
+            for (Pair<TaskJiffiesSnapshot, TaskJiffiesSnapshot> pair : pending) {
+                updateDeltas(pair.first, pair.second);
+            }
+            if (!item.thread.isAlive()) {
+                synchronized (mTaskRecorders) {
+                    mTaskRecorders.remove(item);
+                }
+            }
+        }
+    }
+
     protected void updateDeltas(TaskJiffiesSnapshot bgn, TaskJiffiesSnapshot end) {
         if (end.tid != bgn.tid) {
             String message = "task tid mismatch: " + bgn + " vs " + end;
@@ -390,8 +500,10 @@ public abstract class AbsTaskMonitorFeature extends AbsMonitorFeature {
     }
 
     protected void checkOverHeat() {
-        mCore.getHandler().removeCallbacks(coolingTask);
-        mCore.getHandler().postDelayed(coolingTask, 1000L);
+        // Post at most once per cooling, instead of re-posting on every task from every thread
+        if (mCoolingPending.compareAndSet(false, true)) {
+            mCore.getHandler().postDelayed(coolingTask, COOLING_DELAY_MILLIS);
+        }
     }
 
     protected void onCoolingDown() {
@@ -399,8 +511,12 @@ public abstract class AbsTaskMonitorFeature extends AbsMonitorFeature {
         synchronized (mTaskStampList) {
             for (int i = 0; i < mTaskStampList.size(); i++) {
                 List<TimeBreaker.Stamp> stampList = mTaskStampList.valueAt(i);
-                if (stampList != null && stampList.size() > mOverHeatCount) {
-                    TimeBreaker.gcList(stampList);
+                if (stampList != null) {
+                    synchronized (stampList) {
+                        if (stampList.size() > mOverHeatCount) {
+                            TimeBreaker.gcList(stampList);
+                        }
+                    }
                 }
             }
         }
@@ -461,6 +577,29 @@ public abstract class AbsTaskMonitorFeature extends AbsMonitorFeature {
         return snapshot;
     }
 
+    /**
+     * Per-thread task buffer. Stamps and finished tasks of a thread are only written by the thread
+     * itself, so the lock of a recorder is contended by the monitor thread at most, never by
+     * other traced threads.
+     */
+    protected static final class TaskRecorder {
+        @NonNull
+        final Thread thread;
+        final int tid;
+        @NonNull
+        final List<TimeBreaker.Stamp> stamps;
+        @NonNull
+        List<Pair<TaskJiffiesSnapshot, TaskJiffiesSnapshot>> pending = new ArrayList<>();
+        int dropped;
+        volatile boolean retired;
+
+        TaskRecorder(@NonNull Thread thread, int tid, @NonNull List<TimeBreaker.Stamp> stamps) {
+            this.thread = thread;
+            this.tid = tid;
+            this.stamps = stamps;
+        }
+    }
+
     public static class TaskJiffiesSnapshot extends Snapshot<TaskJiffiesSnapshot> {
         public int tid;
         public String name;
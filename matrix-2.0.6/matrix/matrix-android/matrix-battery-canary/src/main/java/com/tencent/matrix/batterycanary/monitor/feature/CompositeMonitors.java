@@ -4,6 +4,7 @@ import android.os.SystemClock;
 
 import com.tencent.matrix.batterycanary.monitor.AppStats;
 import com.tencent.matrix.batterycanary.monitor.BatteryMonitorCore;
+import com.tencent.matrix.batterycanary.monitor.BatteryStatsStore;
 import com.tencent.matrix.batterycanary.monitor.feature.MonitorFeature.Snapshot;
 import com.tencent.matrix.batterycanary.monitor.feature.MonitorFeature.Snapshot.Delta;
 import com.tencent.matrix.batterycanary.monitor.feature.MonitorFeature.Snapshot.Entry.DigitEntry;
@@ -231,6 +232,16 @@ public class CompositeMonitors {
         configureEndDeltas();
         configureSampleResults();
         mAppStats = AppStats.current(SystemClock.uptimeMillis() - mBgnMillis);
+        persistDeltas();
+    }
+
+    protected void persistDeltas() {
+        if (mMonitor != null) {
+            BatteryStatsStore store = mMonitor.getStatsStore();
+            if (store != null) {
+                store.append(this);
+            }
+        }
     }
 
     protected void configureBgnSnapshots() {
@@ -373,7 +384,7 @@ public class CompositeMonitors {
         if (snapshotClass == DeviceStatMonitorFeature.CpuFreqSnapshot.class) {
             final DeviceStatMonitorFeature feature = getFeature(DeviceStatMonitorFeature.class);
             if (feature != null && mMonitor != null) {
-                sampler = new Snapshot.Sampler(mMonitor.getHandler(), new Callable<Number>() {
+                sampler = new Snapshot.Sampler(mMonitor.getSamplingScheduler(), new Callable<Number>() {
                     @Override
                     public Number call() {
                         DeviceStatMonitorFeature.CpuFreqSnapshot snapshot = feature.currentCpuFreq();
@@ -387,6 +398,8 @@ public class CompositeMonitors {
                         return list.isEmpty() ? 0 : list.get(list.size() - 1).get();
                     }
                 });
+                // back off while the freq keeps stable, or in background and doze
+                sampler.setAdaptive(true);
                 mSamplers.put(snapshotClass, sampler);
             }
             return sampler;
@@ -394,13 +407,14 @@ public class CompositeMonitors {
         if (snapshotClass == DeviceStatMonitorFeature.BatteryTmpSnapshot.class) {
             final DeviceStatMonitorFeature feature = getFeature(DeviceStatMonitorFeature.class);
             if (feature != null && mMonitor != null) {
-                sampler = new Snapshot.Sampler(mMonitor.getHandler(), new Callable<Number>() {
+                sampler = new Snapshot.Sampler(mMonitor.getSamplingScheduler(), new Callable<Number>() {
                     @Override
                     public Number call() {
                         DeviceStatMonitorFeature.BatteryTmpSnapshot snapshot = feature.currentBatteryTemperature(mMonitor.getContext());
                         return snapshot.temp.get();
                     }
                 });
+                sampler.setAdaptive(true);
                 mSamplers.put(snapshotClass, sampler);
             }
             return sampler;
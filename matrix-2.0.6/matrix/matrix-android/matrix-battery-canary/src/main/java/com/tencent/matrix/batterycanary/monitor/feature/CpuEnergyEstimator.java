@@ -0,0 +1,332 @@
+package com.tencent.matrix.batterycanary.monitor.feature;
+
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.tencent.matrix.batterycanary.monitor.feature.JiffiesMonitorFeature.JiffiesSnapshot;
+import com.tencent.matrix.batterycanary.monitor.feature.JiffiesMonitorFeature.JiffiesSnapshot.ThreadJiffiesTable;
+import com.tencent.matrix.batterycanary.monitor.feature.JiffiesMonitorFeature.ProcessInfo;
+import com.tencent.matrix.batterycanary.monitor.feature.MonitorFeature.Snapshot.Sampler;
+import com.tencent.matrix.batterycanary.utils.KernelCpuSpeedReader;
+import com.tencent.matrix.batterycanary.utils.KernelCpuUidFreqTimeReader;
+import com.tencent.matrix.batterycanary.utils.PowerProfile;
+import com.tencent.matrix.util.MatrixLog;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import static com.tencent.matrix.batterycanary.utils.BatteryCanaryUtil.JIFFY_MILLIS;
+import static com.tencent.matrix.batterycanary.utils.BatteryCanaryUtil.ONE_HOR;
+
+/**
+ * Incremental cpu energy estimation with the {@link PowerProfile}.
+ * <p>
+ * The per-core and per-cluster frequency step jiffies of the last tick are kept in flat primitive
+ * arrays, so every tick costs O(cores &times; steps) with no boxing: device cpu mAh is the step
+ * jiffies delta weighted by the step power, and the proc mAh is the proc jiffies delta weighted
+ * by the proc's own step distribution (like {@link CpuStatFeature.CpuStateSnapshot#configureProcSip}).
+ * The proc mAh is then attributed to threads by their jiffies delta.
+ * <p>
+ * Each tick is appended to a {@link Series} and streamed to the {@link Listener}.
+ *
+ * @see CpuStatFeature#createEnergyEstimator(int)
+ */
+@SuppressWarnings("SpellCheckingInspection")
+public final class CpuEnergyEstimator {
+    private static final String TAG = "Matrix.battery.CpuEnergyEstimator";
+
+    public interface Listener {
+        /**
+         * Called on the estimating thread right after a tick was appended to the series.
+         *
+         * @param series        the latest tick is at {@code series.size() - 1}
+         * @param threadDeltas  jiffies delta of threads in this tick, sorted by jiffies descending
+         * @param mahPerJiffy   proc mAh of one jiffy in this tick, mAh of a thread is its jiffies delta times this
+         */
+        @WorkerThread
+        void onTick(@NonNull Series series, @NonNull ThreadJiffiesTable threadDeltas, double mahPerJiffy);
+    }
+
+    private final KernelCpuSpeedReader[] mCoreReaders;
+    private final int[] mCoreOffsets;
+    private final double[] mCoreStepMah;
+    private final KernelCpuUidFreqTimeReader mProcReader;
+    private final double[] mProcStepMah;
+
+    private long[] mLastCoreSteps;
+    private long[] mCurrCoreSteps;
+    private long[] mLastProcSteps;
+    private long[] mCurrProcSteps;
+    @Nullable
+    private ThreadJiffiesTable mLastThreads;
+    private long mLastMillis;
+    private double mLastMahPerJiffy;
+
+    private final Series mSeries;
+    private boolean mAttributeThreads = true;
+    @Nullable
+    private Listener mListener;
+    @Nullable
+    private Sampler mSampler;
+
+    CpuEnergyEstimator(@NonNull PowerProfile powerProfile, int seriesCapacity) {
+        int coreNum = powerProfile.getCpuCoreNum();
+        mCoreReaders = new KernelCpuSpeedReader[coreNum];
+        mCoreOffsets = new int[coreNum + 1];
+        for (int i = 0; i < coreNum; i++) {
+            int steps = powerProfile.getNumSpeedStepsInCpuCluster(powerProfile.getClusterByCpuNum(i));
+            mCoreReaders[i] = new KernelCpuSpeedReader(i, steps);
+            mCoreOffsets[i + 1] = mCoreOffsets[i] + steps;
+        }
+        mCoreStepMah = new double[mCoreOffsets[coreNum]];
+        for (int i = 0; i < coreNum; i++) {
+            int cluster = powerProfile.getClusterByCpuNum(i);
+            for (int step = 0; step < mCoreOffsets[i + 1] - mCoreOffsets[i]; step++) {
+                mCoreStepMah[mCoreOffsets[i] + step] = powerProfile.getAveragePowerForCpuCore(cluster, step) * JIFFY_MILLIS / ONE_HOR;
+            }
+        }
+
+        int[] clusterSteps = new int[powerProfile.getNumCpuClusters()];
+        int procSteps = 0;
+        for (int i = 0; i < clusterSteps.length; i++) {
+            clusterSteps[i] = powerProfile.getNumSpeedStepsInCpuCluster(i);
+            procSteps += clusterSteps[i];
+        }
+        mProcReader = new KernelCpuUidFreqTimeReader(Process.myPid(), clusterSteps);
+        mProcStepMah = new double[procSteps];
+        for (int cluster = 0, offset = 0; cluster < clusterSteps.length; offset += clusterSteps[cluster], cluster++) {
+            for (int step = 0; step < clusterSteps[cluster]; step++) {
+                mProcStepMah[offset + step] = powerProfile.getAveragePowerForCpuCore(cluster, step) * JIFFY_MILLIS / ONE_HOR;
+            }
+        }
+
+        mLastCoreSteps = new long[mCoreStepMah.length];
+        mCurrCoreSteps = new long[mCoreStepMah.length];
+        mLastProcSteps = new long[mProcStepMah.length];
+        mCurrProcSteps = new long[mProcStepMah.length];
+        mSeries = new Series(seriesCapacity);
+    }
+
+    public CpuEnergyEstimator setListener(@Nullable Listener listener) {
+        mListener = listener;
+        return this;
+    }
+
+    /**
+     * Thread attribution reads every /proc/self/task/[tid]/stat on each tick, disable it to
+     * estimate device &amp; proc energy only.
+     */
+    public CpuEnergyEstimator enableThreadAttribution(boolean enable) {
+        mAttributeThreads = enable;
+        return this;
+    }
+
+    @NonNull
+    public Series getSeries() {
+        return mSeries;
+    }
+
+    /**
+     * Tick periodically with the shared {@link SamplingScheduler}, so that the estimation backs
+     * off along with the other samplers while the app is idle.
+     */
+    public synchronized void start(@NonNull SamplingScheduler scheduler, long intervalMillis) {
+        if (mSampler != null) {
+            return;
+        }
+        mSampler = new Sampler(scheduler, new Callable<Number>() {
+            @Override
+            public Number call() throws Exception {
+                return tick();
+            }
+        });
+        mSampler.setInterval(intervalMillis);
+        mSampler.setAdaptive(true);
+        mSampler.start();
+    }
+
+    public synchronized void stop() {
+        if (mSampler != null) {
+            mSampler.pause();
+            mSampler = null;
+        }
+    }
+
+    /**
+     * Read the counters and estimate the energy consumed since the last tick. The first tick only
+     * primes the counters.
+     *
+     * @return proc mAh of this tick
+     */
+    @WorkerThread
+    public synchronized double tick() throws IOException {
+        long now = SystemClock.uptimeMillis();
+        for (int i = 0; i < mCoreReaders.length; i++) {
+            mCoreReaders[i].readAbsolute(mCurrCoreSteps, mCoreOffsets[i]);
+        }
+        mProcReader.readAbsolute(mCurrProcSteps);
+        ThreadJiffiesTable currThreads = null;
+        if (mAttributeThreads) {
+            currThreads = JiffiesSnapshot.currentJiffiesSnapshot(ProcessInfo.getProcessInfo(), false).getThreadTable();
+        }
+
+        boolean primed = mLastMillis > 0;
+        double cpuMah = 0;
+        double procMah = 0;
+        double mahPerJiffy = mLastMahPerJiffy;
+        long procJiffies = 0;
+        ThreadJiffiesTable threadDeltas = new ThreadJiffiesTable(0);
+        if (primed) {
+            for (int i = 0; i < mCurrCoreSteps.length; i++) {
+                // Counters of a hotplugged core may restart from zero
+                long delta = mCurrCoreSteps[i] - mLastCoreSteps[i];
+                if (delta > 0) {
+                    cpuMah += delta * mCoreStepMah[i];
+                }
+            }
+
+            long procStepJiffies = 0;
+            double procStepMah = 0;
+            for (int i = 0; i < mCurrProcSteps.length; i++) {
+                long delta = mCurrProcSteps[i] - mLastProcSteps[i];
+                if (delta > 0) {
+                    procStepJiffies += delta;
+                    procStepMah += delta * mProcStepMah[i];
+                }
+            }
+            if (procStepJiffies > 0) {
+                // Step distribution of this tick, keep the last one if the proc was idle
+                mahPerJiffy = procStepMah / procStepJiffies;
+                mLastMahPerJiffy = mahPerJiffy;
+            }
+
+            if (currThreads != null && mLastThreads != null) {
+                threadDeltas = currThreads.diff(mLastThreads);
+                procJiffies = 0;
+                for (int row = 0; row < threadDeltas.size(); row++) {
+                    procJiffies += threadDeltas.getJiffies(row);
+                }
+                procMah = procJiffies * mahPerJiffy;
+            } else {
+                procJiffies = procStepJiffies;
+                procMah = procStepMah;
+            }
+        }
+
+        long[] swap = mLastCoreSteps;
+        mLastCoreSteps = mCurrCoreSteps;
+        mCurrCoreSteps = swap;
+        swap = mLastProcSteps;
+        mLastProcSteps = mCurrProcSteps;
+        mCurrProcSteps = swap;
+        mLastThreads = currThreads;
+        long lastMillis = mLastMillis;
+        mLastMillis = now;
+
+        if (primed) {
+            mSeries.append(now, now - lastMillis, cpuMah, procMah, procJiffies);
+            Listener listener = mListener;
+            if (listener != null) {
+                try {
+                    listener.onTick(mSeries, threadDeltas, mahPerJiffy);
+                } catch (Throwable e) {
+                    MatrixLog.printErrStackTrace(TAG, e, "onTick error");
+                }
+            }
+        }
+        return procMah;
+    }
+
+    /**
+     * Fixed-capacity ring of ticks in primitive columns, the oldest tick is overwritten once full.
+     * Index 0 is the oldest tick kept. Totals count all ticks ever appended.
+     * <p>
+     * Not thread safe, read it in {@link Listener#onTick} or on the estimating thread.
+     */
+    public static final class Series {
+        private final long[] mUptimeMillis;
+        private final long[] mDuringMillis;
+        private final double[] mCpuMah;
+        private final double[] mProcMah;
+        private final long[] mProcJiffies;
+        private int mHead;
+        private int mSize;
+        private long mCount;
+        private double mTotalCpuMah;
+        private double mTotalProcMah;
+
+        Series(int capacity) {
+            capacity = Math.max(capacity, 1);
+            mUptimeMillis = new long[capacity];
+            mDuringMillis = new long[capacity];
+            mCpuMah = new double[capacity];
+            mProcMah = new double[capacity];
+            mProcJiffies = new long[capacity];
+        }
+
+        void append(long uptimeMillis, long duringMillis, double cpuMah, double procMah, long procJiffies) {
+            int capacity = mUptimeMillis.length;
+            int index = (mHead + mSize) % capacity;
+            if (mSize == capacity) {
+                mHead = (mHead + 1) % capacity;
+            } else {
+                mSize++;
+            }
+            mUptimeMillis[index] = uptimeMillis;
+            mDuringMillis[index] = duringMillis;
+            mCpuMah[index] = cpuMah;
+            mProcMah[index] = procMah;
+            mProcJiffies[index] = procJiffies;
+            mCount++;
+            mTotalCpuMah += cpuMah;
+            mTotalProcMah += procMah;
+        }
+
+        private int indexOf(int i) {
+            if (i < 0 || i >= mSize) {
+                throw new IndexOutOfBoundsException("index = " + i + ", size = " + mSize);
+            }
+            return (mHead + i) % mUptimeMillis.length;
+        }
+
+        public int size() {
+            return mSize;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getUptimeMillis(int i) {
+            return mUptimeMillis[indexOf(i)];
+        }
+
+        public long getDuringMillis(int i) {
+            return mDuringMillis[indexOf(i)];
+        }
+
+        public double getCpuMah(int i) {
+            return mCpuMah[indexOf(i)];
+        }
+
+        public double getProcMah(int i) {
+            return mProcMah[indexOf(i)];
+        }
+
+        public long getProcJiffies(int i) {
+            return mProcJiffies[indexOf(i)];
+        }
+
+        public double getTotalCpuMah() {
+            return mTotalCpuMah;
+        }
+
+        public double getTotalProcMah() {
+            return mTotalProcMah;
+        }
+    }
+}
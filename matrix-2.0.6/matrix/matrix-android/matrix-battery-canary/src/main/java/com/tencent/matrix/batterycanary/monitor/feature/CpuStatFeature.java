@@ -14,6 +14,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
 import static com.tencent.matrix.batterycanary.utils.BatteryCanaryUtil.JIFFY_MILLIS;
@@ -97,6 +98,23 @@ public class CpuStatFeature extends  AbsTaskMonitorFeature {
         return mPowerProfile;
     }
 
+    /**
+     * @param seriesCapacity count of the latest ticks kept in {@link CpuEnergyEstimator#getSeries()}
+     * @return null if the PowerProfile is not supported
+     */
+    @Nullable
+    public CpuEnergyEstimator createEnergyEstimator(int seriesCapacity) {
+        if (!isSupported()) {
+            return null;
+        }
+        synchronized (this) {
+            if (!isSupported()) {
+                return null;
+            }
+            return new CpuEnergyEstimator(mPowerProfile, seriesCapacity);
+        }
+    }
+
     public CpuStateSnapshot currentCpuStateSnapshot() {
         CpuStateSnapshot snapshot = new CpuStateSnapshot();
         try {
@@ -15,16 +15,21 @@ import com.tencent.matrix.batterycanary.monitor.BatteryMonitorCore;
 import com.tencent.matrix.batterycanary.monitor.feature.MonitorFeature.Snapshot.Entry.DigitEntry;
 import com.tencent.matrix.batterycanary.monitor.feature.MonitorFeature.Snapshot.Entry.ListEntry;
 import com.tencent.matrix.batterycanary.utils.BatteryCanaryUtil;
+import com.tencent.matrix.batterycanary.utils.ProcFileReader;
 import com.tencent.matrix.batterycanary.utils.ProcStatUtil;
 import com.tencent.matrix.util.MatrixLog;
 import com.tencent.matrix.util.MatrixUtil;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
 
 @SuppressWarnings("NotNullFieldNotInitialized")
 public final class JiffiesMonitorFeature extends AbsMonitorFeature {
@@ -134,17 +139,22 @@ public final class JiffiesMonitorFeature extends AbsMonitorFeature {
                         }
 
                         List<ThreadInfo> threadInfoList = new ArrayList<>(subDirs.length);
+                        int[] tids = new int[subDirs.length];
                         for (File file : subDirs) {
                             if (!file.isDirectory()) {
                                 continue;
                             }
                             try {
                                 ThreadInfo threadInfo = of(pid, Integer.parseInt(file.getName()));
+                                tids[threadInfoList.size()] = threadInfo.tid;
                                 threadInfoList.add(threadInfo);
                             } catch (Exception e) {
                                 MatrixLog.printErrStackTrace(TAG, e, "parse thread error: " + file.getName());
                             }
                         }
+                        // Close the stat files of the threads gone since the last sweep
+                        Arrays.sort(tids, 0, threadInfoList.size());
+                        ProcFileReader.retainThreads(pid, tids, threadInfoList.size());
                         return threadInfoList;
                     }
                 } catch (Exception e) {
@@ -167,7 +177,14 @@ public final class JiffiesMonitorFeature extends AbsMonitorFeature {
             public long jiffies;
 
             public void loadProcStat() throws IOException {
-                ProcStatUtil.ProcStat stat = ProcStatUtil.of(pid, tid);
+                loadProcStat(new ProcStatUtil.ProcStat());
+            }
+
+            /**
+             * @param reuse filled and reused across the threads of one sweep
+             */
+            public void loadProcStat(ProcStatUtil.ProcStat reuse) throws IOException {
+                ProcStatUtil.ProcStat stat = ProcStatUtil.of(pid, tid, reuse);
                 if (stat != null && !TextUtils.isEmpty(stat.comm)) {
                     this.name = stat.comm;
                     this.stat = stat.stat;
@@ -205,27 +222,30 @@ public final class JiffiesMonitorFeature extends AbsMonitorFeature {
                 }
             }
 
-            List<ThreadJiffiesSnapshot> threadJiffiesList = Collections.emptyList();
+            ThreadJiffiesTable threadTable = new ThreadJiffiesTable(processInfo.threadInfo.size());
             int threadNum = 0;
 
             if (processInfo.threadInfo.size() > 0) {
                 threadNum = processInfo.threadInfo.size();
-                threadJiffiesList = new ArrayList<>(processInfo.threadInfo.size());
+                ProcStatUtil.ProcStat stat = new ProcStatUtil.ProcStat();
                 for (ProcessInfo.ThreadInfo threadInfo : processInfo.threadInfo) {
-                    ThreadJiffiesSnapshot threadJiffies = ThreadJiffiesSnapshot.parseThreadJiffies(threadInfo);
-                    if (threadJiffies != null) {
-                        threadJiffiesList.add(threadJiffies);
-                        if (!isStatPidProc) {
-                            // acc of all tids' jiffies
-                            totalJiffies += threadJiffies.value;
-                        }
-                    } else {
+                    try {
+                        threadInfo.loadProcStat(stat);
+                    } catch (IOException e) {
+                        MatrixLog.printErrStackTrace(TAG, e, "parseThreadJiffies fail");
                         snapshot.setValid(false);
+                        continue;
+                    }
+                    threadTable.append(threadInfo.tid, threadInfo.name, threadInfo.stat, threadInfo.jiffies, true);
+                    if (!isStatPidProc) {
+                        // acc of all tids' jiffies
+                        totalJiffies += threadInfo.jiffies;
                     }
                 }
+                threadTable.sortByTid();
             }
             snapshot.totalJiffies = DigitEntry.of(totalJiffies);
-            snapshot.threadEntries = ListEntry.of(threadJiffiesList);
+            snapshot.threadEntries = ListEntry.of(new ThreadJiffiesList(threadTable));
             snapshot.threadNum = DigitEntry.of(threadNum);
             return snapshot;
         }
@@ -233,12 +253,34 @@ public final class JiffiesMonitorFeature extends AbsMonitorFeature {
         public int pid;
         public String name;
         public DigitEntry<Long> totalJiffies;
+        /**
+         * Backed by a {@link ThreadJiffiesTable}, items are only materialized when read.
+         */
         public ListEntry<ThreadJiffiesSnapshot> threadEntries;
         public DigitEntry<Integer> threadNum;
 
         private JiffiesSnapshot() {
         }
 
+        /**
+         * Primitive view of {@link #threadEntries}, without materializing any thread item.
+         */
+        @RestrictTo(RestrictTo.Scope.LIBRARY)
+        @NonNull
+        public ThreadJiffiesTable getThreadTable() {
+            List<ThreadJiffiesSnapshot> list = threadEntries.getList();
+            if (list instanceof ThreadJiffiesList) {
+                ThreadJiffiesTable table = ((ThreadJiffiesList) list).getTable();
+                if (table != null) {
+                    return table;
+                }
+            }
+            // The list has been modified or replaced
+            ThreadJiffiesTable table = ThreadJiffiesTable.of(list);
+            table.sortByTid();
+            return table;
+        }
+
         @Override
         public Delta<JiffiesSnapshot> diff(JiffiesSnapshot bgn) {
             return new Delta<JiffiesSnapshot>(bgn, this) {
@@ -249,47 +291,321 @@ public final class JiffiesMonitorFeature extends AbsMonitorFeature {
                     delta.name = end.name;
                     delta.totalJiffies = Differ.DigitDiffer.globalDiff(bgn.totalJiffies, end.totalJiffies);
                     delta.threadNum = Differ.DigitDiffer.globalDiff(bgn.threadNum, end.threadNum);
-                    delta.threadEntries = ListEntry.ofEmpty();
-
-                    if (end.threadEntries.getList().size() > 0) {
-                        List<ThreadJiffiesSnapshot> deltaThreadEntries = new ArrayList<>();
-                        for (ThreadJiffiesSnapshot endRecord : end.threadEntries.getList()) {
-                            boolean isNewAdded = true;
-                            long jiffiesConsumed = endRecord.value;
-                            for (ThreadJiffiesSnapshot bgnRecord : bgn.threadEntries.getList()) {
-                                if (bgnRecord.name.equals(endRecord.name) && bgnRecord.tid == endRecord.tid) {
-                                    isNewAdded = false;
-                                    jiffiesConsumed = Differ.DigitDiffer.globalDiff(bgnRecord, endRecord).value;
-                                    break;
-                                }
-                            }
-                            if (jiffiesConsumed > 0) {
-                                ThreadJiffiesSnapshot deltaThreadJiffies = new ThreadJiffiesSnapshot(jiffiesConsumed);
-                                deltaThreadJiffies.tid = endRecord.tid;
-                                deltaThreadJiffies.name = endRecord.name;
-                                deltaThreadJiffies.stat = endRecord.stat;
-                                deltaThreadJiffies.isNewAdded = isNewAdded;
-                                deltaThreadEntries.add(deltaThreadJiffies);
-                            }
-                        }
-                        if (deltaThreadEntries.size() > 0) {
-                            Collections.sort(deltaThreadEntries, new Comparator<ThreadJiffiesSnapshot>() {
-                                @Override
-                                public int compare(ThreadJiffiesSnapshot o1, ThreadJiffiesSnapshot o2) {
-                                    long minus = o1.get() - o2.get();
-                                    if (minus == 0) return 0;
-                                    if (minus > 0) return -1;
-                                    return 1;
-                                }
-                            });
-                            delta.threadEntries = ListEntry.of(deltaThreadEntries);
-                        }
-                    }
+
+                    ThreadJiffiesTable deltaTable = end.getThreadTable().diff(bgn.getThreadTable());
+                    delta.threadEntries = ListEntry.of(new ThreadJiffiesList(deltaTable));
                     return delta;
                 }
             };
         }
 
+        /**
+         * Thread jiffies kept in parallel primitive arrays: one row per thread, with names
+         * interned into a process-wide pool so that rows of two snapshots can be matched by
+         * tid and name index.
+         * <p>
+         * Rows of a snapshot are sorted by tid, so two snapshots are diffed with a single
+         * merge-join pass. Rows of a delta are sorted by consumed jiffies, descending.
+         */
+        @RestrictTo(RestrictTo.Scope.LIBRARY)
+        public static final class ThreadJiffiesTable {
+            private static final int MAX_POOLED_NAMES = 4096;
+            private static final int NO_NAME_INDEX = -1;
+            private static final int ROW_BITS = 20;
+            private static final long MAX_SORTING_JIFFIES = (1L << (63 - ROW_BITS)) - 1;
+            private static final Map<String, Integer> sNamePool = new HashMap<>();
+
+            /**
+             * @return stable index of the name, or {@link #NO_NAME_INDEX} once the pool is full
+             */
+            static int nameIndexOf(@Nullable String name) {
+                if (name == null) {
+                    return NO_NAME_INDEX;
+                }
+                synchronized (sNamePool) {
+                    Integer index = sNamePool.get(name);
+                    if (index != null) {
+                        return index;
+                    }
+                    if (sNamePool.size() >= MAX_POOLED_NAMES) {
+                        return NO_NAME_INDEX;
+                    }
+                    int newIndex = sNamePool.size();
+                    sNamePool.put(name, newIndex);
+                    return newIndex;
+                }
+            }
+
+            @NonNull
+            static ThreadJiffiesTable of(@NonNull List<? extends ThreadJiffiesEntry> entries) {
+                ThreadJiffiesTable table = new ThreadJiffiesTable(entries.size());
+                for (ThreadJiffiesEntry item : entries) {
+                    table.append(item.tid, item.name, item.stat, item.get(), item.isNewAdded);
+                }
+                return table;
+            }
+
+            private int mSize;
+            private int[] mTids;
+            private long[] mJiffies;
+            private int[] mNameIndices;
+            private String[] mNames;
+            private String[] mStats;
+            private boolean[] mNewAdded;
+            private boolean mSortedByTid = true;
+
+            ThreadJiffiesTable(int capacity) {
+                capacity = Math.max(capacity, 4);
+                mTids = new int[capacity];
+                mJiffies = new long[capacity];
+                mNameIndices = new int[capacity];
+                mNames = new String[capacity];
+                mStats = new String[capacity];
+                mNewAdded = new boolean[capacity];
+            }
+
+            public int size() {
+                return mSize;
+            }
+
+            public int getTid(int row) {
+                return mTids[row];
+            }
+
+            public long getJiffies(int row) {
+                return mJiffies[row];
+            }
+
+            public String getName(int row) {
+                return mNames[row];
+            }
+
+            public String getStat(int row) {
+                return mStats[row];
+            }
+
+            public boolean isNewAdded(int row) {
+                return mNewAdded[row];
+            }
+
+            @NonNull
+            public ThreadJiffiesSnapshot materialize(int row) {
+                ThreadJiffiesSnapshot item = new ThreadJiffiesSnapshot(mJiffies[row]);
+                item.tid = mTids[row];
+                item.name = mNames[row];
+                item.stat = mStats[row];
+                item.isNewAdded = mNewAdded[row];
+                return item;
+            }
+
+            void append(int tid, String name, String stat, long jiffies, boolean isNewAdded) {
+                append(tid, nameIndexOf(name), name, stat, jiffies, isNewAdded);
+            }
+
+            private void append(int tid, int nameIndex, String name, String stat, long jiffies, boolean isNewAdded) {
+                if (mSize == mTids.length) {
+                    grow(mSize * 2);
+                }
+                if (mSize > 0 && mTids[mSize - 1] > tid) {
+                    mSortedByTid = false;
+                }
+                mTids[mSize] = tid;
+                mJiffies[mSize] = jiffies;
+                mNameIndices[mSize] = nameIndex;
+                mNames[mSize] = name;
+                mStats[mSize] = stat;
+                mNewAdded[mSize] = isNewAdded;
+                mSize++;
+            }
+
+            private void grow(int capacity) {
+                mTids = Arrays.copyOf(mTids, capacity);
+                mJiffies = Arrays.copyOf(mJiffies, capacity);
+                mNameIndices = Arrays.copyOf(mNameIndices, capacity);
+                mNames = Arrays.copyOf(mNames, capacity);
+                mStats = Arrays.copyOf(mStats, capacity);
+                mNewAdded = Arrays.copyOf(mNewAdded, capacity);
+            }
+
+            void sortByTid() {
+                if (mSortedByTid) {
+                    return;
+                }
+                // (tid, row) packed into one long, so that sorting needs no boxing
+                long[] keys = new long[mSize];
+                for (int i = 0; i < mSize; i++) {
+                    keys[i] = ((long) mTids[i] << 32) | i;
+                }
+                Arrays.sort(keys);
+                reorder(keys, 0xFFFFFFFFL, false);
+                mSortedByTid = true;
+            }
+
+            private void sortByJiffiesDesc() {
+                // (jiffies, row) packed into one long, a process never gets near 2^20 threads
+                long[] keys = new long[mSize];
+                for (int i = 0; i < mSize; i++) {
+                    keys[i] = (Math.min(mJiffies[i], MAX_SORTING_JIFFIES) << ROW_BITS) | i;
+                }
+                Arrays.sort(keys);
+                reorder(keys, (1L << ROW_BITS) - 1, true);
+                mSortedByTid = mSize <= 1;
+            }
+
+            private void reorder(long[] keys, long rowMask, boolean reversed) {
+                int[] tids = new int[mTids.length];
+                long[] jiffies = new long[mJiffies.length];
+                int[] nameIndices = new int[mNameIndices.length];
+                String[] names = new String[mNames.length];
+                String[] stats = new String[mStats.length];
+                boolean[] newAdded = new boolean[mNewAdded.length];
+                for (int i = 0; i < mSize; i++) {
+                    int row = (int) (keys[reversed ? mSize - 1 - i : i] & rowMask);
+                    tids[i] = mTids[row];
+                    jiffies[i] = mJiffies[row];
+                    nameIndices[i] = mNameIndices[row];
+                    names[i] = mNames[row];
+                    stats[i] = mStats[row];
+                    newAdded[i] = mNewAdded[row];
+                }
+                mTids = tids;
+                mJiffies = jiffies;
+                mNameIndices = nameIndices;
+                mNames = names;
+                mStats = stats;
+                mNewAdded = newAdded;
+            }
+
+            private boolean isSameThread(int row, ThreadJiffiesTable other, int otherRow) {
+                if (mTids[row] != other.mTids[otherRow]) {
+                    return false;
+                }
+                int nameIndex = mNameIndices[row];
+                int otherNameIndex = other.mNameIndices[otherRow];
+                if (nameIndex != NO_NAME_INDEX && otherNameIndex != NO_NAME_INDEX) {
+                    return nameIndex == otherNameIndex;
+                }
+                return mNames[row] == null ? other.mNames[otherRow] == null : mNames[row].equals(other.mNames[otherRow]);
+            }
+
+            /**
+             * Merge-join this (end) table against the bgn table, both sorted by tid.
+             *
+             * @return rows of the threads that consumed jiffies, sorted by jiffies descending
+             */
+            @NonNull
+            ThreadJiffiesTable diff(@NonNull ThreadJiffiesTable bgn) {
+                sortByTid();
+                bgn.sortByTid();
+
+                ThreadJiffiesTable delta = new ThreadJiffiesTable(mSize);
+                int bgnRow = 0;
+                for (int row = 0; row < mSize; row++) {
+                    int tid = mTids[row];
+                    while (bgnRow < bgn.mSize && bgn.mTids[bgnRow] < tid) {
+                        bgnRow++;
+                    }
+
+                    boolean isNewAdded = true;
+                    long jiffiesConsumed = mJiffies[row];
+                    // A reused tid with another name is taken as a new thread
+                    for (int candidate = bgnRow; candidate < bgn.mSize && bgn.mTids[candidate] == tid; candidate++) {
+                        if (isSameThread(row, bgn, candidate)) {
+                            isNewAdded = false;
+                            jiffiesConsumed = mJiffies[row] - bgn.mJiffies[candidate];
+                            break;
+                        }
+                    }
+                    if (jiffiesConsumed > 0) {
+                        delta.append(tid, mNameIndices[row], mNames[row], mStats[row], jiffiesConsumed, isNewAdded);
+                    }
+                }
+                delta.sortByJiffiesDesc();
+                return delta;
+            }
+        }
+
+        /**
+         * List view over a {@link ThreadJiffiesTable} that materializes an item on its first read,
+         * so that reading the top N entries only creates N objects. Any modification detaches the
+         * list from the table into a plain list.
+         */
+        static final class ThreadJiffiesList extends AbstractList<ThreadJiffiesSnapshot> implements RandomAccess {
+            @Nullable
+            private ThreadJiffiesTable mTable;
+            @Nullable
+            private ThreadJiffiesSnapshot[] mItems;
+            @Nullable
+            private List<ThreadJiffiesSnapshot> mDetached;
+
+            ThreadJiffiesList(@NonNull ThreadJiffiesTable table) {
+                mTable = table;
+            }
+
+            @Nullable
+            synchronized ThreadJiffiesTable getTable() {
+                return mTable;
+            }
+
+            @Override
+            public synchronized ThreadJiffiesSnapshot get(int index) {
+                if (mDetached != null) {
+                    return mDetached.get(index);
+                }
+                //noinspection ConstantConditions
+                if (index < 0 || index >= mTable.size()) {
+                    throw new IndexOutOfBoundsException("index = " + index + ", size = " + mTable.size());
+                }
+                if (mItems == null) {
+                    mItems = new ThreadJiffiesSnapshot[mTable.size()];
+                }
+                ThreadJiffiesSnapshot item = mItems[index];
+                if (item == null) {
+                    item = mTable.materialize(index);
+                    mItems[index] = item;
+                }
+                return item;
+            }
+
+            @Override
+            public synchronized int size() {
+                //noinspection ConstantConditions
+                return mDetached != null ? mDetached.size() : mTable.size();
+            }
+
+            @Override
+            public synchronized ThreadJiffiesSnapshot set(int index, ThreadJiffiesSnapshot element) {
+                return detach().set(index, element);
+            }
+
+            @Override
+            public synchronized void add(int index, ThreadJiffiesSnapshot element) {
+                detach().add(index, element);
+                modCount++;
+            }
+
+            @Override
+            public synchronized ThreadJiffiesSnapshot remove(int index) {
+                ThreadJiffiesSnapshot removed = detach().remove(index);
+                modCount++;
+                return removed;
+            }
+
+            private List<ThreadJiffiesSnapshot> detach() {
+                if (mDetached == null) {
+                    //noinspection ConstantConditions
+                    List<ThreadJiffiesSnapshot> list = new ArrayList<>(mTable.size() + 1);
+                    for (int i = 0; i < mTable.size(); i++) {
+                        list.add(get(i));
+                    }
+                    mDetached = list;
+                    mTable = null;
+                    mItems = null;
+                }
+                return mDetached;
+            }
+        }
+
         /**
          * Use {@link ThreadJiffiesEntry} instead.
          */
@@ -288,7 +288,7 @@ public final class LooperTaskMonitorFeature extends AbsTaskMonitorFeature {
             TaskJiffiesSnapshot end = createSnapshot(key, Process.myTid());
             if (end != null) {
                 end.isFinished = true;
-                updateDeltas(bgn, end);
+                recordDeltas(bgn, end);
             }
             // Update task stamp list
             onStatTask(Process.myTid(), IDLE_TASK,
@@ -417,43 +417,26 @@ public interface MonitorFeature {
             }
         }
 
+        /**
+         * Samples a value periodically. Wakeups of all samplers on the same looper are coalesced
+         * by {@link SamplingScheduler}, and the interval of an adaptive sampler backs off while its
+         * value is stable, or while the app is in background or the device is dozing.
+         */
         public static class Sampler {
             private static final String TAG = "Matrix.battery.Sampler";
 
-            final Handler mHandler;
-            final Callable<? extends Number> mSamplingBlock;
+            /**
+             * Samples within this ratio of the last one count as stable
+             */
+            static final double STABLE_DELTA_RATIO = 0.01;
+            static final int STABLE_COUNT_TO_BACKOFF = 3;
+            static final int MAX_STABLE_BACKOFF = 8;
 
-            private final Runnable mSamplingTask = new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        Number currSample = mSamplingBlock.call();
-                        mSampleLst = currSample.doubleValue();
-                        mCount++;
-                        mSampleAvg = (mSampleAvg * (mCount - 1) + mSampleLst) / mCount;
-                        if (mSampleFst == Double.MIN_VALUE) {
-                            mSampleFst = mSampleLst;
-                            mSampleMax = mSampleLst;
-                            mSampleMin = mSampleLst;
-                        } else {
-                            if (mSampleLst > mSampleMax) {
-                                mSampleMax = mSampleLst;
-                            }
-                            if (mSampleLst < mSampleMin) {
-                                mSampleMin = mSampleLst;
-                            }
-                        }
-                    } catch (Exception e) {
-                        MatrixLog.printErrStackTrace(TAG, e, "onSamplingFailed: " + e);
-                    } finally {
-                        if (!mPaused) {
-                            mHandler.postDelayed(this, mInterval);
-                        }
-                    }
-                }
-            };
+            final SamplingScheduler mScheduler;
+            final Callable<? extends Number> mSamplingBlock;
 
-            boolean mPaused = true;
+            volatile boolean mPaused = true;
+            boolean mAdaptive = false;
             long mInterval = ONE_MIN;
             int mCount = 0;
             long mBgnMillis = 0;
@@ -464,8 +447,21 @@ public interface MonitorFeature {
             double mSampleMin = Double.MIN_VALUE;
             double mSampleAvg = Double.MIN_VALUE;
 
+            // Scheduling states, guarded by the scheduler
+            long mDueMillis;
+            long mLastSamplingMillis;
+            int mStableCount;
+            int mStableBackoff = 1;
+            int mJitterCount;
+            long mJitterSum;
+            long mJitterMax;
+
             public Sampler(Handler handler, Callable<? extends Number> onSampling) {
-                mHandler = handler;
+                this(SamplingScheduler.of(handler.getLooper()), onSampling);
+            }
+
+            public Sampler(SamplingScheduler scheduler, Callable<? extends Number> onSampling) {
+                mScheduler = scheduler;
                 mSamplingBlock = onSampling;
             }
 
@@ -475,16 +471,68 @@ public interface MonitorFeature {
                 }
             }
 
+            /**
+             * Back off the interval while the value keeps stable, or while the app is in background
+             * or the device is dozing. Samplers sample at the fixed interval by default.
+             */
+            public void setAdaptive(boolean adaptive) {
+                mAdaptive = adaptive;
+            }
+
             public void start() {
                 mPaused = false;
                 mBgnMillis = SystemClock.uptimeMillis();
-                mHandler.postDelayed(mSamplingTask, mInterval);
+                mScheduler.schedule(this, mBgnMillis);
             }
 
             public void pause() {
                 mPaused = true;
                 mEndMillis = SystemClock.uptimeMillis();
-                mHandler.removeCallbacks(mSamplingTask);
+                mScheduler.unschedule(this);
+            }
+
+            /**
+             * Called by the scheduler on its looper.
+             */
+            void sample() {
+                if (mPaused) {
+                    return;
+                }
+                try {
+                    Number currSample = mSamplingBlock.call();
+                    double lastSample = mSampleLst;
+                    mSampleLst = currSample.doubleValue();
+                    mCount++;
+                    mSampleAvg = (mSampleAvg * (mCount - 1) + mSampleLst) / mCount;
+                    if (mSampleFst == Double.MIN_VALUE) {
+                        mSampleFst = mSampleLst;
+                        mSampleMax = mSampleLst;
+                        mSampleMin = mSampleLst;
+                    } else {
+                        if (mSampleLst > mSampleMax) {
+                            mSampleMax = mSampleLst;
+                        }
+                        if (mSampleLst < mSampleMin) {
+                            mSampleMin = mSampleLst;
+                        }
+                        onStability(Math.abs(mSampleLst - lastSample) <= Math.abs(lastSample) * STABLE_DELTA_RATIO);
+                    }
+                } catch (Exception e) {
+                    MatrixLog.printErrStackTrace(TAG, e, "onSamplingFailed: " + e);
+                }
+            }
+
+            private void onStability(boolean stable) {
+                if (!stable) {
+                    mStableCount = 0;
+                    mStableBackoff = 1;
+                    return;
+                }
+                mStableCount++;
+                if (mStableCount >= STABLE_COUNT_TO_BACKOFF && mStableBackoff < MAX_STABLE_BACKOFF) {
+                    mStableCount = 0;
+                    mStableBackoff *= 2;
+                }
             }
 
             @Nullable
@@ -506,6 +554,10 @@ public interface MonitorFeature {
                 result.sampleMax = mSampleMax;
                 result.sampleMin = mSampleMin;
                 result.sampleAvg = mSampleAvg;
+                synchronized (mScheduler) {
+                    result.jitterAvg = mJitterCount > 0 ? mJitterSum / mJitterCount : 0;
+                    result.jitterMax = mJitterMax;
+                }
                 return result;
             }
 
@@ -518,6 +570,11 @@ public interface MonitorFeature {
                 public double sampleMax;
                 public double sampleMin;
                 public double sampleAvg;
+                /**
+                 * Millis between the due time and the actual sampling, early (coalesced) or late
+                 */
+                public long jitterAvg;
+                public long jitterMax;
             }
         }
     }
@@ -0,0 +1,274 @@
+package com.tencent.matrix.batterycanary.monitor.feature;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.tencent.matrix.batterycanary.monitor.feature.MonitorFeature.Snapshot.Sampler;
+import com.tencent.matrix.batterycanary.utils.BatteryCanaryUtil;
+import com.tencent.matrix.util.MatrixLog;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import static com.tencent.matrix.batterycanary.utils.BatteryCanaryUtil.ONE_MIN;
+
+/**
+ * Drives all the {@link Sampler}s of one looper with shared wakeups, instead of one
+ * delayed message per sampler, so that the monitor thread itself wakes up as rarely as possible.
+ * <p>
+ * 1. Due times of samplers with intervals longer than {@link #TICK_MILLIS} are aligned to a
+ * common tick, and a sampler may run up to 1/{@link #SLACK_DIVISOR} of its interval early to
+ * share the wakeup of another one.
+ * <p>
+ * 2. Adaptive samplers (opt-in) back off their intervals while the sampled value keeps stable, and while
+ * the app is in background or the device is in power save or doze mode.
+ * <p>
+ * 3. Scheduling jitter (millis between due time and actual sampling) is recorded for every
+ * sampler and wakeup.
+ *
+ * @see Sampler#setAdaptive(boolean)
+ */
+public final class SamplingScheduler {
+    private static final String TAG = "Matrix.battery.SamplingScheduler";
+
+    static final long TICK_MILLIS = 1000L;
+    static final int SLACK_DIVISOR = 4;
+    static final int BACKGROUND_BACKOFF = 2;
+    static final int IDLE_BACKOFF = 4;
+    static final int MAX_BACKOFF = 16;
+    static final long IDLE_CHECK_MILLIS = ONE_MIN;
+
+    /**
+     * Schedulers are held weakly: the handler of a scheduler refers to its looper, so a strong
+     * value would keep the looper key reachable forever. A scheduler with pending samplers is
+     * kept alive by its queued tick task.
+     */
+    private static final Map<Looper, WeakReference<SamplingScheduler>> sSchedulers = new WeakHashMap<>();
+
+    @NonNull
+    public static SamplingScheduler of(@NonNull Looper looper) {
+        synchronized (sSchedulers) {
+            WeakReference<SamplingScheduler> ref = sSchedulers.get(looper);
+            SamplingScheduler scheduler = ref != null ? ref.get() : null;
+            if (scheduler == null) {
+                scheduler = new SamplingScheduler(looper);
+                sSchedulers.put(looper, new WeakReference<>(scheduler));
+            }
+            return scheduler;
+        }
+    }
+
+    private final Handler mHandler;
+    private final List<Sampler> mSamplers = new ArrayList<>();
+    private final List<Sampler> mDueSamplers = new ArrayList<>();
+    private final Runnable mTickTask = new Runnable() {
+        @Override
+        public void run() {
+            onTick();
+        }
+    };
+
+    private long mWakeupMillis;
+    private boolean mForeground = true;
+    private boolean mDeviceIdle;
+    private long mLastIdleCheckMillis;
+    @Nullable
+    private Context mContext;
+
+    private int mWakeupCount;
+    private int mSamplingCount;
+    private long mJitterSum;
+    private long mJitterMax;
+
+    SamplingScheduler(Looper looper) {
+        mHandler = new Handler(looper);
+    }
+
+    /**
+     * Enable the power save &amp; doze mode checking.
+     */
+    public synchronized void attach(@NonNull Context context) {
+        mContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+    }
+
+    public synchronized void onForeground(boolean isForeground) {
+        if (mForeground == isForeground) {
+            return;
+        }
+        mForeground = isForeground;
+        if (isForeground) {
+            // Pull in the samplers that were backed off for background
+            long now = SystemClock.uptimeMillis();
+            for (Sampler item : mSamplers) {
+                long dueMillis = align(Math.max(now, item.mLastSamplingMillis + nextIntervalLocked(item)), item.mInterval);
+                if (dueMillis < item.mDueMillis) {
+                    item.mDueMillis = dueMillis;
+                }
+            }
+            rescheduleLocked();
+        }
+    }
+
+    synchronized void schedule(@NonNull Sampler sampler, long nowMillis) {
+        sampler.mStableCount = 0;
+        sampler.mStableBackoff = 1;
+        sampler.mLastSamplingMillis = nowMillis;
+        sampler.mDueMillis = align(nowMillis + nextIntervalLocked(sampler), sampler.mInterval);
+        if (!mSamplers.contains(sampler)) {
+            mSamplers.add(sampler);
+        }
+        rescheduleLocked();
+    }
+
+    synchronized void unschedule(@NonNull Sampler sampler) {
+        if (mSamplers.remove(sampler) && mSamplers.isEmpty()) {
+            MatrixLog.i(TAG, "sampling idle: " + this);
+        }
+        rescheduleLocked();
+    }
+
+    public synchronized int getWakeupCount() {
+        return mWakeupCount;
+    }
+
+    public synchronized int getSamplingCount() {
+        return mSamplingCount;
+    }
+
+    /**
+     * Millis of the wakeups later than scheduled
+     */
+    public synchronized long getJitterAvg() {
+        return mWakeupCount > 0 ? mJitterSum / mWakeupCount : 0;
+    }
+
+    public synchronized long getJitterMax() {
+        return mJitterMax;
+    }
+
+    @NonNull
+    @Override
+    public synchronized String toString() {
+        return "SamplingScheduler{" +
+                "samplers=" + mSamplers.size() +
+                ", wakeups=" + mWakeupCount +
+                ", samplings=" + mSamplingCount +
+                ", jitterAvg=" + getJitterAvg() +
+                ", jitterMax=" + mJitterMax +
+                ", fg=" + mForeground +
+                ", idle=" + mDeviceIdle +
+                '}';
+    }
+
+    private void onTick() {
+        long now = SystemClock.uptimeMillis();
+        checkDeviceIdle(now);
+
+        synchronized (this) {
+            if (mWakeupMillis > 0) {
+                long jitter = Math.max(0, now - mWakeupMillis);
+                mJitterSum += jitter;
+                mJitterMax = Math.max(mJitterMax, jitter);
+            }
+            mWakeupMillis = 0;
+            mWakeupCount++;
+
+            mDueSamplers.clear();
+            for (Sampler item : mSamplers) {
+                if (item.mDueMillis - slack(item) <= now) {
+                    mDueSamplers.add(item);
+                }
+            }
+        }
+
+        // Sampling blocks run out of the lock, samplers paused meanwhile are skipped
+        for (Sampler item : mDueSamplers) {
+            item.sample();
+        }
+
+        synchronized (this) {
+            for (Sampler item : mDueSamplers) {
+                if (!mSamplers.contains(item)) {
+                    continue;
+                }
+                long jitter = Math.abs(now - item.mDueMillis);
+                item.mJitterCount++;
+                item.mJitterSum += jitter;
+                item.mJitterMax = Math.max(item.mJitterMax, jitter);
+                item.mLastSamplingMillis = now;
+                // Keep the cadence of due times, so that a late wakeup does not skip a tick
+                long interval = nextIntervalLocked(item);
+                long dueMillis = align(item.mDueMillis + interval, item.mInterval);
+                item.mDueMillis = dueMillis > now ? dueMillis : align(now + interval, item.mInterval);
+                mSamplingCount++;
+            }
+            mDueSamplers.clear();
+            rescheduleLocked();
+        }
+    }
+
+    private void checkDeviceIdle(long now) {
+        Context context;
+        synchronized (this) {
+            if (mContext == null || now - mLastIdleCheckMillis < IDLE_CHECK_MILLIS) {
+                return;
+            }
+            mLastIdleCheckMillis = now;
+            context = mContext;
+        }
+        boolean idle = BatteryCanaryUtil.isDeviceOnPowerSave(context) || BatteryCanaryUtil.isDeviceOnIdleMode(context);
+        synchronized (this) {
+            mDeviceIdle = idle;
+        }
+    }
+
+    private void rescheduleLocked() {
+        long wakeupMillis = Long.MAX_VALUE;
+        for (Sampler item : mSamplers) {
+            wakeupMillis = Math.min(wakeupMillis, item.mDueMillis);
+        }
+        if (wakeupMillis == Long.MAX_VALUE) {
+            mHandler.removeCallbacks(mTickTask);
+            mWakeupMillis = 0;
+            return;
+        }
+        if (wakeupMillis != mWakeupMillis) {
+            mHandler.removeCallbacks(mTickTask);
+            mWakeupMillis = wakeupMillis;
+            mHandler.postAtTime(mTickTask, wakeupMillis);
+        }
+    }
+
+    private long nextIntervalLocked(Sampler sampler) {
+        if (!sampler.mAdaptive) {
+            return sampler.mInterval;
+        }
+        int backoff = sampler.mStableBackoff;
+        if (mDeviceIdle) {
+            backoff *= IDLE_BACKOFF;
+        } else if (!mForeground) {
+            backoff *= BACKGROUND_BACKOFF;
+        }
+        return sampler.mInterval * Math.min(backoff, MAX_BACKOFF);
+    }
+
+    private static long slack(Sampler sampler) {
+        return sampler.mInterval >= TICK_MILLIS ? sampler.mInterval / SLACK_DIVISOR : 0;
+    }
+
+    private static long align(long millis, long interval) {
+        if (interval < TICK_MILLIS) {
+            // Fast samplers keep their own pace
+            return millis;
+        }
+        return (millis + TICK_MILLIS - 1) / TICK_MILLIS * TICK_MILLIS;
+    }
+}
@@ -19,7 +19,7 @@ package com.tencent.matrix.batterycanary.utils;
 import android.app.AlarmManager;
 import android.app.PendingIntent;
 import android.content.Context;
-import android.os.Build;
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.RestrictTo;
 
@@ -43,20 +43,32 @@ public class AlarmManagerServiceHooker {
     }
 
     private static boolean sTryHook;
-    private static SystemServiceBinderHooker.HookCallback sHookCallback = new SystemServiceBinderHooker.HookCallback() {
-        @Override
-        public void onServiceMethodInvoke(Method method, Object[] args) {
-            MatrixLog.v(TAG, "onServiceMethodInvoke: method name %s", method.getName());
-            dispatchListeners(method, args);
-        }
+    private static SystemServiceBinderHooker sHookHelper = new SystemServiceBinderHooker(Context.ALARM_SERVICE, "android.app.IAlarmManager", null);
 
-        @Nullable
-        @Override
-        public Object onServiceMethodIntercept(Object receiver, Method method, Object[] args) {
-            return null;
-        }
-    };
-    private static SystemServiceBinderHooker sHookHelper = new SystemServiceBinderHooker(Context.ALARM_SERVICE, "android.app.IAlarmManager", sHookCallback);
+    static {
+        BinderTracer.MethodHandler setHandler = new BinderTracer.MethodHandler() {
+            @Override
+            public void onInvoke(@NonNull Method method, @Nullable Object[] args) {
+                dispatchSet(args);
+            }
+        };
+        sHookHelper.getTracer()
+                .putHandler("set", setHandler)
+                //jb-release ics-mr0-release
+                .putHandler("setRepeating", setHandler)
+                .putHandler("setInexactRepeating", setHandler)
+                .putHandler("remove", new BinderTracer.MethodHandler() {
+                    @Override
+                    public void onInvoke(@NonNull Method method, @Nullable Object[] args) {
+                        dispatchCancel(args);
+                    }
+                });
+    }
+
+    @NonNull
+    public static BinderTracer getTracer() {
+        return sHookHelper.getTracer();
+    }
 
     private static List<IListener> sListeners = new ArrayList<>();
 
@@ -128,16 +140,6 @@ public class AlarmManagerServiceHooker {
         sTryHook = false;
     }
 
-    private static void dispatchListeners(Method method, Object[] args) {
-        if (method.getName().equals("set")
-                //jb-release ics-mr0-release
-                || method.getName().equals("setRepeating") || method.getName().equals("setInexactRepeating")) {
-            dispatchSet(args);
-        } else if (method.getName().equals("remove")) {
-            dispatchCancel(args);
-        }
-    }
-
     private static void dispatchSet(Object[] args) {
         SetArgs setArgs = SetArgsCompatible.createSetArgs(args);
         if (setArgs == null) {
@@ -199,15 +201,11 @@ public class AlarmManagerServiceHooker {
                 return null;
             }
 
-            //Log infos related
-            MatrixLog.i(TAG, "createSetArgs apiLevel:%d, codeName:%s, versionRelease:%s", Build.VERSION.SDK_INT, Build.VERSION.CODENAME, Build.VERSION.SDK_INT);
-
             return createSetArgsAccordingToArgsLength(argsArr);
         }
 
         private static SetArgs createSetArgsAccordingToArgsLength(Object[] argsArr) {
             final int length = argsArr.length;
-            MatrixLog.i(TAG, "createSetArgsAccordingToArgsLength: length:%s", length);
             switch (length) {
                 case 3:
                     //jb-release ics-mr0-release set
@@ -478,15 +476,11 @@ public class AlarmManagerServiceHooker {
                 return null;
             }
 
-            //Log infos related
-            MatrixLog.i(TAG, "createCancelArgs apiLevel:%d, codeName:%s, versionRelease:%s", Build.VERSION.SDK_INT, Build.VERSION.CODENAME, Build.VERSION.SDK_INT);
-
             return createCancelArgsAccordingToArgsLength(argsArr);
         }
 
         private static CancelArgs createCancelArgsAccordingToArgsLength(Object[] argsArr) {
             final int length = argsArr.length;
-            MatrixLog.i(TAG, "createCancelArgsAccordingToArgsLength: length:%s", length);
             switch (length) {
                 //i to m
                 case 1:
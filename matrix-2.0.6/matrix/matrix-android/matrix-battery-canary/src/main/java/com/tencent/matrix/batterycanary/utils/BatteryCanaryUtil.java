@@ -447,6 +447,19 @@ public final class BatteryCanaryUtil {
         return false;
     }
 
+    public static boolean isDeviceOnIdleMode(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            try {
+                PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+                if (pm != null) {
+                    return pm.isDeviceIdleMode();
+                }
+            } catch (Exception ignored) {
+            }
+        }
+        return false;
+    }
+
     public static boolean hasForegroundService(Context context) {
         try {
             ActivityManager am = (ActivityManager) context.getSystemService(ACTIVITY_SERVICE);
@@ -0,0 +1,296 @@
+package com.tencent.matrix.batterycanary.utils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RestrictTo;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Tracing of the calls to a hooked system service binder.
+ * <p>
+ * The methods of the service interface are resolved into a dispatch table once when the service
+ * is bound, so every call costs a single map lookup, no matter how many handlers are registered.
+ * Call counts and latencies are aggregated per method in primitive counters. Stacks are sampled
+ * every {@link #setStackSampleRate(int)} calls of a method and deduplicated by call site, so only
+ * the first stack of each site is converted to string.
+ *
+ * @see SystemServiceBinderHooker#getTracer()
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+public final class BinderTracer {
+    public static final int DEF_STACK_SAMPLE_RATE = 100;
+    public static final int DEF_MAX_CALL_SITES = 16;
+    private static final int MAX_STACK_DEPTH = 32;
+
+    public interface MethodHandler {
+        /**
+         * Called on the calling thread right before the binder transaction.
+         */
+        void onInvoke(@NonNull Method method, @Nullable Object[] args);
+    }
+
+    private final String mServiceName;
+    private final Map<String, MethodHandler> mHandlers = new HashMap<>();
+    private volatile int mStackSampleRate = DEF_STACK_SAMPLE_RATE;
+    private volatile int mMaxCallSites = DEF_MAX_CALL_SITES;
+
+    @Nullable
+    private volatile Table mTable;
+
+    public BinderTracer(@NonNull String serviceName) {
+        mServiceName = serviceName;
+    }
+
+    @NonNull
+    public String getServiceName() {
+        return mServiceName;
+    }
+
+    /**
+     * @param rate sample one stack every {@code rate} calls of each method, 0 to disable
+     */
+    public BinderTracer setStackSampleRate(int rate) {
+        mStackSampleRate = Math.max(rate, 0);
+        return this;
+    }
+
+    public BinderTracer setMaxCallSites(int maxCallSites) {
+        mMaxCallSites = Math.max(maxCallSites, 0);
+        return this;
+    }
+
+    /**
+     * Handle all the overloads of the given method name, replacing the previous handler.
+     */
+    public synchronized BinderTracer putHandler(@NonNull String methodName, @Nullable MethodHandler handler) {
+        if (handler == null) {
+            mHandlers.remove(methodName);
+        } else {
+            mHandlers.put(methodName, handler);
+        }
+        Table table = mTable;
+        if (table != null) {
+            table.updateHandlers(mHandlers);
+        }
+        return this;
+    }
+
+    /**
+     * Build the dispatch table of the service interface, counters of the last binding are dropped.
+     */
+    public synchronized void bind(@NonNull Class<?> serviceCls) {
+        Table table = new Table(serviceCls);
+        table.updateHandlers(mHandlers);
+        mTable = table;
+    }
+
+    /**
+     * @return slot of the method for {@link #onExit(int, long)}, -1 if not a method of the service
+     */
+    int onEnter(@NonNull Method method, @Nullable Object[] args) {
+        Table table = mTable;
+        if (table == null) {
+            return -1;
+        }
+        Integer boxed = table.slots.get(method);
+        if (boxed == null) {
+            return -1;
+        }
+        int slot = boxed;
+        long count = table.counts.incrementAndGet(slot);
+        int rate = mStackSampleRate;
+        if (rate > 0 && (count - 1) % rate == 0) {
+            table.sampleStack(slot, mMaxCallSites);
+        }
+        MethodHandler handler = table.handlers[slot];
+        if (handler != null) {
+            handler.onInvoke(method, args);
+        }
+        return slot;
+    }
+
+    void onExit(int slot, long costNanos) {
+        Table table = mTable;
+        if (table == null || slot < 0 || slot >= table.names.length) {
+            return;
+        }
+        table.totalNanos.addAndGet(slot, costNanos);
+        while (true) {
+            long max = table.maxNanos.get(slot);
+            if (costNanos <= max || table.maxNanos.compareAndSet(slot, max, costNanos)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return stats of the called methods, sorted by call count descending
+     */
+    @NonNull
+    public List<MethodStats> getStats() {
+        Table table = mTable;
+        if (table == null) {
+            return Collections.emptyList();
+        }
+        List<MethodStats> stats = new ArrayList<>();
+        for (int slot = 0; slot < table.names.length; slot++) {
+            long count = table.counts.get(slot);
+            if (count == 0) {
+                continue;
+            }
+            MethodStats item = new MethodStats();
+            item.name = table.names[slot];
+            item.count = count;
+            item.totalNanos = table.totalNanos.get(slot);
+            item.maxNanos = table.maxNanos.get(slot);
+            synchronized (table.sites[slot]) {
+                item.callSites = new ArrayList<>(table.sites[slot].values());
+                item.droppedSites = table.droppedSites[slot];
+            }
+            Collections.sort(item.callSites, new Comparator<CallSite>() {
+                @Override
+                public int compare(CallSite o1, CallSite o2) {
+                    return Long.compare(o2.hits, o1.hits);
+                }
+            });
+            stats.add(item);
+        }
+        Collections.sort(stats, new Comparator<MethodStats>() {
+            @Override
+            public int compare(MethodStats o1, MethodStats o2) {
+                return Long.compare(o2.count, o1.count);
+            }
+        });
+        return stats;
+    }
+
+    public void reset() {
+        Table table = mTable;
+        if (table != null) {
+            table.reset();
+        }
+    }
+
+    public static final class MethodStats {
+        public String name;
+        public long count;
+        public long totalNanos;
+        public long maxNanos;
+        public List<CallSite> callSites;
+        public long droppedSites;
+
+        public long getAvgNanos() {
+            return count == 0 ? 0 : totalNanos / count;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": count = " + count + ", avg = " + getAvgNanos() + "ns, max = " + maxNanos + "ns, sites = " + callSites.size();
+        }
+    }
+
+    public static final class CallSite {
+        public final String stack;
+        /**
+         * Sampled hits, multiply by the sample rate to estimate the calls.
+         */
+        public long hits;
+
+        CallSite(String stack) {
+            this.stack = stack;
+        }
+    }
+
+    private static final class Table {
+        final Map<Method, Integer> slots;
+        final String[] names;
+        final MethodHandler[] handlers;
+        final AtomicLongArray counts;
+        final AtomicLongArray totalNanos;
+        final AtomicLongArray maxNanos;
+        final Map<Long, CallSite>[] sites;
+        final long[] droppedSites;
+
+        @SuppressWarnings("unchecked")
+        Table(Class<?> serviceCls) {
+            Method[] methods = serviceCls.getMethods();
+            Arrays.sort(methods, new Comparator<Method>() {
+                @Override
+                public int compare(Method o1, Method o2) {
+                    return o1.getName().compareTo(o2.getName());
+                }
+            });
+            slots = new HashMap<>(methods.length * 2);
+            List<String> names = new ArrayList<>(methods.length);
+            for (Method item : methods) {
+                if (Modifier.isStatic(item.getModifiers())) {
+                    continue;
+                }
+                slots.put(item, names.size());
+                names.add(item.getName());
+            }
+            this.names = names.toArray(new String[0]);
+            int size = this.names.length;
+            handlers = new MethodHandler[size];
+            counts = new AtomicLongArray(size);
+            totalNanos = new AtomicLongArray(size);
+            maxNanos = new AtomicLongArray(size);
+            sites = new Map[size];
+            for (int i = 0; i < size; i++) {
+                sites[i] = new HashMap<>();
+            }
+            droppedSites = new long[size];
+        }
+
+        void updateHandlers(Map<String, MethodHandler> handlers) {
+            for (int i = 0; i < names.length; i++) {
+                this.handlers[i] = handlers.get(names[i]);
+            }
+        }
+
+        void sampleStack(int slot, int maxCallSites) {
+            StackTraceElement[] elements = new Throwable().getStackTrace();
+            long key = 1;
+            for (int i = 0; i < elements.length && i < MAX_STACK_DEPTH; i++) {
+                key = 31 * key + elements[i].getClassName().hashCode();
+                key = 31 * key + elements[i].getMethodName().hashCode();
+                key = 31 * key + elements[i].getLineNumber();
+            }
+            Map<Long, CallSite> siteMap = sites[slot];
+            synchronized (siteMap) {
+                CallSite site = siteMap.get(key);
+                if (site == null) {
+                    if (siteMap.size() >= maxCallSites) {
+                        droppedSites[slot]++;
+                        return;
+                    }
+                    site = new CallSite(BatteryCanaryUtil.stackTraceToString(elements));
+                    siteMap.put(key, site);
+                }
+                site.hits++;
+            }
+        }
+
+        void reset() {
+            for (int i = 0; i < names.length; i++) {
+                counts.set(i, 0);
+                totalNanos.set(i, 0);
+                maxNanos.set(i, 0);
+                synchronized (sites[i]) {
+                    sites[i].clear();
+                    droppedSites[i] = 0;
+                }
+            }
+        }
+    }
+}
@@ -1,10 +1,6 @@
 package com.tencent.matrix.batterycanary.utils;
 
 
-import android.text.TextUtils;
-
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 
 import androidx.annotation.RestrictTo;
@@ -53,19 +49,30 @@ public class KernelCpuSpeedReader {
      */
     public long[] readAbsolute() throws IOException {
         long[] speedTimeJiffies = new long[mNumSpeedSteps];
-        try (BufferedReader reader = new BufferedReader(new FileReader(mProcFile))) {
-            TextUtils.SimpleStringSplitter splitter = new TextUtils.SimpleStringSplitter(' ');
-            String line;
-            int speedIndex = 0;
-            while (speedIndex < mNumSpeedSteps && (line = reader.readLine()) != null) {
-                splitter.setString(line);
-                splitter.next();
-                speedTimeJiffies[speedIndex] = Long.parseLong(splitter.next());
-                speedIndex++;
+        readAbsolute(speedTimeJiffies, 0);
+        return speedTimeJiffies;
+    }
+
+    /**
+     * Same as {@link #readAbsolute()}, but fills the given array from the offset without allocating.
+     */
+    public void readAbsolute(long[] speedTimeJiffies, int offset) throws IOException {
+        ProcFileReader reader = ProcFileReader.obtain(mProcFile);
+        synchronized (reader) {
+            if (!reader.reread()) {
+                throw new IOException("Failed to read cpu-freq: " + mProcFile);
+            }
+            try {
+                int speedIndex = 0;
+                while (speedIndex < mNumSpeedSteps && reader.hasRemaining()) {
+                    reader.readLong(); // freq
+                    speedTimeJiffies[offset + speedIndex] = reader.readLong();
+                    speedIndex++;
+                    reader.nextLine();
+                }
+            } catch (Throwable e) {
+                throw new IOException("Failed to read cpu-freq: " + e.getMessage(), e);
             }
-        } catch (Throwable e) {
-            throw new IOException("Failed to read cpu-freq: " + e.getMessage(), e);
         }
-        return speedTimeJiffies;
     }
-}
\ No newline at end of file
+}
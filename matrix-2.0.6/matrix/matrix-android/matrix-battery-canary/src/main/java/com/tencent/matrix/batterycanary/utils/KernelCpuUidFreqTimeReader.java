@@ -1,10 +1,6 @@
 package com.tencent.matrix.batterycanary.utils;
 
 
-import android.text.TextUtils;
-
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -71,32 +67,68 @@ public class KernelCpuUidFreqTimeReader {
     public List<long[]> readAbsolute() throws IOException {
         List<long[]> cpuCoreJiffies = new ArrayList<>();
         long[] speedJiffies = null;
-        try (BufferedReader reader = new BufferedReader(new FileReader(mProcFile))) {
-            TextUtils.SimpleStringSplitter splitter = new TextUtils.SimpleStringSplitter(' ');
-            String line;
-            int cluster = -1;
-            int speedIndex = 0;
-            while ((line = reader.readLine()) != null) {
-                if (line.startsWith("cpu")) {
-                    if (cluster >= 0) {
-                        cpuCoreJiffies.add(speedJiffies);
+        ProcFileReader reader = ProcFileReader.obtain(mProcFile);
+        synchronized (reader) {
+            if (!reader.reread()) {
+                throw new IOException("Failed to read cpu-freq: " + mProcFile);
+            }
+            try {
+                int cluster = -1;
+                int speedIndex = 0;
+                while (reader.hasRemaining()) {
+                    if (reader.startsWith("cpu")) {
+                        if (cluster >= 0) {
+                            cpuCoreJiffies.add(speedJiffies);
+                        }
+                        cluster++;
+                        speedIndex = 0;
+                        speedJiffies = new long[mClusterSteps[cluster]];
+                    } else if (speedIndex < mClusterSteps[cluster]) {
+                        reader.readLong(); // freq
+                        speedJiffies[speedIndex] = reader.readLong();
+                        speedIndex++;
                     }
-                    cluster++;
-                    speedIndex = 0;
-                    speedJiffies = new long[mClusterSteps[cluster]];
-                    continue;
-                }
-                if (speedIndex < mClusterSteps[cluster]) {
-                    splitter.setString(line);
-                    splitter.next();
-                    speedJiffies[speedIndex] = Long.parseLong(splitter.next());
-                    speedIndex++;
+                    reader.nextLine();
                 }
+                cpuCoreJiffies.add(speedJiffies);
+            } catch (Throwable e) {
+                throw new IOException("Failed to read cpu-freq: " + e.getMessage(), e);
             }
-            cpuCoreJiffies.add(speedJiffies);
-        } catch (Throwable e) {
-            throw new IOException("Failed to read cpu-freq: " + e.getMessage(), e);
         }
         return cpuCoreJiffies;
     }
-}
\ No newline at end of file
+
+    /**
+     * Same as {@link #readAbsolute()}, but fills the steps of all clusters one after another
+     * into the given array without allocating.
+     */
+    public void readAbsolute(long[] clusterStepJiffies) throws IOException {
+        ProcFileReader reader = ProcFileReader.obtain(mProcFile);
+        synchronized (reader) {
+            if (!reader.reread()) {
+                throw new IOException("Failed to read cpu-freq: " + mProcFile);
+            }
+            try {
+                int cluster = -1;
+                int offset = 0;
+                int speedIndex = 0;
+                while (reader.hasRemaining()) {
+                    if (reader.startsWith("cpu")) {
+                        if (cluster >= 0) {
+                            offset += mClusterSteps[cluster];
+                        }
+                        cluster++;
+                        speedIndex = 0;
+                    } else if (speedIndex < mClusterSteps[cluster]) {
+                        reader.readLong(); // freq
+                        clusterStepJiffies[offset + speedIndex] = reader.readLong();
+                        speedIndex++;
+                    }
+                    reader.nextLine();
+                }
+            } catch (Throwable e) {
+                throw new IOException("Failed to read cpu-freq: " + e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -17,9 +17,9 @@
 package com.tencent.matrix.batterycanary.utils;
 
 import android.content.Context;
-import android.os.Build;
 import android.os.IBinder;
 import android.os.WorkSource;
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.RestrictTo;
 
@@ -58,20 +58,28 @@ public final class PowerManagerServiceHooker {
 
     private static List<IListener> sListeners = new ArrayList<>();
     private static boolean sTryHook;
-    private static SystemServiceBinderHooker.HookCallback sHookCallback = new SystemServiceBinderHooker.HookCallback() {
-        @Override
-        public void onServiceMethodInvoke(Method method, Object[] args) {
-            MatrixLog.v(TAG, "onServiceMethodInvoke: method name %s", method.getName());
-            dispatchListeners(method, args);
-        }
+    private static SystemServiceBinderHooker sHookHelper = new SystemServiceBinderHooker(Context.POWER_SERVICE, "android.os.IPowerManager", null);
+
+    static {
+        sHookHelper.getTracer()
+                .putHandler("acquireWakeLock", new BinderTracer.MethodHandler() {
+                    @Override
+                    public void onInvoke(@NonNull Method method, @Nullable Object[] args) {
+                        dispatchAcquireWakeLock(args);
+                    }
+                })
+                .putHandler("releaseWakeLock", new BinderTracer.MethodHandler() {
+                    @Override
+                    public void onInvoke(@NonNull Method method, @Nullable Object[] args) {
+                        dispatchReleaseWakeLock(args);
+                    }
+                });
+    }
 
-        @Nullable
-        @Override
-        public Object onServiceMethodIntercept(Object receiver, Method method, Object[] args) {
-            return null;
-        }
-    };
-    private static SystemServiceBinderHooker sHookHelper = new SystemServiceBinderHooker(Context.POWER_SERVICE, "android.os.IPowerManager", sHookCallback);
+    @NonNull
+    public static BinderTracer getTracer() {
+        return sHookHelper.getTracer();
+    }
 
     /**
      * If there is a listener, then hook
@@ -141,14 +149,6 @@ public final class PowerManagerServiceHooker {
         sTryHook = false;
     }
 
-    private static void dispatchListeners(Method method, Object[] args) {
-        if (method.getName().equals("acquireWakeLock")) {
-            dispatchAcquireWakeLock(args);
-        } else if (method.getName().equals("releaseWakeLock")) {
-            dispatchReleaseWakeLock(args);
-        }
-    }
-
     /**
      * @see #checkAcquireWakeLockArgs(Object[])
      * @param args
@@ -197,15 +197,11 @@ public final class PowerManagerServiceHooker {
                 MatrixLog.w(TAG, "createAcquireWakeLockArgs args null");
                 return null;
             }
-
-            //Log infos related
-            MatrixLog.i(TAG, "createAcquireWakeLockArgs apiLevel:%d, codeName:%s, versionRelease:%s", Build.VERSION.SDK_INT, Build.VERSION.CODENAME, Build.VERSION.SDK_INT);
             return createAcquireWakeLockArgsAccordingToArgsLength(argsArr);
         }
 
         private static AcquireWakeLockArgs createAcquireWakeLockArgsAccordingToArgsLength(Object[] argsArr) {
             final int length = argsArr.length;
-            MatrixLog.i(TAG, "createAcquireWakeLockArgsAccordingToArgsLength: length:%s", length);
             switch (length) {
                 // android I ~ J
                 case 4:
@@ -335,15 +331,11 @@ public final class PowerManagerServiceHooker {
                 MatrixLog.w(TAG, "createReleaseWakeLockArgs args null");
                 return null;
             }
-
-            //Log infos related
-            MatrixLog.i(TAG, "createReleaseWakeLockArgs apiLevel:%d, codeName:%s, versionRelease:%s", Build.VERSION.SDK_INT, Build.VERSION.CODENAME, Build.VERSION.SDK_INT);
             return createReleaseWakeLockArgsAccordingToArgsLength(argsArr);
         }
 
         private static ReleaseWakeLockArgs createReleaseWakeLockArgsAccordingToArgsLength(Object[] argsArr) {
             final int length = argsArr.length;
-            MatrixLog.i(TAG, "createReleaseWakeLockArgsAccordingToArgsLength: length:%s", length);
             switch (length) {
                 case 2:
                 default:
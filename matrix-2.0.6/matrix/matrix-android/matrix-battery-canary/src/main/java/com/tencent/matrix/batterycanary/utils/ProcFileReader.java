@@ -0,0 +1,441 @@
+package com.tencent.matrix.batterycanary.utils;
+
+import com.tencent.matrix.util.MatrixLog;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RestrictTo;
+import androidx.annotation.VisibleForTesting;
+
+/**
+ * Reader of small procfs/sysfs files that are polled again and again, like /proc/[pid]/task/[tid]/stat
+ * or cpufreq time_in_state.
+ * <p>
+ * Each reader keeps its file open and re-reads it with positional reads (pread) into a preallocated
+ * buffer, then parses the fields in place into primitive longs. Re-reading the same file allocates nothing.
+ * <p>
+ * Readers are shared per path through {@link #obtain(String)}, and must be used while holding the
+ * reader's monitor:
+ * <pre>
+ *     ProcFileReader reader = ProcFileReader.obtain(path);
+ *     synchronized (reader) {
+ *         if (reader.reread()) {
+ *             long value = reader.readLong();
+ *         }
+ *     }
+ * </pre>
+ * Do not call {@link #obtain(String)} while holding a reader's monitor.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+@SuppressWarnings("SpellCheckingInspection")
+public final class ProcFileReader {
+    private static final String TAG = "Matrix.battery.ProcFileReader";
+    private static final int DEFAULT_BUFFER_SIZE = 512;
+    private static final int MAX_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Bounds the fds kept open, a process may have hundreds of threads. Stat files of the threads
+     * beyond are read through one shared reader, see {@link #readProcStat(String, ProcStatUtil.ProcStat)}.
+     */
+    private static final int MAX_CACHED_READERS = 128;
+    private static final String[] STATE_STRINGS = new String[128];
+
+    static {
+        for (int i = 0; i < STATE_STRINGS.length; i++) {
+            STATE_STRINGS[i] = String.valueOf((char) i);
+        }
+    }
+
+    private static final Map<String, ProcFileReader> sReaders = new LinkedHashMap<String, ProcFileReader>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ProcFileReader> eldest) {
+            if (size() > MAX_CACHED_READERS) {
+                eldest.getValue().retire();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    /**
+     * Re-opened for every read, but keeps its buffer across the reads of one sweep
+     */
+    private static final ProcFileReader sOverflowReader = new ProcFileReader(null);
+
+    @NonNull
+    public static ProcFileReader obtain(String path) {
+        synchronized (sReaders) {
+            ProcFileReader reader = sReaders.get(path);
+            if (reader == null) {
+                reader = new ProcFileReader(path);
+                sReaders.put(path, reader);
+            }
+            return reader;
+        }
+    }
+
+    /**
+     * Parse /proc/[pid]/stat or /proc/[pid]/task/[tid]/stat into the given stat.
+     * <p>
+     * A sweep over more threads than {@link #MAX_CACHED_READERS} would evict every cached reader
+     * before its next use, so once the cache is full, stats of uncached threads are read through
+     * {@link #sOverflowReader} instead of evicting. Readers of dead threads are dropped by
+     * {@link #retainThreads(int, int[], int)}, so that new threads get cached readers again.
+     *
+     * @return false if the file can not be read, e.g. the thread has died
+     */
+    public static boolean readProcStat(String path, ProcStatUtil.ProcStat stat) throws ProcStatUtil.ParseException {
+        ProcFileReader reader;
+        synchronized (sReaders) {
+            reader = sReaders.get(path);
+            if (reader == null && sReaders.size() < MAX_CACHED_READERS) {
+                reader = new ProcFileReader(path);
+                sReaders.put(path, reader);
+            }
+        }
+
+        if (reader == null) {
+            synchronized (sOverflowReader) {
+                sOverflowReader.mPath = path;
+                try {
+                    if (!sOverflowReader.reread()) {
+                        return false;
+                    }
+                    sOverflowReader.readProcStat(stat);
+                    return true;
+                } finally {
+                    sOverflowReader.close();
+                }
+            }
+        }
+
+        synchronized (reader) {
+            if (reader.reread()) {
+                reader.readProcStat(stat);
+                return true;
+            }
+            // The tid may have been reused by a new thread, whose stat lives behind a new fd
+            reader.close();
+            if (reader.reread()) {
+                reader.readProcStat(stat);
+                return true;
+            }
+            reader.close();
+        }
+
+        // Dead thread, make room for the live ones
+        synchronized (sReaders) {
+            if (sReaders.get(path) == reader) {
+                sReaders.remove(path);
+                reader.retire();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drop the cached readers of /proc/[pid]/task/[tid]/stat whose tid is not listed, should be
+     * called with the tids of every sweep over /proc/[pid]/task, since dead tids are never read again.
+     *
+     * @param tids  live tids, sorted ascending
+     * @param count count of tids in the array
+     */
+    public static void retainThreads(int pid, int[] tids, int count) {
+        String prefix = "/proc/" + pid + "/task/";
+        synchronized (sReaders) {
+            Iterator<Map.Entry<String, ProcFileReader>> iterator = sReaders.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, ProcFileReader> entry = iterator.next();
+                int tid = parseTid(entry.getKey(), prefix);
+                if (tid >= 0 && Arrays.binarySearch(tids, 0, count, tid) < 0) {
+                    iterator.remove();
+                    entry.getValue().retire();
+                }
+            }
+        }
+    }
+
+    @VisibleForTesting
+    static boolean isCached(String path) {
+        synchronized (sReaders) {
+            return sReaders.containsKey(path);
+        }
+    }
+
+    /**
+     * @return tid of a [prefix][tid]/stat path, or -1 if the path does not match
+     */
+    private static int parseTid(String path, String prefix) {
+        if (!path.startsWith(prefix)) {
+            return -1;
+        }
+        int tid = 0;
+        int index = prefix.length();
+        while (index < path.length() && path.charAt(index) != '/') {
+            char c = path.charAt(index++);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            tid = tid * 10 + (c - '0');
+        }
+        return index > prefix.length() && path.startsWith("/stat", index) ? tid : -1;
+    }
+
+    private String mPath;
+    private byte[] mBuffer;
+    private ByteBuffer mByteBuffer;
+    private RandomAccessFile mFile;
+    private FileChannel mChannel;
+    private boolean mRetired;
+
+    private int mLength;
+    private int mPosition;
+
+    // Last decoded comm, so that re-reading the same thread does not build a new String
+    private byte[] mCommBytes = new byte[16];
+    private int mCommLength = -1;
+    private String mComm = "";
+
+    ProcFileReader(String path) {
+        this(path, DEFAULT_BUFFER_SIZE);
+    }
+
+    ProcFileReader(String path, int bufferSize) {
+        mPath = path;
+        mBuffer = new byte[bufferSize];
+        mByteBuffer = ByteBuffer.wrap(mBuffer);
+    }
+
+    public String getPath() {
+        return mPath;
+    }
+
+    /**
+     * Read the whole file again from offset 0 and rewind the parsing cursor.
+     *
+     * @return false if the file can not be read or is empty
+     */
+    public boolean reread() {
+        mLength = 0;
+        mPosition = 0;
+        try {
+            if (mChannel == null) {
+                mFile = new RandomAccessFile(mPath, "r");
+                mChannel = mFile.getChannel();
+            }
+
+            while (true) {
+                mByteBuffer.limit(mBuffer.length);
+                mByteBuffer.position(mLength);
+                int readBytes = mChannel.read(mByteBuffer, mLength);
+                if (readBytes <= 0) {
+                    break;
+                }
+                mLength += readBytes;
+                if (mLength == mBuffer.length) {
+                    if (mBuffer.length >= MAX_BUFFER_SIZE) {
+                        MatrixLog.w(TAG, "file too large, truncated: " + mPath);
+                        break;
+                    }
+                    byte[] buffer = new byte[mBuffer.length * 2];
+                    System.arraycopy(mBuffer, 0, buffer, 0, mLength);
+                    mBuffer = buffer;
+                    mByteBuffer = ByteBuffer.wrap(mBuffer);
+                }
+            }
+        } catch (IOException e) {
+            close();
+            mLength = 0;
+            return false;
+        } finally {
+            if (mRetired) {
+                close();
+            }
+        }
+        return mLength > 0;
+    }
+
+    public boolean hasRemaining() {
+        return mPosition < mLength;
+    }
+
+    /**
+     * Move the cursor to the beginning of the next line.
+     *
+     * @return false if there is no next line
+     */
+    public boolean nextLine() {
+        while (mPosition < mLength) {
+            if (mBuffer[mPosition++] == '\n') {
+                return mPosition < mLength;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Move the cursor past the next occurrence of the given symbol.
+     *
+     * @return false if the symbol is not found
+     */
+    public boolean skipPast(char symbol) {
+        while (mPosition < mLength) {
+            if (mBuffer[mPosition++] == symbol) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void skipSpaces() {
+        while (mPosition < mLength && (mBuffer[mPosition] == ' ' || mBuffer[mPosition] == '\t')) {
+            mPosition++;
+        }
+    }
+
+    /**
+     * Skip the given count of space separated fields.
+     */
+    public void skipFields(int count) {
+        for (int i = 0; i < count; i++) {
+            skipSpaces();
+            while (mPosition < mLength && !isSpace(mBuffer[mPosition])) {
+                mPosition++;
+            }
+        }
+    }
+
+    /**
+     * @return true if the line at the cursor starts with the given ascii prefix
+     */
+    public boolean startsWith(String prefix) {
+        if (mLength - mPosition < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (mBuffer[mPosition + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parse the next (optionally negative) decimal number after the cursor, leading spaces skipped.
+     */
+    public long readLong() throws ProcStatUtil.ParseException {
+        skipSpaces();
+        long sign = 1;
+        if (mPosition < mLength && mBuffer[mPosition] == '-') {
+            sign = -1;
+            mPosition++;
+        }
+        int begin = mPosition;
+        long result = 0;
+        while (mPosition < mLength) {
+            byte b = mBuffer[mPosition];
+            if (b < '0' || b > '9') {
+                break;
+            }
+            result = result * 10 + (b - '0');
+            mPosition++;
+        }
+        if (mPosition == begin) {
+            throw new ProcStatUtil.ParseException(dump() + "\nnot a number at " + begin);
+        }
+        return sign * result;
+    }
+
+    /**
+     * See {@link ProcStatUtil#parseWithBuffer(byte[])} for the fields. Comm is looked up between
+     * the first '(' and the last ')', since thread names may contain spaces and braces.
+     */
+    void readProcStat(ProcStatUtil.ProcStat stat) throws ProcStatUtil.ParseException {
+        mPosition = 0;
+        int commBegin = -1;
+        int commEnd = -1;
+        for (int i = 0; i < mLength; i++) {
+            if (commBegin < 0 && mBuffer[i] == '(') {
+                commBegin = i + 1;
+            } else if (mBuffer[i] == ')') {
+                commEnd = i;
+            }
+        }
+        if (commBegin < 0 || commEnd < commBegin) {
+            throw new ProcStatUtil.ParseException(dump() + "\ncomm not found");
+        }
+        stat.comm = decodeComm(commBegin, commEnd - commBegin);
+
+        // state
+        mPosition = commEnd + 1;
+        skipSpaces();
+        if (mPosition >= mLength) {
+            throw new ProcStatUtil.ParseException(dump() + "\nstate not found");
+        }
+        byte state = mBuffer[mPosition++];
+        stat.stat = state >= 0 ? STATE_STRINGS[state] : "_";
+
+        // ppid, pgrp, session, tty_nr, tpgid, flags, minflt, cminflt, majflt, cmajflt
+        skipFields(10);
+        stat.utime = readLong();
+        stat.stime = readLong();
+        stat.cutime = readLong();
+        stat.cstime = readLong();
+    }
+
+    private String decodeComm(int offset, int length) {
+        if (length == mCommLength) {
+            boolean same = true;
+            for (int i = 0; i < length; i++) {
+                if (mCommBytes[i] != mBuffer[offset + i]) {
+                    same = false;
+                    break;
+                }
+            }
+            if (same) {
+                return mComm;
+            }
+        }
+
+        if (mCommBytes.length < length) {
+            mCommBytes = new byte[length];
+        }
+        System.arraycopy(mBuffer, offset, mCommBytes, 0, length);
+        mCommLength = length;
+        mComm = ProcStatUtil.safeBytesToString(mBuffer, offset, length);
+        return mComm;
+    }
+
+    private String dump() {
+        return ProcStatUtil.safeBytesToString(mBuffer, 0, mLength);
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n';
+    }
+
+    private synchronized void retire() {
+        mRetired = true;
+        close();
+    }
+
+    public synchronized void close() {
+        if (mFile != null) {
+            try {
+                mFile.close();
+            } catch (IOException ignored) {
+            } finally {
+                mFile = null;
+                mChannel = null;
+            }
+        }
+    }
+}
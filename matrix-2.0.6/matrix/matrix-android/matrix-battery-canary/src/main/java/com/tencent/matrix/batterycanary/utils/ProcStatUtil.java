@@ -59,22 +59,61 @@ public final class ProcStatUtil {
         return parse("/proc/" + pid + "/task/" + tid + "/stat");
     }
 
+    /**
+     * Same as {@link #of(int)}, but fills the given stat instead of allocating one.
+     */
+    @Nullable
+    public static ProcStat of(int pid, ProcStat stat) {
+        return parse("/proc/" + pid + "/stat", stat);
+    }
+
+    /**
+     * Same as {@link #of(int, int)}, but fills the given stat instead of allocating one.
+     */
+    @Nullable
+    public static ProcStat of(int pid, int tid, ProcStat stat) {
+        return parse("/proc/" + pid + "/task/" + tid + "/stat", stat);
+    }
+
     @Nullable
     public static ProcStat parse(String path) {
+        return parse(path, new ProcStat());
+    }
+
+    /**
+     * @param stat filled with the parsed fields, so that polling allocates nothing
+     * @return the given stat, or null if the file can not be parsed
+     */
+    @Nullable
+    public static ProcStat parse(String path, ProcStat stat) {
+        stat.reset();
         try {
             ProcStat procStatInfo = null;
             try {
-                // For bettery perf: 30% millis dec
-                procStatInfo = BetterProcStatParser.parse(path, getLocalBuffers());
+                // Keeps the fd open and re-reads it in place, no allocation for the same path
+                if (ProcFileReader.readProcStat(path, stat)) {
+                    procStatInfo = stat;
+                }
             } catch (ParseException e) {
                 if (sParseError != null) {
-                    sParseError.onError(3, e.content);
+                    sParseError.onError(4, e.content);
                 }
+            }
+
+            if (procStatInfo == null) {
                 try {
-                    procStatInfo = parseWithBufferForPath(path, getLocalBuffers());
-                } catch (ParseException e2) {
+                    // For bettery perf: 30% millis dec
+                    procStatInfo = BetterProcStatParser.parse(path, getLocalBuffers(), stat);
+                } catch (ParseException e) {
                     if (sParseError != null) {
-                        sParseError.onError(1, e2.content);
+                        sParseError.onError(3, e.content);
+                    }
+                    try {
+                        procStatInfo = parseWithBufferForPath(path, getLocalBuffers(), stat);
+                    } catch (ParseException e2) {
+                        if (sParseError != null) {
+                            sParseError.onError(1, e2.content);
+                        }
                     }
                 }
             }
@@ -82,7 +121,7 @@ public final class ProcStatUtil {
             if (procStatInfo == null || procStatInfo.comm == null) {
                 MatrixLog.w(TAG, "#parseJiffies read with buffer fail, fallback with spilts");
                 try {
-                    procStatInfo = parseWithSplits(BatteryCanaryUtil.cat(path));
+                    procStatInfo = parseWithSplits(BatteryCanaryUtil.cat(path), stat);
                 } catch (ParseException e) {
                     if (sParseError != null) {
                         sParseError.onError(2, e.content);
@@ -104,6 +143,10 @@ public final class ProcStatUtil {
     }
 
     public static ProcStat parseWithBufferForPath(String path, byte[] buffer) throws ParseException {
+        return parseWithBufferForPath(path, buffer, new ProcStat());
+    }
+
+    static ProcStat parseWithBufferForPath(String path, byte[] buffer, ProcStat stat) throws ParseException {
         File file = new File(path);
         if (!file.exists()) {
             return null;
@@ -120,7 +163,7 @@ public final class ProcStatUtil {
             return null;
         }
 
-        return parseWithBuffer(buffer);
+        return parseWithBuffer(buffer, stat);
     }
 
     /**
@@ -128,6 +171,10 @@ public final class ProcStatUtil {
      */
     @VisibleForTesting
     static ProcStat parseWithBuffer(byte[] statBuffer) throws ParseException {
+        return parseWithBuffer(statBuffer, new ProcStat());
+    }
+
+    static ProcStat parseWithBuffer(byte[] statBuffer, ProcStat stat) throws ParseException {
         /*
          * 样本:
          * 10966 (terycanary.test) S 699 699 0 0 -1 1077952832 6187 0 0 0 22 2 0 0 20 0 17 0 9087400 5414273024
@@ -173,7 +220,7 @@ public final class ProcStatUtil {
          * sigignore: 被忽略的信号, 十进制, 此处等于36088
          */
 
-        ProcStat stat = new ProcStat();
+        stat.reset();
         int statBytes = statBuffer.length;
         for (int i = 0, spaceIdx = 0; i < statBytes;) {
             if (Character.isSpaceChar(statBuffer[i])) {
@@ -281,7 +328,11 @@ public final class ProcStatUtil {
 
     @VisibleForTesting
     static ProcStat parseWithSplits(String cat) throws ParseException {
-        ProcStat stat = new ProcStat();
+        return parseWithSplits(cat, new ProcStat());
+    }
+
+    static ProcStat parseWithSplits(String cat, ProcStat stat) throws ParseException {
+        stat.reset();
         if (!TextUtils.isEmpty(cat)) {
             int index = cat.indexOf(")");
             if (index <= 0) throw new IllegalStateException(cat + " has not ')'");
@@ -343,6 +394,10 @@ public final class ProcStatUtil {
         private static final ThreadLocal<ProcStatReader> sLocalReaders = new InheritableThreadLocal<>();
 
         static ProcStat parse(String path, byte[] buffer) throws ParseException {
+            return parse(path, buffer, new ProcStat());
+        }
+
+        static ProcStat parse(String path, byte[] buffer, ProcStat stat) throws ParseException {
             ProcStatReader reader =  new ProcStatReader(path, buffer);
             try {
                 reader.reset();
@@ -357,7 +412,6 @@ public final class ProcStatUtil {
                     index++;
                 }
 
-                ProcStat stat = new ProcStat();
                 stat.comm = String.valueOf(comm);
                 stat.stat = String.valueOf(state);
                 stat.utime = readJiffy(reader);
@@ -398,6 +452,15 @@ public final class ProcStatUtil {
         public long getJiffies() {
             return utime + stime + cutime + cstime;
         }
+
+        void reset() {
+            comm = "";
+            stat = "_";
+            utime = -1;
+            stime = -1;
+            cutime = -1;
+            cstime = -1;
+        }
     }
 
     public interface OnParseError {
@@ -0,0 +1,346 @@
+package com.tencent.matrix.batterycanary.utils;
+
+import com.tencent.matrix.util.MatrixLog;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RestrictTo;
+
+/**
+ * Append-only ring of byte records in a fixed-size memory-mapped file. Once the ring is full,
+ * the oldest records are evicted to make room for new ones.
+ * <p>
+ * Records are written straight into the mapped pages, so they survive the death of the process
+ * (but not necessarily a power loss) without any explicit write or fsync.
+ * <p>
+ * File layout:
+ * <pre>
+ *     header: magic | version | capacity | state slot 0 | state slot 1
+ *     state:  sequence | generation | tail | count | crc
+ *     data:   [length | payload] [length | payload] ... [WRAP] (free) ...
+ * </pre>
+ * The head is not stored, it is found by walking count records from the tail. Every commit writes
+ * the whole state into the slot not holding the latest one, and the slot with the valid crc and the
+ * newer generation wins on load. An append commits evictions before the payload overwrites them and
+ * the new record after it, so a process killed at any point loses the last record at most.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+public final class RingFileStore implements Closeable {
+    private static final String TAG = "Matrix.battery.RingFileStore";
+
+    private static final int MAGIC = 0x4d425453; // MBTS
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 64;
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 4;
+    private static final int OFFSET_CAPACITY = 8;
+    private static final int OFFSET_SLOT_0 = 16;
+    private static final int OFFSET_SLOT_1 = 40;
+
+    // Offsets in a state slot
+    private static final int SLOT_SEQUENCE = 0;
+    private static final int SLOT_GENERATION = 8;
+    private static final int SLOT_TAIL = 12;
+    private static final int SLOT_COUNT = 16;
+    private static final int SLOT_CRC = 20;
+
+    private static final int LENGTH_SIZE = 4;
+    private static final int WRAP = -1;
+    private static final int MIN_CAPACITY = 1024;
+
+    public interface Visitor {
+        /**
+         * @param data   shared buffer, only valid during the call
+         * @return false to stop visiting
+         */
+        boolean onRecord(long sequence, @NonNull byte[] data, int offset, int length);
+    }
+
+    @NonNull
+    public static RingFileStore open(@NonNull File file, int sizeBytes) throws IOException {
+        int capacity = Math.max(sizeBytes, MIN_CAPACITY + HEADER_SIZE) - HEADER_SIZE;
+        File dir = file.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            throw new IOException("mkdirs fail: " + dir);
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + capacity);
+            RingFileStore store = new RingFileStore(file, raf, buffer, capacity);
+            if (!store.load()) {
+                MatrixLog.w(TAG, "ring file invalid, reset: " + file);
+                store.reset();
+            }
+            return store;
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    private final File mFile;
+    private final RandomAccessFile mRaf;
+    private final MappedByteBuffer mBuffer;
+    private final int mCapacity;
+
+    private int mHead;
+    private int mTail;
+    private int mCount;
+    private long mSequence;
+    private int mGeneration;
+    private int mSlot;
+    private final CRC32 mCrc = new CRC32();
+    private byte[] mReadBuffer = new byte[256];
+    private boolean mClosed;
+
+    private RingFileStore(File file, RandomAccessFile raf, MappedByteBuffer buffer, int capacity) {
+        mFile = file;
+        mRaf = raf;
+        mBuffer = buffer;
+        mCapacity = capacity;
+    }
+
+    @NonNull
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * Bytes of the data region, the largest record takes half of it at most.
+     */
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public synchronized int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Total records ever appended, including the evicted ones.
+     */
+    public synchronized long getSequence() {
+        return mSequence;
+    }
+
+    /**
+     * @return false if the record is too large for this ring or the store is closed
+     */
+    public synchronized boolean append(@NonNull byte[] data, int offset, int length) {
+        int needed = LENGTH_SIZE + length;
+        if (mClosed || needed > mCapacity / 2) {
+            return false;
+        }
+
+        int count = mCount;
+        int pos = mHead;
+        int wrapAt = -1;
+        if (pos + needed > mCapacity) {
+            // Records from the head to the end of the file are overwritten by wrapping
+            while (mCount > 0 && mTail >= pos) {
+                evictOldest();
+            }
+            if (pos + LENGTH_SIZE <= mCapacity) {
+                wrapAt = pos;
+            }
+            pos = 0;
+        }
+        while (mCount > 0 && mTail >= pos && mTail < pos + needed) {
+            evictOldest();
+        }
+        if (mCount == 0) {
+            mTail = pos;
+        }
+        if (mCount != count) {
+            // Commit evictions before the wrap mark and the payload overwrite them
+            commit();
+        }
+        if (wrapAt >= 0) {
+            putInt(HEADER_SIZE + wrapAt, WRAP);
+        }
+
+        putInt(HEADER_SIZE + pos, length);
+        mBuffer.position(HEADER_SIZE + pos + LENGTH_SIZE);
+        mBuffer.put(data, offset, length);
+
+        mHead = pos + needed;
+        mCount++;
+        mSequence++;
+        commit();
+        return true;
+    }
+
+    /**
+     * Visit records from the oldest to the newest.
+     */
+    public synchronized void forEach(@NonNull Visitor visitor) {
+        if (mClosed) {
+            return;
+        }
+        int pos = mTail;
+        long sequence = mSequence - mCount + 1;
+        for (int i = 0; i < mCount; i++, sequence++) {
+            pos = skipWrap(pos);
+            int length = getInt(HEADER_SIZE + pos);
+            if (mReadBuffer.length < length) {
+                mReadBuffer = new byte[Math.max(length, mReadBuffer.length * 2)];
+            }
+            mBuffer.position(HEADER_SIZE + pos + LENGTH_SIZE);
+            mBuffer.get(mReadBuffer, 0, length);
+            if (!visitor.onRecord(sequence, mReadBuffer, 0, length)) {
+                return;
+            }
+            pos += LENGTH_SIZE + length;
+        }
+    }
+
+    public synchronized void clear() {
+        if (!mClosed) {
+            reset();
+        }
+    }
+
+    /**
+     * Flush the mapped pages to the storage, only needed to survive a power loss.
+     */
+    public synchronized void sync() {
+        if (!mClosed) {
+            mBuffer.force();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        try {
+            mRaf.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void evictOldest() {
+        mTail = skipWrap(mTail);
+        int length = getInt(HEADER_SIZE + mTail);
+        mTail = skipWrap(mTail + LENGTH_SIZE + length);
+        mCount--;
+    }
+
+    private int skipWrap(int pos) {
+        if (pos + LENGTH_SIZE > mCapacity || getInt(HEADER_SIZE + pos) == WRAP) {
+            return 0;
+        }
+        return pos;
+    }
+
+    private boolean load() {
+        if (getInt(OFFSET_MAGIC) != MAGIC || getInt(OFFSET_VERSION) != VERSION || getInt(OFFSET_CAPACITY) != mCapacity) {
+            return false;
+        }
+        boolean valid0 = loadSlot(OFFSET_SLOT_0);
+        int generation0 = mGeneration;
+        if (loadSlot(OFFSET_SLOT_1) && (!valid0 || mGeneration - generation0 > 0)) {
+            mSlot = 1;
+            return true;
+        }
+        if (valid0) {
+            loadSlot(OFFSET_SLOT_0);
+            mSlot = 0;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean loadSlot(int slot) {
+        if (getInt(slot + SLOT_CRC) != slotCrc(slot)) {
+            return false;
+        }
+        int tail = getInt(slot + SLOT_TAIL);
+        int count = getInt(slot + SLOT_COUNT);
+        long sequence = getLong(slot + SLOT_SEQUENCE);
+        if (tail < 0 || tail > mCapacity || count < 0 || sequence < count) {
+            return false;
+        }
+
+        // Walk the chain from the tail to find the head
+        int pos = tail;
+        for (int i = 0; i < count; i++) {
+            pos = skipWrap(pos);
+            int length = getInt(HEADER_SIZE + pos);
+            if (length < 0 || pos + LENGTH_SIZE + length > mCapacity) {
+                return false;
+            }
+            pos += LENGTH_SIZE + length;
+        }
+
+        mHead = (count > 0 ? pos : tail);
+        mTail = tail;
+        mCount = count;
+        mSequence = sequence;
+        mGeneration = getInt(slot + SLOT_GENERATION);
+        return true;
+    }
+
+    /**
+     * Writes the state into the other slot, the crc last so that a torn write leaves it invalid.
+     */
+    private void commit() {
+        mSlot ^= 1;
+        mGeneration++;
+        int slot = (mSlot == 0 ? OFFSET_SLOT_0 : OFFSET_SLOT_1);
+        putLong(slot + SLOT_SEQUENCE, mSequence);
+        putInt(slot + SLOT_GENERATION, mGeneration);
+        putInt(slot + SLOT_TAIL, mTail);
+        putInt(slot + SLOT_COUNT, mCount);
+        putInt(slot + SLOT_CRC, slotCrc(slot));
+    }
+
+    private int slotCrc(int slot) {
+        mCrc.reset();
+        for (int i = slot; i < slot + SLOT_CRC; i++) {
+            mCrc.update(mBuffer.get(i));
+        }
+        return (int) mCrc.getValue();
+    }
+
+    private void reset() {
+        mHead = 0;
+        mTail = 0;
+        mCount = 0;
+        mSequence = 0;
+        mGeneration = 0;
+        mSlot = 0;
+        putInt(OFFSET_MAGIC, MAGIC);
+        putInt(OFFSET_VERSION, VERSION);
+        putInt(OFFSET_CAPACITY, mCapacity);
+        // Both slots hold the empty ring
+        commit();
+        commit();
+    }
+
+    private int getInt(int index) {
+        return mBuffer.getInt(index);
+    }
+
+    private long getLong(int index) {
+        return mBuffer.getLong(index);
+    }
+
+    private void putInt(int index, int value) {
+        mBuffer.putInt(index, value);
+    }
+
+    private void putLong(int index, long value) {
+        mBuffer.putLong(index, value);
+    }
+}
@@ -18,6 +18,7 @@ package com.tencent.matrix.batterycanary.utils;
 
 import android.os.IBinder;
 import android.os.IInterface;
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.RestrictTo;
 
@@ -45,6 +46,7 @@ public class SystemServiceBinderHooker {
     private final String mServiceName;
     private final String mServiceClass;
     private final HookCallback mHookCallback;
+    private final BinderTracer mTracer;
 
     @Nullable private IBinder mOriginServiceBinder;
     @Nullable private IBinder mDelegateServiceBinder;
@@ -53,13 +55,23 @@ public class SystemServiceBinderHooker {
         mServiceName = serviceName;
         mServiceClass = serviceClass;
         mHookCallback = hookCallback;
+        mTracer = new BinderTracer(serviceName);
+    }
+
+    /**
+     * Register method handlers here rather than matching the method name in
+     * {@link HookCallback#onServiceMethodInvoke(Method, Object[])} for every call.
+     */
+    @NonNull
+    public BinderTracer getTracer() {
+        return mTracer;
     }
 
     @SuppressWarnings({"PrivateApi", "unchecked", "rawtypes"})
     public boolean doHook() {
         MatrixLog.i(TAG, "doHook: serviceName:%s, serviceClsName:%s", mServiceName, mServiceClass);
         try {
-            BinderProxyHandler binderProxyHandler = new BinderProxyHandler(mServiceName, mServiceClass, mHookCallback);
+            BinderProxyHandler binderProxyHandler = new BinderProxyHandler(mServiceName, mServiceClass, mHookCallback, mTracer);
             IBinder delegateBinder = binderProxyHandler.createProxyBinder();
 
             Class<?> serviceManagerCls = Class.forName("android.os.ServiceManager");
@@ -113,9 +125,9 @@ public class SystemServiceBinderHooker {
         private final IBinder mOriginBinder;
         private final Object mServiceManagerProxy;
 
-        BinderProxyHandler(String serviceName, String serviceClass, HookCallback callback) throws Exception {
+        BinderProxyHandler(String serviceName, String serviceClass, HookCallback callback, BinderTracer tracer) throws Exception {
             mOriginBinder = getCurrentBinder(serviceName);
-            mServiceManagerProxy = createServiceManagerProxy(serviceClass, mOriginBinder, callback);
+            mServiceManagerProxy = createServiceManagerProxy(serviceClass, mOriginBinder, callback, tracer);
         }
 
         @Override
@@ -152,7 +164,7 @@ public class SystemServiceBinderHooker {
         }
 
         @SuppressWarnings({"PrivateApi"})
-        private static Object createServiceManagerProxy(String serviceClassName, IBinder originBinder, final HookCallback callback) throws Exception  {
+        private static Object createServiceManagerProxy(String serviceClassName, IBinder originBinder, final HookCallback callback, final BinderTracer tracer) throws Exception  {
             Class<?> serviceManagerCls = Class.forName(serviceClassName);
             Class<?> serviceManagerStubCls = Class.forName(serviceClassName + "$Stub");
             ClassLoader classLoader = serviceManagerStubCls.getClassLoader();
@@ -161,19 +173,31 @@ public class SystemServiceBinderHooker {
             }
             Method asInterfaceMethod = serviceManagerStubCls.getDeclaredMethod("asInterface", IBinder.class);
             final Object originManagerService = asInterfaceMethod.invoke(null, originBinder);
+            tracer.bind(serviceManagerCls);
             return Proxy.newProxyInstance(classLoader,
                     new Class[]{IBinder.class, IInterface.class, serviceManagerCls},
                     new InvocationHandler() {
                         @Override
                         public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                            int slot = tracer.onEnter(method, args);
                             if (callback != null) {
                                 callback.onServiceMethodInvoke(method, args);
                                 Object result = callback.onServiceMethodIntercept(originManagerService, method, args);
                                 if (result != null) {
+                                    // Intercepted, no binder call was made, close the counted call with no cost
+                                    tracer.onExit(slot, 0);
                                     return result;
                                 }
                             }
-                            return method.invoke(originManagerService, args);
+                            if (slot < 0) {
+                                return method.invoke(originManagerService, args);
+                            }
+                            long bgnNanos = System.nanoTime();
+                            try {
+                                return method.invoke(originManagerService, args);
+                            } finally {
+                                tracer.onExit(slot, System.nanoTime() - bgnNanos);
+                            }
                         }
                     }
             );
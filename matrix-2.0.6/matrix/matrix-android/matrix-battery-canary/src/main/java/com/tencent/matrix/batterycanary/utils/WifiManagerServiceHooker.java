@@ -18,6 +18,7 @@ package com.tencent.matrix.batterycanary.utils;
 
 import android.content.Context;
 import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.RestrictTo;
 
@@ -38,24 +39,28 @@ public final class WifiManagerServiceHooker {
 
     private static List<IListener> sListeners = new ArrayList<>();
     private static boolean sTryHook;
-    private static SystemServiceBinderHooker.HookCallback sHookCallback = new SystemServiceBinderHooker.HookCallback() {
-        @Override
-        public void onServiceMethodInvoke(Method method, Object[] args) {
-            if ("startScan".equals(method.getName())) {
-                dispatchStartScan();
-            } else if ("getScanResults".equals(method.getName())) {
-                dispatchGetScanResults();
-            }
-        }
-
-        @Nullable
-        @Override
-        public Object onServiceMethodIntercept(Object receiver, Method method, Object[] args) {
-            return null;
-        }
-    };
+    private static SystemServiceBinderHooker sHookHelper = new SystemServiceBinderHooker(Context.WIFI_SERVICE, "android.net.wifi.IWifiManager", null);
+
+    static {
+        sHookHelper.getTracer()
+                .putHandler("startScan", new BinderTracer.MethodHandler() {
+                    @Override
+                    public void onInvoke(@NonNull Method method, @Nullable Object[] args) {
+                        dispatchStartScan();
+                    }
+                })
+                .putHandler("getScanResults", new BinderTracer.MethodHandler() {
+                    @Override
+                    public void onInvoke(@NonNull Method method, @Nullable Object[] args) {
+                        dispatchGetScanResults();
+                    }
+                });
+    }
 
-    private static SystemServiceBinderHooker sHookHelper = new SystemServiceBinderHooker(Context.WIFI_SERVICE, "android.net.wifi.IWifiManager", sHookCallback);
+    @NonNull
+    public static BinderTracer getTracer() {
+        return sHookHelper.getTracer();
+    }
 
     public synchronized static void addListener(IListener listener) {
         if (listener == null) {
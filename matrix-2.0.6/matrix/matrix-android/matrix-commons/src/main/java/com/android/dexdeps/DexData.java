@@ -18,33 +18,69 @@ package com.android.dexdeps;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Data extracted from a DEX file.
+ *
+ * The DEX is read through a {@link ByteBuffer}, either mapped from the file
+ * or wrapping the bytes of an entry read from a zip, so no field costs a
+ * system call.  Strings are only decoded when first queried, and can be
+ * shared across the DEX files of a multidex APK with a {@link StringPool}.
  */
 @SuppressWarnings("PMD")
 public class DexData {
     private RandomAccessFile mDexFile;
+    private ByteBuffer mData;
+    private int mPosition;
+    private StringPool mStringPool;
     private HeaderItem mHeaderItem;
-    private String[] mStrings;              // strings from string_data_*
+    private int[] mStringOffsets;           // offsets of string_data_*
+    private String[] mStrings;              // decoded strings, lazily filled
     private TypeIdItem[] mTypeIds;
     private ProtoIdItem[] mProtoIds;
     private FieldIdItem[] mFieldIds;
     private MethodIdItem[] mMethodIds;
     private ClassDefItem[] mClassDefs;
 
-    private byte[] tmpBuf = new byte[4];
-    private boolean isBigEndian = false;
-
     /**
-     * Constructs a new DexData for this file.
+     * Constructs a new DexData for this file.  The file is mapped by
+     * {@link #load()} and may be closed right after it.
      */
     public DexData(RandomAccessFile raf) {
         mDexFile = raf;
     }
 
+    /**
+     * Constructs a new DexData for the contents of a DEX, e.g. an entry
+     * read from a zip.
+     */
+    public DexData(byte[] dex) {
+        this(ByteBuffer.wrap(dex));
+    }
+
+    /**
+     * Constructs a new DexData for the contents of a DEX, from the position
+     * to the limit of the buffer.
+     */
+    public DexData(ByteBuffer dex) {
+        mData = dex.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Shares the decoded strings with the other DEX files of the same APK,
+     * class names and descriptors mostly repeat across them.
+     */
+    public DexData setStringPool(StringPool pool) {
+        mStringPool = pool;
+        return this;
+    }
+
     /**
      * Loads the contents of the DEX file into our data structures.
      *
@@ -52,6 +88,11 @@ public class DexData {
      * @throws DexDataException if the DEX contents look bad
      */
     public void load() throws IOException {
+        if (mData == null) {
+            FileChannel channel = mDexFile.getChannel();
+            mData = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
         parseHeaderItem();
 
         loadStrings();
@@ -101,7 +142,7 @@ public class DexData {
             /* do nothing */
         } else if (mHeaderItem.endianTag == HeaderItem.REVERSE_ENDIAN_CONSTANT) {
             /* file is big-endian (!), reverse future reads */
-            isBigEndian = true;
+            mData.order(ByteOrder.BIG_ENDIAN);
         } else {
             System.err.println("Endian constant has unexpected value "
                     + Integer.toHexString(mHeaderItem.endianTag));
@@ -134,28 +175,21 @@ public class DexData {
     /**
      * Loads the string table out of the DEX.
      *
-     * First we read all of the string_id_items, then we read all of the
-     * string_data_item.  Doing it this way should allow us to avoid
-     * seeking around in the file.
+     * Only the string_id_items are read here, the string_data_items are
+     * decoded by {@link #getString(int)} when first needed.
      */
     void loadStrings() throws IOException {
         int count = mHeaderItem.stringIdsSize;
-        int[] stringOffsets = new int[count];
+        mStringOffsets = new int[count];
 
         //System.out.println("reading " + count + " strings");
 
         seek(mHeaderItem.stringIdsOff);
         for (int i = 0; i < count; i++) {
-            stringOffsets[i] = readInt();
+            mStringOffsets[i] = readInt();
         }
 
         mStrings = new String[count];
-
-        for (int i = 0; i < count; i++) {
-            seek(stringOffsets[i]);         // should be a no-op
-            mStrings[i] = readString();
-            //System.out.println("STR: " + i + ": " + mStrings[i]);
-        }
     }
 
     /**
@@ -172,7 +206,7 @@ public class DexData {
             mTypeIds[i].descriptorIdx = readInt();
 
             //System.out.println(i + ": " + mTypeIds[i].descriptorIdx +
-            //    " " + mStrings[mTypeIds[i].descriptorIdx]);
+            //    " " + getString(mTypeIds[i].descriptorIdx));
         }
     }
 
@@ -298,18 +332,21 @@ public class DexData {
         }
 
         for (int i = 0; i < mTypeIds.length; i++) {
-            String className = mStrings[mTypeIds[i].descriptorIdx];
+            // peek the descriptor rather than decoding it
+            int offset = mStringOffsets[mTypeIds[i].descriptorIdx];
+            seek(offset);
+            int utf16len = readUnsignedLeb128();
 
-            if (className.length() == 1) {
+            if (utf16len == 1) {
                 // primitive class
                 mTypeIds[i].internal = true;
-            } else if (className.charAt(0) == '[') {
+            } else if (mData.get(mPosition) == '[') {
                 mTypeIds[i].internal = true;
             }
 
             //System.out.println(i + " " +
             //    (mTypeIds[i].internal ? "INTERNAL" : "external") + " - " +
-            //    mStrings[mTypeIds[i].descriptorIdx]);
+            //    getString(mTypeIds[i].descriptorIdx));
         }
     }
 
@@ -320,11 +357,28 @@ public class DexData {
      * =======================================================================
      */
 
+    /**
+     * Returns the string, given an index into the string_ids table.
+     * Decodes it on the first call.
+     */
+    private String getString(int idx) {
+        String str = mStrings[idx];
+        if (str == null) {
+            seek(mStringOffsets[idx]);
+            str = readString();
+            if (mStringPool != null) {
+                str = mStringPool.intern(str);
+            }
+            mStrings[idx] = str;
+        }
+        return str;
+    }
+
     /**
      * Returns the class name, given an index into the type_ids table.
      */
     private String classNameFromTypeIndex(int idx) {
-        return mStrings[mTypeIds[idx].descriptorIdx];
+        return getString(mTypeIds[idx].descriptorIdx);
     }
 
     /**
@@ -336,7 +390,7 @@ public class DexData {
         String[] result = new String[protoId.types.length];
 
         for (int i = 0; i < protoId.types.length; i++) {
-            result[i] = mStrings[mTypeIds[protoId.types[i]].descriptorIdx];
+            result[i] = getString(mTypeIds[protoId.types[i]].descriptorIdx);
         }
 
         return result;
@@ -348,7 +402,7 @@ public class DexData {
      */
     private String returnTypeFromProtoIndex(int idx) {
         ProtoIdItem protoId = mProtoIds[idx];
-        return mStrings[mTypeIds[protoId.returnTypeIdx].descriptorIdx];
+        return getString(mTypeIds[protoId.returnTypeIdx].descriptorIdx);
     }
 
     /**
@@ -366,7 +420,7 @@ public class DexData {
         for (int i = 0; i < mTypeIds.length; i++) {
             if (!mTypeIds[i].internal) {
                 sparseRefs[i] =
-                    new ClassRef(mStrings[mTypeIds[i].descriptorIdx]);
+                    new ClassRef(getString(mTypeIds[i].descriptorIdx));
                 count++;
             }
         }
@@ -400,7 +454,7 @@ public class DexData {
                 FieldRef newFieldRef = new FieldRef(
                         classNameFromTypeIndex(fieldId.classIdx),
                         classNameFromTypeIndex(fieldId.typeIdx),
-                        mStrings[fieldId.nameIdx]);
+                        getString(fieldId.nameIdx));
                 sparseRefs[mFieldIds[i].classIdx].addField(newFieldRef);
             }
         }
@@ -418,7 +472,7 @@ public class DexData {
                         classNameFromTypeIndex(methodId.classIdx),
                         argArrayFromProtoIndex(methodId.protoIdx),
                         returnTypeFromProtoIndex(methodId.protoIdx),
-                        mStrings[methodId.nameIdx]);
+                        getString(methodId.nameIdx));
                 sparseRefs[mMethodIds[i].classIdx].addMethod(newMethodRef);
             }
         }
@@ -440,7 +494,7 @@ public class DexData {
         for (int i = 0; i < mTypeIds.length; i++) {
             if (mTypeIds[i].internal) {
                 sparseRefs[i] =
-                        new ClassRef(mStrings[mTypeIds[i].descriptorIdx]);
+                        new ClassRef(getString(mTypeIds[i].descriptorIdx));
                 count++;
             }
         }
@@ -474,7 +528,7 @@ public class DexData {
                 FieldRef newFieldRef = new FieldRef(
                         classNameFromTypeIndex(fieldId.classIdx),
                         classNameFromTypeIndex(fieldId.typeIdx),
-                        mStrings[fieldId.nameIdx]);
+                        getString(fieldId.nameIdx));
                 sparseRefs[mFieldIds[i].classIdx].addField(newFieldRef);
             }
         }
@@ -492,7 +546,7 @@ public class DexData {
                         classNameFromTypeIndex(methodId.classIdx),
                         argArrayFromProtoIndex(methodId.protoIdx),
                         returnTypeFromProtoIndex(methodId.protoIdx),
-                        mStrings[methodId.nameIdx]);
+                        getString(methodId.nameIdx));
                 sparseRefs[mMethodIds[i].classIdx].addMethod(newMethodRef);
             }
         }
@@ -511,7 +565,7 @@ public class DexData {
                     classNameFromTypeIndex(methodId.classIdx),
                     argArrayFromProtoIndex(methodId.protoIdx),
                     returnTypeFromProtoIndex(methodId.protoIdx),
-                    mStrings[methodId.nameIdx]);
+                    getString(methodId.nameIdx));
         }
         return methodRefs;
     }
@@ -526,7 +580,7 @@ public class DexData {
             fieldRefs[i] = new FieldRef(
                     classNameFromTypeIndex(fieldId.classIdx),
                     classNameFromTypeIndex(fieldId.typeIdx),
-                    mStrings[fieldId.nameIdx]);
+                    getString(fieldId.nameIdx));
         }
         return fieldRefs;
     }
@@ -540,92 +594,98 @@ public class DexData {
     /**
      * Seeks the DEX file to the specified absolute position.
      */
-    void seek(int position) throws IOException {
-        mDexFile.seek(position);
+    void seek(int position) {
+        mPosition = position;
     }
 
     /**
      * Fills the buffer by reading bytes from the DEX file.
      */
-    void readBytes(byte[] buffer) throws IOException {
-        mDexFile.readFully(buffer);
+    void readBytes(byte[] buffer) {
+        for (int i = 0; i < buffer.length; i++) {
+            buffer[i] = mData.get(mPosition++);
+        }
     }
 
     /**
      * Reads a single signed byte value.
      */
-    byte readByte() throws IOException {
-        mDexFile.readFully(tmpBuf, 0, 1);
-        return tmpBuf[0];
+    byte readByte() {
+        return mData.get(mPosition++);
     }
 
     /**
      * Reads a signed 16-bit integer, byte-swapping if necessary.
      */
-    short readShort() throws IOException {
-        mDexFile.readFully(tmpBuf, 0, 2);
-        if (isBigEndian) {
-            return (short) ((tmpBuf[1] & 0xff) | ((tmpBuf[0] & 0xff) << 8));
-        } else {
-            return (short) ((tmpBuf[0] & 0xff) | ((tmpBuf[1] & 0xff) << 8));
-        }
+    short readShort() {
+        short val = mData.getShort(mPosition);
+        mPosition += 2;
+        return val;
     }
 
     /**
      * Reads a signed 32-bit integer, byte-swapping if necessary.
      */
-    int readInt() throws IOException {
-        mDexFile.readFully(tmpBuf, 0, 4);
-
-        if (isBigEndian) {
-            return (tmpBuf[3] & 0xff) | ((tmpBuf[2] & 0xff) << 8)
-                    | ((tmpBuf[1] & 0xff) << 16) | ((tmpBuf[0] & 0xff) << 24);
-        } else {
-            return (tmpBuf[0] & 0xff) | ((tmpBuf[1] & 0xff) << 8)
-                    | ((tmpBuf[2] & 0xff) << 16) | ((tmpBuf[3] & 0xff) << 24);
-        }
+    int readInt() {
+        int val = mData.getInt(mPosition);
+        mPosition += 4;
+        return val;
     }
 
     /**
      * Reads a variable-length unsigned LEB128 value.  Does not attempt to
      * verify that the value is valid.
      *
-     * @throws EOFException if we run off the end of the file
+     * @throws IndexOutOfBoundsException if we run off the end of the file
      */
-    int readUnsignedLeb128() throws IOException {
+    int readUnsignedLeb128() {
         int result = 0;
+        int shift = 0;
         byte val;
 
         do {
             val = readByte();
-            result = (result << 7) | (val & 0x7f);
+            result |= (val & 0x7f) << shift;
+            shift += 7;
         } while (val < 0);
 
         return result;
     }
 
     /**
-     * Reads a UTF-8 string.
+     * Reads a MUTF-8 string.
      *
-     * We don't know how long the UTF-8 string is, so we have to read one
-     * byte at a time.  We could make an educated guess based on the
-     * utf16_size and seek back if we get it wrong, but seeking backward
-     * may cause the underlying implementation to reload I/O buffers.
-     */
-    String readString() throws IOException {
-        int utf16len = readUnsignedLeb128();
-        byte[] inBuf = new byte[utf16len * 3];      // worst case
-        int idx;
-
-        for (idx = 0; idx < inBuf.length; idx++) {
-            byte val = readByte();
-            if (val == 0) {
-                break;
+     * The string is scanned up to its terminating zero in place, strings
+     * of ASCII only, which most of the descriptors and names are, are
+     * copied without going through the charset decoder.
+     */
+    String readString() {
+        /* utf16_size = */ readUnsignedLeb128();
+        int start = mPosition;
+        boolean ascii = true;
+        byte val;
+
+        while ((val = mData.get(mPosition)) != 0) {
+            if (val < 0) {
+                ascii = false;
             }
-            inBuf[idx] = val;
+            mPosition++;
         }
 
-        return new String(inBuf, 0, idx, "UTF-8");
+        int length = mPosition - start;
+        mPosition++;
+        if (ascii) {
+            char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                chars[i] = (char) mData.get(start + i);
+            }
+            return new String(chars);
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = mData.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
     }
 
 
@@ -730,4 +790,21 @@ public class DexData {
     static class ClassDefItem {
         public int classIdx;            // index into type_ids
     }
+
+    /**
+     * Interned strings shared by the DEX files of an APK.  Thread safe, so
+     * the DEX files can be loaded concurrently.
+     */
+    public static class StringPool {
+        private final ConcurrentHashMap<String, String> mStrings = new ConcurrentHashMap<String, String>();
+
+        public String intern(String str) {
+            String prev = mStrings.putIfAbsent(str, str);
+            return prev == null ? str : prev;
+        }
+
+        public int size() {
+            return mStrings.size();
+        }
+    }
 }
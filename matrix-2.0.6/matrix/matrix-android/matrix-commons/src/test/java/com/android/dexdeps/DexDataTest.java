@@ -0,0 +1,364 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dexdeps;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads the dexes of a synthetic 10-dex APK and checks the refs read through the mapped buffer,
+ * and the time budget of one pass over all of them.
+ */
+public class DexDataTest {
+
+    private static final int DEX_COUNT = 10;
+    private static final int CLASSES_PER_DEX = 7000;
+    private static final int EXTERNALS_PER_DEX = 400;
+    private static final int METHODS_PER_CLASS = 8;
+    private static final int FIELDS_PER_CLASS = 4;
+    private static final int METHODS_PER_EXTERNAL = 4;
+    private static final String SHARED_EXTERNAL = "Landroid/util/Log;";
+
+    /**
+     * One pass (load and query every dex) took about 6.6s before reading from the mapped buffer
+     * and about 0.4s after, the budget leaves room for slow machines.
+     */
+    private static final long PASS_BUDGET_MILLIS = 3000L;
+
+    private static File sDir;
+    private static File[] sDexFiles;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        sDir = File.createTempFile("dexdata", "test");
+        if (!sDir.delete() || !sDir.mkdirs()) {
+            throw new IOException("mkdirs failed: " + sDir);
+        }
+        sDexFiles = new File[DEX_COUNT];
+        for (int i = 0; i < DEX_COUNT; i++) {
+            sDexFiles[i] = new File(sDir, i == 0 ? "classes.dex" : "classes" + (i + 1) + ".dex");
+            FileOutputStream fos = new FileOutputStream(sDexFiles[i]);
+            try {
+                fos.write(new DexBuilder(i).build());
+            } finally {
+                fos.close();
+            }
+        }
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        for (File file : sDexFiles) {
+            file.delete();
+        }
+        sDir.delete();
+    }
+
+    @Test
+    public void testMultiDexRefs() throws IOException {
+        DexData.StringPool pool = new DexData.StringPool();
+        String sharedName = null;
+        for (int i = 0; i < DEX_COUNT; i++) {
+            DexData dexData = load(sDexFiles[i], pool);
+            DexBuilder builder = new DexBuilder(i);
+
+            MethodRef[] methodRefs = dexData.getMethodRefs();
+            Assert.assertEquals(builder.methodCount(), methodRefs.length);
+            MethodRef methodRef = methodRefs[2];
+            Assert.assertEquals(builder.className(0), methodRef.getDeclClassName());
+            Assert.assertEquals("method2", methodRef.getName());
+            Assert.assertEquals("I", methodRef.getReturnTypeName());
+            Assert.assertEquals(Arrays.asList("Ljava/lang/String;", "I"), methodRef.getArgumentTypeNames());
+
+            Set<String> internals = new HashSet<>();
+            for (ClassRef classRef : dexData.getInternalReferences()) {
+                internals.add(classRef.getName());
+            }
+            for (int c = 0; c < CLASSES_PER_DEX; c++) {
+                Assert.assertTrue(builder.className(c), internals.contains(builder.className(c)));
+            }
+
+            int externalMethods = 0;
+            boolean sharedFound = false;
+            for (ClassRef classRef : dexData.getExternalReferences()) {
+                Assert.assertFalse(classRef.getName(), internals.contains(classRef.getName()));
+                externalMethods += classRef.getMethodArray().length;
+                if (SHARED_EXTERNAL.equals(classRef.getName())) {
+                    // Decoded once for the whole APK
+                    if (sharedName == null) {
+                        sharedName = classRef.getName();
+                    }
+                    Assert.assertSame(sharedName, classRef.getName());
+                    sharedFound = true;
+                }
+            }
+            Assert.assertTrue(sharedFound);
+            Assert.assertEquals((EXTERNALS_PER_DEX + 1) * METHODS_PER_EXTERNAL, externalMethods);
+        }
+    }
+
+    @Test
+    public void testBytesSameAsMapped() throws IOException {
+        byte[] bytes = new DexBuilder(3).build();
+        DexData fromBytes = new DexData(bytes);
+        fromBytes.load();
+        DexData mapped = load(sDexFiles[3], null);
+
+        Assert.assertEquals(digest(mapped), digest(fromBytes));
+    }
+
+    @Test
+    public void testMultiDexBudget() throws IOException {
+        // Warm up
+        pass();
+
+        long begin = System.nanoTime();
+        long digest = pass();
+        long costMillis = (System.nanoTime() - begin) / 1000000L;
+
+        Assert.assertEquals(digest, pass());
+        Assert.assertTrue("pass cost " + costMillis + "ms", costMillis < PASS_BUDGET_MILLIS);
+    }
+
+    private static long pass() throws IOException {
+        DexData.StringPool pool = new DexData.StringPool();
+        long digest = 0;
+        for (File file : sDexFiles) {
+            digest = digest * 31 + digest(load(file, pool));
+        }
+        return digest;
+    }
+
+    private static DexData load(File file, DexData.StringPool pool) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            DexData dexData = new DexData(raf).setStringPool(pool);
+            dexData.load();
+            return dexData;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static long digest(DexData dexData) {
+        long digest = 0;
+        for (MethodRef ref : dexData.getMethodRefs()) {
+            digest = digest * 31 + (ref.getDeclClassName() + ref.getName() + ref.getReturnTypeName()
+                    + ref.getArgumentTypeNames()).hashCode();
+        }
+        for (ClassRef ref : dexData.getExternalReferences()) {
+            digest = digest * 31 + ref.getName().hashCode() + ref.getMethodArray().length;
+        }
+        for (ClassRef ref : dexData.getInternalReferences()) {
+            digest = digest * 31 + ref.getName().hashCode() + ref.getFieldArray().length;
+        }
+        return digest;
+    }
+
+    /**
+     * Writes a minimal dex 035 with string, type, proto, field, method ids and class defs.
+     */
+    private static final class DexBuilder {
+        private final int mSeed;
+        private final List<String> mStrings = new ArrayList<>();
+        private final Map<String, Integer> mStringIndexes = new HashMap<>();
+        private final List<Integer> mTypes = new ArrayList<>();
+        private final Map<String, Integer> mTypeIndexes = new HashMap<>();
+        private final List<int[]> mFields = new ArrayList<>();
+        private final List<int[]> mMethods = new ArrayList<>();
+        private final List<Integer> mClassDefs = new ArrayList<>();
+        private int[][] mProtos;
+
+        DexBuilder(int seed) {
+            mSeed = seed;
+        }
+
+        String className(int index) {
+            // Non-ascii package for some classes, so that the utf-8 path is covered
+            return index % 7 == 0
+                    ? "Lcom/example/app" + (index % 50) + "/été/Class" + index + ";"
+                    : "Lcom/example/feature" + (index % 50) + "/sub/VeryLongClassNameForTesting" + index + ";";
+        }
+
+        int methodCount() {
+            return CLASSES_PER_DEX * METHODS_PER_CLASS + (EXTERNALS_PER_DEX + 1) * METHODS_PER_EXTERNAL;
+        }
+
+        byte[] build() throws IOException {
+            int typeV = type("V");
+            int typeI = type("I");
+            int typeString = type("Ljava/lang/String;");
+            type("[Ljava/lang/Object;");
+            // shorty, return type, parameter types
+            mProtos = new int[][]{{string("V"), typeV}, {string("VI"), typeV, typeI}, {string("ILI"), typeI, typeString, typeI}};
+
+            for (int c = 0; c < CLASSES_PER_DEX; c++) {
+                int classType = type(className(c));
+                mClassDefs.add(classType);
+                for (int m = 0; m < METHODS_PER_CLASS; m++) {
+                    mMethods.add(new int[]{classType, m % mProtos.length, string("method" + m)});
+                }
+                for (int f = 0; f < FIELDS_PER_CLASS; f++) {
+                    mFields.add(new int[]{classType, f % 2 == 0 ? typeI : typeString, string("field" + f)});
+                }
+            }
+            for (int e = 0; e <= EXTERNALS_PER_DEX; e++) {
+                int externalType = type(e == EXTERNALS_PER_DEX ? SHARED_EXTERNAL : "Landroid/support/v" + mSeed + "/External" + e + ";");
+                for (int m = 0; m < METHODS_PER_EXTERNAL; m++) {
+                    mMethods.add(new int[]{externalType, m % mProtos.length, string("ext" + m)});
+                }
+                mFields.add(new int[]{externalType, typeI, string("EXT")});
+            }
+            return layout();
+        }
+
+        private int string(String str) {
+            Integer index = mStringIndexes.get(str);
+            if (index == null) {
+                index = mStrings.size();
+                mStrings.add(str);
+                mStringIndexes.put(str, index);
+            }
+            return index;
+        }
+
+        private int type(String descriptor) {
+            Integer index = mTypeIndexes.get(descriptor);
+            if (index == null) {
+                index = mTypes.size();
+                mTypes.add(string(descriptor));
+                mTypeIndexes.put(descriptor, index);
+            }
+            return index;
+        }
+
+        private byte[] layout() throws IOException {
+            int offset = 0x70;
+            final int stringIdsOff = offset;
+            offset += 4 * mStrings.size();
+            final int typeIdsOff = offset;
+            offset += 4 * mTypes.size();
+            final int protoIdsOff = offset;
+            offset += 12 * mProtos.length;
+            final int fieldIdsOff = offset;
+            offset += 8 * mFields.size();
+            final int methodIdsOff = offset;
+            offset += 8 * mMethods.size();
+            final int classDefsOff = offset;
+            offset += 32 * mClassDefs.size();
+            final int dataOff = offset;
+
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            int[] stringOffsets = new int[mStrings.size()];
+            for (int i = 0; i < mStrings.size(); i++) {
+                stringOffsets[i] = dataOff + data.size();
+                String str = mStrings.get(i);
+                // uleb128 utf-16 length, then mutf-8 bytes, all the strings here are in the BMP
+                int length = str.length();
+                do {
+                    int b = length & 0x7f;
+                    length >>>= 7;
+                    data.write(length != 0 ? b | 0x80 : b);
+                } while (length != 0);
+                data.write(str.getBytes(Charset.forName("UTF-8")));
+                data.write(0);
+            }
+            while (data.size() % 4 != 0) {
+                data.write(0);
+            }
+
+            int[] parameterOffsets = new int[mProtos.length];
+            for (int p = 0; p < mProtos.length; p++) {
+                int count = mProtos[p].length - 2;
+                if (count == 0) {
+                    continue;
+                }
+                parameterOffsets[p] = dataOff + data.size();
+                ByteBuffer typeList = ByteBuffer.allocate(4 + 2 * count + (count % 2) * 2).order(ByteOrder.LITTLE_ENDIAN);
+                typeList.putInt(count);
+                for (int j = 0; j < count; j++) {
+                    typeList.putShort((short) mProtos[p][2 + j]);
+                }
+                data.write(typeList.array());
+            }
+
+            int size = dataOff + data.size();
+            ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.put("dex\n035\0".getBytes(Charset.forName("US-ASCII")));
+            // checksum and signature are not verified
+            buffer.position(32);
+            buffer.putInt(size);
+            buffer.putInt(0x70);
+            buffer.putInt(DexData.HeaderItem.ENDIAN_CONSTANT);
+            // link and map
+            buffer.putInt(0);
+            buffer.putInt(0);
+            buffer.putInt(0);
+            buffer.putInt(mStrings.size()).putInt(stringIdsOff);
+            buffer.putInt(mTypes.size()).putInt(typeIdsOff);
+            buffer.putInt(mProtos.length).putInt(protoIdsOff);
+            buffer.putInt(mFields.size()).putInt(fieldIdsOff);
+            buffer.putInt(mMethods.size()).putInt(methodIdsOff);
+            buffer.putInt(mClassDefs.size()).putInt(classDefsOff);
+            buffer.putInt(data.size()).putInt(dataOff);
+
+            buffer.position(stringIdsOff);
+            for (int stringOffset : stringOffsets) {
+                buffer.putInt(stringOffset);
+            }
+            for (int type : mTypes) {
+                buffer.putInt(type);
+            }
+            for (int p = 0; p < mProtos.length; p++) {
+                buffer.putInt(mProtos[p][0]).putInt(mProtos[p][1]).putInt(parameterOffsets[p]);
+            }
+            for (int[] field : mFields) {
+                buffer.putShort((short) field[0]).putShort((short) field[1]).putInt(field[2]);
+            }
+            for (int[] method : mMethods) {
+                buffer.putShort((short) method[0]).putShort((short) method[1]).putInt(method[2]);
+            }
+            for (int classDef : mClassDefs) {
+                buffer.putInt(classDef);
+                for (int k = 0; k < 7; k++) {
+                    buffer.putInt(0);
+                }
+            }
+            buffer.position(dataOff);
+            buffer.put(data.toByteArray());
+            return buffer.array();
+        }
+    }
+}
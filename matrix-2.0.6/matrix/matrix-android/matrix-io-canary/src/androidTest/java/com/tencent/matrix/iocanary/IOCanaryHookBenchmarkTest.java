@@ -0,0 +1,237 @@
+package com.tencent.matrix.iocanary;
+
+import android.content.Context;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.tencent.matrix.iocanary.config.IOConfig;
+import com.tencent.matrix.iocanary.core.IOCanaryJniBridge;
+import com.tencent.matrix.iocanary.core.IOIssue;
+import com.tencent.matrix.iocanary.core.IOStatsSnapshot;
+import com.tencent.matrix.iocanary.core.OnJniIssuePublishListener;
+import com.tencent.matrix.iocanary.core.OnJniStatsPublishListener;
+import com.tencent.mrs.plugin.IDynamicConfig;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives many threads of small file reads with and without the native io hooks installed,
+ * so that the hook overhead under heavy io can be compared.
+ * <p>
+ * Hooks only record io on the main thread, so the workload also runs there; the worker
+ * threads measure the cost of the stats only path. The stats exported afterwards must count
+ * every byte read through the hooks, on the main thread and on the workers.
+ */
+@RunWith(AndroidJUnit4.class)
+public class IOCanaryHookBenchmarkTest {
+    private static final String TAG = "Matrix.test.IOCanaryHookBenchmarkTest";
+
+    private static final int THREAD_COUNT = 16;
+    private static final int FILE_COUNT = 8;
+    private static final int ROUNDS_PER_THREAD = 200;
+    private static final int FILE_SIZE = 16 * 1024;
+    private static final int SMALL_BUFFER_SIZE = 512;
+    private static final int STATS_EXPORT_INTERVAL = 200;
+    private static final long STATS_TIMEOUT_MILLIS = 10 * 1000L;
+
+    private Context mContext;
+    private File mDir;
+    private volatile int mMainTid;
+
+    @Before
+    public void setUp() throws IOException {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mDir = new File(mContext.getCacheDir(), "io_canary_benchmark");
+        if (!mDir.exists() && !mDir.mkdirs()) {
+            throw new IOException("mkdirs failed: " + mDir);
+        }
+        byte[] content = new byte[FILE_SIZE];
+        for (int i = 0; i < FILE_COUNT; i++) {
+            FileOutputStream fos = new FileOutputStream(new File(mDir, "file_" + i));
+            try {
+                fos.write(content);
+            } finally {
+                fos.close();
+            }
+        }
+    }
+
+    @After
+    public void shutDown() {
+        IOCanaryJniBridge.setOnStatsPublishListener(null);
+        IOCanaryJniBridge.uninstall();
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    @Test
+    public void testSmallReadsBenchmark() throws Exception {
+        // warm up page cache and jit
+        runWorkers();
+
+        long workersBaseline = runWorkers();
+        long mainBaseline = runOnMainThread();
+
+        final long expectedMainBytes = (long) ROUNDS_PER_THREAD * FILE_SIZE;
+        final long expectedTotalBytes = expectedMainBytes * (THREAD_COUNT + 1);
+        final long[] readBytes = new long[2];
+        final CountDownLatch statsDone = new CountDownLatch(1);
+        IOCanaryJniBridge.setOnStatsPublishListener(new OnJniStatsPublishListener() {
+            @Override
+            public void onStatsPublish(IOStatsSnapshot snapshot) {
+                long mainBytes = 0;
+                long totalBytes = 0;
+                for (int i = 0; i < snapshot.getRecordCount(); i++) {
+                    if (snapshot.getPathClass(i) != IOStatsSnapshot.PATH_CLASS_CACHE) {
+                        continue;
+                    }
+                    totalBytes += snapshot.getReadBytes(i);
+                    if (snapshot.getThreadId(i) == mMainTid) {
+                        mainBytes += snapshot.getReadBytes(i);
+                    }
+                }
+                synchronized (readBytes) {
+                    readBytes[0] = mainBytes;
+                    readBytes[1] = totalBytes;
+                }
+                if (totalBytes >= expectedTotalBytes) {
+                    statsDone.countDown();
+                }
+            }
+        });
+
+        final AtomicInteger issueCount = new AtomicInteger();
+        IOCanaryJniBridge.install(new IOConfig.Builder().dynamicConfig(new BenchmarkConfig()).build(), new OnJniIssuePublishListener() {
+            @Override
+            public void onIssuePublish(List<IOIssue> issues) {
+                issueCount.addAndGet(issues.size());
+            }
+        });
+
+        long workersHooked = runWorkers();
+        long mainHooked = runOnMainThread();
+
+        Log.i(TAG, "workers: " + workersBaseline + "ms vs hooked " + workersHooked + "ms, "
+                + "main: " + mainBaseline + "ms vs hooked " + mainHooked + "ms, issues: " + issueCount.get());
+
+        Assert.assertTrue("stats not exported", statsDone.await(STATS_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        synchronized (readBytes) {
+            Assert.assertEquals(expectedMainBytes, readBytes[0]);
+            // Other threads of the app may read cache files as well
+            Assert.assertTrue("total read bytes = " + readBytes[1], readBytes[1] >= expectedTotalBytes);
+        }
+    }
+
+    private long runWorkers() throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(THREAD_COUNT);
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            final int index = i;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        readFiles(index, ROUNDS_PER_THREAD);
+                    } catch (Exception e) {
+                        Log.e(TAG, "worker failed", e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "io_benchmark_" + i).start();
+        }
+
+        long begin = SystemClock.uptimeMillis();
+        start.countDown();
+        done.await();
+        return SystemClock.uptimeMillis() - begin;
+    }
+
+    private long runOnMainThread() {
+        final long[] cost = new long[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mMainTid = Process.myTid();
+                long begin = SystemClock.uptimeMillis();
+                try {
+                    readFiles(0, ROUNDS_PER_THREAD);
+                } catch (IOException e) {
+                    Log.e(TAG, "main thread read failed", e);
+                }
+                cost[0] = SystemClock.uptimeMillis() - begin;
+            }
+        });
+        return cost[0];
+    }
+
+    private void readFiles(int seed, int rounds) throws IOException {
+        byte[] buffer = new byte[SMALL_BUFFER_SIZE];
+        for (int i = 0; i < rounds; i++) {
+            FileInputStream fis = new FileInputStream(new File(mDir, "file_" + ((seed + i) % FILE_COUNT)));
+            try {
+                //noinspection StatementWithEmptyBody
+                while (fis.read(buffer) > 0) {
+                }
+            } finally {
+                fis.close();
+            }
+        }
+    }
+
+    private static final class BenchmarkConfig implements IDynamicConfig {
+        @Override
+        public String get(String key, String defStr) {
+            return defStr;
+        }
+
+        @Override
+        public int get(String key, int defInt) {
+            if (ExptEnum.clicfg_matrix_io_stats_export_interval.name().equals(key)) {
+                return STATS_EXPORT_INTERVAL;
+            }
+            return defInt;
+        }
+
+        @Override
+        public long get(String key, long defLong) {
+            return defLong;
+        }
+
+        @Override
+        public boolean get(String key, boolean defBool) {
+            if (ExptEnum.clicfg_matrix_io_stats_enable.name().equals(key)) {
+                return true;
+            }
+            return defBool;
+        }
+
+        @Override
+        public float get(String key, float defFloat) {
+            return defFloat;
+        }
+    }
+}
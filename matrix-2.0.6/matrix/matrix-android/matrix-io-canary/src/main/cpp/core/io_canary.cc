@@ -19,6 +19,10 @@
 //
 
 #include "io_canary.h"
+#include <android/log.h>
+#include <algorithm>
+#include <chrono>
+#include <cstring>
 #include <thread>
 #include "detector/detector.h"
 #include "detector/main_thread_detector.h"
@@ -27,12 +31,14 @@
 
 namespace iocanary {
 
+    static const char* const kTag = "IOCanary.native";
+
     IOCanary& IOCanary::Get() {
         static IOCanary kInstance;
         return kInstance;
     }
 
-    IOCanary::IOCanary() {
+    IOCanary::IOCanary() : stats_callback_(nullptr), released_callback_(nullptr), stats_(nullptr), consumer_parked_(false), dropped_cnt_(0) {
         exit_ = false;
         std::thread detect_thread(&IOCanary::Detect, this);
         detect_thread.detach();
@@ -47,6 +53,35 @@ namespace iocanary {
         issued_callback_ = issued_callback;
     }
 
+    void IOCanary::SetStatsCallback(OnPublishStatsCallback stats_callback) {
+        stats_callback_ = stats_callback;
+    }
+
+    void IOCanary::SetJavaStacksReleasedCallback(OnReleaseJavaStacksCallback released_callback) {
+        released_callback_ = released_callback;
+    }
+
+    void IOCanary::EnableStats() {
+        if (stats_.load(std::memory_order_acquire) != nullptr) {
+            return;
+        }
+
+        IOStats* stats = new IOStats();
+        IOStats* expected = nullptr;
+        if (!stats_.compare_exchange_strong(expected, stats, std::memory_order_acq_rel)) {
+            delete stats;
+            return;
+        }
+
+        //let the detect thread pick up its export deadline
+        std::lock_guard<std::mutex> lock(queue_mutex_);
+        queue_cv_.notify_one();
+    }
+
+    bool IOCanary::IsStatsEnabled() const {
+        return stats_.load(std::memory_order_relaxed) != nullptr;
+    }
+
     void IOCanary::RegisterDetector(DetectorType type) {
         switch (type) {
             case DetectorType::kDetectorMainThreadIO:
@@ -65,7 +100,9 @@ namespace iocanary {
 
     void IOCanary::OnOpen(const char *pathname, int flags, mode_t mode,
                           int open_ret, const JavaContext& java_context) {
-        collector_.OnOpen(pathname, flags, mode, open_ret, java_context);
+        if (!collector_.OnOpen(pathname, flags, mode, open_ret, java_context)) {
+            ReleaseJavaStack(java_context.stack_);
+        }
     }
 
     void IOCanary::OnRead(int fd, const void *buf, size_t size,
@@ -87,49 +124,181 @@ namespace iocanary {
         OfferFileIOInfo(info);
     }
 
+    void IOCanary::OnStatsOpen(int fd, const char *pathname) {
+        IOStats* stats = stats_.load(std::memory_order_acquire);
+        if (stats != nullptr) {
+            stats->OnOpen(fd, pathname);
+        }
+    }
+
+    void IOCanary::OnStatsRead(int fd, ssize_t read_ret, long read_cost) {
+        IOStats* stats = stats_.load(std::memory_order_acquire);
+        if (stats != nullptr) {
+            stats->OnRead(fd, read_ret, read_cost);
+        }
+    }
+
+    void IOCanary::OnStatsWrite(int fd, ssize_t write_ret, long write_cost) {
+        IOStats* stats = stats_.load(std::memory_order_acquire);
+        if (stats != nullptr) {
+            stats->OnWrite(fd, write_ret, write_cost);
+        }
+    }
+
+    void IOCanary::OnStatsClose(int fd) {
+        IOStats* stats = stats_.load(std::memory_order_acquire);
+        if (stats != nullptr) {
+            stats->OnClose(fd);
+        }
+    }
+
     void IOCanary::OfferFileIOInfo(std::shared_ptr<IOInfo> file_io_info) {
-        std::unique_lock<std::mutex> lock(queue_mutex_);
-        queue_.push_back(file_io_info);
-        queue_cv_.notify_one();
-        lock.unlock();
+        if (!queue_.Offer(std::move(file_io_info))) {
+            //never block the hooked thread, the detect thread is too far behind
+            dropped_cnt_.fetch_add(1, std::memory_order_relaxed);
+            ReleaseJavaStack(file_io_info->java_context_.stack_);
+            return;
+        }
+
+        //pairs with the fence in TakeFileIOInfo, so a parking consumer either sees this info or is woken up
+        std::atomic_thread_fence(std::memory_order_seq_cst);
+        if (consumer_parked_.load(std::memory_order_relaxed)) {
+            std::lock_guard<std::mutex> lock(queue_mutex_);
+            queue_cv_.notify_one();
+        }
     }
 
-    int IOCanary::TakeFileIOInfo(std::shared_ptr<IOInfo> &file_io_info) {
-        std::unique_lock<std::mutex> lock(queue_mutex_);
+    /**
+     * @param timeout_ms negative to wait until an info arrives
+     * @return 0 if an info is taken, 1 on timeout, -1 on exit
+     */
+    int IOCanary::TakeFileIOInfo(std::shared_ptr<IOInfo> &file_io_info, int64_t timeout_ms) {
+        if (queue_.Poll(file_io_info)) {
+            return 0;
+        }
 
-        while (queue_.empty()) {
-            queue_cv_.wait(lock);
+        std::unique_lock<std::mutex> lock(queue_mutex_);
+        const auto deadline = std::chrono::steady_clock::now() + std::chrono::milliseconds(timeout_ms < 0 ? 0 : timeout_ms);
+        while (true) {
             if (exit_) {
                 return -1;
             }
-        }
 
-        file_io_info = queue_.front();
-        queue_.pop_front();
-        return 0;
+            consumer_parked_.store(true, std::memory_order_relaxed);
+            std::atomic_thread_fence(std::memory_order_seq_cst);
+            if (queue_.Poll(file_io_info)) {
+                consumer_parked_.store(false, std::memory_order_relaxed);
+                return 0;
+            }
+
+            if (timeout_ms < 0) {
+                queue_cv_.wait(lock);
+            } else if (queue_cv_.wait_until(lock, deadline) == std::cv_status::timeout) {
+                consumer_parked_.store(false, std::memory_order_relaxed);
+                return queue_.Poll(file_io_info) ? 0 : 1;
+            }
+            consumer_parked_.store(false, std::memory_order_relaxed);
+        }
     }
 
     void IOCanary::Detect() {
         std::vector<Issue> published_issues;
         std::shared_ptr<IOInfo> file_io_info;
+        int64_t first_issue_time_ms = 0;
+        int64_t last_stats_time_ms = GetTickCount();
+        long reported_dropped_cnt = 0;
         while (true) {
-            published_issues.clear();
+            int64_t timeout_ms = -1;
+            if (!published_issues.empty()) {
+                timeout_ms = std::max<int64_t>(0, first_issue_time_ms + kIssueBatchWindowMs - GetTickCount());
+            }
+            if (IsStatsEnabled()) {
+                int64_t stats_timeout_ms = std::max<int64_t>(0, last_stats_time_ms + env_.GetStatsExportInterval() - GetTickCount());
+                timeout_ms = timeout_ms < 0 ? stats_timeout_ms : std::min(timeout_ms, stats_timeout_ms);
+            }
 
-            int ret = TakeFileIOInfo(file_io_info);
+            int ret = TakeFileIOInfo(file_io_info, timeout_ms);
 
-            if (ret != 0) {
+            if (ret < 0) {
                 break;
             }
 
-            for (auto detector : detectors_) {
-                detector->Detect(env_, *file_io_info, published_issues);
+            if (ret == 0) {
+                bool had_issues = !published_issues.empty();
+                for (auto detector : detectors_) {
+                    detector->Detect(env_, *file_io_info, published_issues);
+                }
+                if (!had_issues && !published_issues.empty()) {
+                    first_issue_time_ms = GetTickCount();
+                }
+
+                ReleaseJavaStack(file_io_info->java_context_.stack_);
+                file_io_info = nullptr;
+            }
+
+            if (!published_issues.empty()
+                && (published_issues.size() >= kIssueBatchMaxSize || GetTickCount() - first_issue_time_ms >= kIssueBatchWindowMs)) {
+                if (issued_callback_) {
+                    issued_callback_(published_issues);
+                }
+                published_issues.clear();
+                PublishReleasedJavaStacks(true);
+            } else if (published_issues.empty()) {
+                //a pending issue still needs the stacks released after it was found
+                PublishReleasedJavaStacks(false);
+            }
+
+            if (IsStatsEnabled() && GetTickCount() - last_stats_time_ms >= env_.GetStatsExportInterval()) {
+                PublishStats();
+                last_stats_time_ms = GetTickCount();
             }
 
-            if (issued_callback_ && !published_issues.empty()) {
-                issued_callback_(published_issues);
+            long dropped_cnt = dropped_cnt_.load(std::memory_order_relaxed);
+            if (dropped_cnt != reported_dropped_cnt) {
+                __android_log_print(ANDROID_LOG_WARN, kTag, "Detect queue full, dropped io info count:%ld", dropped_cnt);
+                reported_dropped_cnt = dropped_cnt;
             }
+        }
+    }
+
+    void IOCanary::PublishStats() {
+        IOStats* stats = stats_.load(std::memory_order_acquire);
+        if (stats == nullptr || stats_callback_ == nullptr) {
+            return;
+        }
+
+        std::vector<int64_t> records;
+        std::vector<std::string> thread_names;
+        stats->Snapshot(records, thread_names);
+        if (!records.empty()) {
+            stats_callback_(records, thread_names);
+        }
+    }
+
+    void IOCanary::ReleaseJavaStack(const std::string& stack) {
+        if (stack.compare(0, strlen(kJavaStackFingerprintPrefix), kJavaStackFingerprintPrefix) != 0) {
+            return;
+        }
+
+        std::lock_guard<std::mutex> lock(released_mutex_);
+        released_java_stacks_.push_back(stack);
+    }
+
+    /**
+     * @param force false to wait until a batch is full
+     */
+    void IOCanary::PublishReleasedJavaStacks(bool force) {
+        std::vector<std::string> stacks;
+        {
+            std::lock_guard<std::mutex> lock(released_mutex_);
+            if (released_java_stacks_.empty() || (!force && released_java_stacks_.size() < kReleaseBatchSize)) {
+                return;
+            }
+            stacks.swap(released_java_stacks_);
+        }
 
-            file_io_info = nullptr;
+        if (released_callback_) {
+            released_callback_(stacks);
         }
     }
 
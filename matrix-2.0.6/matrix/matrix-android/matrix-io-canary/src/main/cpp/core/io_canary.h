@@ -21,15 +21,19 @@
 #ifndef MATRIX_IO_CANARY_IO_CANARY_H
 #define MATRIX_IO_CANARY_IO_CANARY_H
 
+#include <atomic>
 #include <condition_variable>
 #include <memory>
-#include <deque>
 #include "io_info_collector.h"
+#include "io_info_ring.h"
+#include "io_stats.h"
 #include "detector/detector.h"
 
 namespace iocanary {
 
     typedef void(*OnPublishIssueCallback) (const std::vector<Issue>& published_issues);
+    typedef void(*OnPublishStatsCallback) (const std::vector<int64_t>& records, const std::vector<std::string>& thread_names);
+    typedef void(*OnReleaseJavaStacksCallback) (const std::vector<std::string>& stacks);
 
     class IOCanary {
     public:
@@ -43,30 +47,63 @@ namespace iocanary {
         void SetJavaMainThreadId(long main_thread_id);
 
         void SetIssuedCallback(OnPublishIssueCallback issued_callback);
+        void SetStatsCallback(OnPublishStatsCallback stats_callback);
+        //java stack fingerprints are pinned on the java side until they are handed back here
+        void SetJavaStacksReleasedCallback(OnReleaseJavaStacksCallback released_callback);
+
+        //continuous metrics mode, counts io of every thread until the process dies
+        void EnableStats();
+        bool IsStatsEnabled() const;
 
         void OnOpen(const char *pathname, int flags, mode_t mode, int open_ret, const JavaContext& java_context);
         void OnRead(int fd, const void *buf, size_t size, ssize_t read_ret, long read_cost);
         void OnWrite(int fd, const void *buf, size_t size, ssize_t write_ret, long write_cost);
         void OnClose(int fd, int close_ret);
 
+        //called on any thread, no-ops unless the stats are enabled
+        void OnStatsOpen(int fd, const char *pathname);
+        void OnStatsRead(int fd, ssize_t read_ret, long read_cost);
+        void OnStatsWrite(int fd, ssize_t write_ret, long write_cost);
+        void OnStatsClose(int fd);
+
     private:
         IOCanary();
         ~IOCanary();
 
+        //closed infos waiting for the detect thread
+        constexpr static const size_t kQueueCapacity = 1024;
+        //issues are handed to java in batches, at most this long after the first one is found
+        constexpr static const int64_t kIssueBatchWindowMs = 2000;
+        constexpr static const size_t kIssueBatchMaxSize = 32;
+        //fingerprints of the lazy java context mode, keep in sync with JavaStackCache
+        constexpr static const char* kJavaStackFingerprintPrefix = "javastack#";
+        constexpr static const size_t kReleaseBatchSize = 64;
+
         void OfferFileIOInfo(std::shared_ptr<IOInfo> file_io_info);
-        int TakeFileIOInfo(std::shared_ptr<IOInfo>& file_io_info);
+        int TakeFileIOInfo(std::shared_ptr<IOInfo>& file_io_info, int64_t timeout_ms);
         void Detect();
+        void PublishStats();
+        void ReleaseJavaStack(const std::string& stack);
+        void PublishReleasedJavaStacks(bool force);
 
         bool exit_;
 
         IOCanaryEnv env_;
         OnPublishIssueCallback issued_callback_;
+        OnPublishStatsCallback stats_callback_;
+        OnReleaseJavaStacksCallback released_callback_;
+        std::atomic<IOStats*> stats_;
         std::vector<FileIODetector*> detectors_;
 
         IOInfoCollector collector_;
-        std::deque<std::shared_ptr<IOInfo>> queue_;
+        IOInfoRing<std::shared_ptr<IOInfo>, kQueueCapacity> queue_;
+        std::atomic<bool> consumer_parked_;
+        std::atomic<long> dropped_cnt_;
         std::mutex queue_mutex_;
         std::condition_variable queue_cv_;
+
+        std::mutex released_mutex_;
+        std::vector<std::string> released_java_stacks_;
     };
 
 };
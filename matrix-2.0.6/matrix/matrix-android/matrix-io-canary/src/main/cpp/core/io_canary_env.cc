@@ -26,6 +26,7 @@ namespace iocanary {
         configs_[IOCanaryConfigKey::kMainThreadThreshold] = kDefaultMainThreadTriggerThreshold;
         configs_[IOCanaryConfigKey::kSmallBufferThreshold] = kDefaultBufferSmallThreshold;
         configs_[IOCanaryConfigKey::kRepeatReadThreshold] = kDefaultRepeatReadThreshold;
+        configs_[IOCanaryConfigKey::kStatsExportInterval] = kDefaultStatsExportInterval;
     }
 
     void IOCanaryEnv::SetConfig(IOCanaryConfigKey key, long val) {
@@ -48,6 +49,12 @@ namespace iocanary {
         return GetConfig(IOCanaryConfigKey::kRepeatReadThreshold);
     }
 
+    long IOCanaryEnv::GetStatsExportInterval() const {
+        //the detect thread wakes up at this interval, do not let a bad config make it spin
+        long interval = GetConfig(IOCanaryConfigKey::kStatsExportInterval);
+        return interval < kMinStatsExportInterval ? kMinStatsExportInterval : interval;
+    }
+
     long IOCanaryEnv::GetConfig(IOCanaryConfigKey key) const {
         if (key >= IOCanaryConfigKey::kConfigKeysLen) {
             return -1;
@@ -27,6 +27,7 @@ namespace iocanary {
         kMainThreadThreshold = 0,
         kSmallBufferThreshold,
         kRepeatReadThreshold,
+        kStatsExportInterval,
 
         //!!kConfigKeysLen always the last one!!
         kConfigKeysLen
@@ -41,6 +42,7 @@ namespace iocanary {
         long GetMainThreadThreshold() const;
         long GetSmallBufferThreshold() const;
         long GetRepeatReadThreshold() const;
+        long GetStatsExportInterval() const;
 
         //in μs.
         //it may be negative if the io-cost more than POSSIBLE_NEGATIVE_THRESHOLD
@@ -56,6 +58,9 @@ namespace iocanary {
         //We take 4096B(4KB) as a small size of the buffer
         constexpr static const int kDefaultBufferSmallThreshold = 4096;
         constexpr static const int kDefaultRepeatReadThreshold = 5;
+        //in ms
+        constexpr static const int kDefaultStatsExportInterval = 60*1000;
+        constexpr static const int kMinStatsExportInterval = 1000;
 
         long configs_[IOCanaryConfigKey::kConfigKeysLen];
     };
@@ -20,26 +20,35 @@
 //
 
 #include "io_info_collector.h"
+#include <algorithm>
 #include <thread>
 #include "comm/io_canary_utils.h"
 
 namespace iocanary {
 
-    void IOInfoCollector::OnOpen(const char *pathname, int flags, mode_t mode
+    bool IOInfoCollector::OnOpen(const char *pathname, int flags, mode_t mode
             , int open_ret, const JavaContext& java_context) {
         //__android_log_print(ANDROID_LOG_DEBUG, kTag, "OnOpen fd:%d; path:%s", open_ret, pathname);
 
-        if (open_ret == -1) {
-            return;
+        if (open_ret < 0 || open_ret >= kMaxTrackedFd) {
+            return false;
         }
 
-        if (info_map_.find(open_ret) != info_map_.end()) {
-            //__android_log_print(ANDROID_LOG_WARN, kTag, "OnOpen fd:%d already in info_map_", open_ret);
-            return;
+        if (Find(open_ret) != nullptr) {
+            //__android_log_print(ANDROID_LOG_WARN, kTag, "OnOpen fd:%d already in info_table_", open_ret);
+            return false;
+        }
+
+        if (static_cast<size_t>(open_ret) >= info_table_.size()) {
+            size_t size = std::max(kMinTableSize, info_table_.size());
+            while (size <= static_cast<size_t>(open_ret)) {
+                size <<= 1;
+            }
+            info_table_.resize(std::min(size, static_cast<size_t>(kMaxTrackedFd)));
         }
 
-        std::shared_ptr<IOInfo> info = std::make_shared<IOInfo>(pathname, java_context);
-        info_map_.insert(std::make_pair(open_ret, info));
+        info_table_[open_ret] = std::make_shared<IOInfo>(pathname, java_context);
+        return true;
     }
 
     void IOInfoCollector::OnRead(int fd, const void *buf, size_t size,
@@ -49,12 +58,13 @@ namespace iocanary {
             return;
         }
 
-        if (info_map_.find(fd) == info_map_.end()) {
-             //__android_log_print(ANDROID_LOG_DEBUG, kTag, "OnRead fd:%d not in info_map_", fd);
+        IOInfo* info = Find(fd);
+        if (info == nullptr) {
+             //__android_log_print(ANDROID_LOG_DEBUG, kTag, "OnRead fd:%d not in info_table_", fd);
             return;
         }
 
-        CountRWInfo(fd, FileOpType::kRead, size, read_cost);
+        CountRWInfo(*info, FileOpType::kRead, size, read_cost);
     }
 
     void IOInfoCollector::OnWrite(int fd, const void *buf, size_t size,
@@ -64,64 +74,67 @@ namespace iocanary {
             return;
         }
 
-        if (info_map_.find(fd) == info_map_.end()) {
-            //__android_log_print(ANDROID_LOG_DEBUG, kTag, "OnWrite fd:%d not in info_map_", fd);
+        IOInfo* info = Find(fd);
+        if (info == nullptr) {
+            //__android_log_print(ANDROID_LOG_DEBUG, kTag, "OnWrite fd:%d not in info_table_", fd);
             return;
         }
 
-        CountRWInfo(fd, FileOpType::kWrite, size, write_cost);
+        CountRWInfo(*info, FileOpType::kWrite, size, write_cost);
     }
 
     std::shared_ptr<IOInfo> IOInfoCollector::OnClose(int fd, int close_ret) {
 
-        if (info_map_.find(fd) == info_map_.end()) {
-            //__android_log_print(ANDROID_LOG_DEBUG, kTag, "OnClose fd:%d not in info_map_", fd);
+        if (Find(fd) == nullptr) {
+            //__android_log_print(ANDROID_LOG_DEBUG, kTag, "OnClose fd:%d not in info_table_", fd);
             return nullptr;
         }
 
-        info_map_[fd]->total_cost_μs_ = GetSysTimeMicros() - info_map_[fd]->start_time_μs_;
-        info_map_[fd]->file_size_ = GetFileSize(info_map_[fd]->path_.c_str());
-        std::shared_ptr<IOInfo> info = info_map_[fd];
-        info_map_.erase(fd);
+        std::shared_ptr<IOInfo> info = std::move(info_table_[fd]);
+        info->total_cost_μs_ = GetSysTimeMicros() - info->start_time_μs_;
+        info->file_size_ = GetFileSize(info->path_.c_str());
 
         return info;
     }
 
-    void IOInfoCollector::CountRWInfo(int fd, const FileOpType &fileOpType, long op_size, long rw_cost) {
-        if (info_map_.find(fd) == info_map_.end()) {
-            return;
+    IOInfo* IOInfoCollector::Find(int fd) const {
+        if (fd < 0 || static_cast<size_t>(fd) >= info_table_.size()) {
+            return nullptr;
         }
+        return info_table_[fd].get();
+    }
 
+    void IOInfoCollector::CountRWInfo(IOInfo& info, const FileOpType &fileOpType, long op_size, long rw_cost) {
         const int64_t now = GetSysTimeMicros();
 
-        info_map_[fd]->op_cnt_ ++;
-        info_map_[fd]->op_size_ += op_size;
-        info_map_[fd]->rw_cost_us_ += rw_cost;
+        info.op_cnt_ ++;
+        info.op_size_ += op_size;
+        info.rw_cost_us_ += rw_cost;
 
-        if (rw_cost > info_map_[fd]->max_once_rw_cost_time_μs_) {
-            info_map_[fd]->max_once_rw_cost_time_μs_ = rw_cost;
+        if (rw_cost > info.max_once_rw_cost_time_μs_) {
+            info.max_once_rw_cost_time_μs_ = rw_cost;
         }
 
         //__android_log_print(ANDROID_LOG_DEBUG, kTag, "CountRWInfo rw_cost:%d max_once_rw_cost_time_:%d current_continual_rw_time_:%d;max_continual_rw_cost_time_:%d; now:%lld;last:%lld",
-          //      rw_cost, info_map_[fd]->max_once_rw_cost_time_μs_, info_map_[fd]->current_continual_rw_time_μs_, info_map_[fd]->max_continual_rw_cost_time_μs_, now, info_map_[fd]->last_rw_time_ms_);
+          //      rw_cost, info.max_once_rw_cost_time_μs_, info.current_continual_rw_time_μs_, info.max_continual_rw_cost_time_μs_, now, info.last_rw_time_ms_);
 
-        if (info_map_[fd]->last_rw_time_μs_ > 0 && (now - info_map_[fd]->last_rw_time_μs_) < kContinualThreshold) {
-            info_map_[fd]->current_continual_rw_time_μs_ += rw_cost;
+        if (info.last_rw_time_μs_ > 0 && (now - info.last_rw_time_μs_) < kContinualThreshold) {
+            info.current_continual_rw_time_μs_ += rw_cost;
 
         } else {
-            info_map_[fd]->current_continual_rw_time_μs_ = rw_cost;
+            info.current_continual_rw_time_μs_ = rw_cost;
         }
-        if (info_map_[fd]->current_continual_rw_time_μs_ > info_map_[fd]->max_continual_rw_cost_time_μs_) {
-            info_map_[fd]->max_continual_rw_cost_time_μs_ = info_map_[fd]->current_continual_rw_time_μs_;
+        if (info.current_continual_rw_time_μs_ > info.max_continual_rw_cost_time_μs_) {
+            info.max_continual_rw_cost_time_μs_ = info.current_continual_rw_time_μs_;
         }
-        info_map_[fd]->last_rw_time_μs_ = now;
+        info.last_rw_time_μs_ = now;
 
-        if (info_map_[fd]->buffer_size_ < op_size) {
-            info_map_[fd]->buffer_size_ = op_size;
+        if (info.buffer_size_ < op_size) {
+            info.buffer_size_ = op_size;
         }
 
-        if (info_map_[fd]->op_type_ == FileOpType::kInit) {
-            info_map_[fd]->op_type_ = fileOpType;
+        if (info.op_type_ == FileOpType::kInit) {
+            info.op_type_ = fileOpType;
         }
     }
 }
@@ -28,7 +28,7 @@
 #include <map>
 #include <memory>
 #include <mutex>
-#include <unordered_map>
+#include <vector>
 
 #include "comm/io_canary_utils.h"
 
@@ -80,7 +80,8 @@ namespace iocanary {
     // A singleton to collect and generate operation info
     class IOInfoCollector {
     public:
-        void OnOpen(const char *pathname, int flags, mode_t mode, int open_ret, const JavaContext& java_context);
+        //return false if the open is not tracked
+        bool OnOpen(const char *pathname, int flags, mode_t mode, int open_ret, const JavaContext& java_context);
         void OnRead(int fd, const void *buf, size_t size, ssize_t read_ret, long read_cost);
         void OnWrite(int fd, const void *buf, size_t size, ssize_t write_ret, long write_cost);
         std::shared_ptr<IOInfo> OnClose(int fd, int close_ret);
@@ -88,10 +89,14 @@ namespace iocanary {
     private:
         //constexpr static const char* kTag = "IOCanary.native.FileIOInfoCollector";
         constexpr static const int kContinualThreshold = 8*1000;//in μs， half of 16.6667
+        //fds are small and dense, so they index a table directly; larger ones are not tracked
+        constexpr static const int kMaxTrackedFd = 64*1024;
+        constexpr static const size_t kMinTableSize = 256;
 
-        void CountRWInfo(int fd, const FileOpType& file_op_type, long op_size, long rw_cost);
+        void CountRWInfo(IOInfo& info, const FileOpType& file_op_type, long op_size, long rw_cost);
+        IOInfo* Find(int fd) const;
 
-        std::unordered_map<int, std::shared_ptr<IOInfo>> info_map_;
+        std::vector<std::shared_ptr<IOInfo>> info_table_;
     };
 }
 
@@ -0,0 +1,85 @@
+//
+// Bounded multi-producer single-consumer ring used to hand closed IOInfo
+// over to the detect thread without taking a lock on the hooked thread.
+//
+
+#ifndef MATRIX_IO_CANARY_IO_INFO_RING_H
+#define MATRIX_IO_CANARY_IO_INFO_RING_H
+
+#include <atomic>
+#include <cstddef>
+#include <cstdint>
+#include <utility>
+
+namespace iocanary {
+
+    // kCapacity must be a power of 2
+    template <typename T, size_t kCapacity>
+    class IOInfoRing {
+    public:
+        IOInfoRing() : enqueue_pos_(0), dequeue_pos_(0) {
+            static_assert(kCapacity >= 2 && (kCapacity & (kCapacity - 1)) == 0,
+                          "kCapacity must be a power of 2");
+            for (size_t i = 0; i < kCapacity; ++i) {
+                cells_[i].sequence_.store(i, std::memory_order_relaxed);
+            }
+        }
+
+        IOInfoRing(const IOInfoRing&) = delete;
+        IOInfoRing& operator=(IOInfoRing const&) = delete;
+
+        // safe to call from any thread; returns false if the ring is full
+        bool Offer(T&& value) {
+            Cell* cell;
+            size_t pos = enqueue_pos_.load(std::memory_order_relaxed);
+            while (true) {
+                cell = &cells_[pos & kMask];
+                size_t seq = cell->sequence_.load(std::memory_order_acquire);
+                intptr_t diff = (intptr_t) seq - (intptr_t) pos;
+                if (diff == 0) {
+                    if (enqueue_pos_.compare_exchange_weak(pos, pos + 1, std::memory_order_relaxed)) {
+                        break;
+                    }
+                } else if (diff < 0) {
+                    return false;
+                } else {
+                    pos = enqueue_pos_.load(std::memory_order_relaxed);
+                }
+            }
+
+            cell->value_ = std::move(value);
+            cell->sequence_.store(pos + 1, std::memory_order_release);
+            return true;
+        }
+
+        // only called from the single consumer thread; returns false if the ring is empty
+        bool Poll(T& value) {
+            Cell* cell = &cells_[dequeue_pos_ & kMask];
+            size_t seq = cell->sequence_.load(std::memory_order_acquire);
+            if ((intptr_t) seq - (intptr_t) (dequeue_pos_ + 1) < 0) {
+                return false;
+            }
+
+            value = std::move(cell->value_);
+            cell->value_ = T();
+            cell->sequence_.store(dequeue_pos_ + kCapacity, std::memory_order_release);
+            ++dequeue_pos_;
+            return true;
+        }
+
+    private:
+        constexpr static const size_t kMask = kCapacity - 1;
+
+        struct Cell {
+            std::atomic<size_t> sequence_;
+            T value_;
+        };
+
+        Cell cells_[kCapacity];
+        // keep producers and the consumer off each other's cache line
+        alignas(64) std::atomic<size_t> enqueue_pos_;
+        alignas(64) size_t dequeue_pos_;
+    };
+}
+
+#endif //MATRIX_IO_CANARY_IO_INFO_RING_H
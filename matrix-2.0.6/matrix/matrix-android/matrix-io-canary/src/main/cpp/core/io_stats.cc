@@ -0,0 +1,280 @@
+//
+// Continuous io metrics: byte counts, op counts and latency histograms
+// aggregated per thread and per path class in fixed-size tables.
+//
+
+#include "io_stats.h"
+#include <cstring>
+#include <sched.h>
+#include <sys/prctl.h>
+#include <unistd.h>
+#include "comm/io_canary_utils.h"
+
+namespace iocanary {
+
+    static thread_local int kCurrentThreadSlot = -1;
+
+    IOStats::IOStats() : update_seq_(0) {
+        pthread_key_create(&thread_exit_key_, OnThreadExit);
+
+        for (int fd = 0; fd < kMaxTrackedFd; ++fd) {
+            fd_classes_[fd].store(0, std::memory_order_relaxed);
+        }
+
+        for (int slot = 0; slot < kThreadSlots; ++slot) {
+            thread_slots_[slot].owner_ = this;
+            thread_slots_[slot].index_ = slot;
+            thread_slots_[slot].tid_.store(0, std::memory_order_relaxed);
+            thread_slots_[slot].named_.store(false, std::memory_order_relaxed);
+            memset(thread_slots_[slot].name_, 0, kThreadNameLen);
+
+            for (int path_class = 0; path_class < kPathClassCount; ++path_class) {
+                Cell& cell = cells_[slot][path_class];
+                cell.read_ops_.store(0, std::memory_order_relaxed);
+                cell.read_bytes_.store(0, std::memory_order_relaxed);
+                cell.write_ops_.store(0, std::memory_order_relaxed);
+                cell.write_bytes_.store(0, std::memory_order_relaxed);
+                for (int i = 0; i < kLatencyBuckets; ++i) {
+                    cell.read_histogram_[i].store(0, std::memory_order_relaxed);
+                    cell.write_histogram_[i].store(0, std::memory_order_relaxed);
+                }
+            }
+        }
+        strncpy(thread_slots_[0].name_, "others", kThreadNameLen - 1);
+        thread_slots_[0].named_.store(true, std::memory_order_release);
+    }
+
+    IOStats::~IOStats() {
+        pthread_key_delete(thread_exit_key_);
+    }
+
+    PathClass IOStats::Classify(const char *path) {
+        if (path == nullptr) {
+            return kPathOther;
+        }
+
+        //external storage first, apps keep databases/ and cache/ dirs there as well
+        if (strncmp(path, "/sdcard/", 8) == 0 || strncmp(path, "/storage/", 9) == 0
+            || strncmp(path, "/mnt/", 5) == 0) {
+            return kPathExternal;
+        }
+        if (strncmp(path, "/data/app/", 10) == 0 || strncmp(path, "/system/", 8) == 0
+            || strncmp(path, "/apex/", 6) == 0) {
+            return kPathPackage;
+        }
+        if (strstr(path, "/databases/") != nullptr) {
+            return kPathDatabases;
+        }
+        if (strstr(path, "/shared_prefs/") != nullptr) {
+            return kPathSharedPrefs;
+        }
+        if (strstr(path, "/cache/") != nullptr || strstr(path, "/code_cache/") != nullptr) {
+            return kPathCache;
+        }
+        if (strstr(path, "/files/") != nullptr) {
+            return kPathFiles;
+        }
+        return kPathOther;
+    }
+
+    void IOStats::OnOpen(int fd, const char *path) {
+        if (fd < 0 || fd >= kMaxTrackedFd) {
+            return;
+        }
+
+        fd_classes_[fd].store(static_cast<uint8_t>(Classify(path) + 1), std::memory_order_relaxed);
+    }
+
+    void IOStats::OnRead(int fd, ssize_t read_ret, long read_cost_us) {
+        Count(fd, read_ret, read_cost_us, true);
+    }
+
+    void IOStats::OnWrite(int fd, ssize_t write_ret, long write_cost_us) {
+        Count(fd, write_ret, write_cost_us, false);
+    }
+
+    void IOStats::OnClose(int fd) {
+        if (fd < 0 || fd >= kMaxTrackedFd) {
+            return;
+        }
+
+        fd_classes_[fd].store(0, std::memory_order_relaxed);
+    }
+
+    void IOStats::Count(int fd, ssize_t ret, long cost_us, bool is_read) {
+        if (ret < 0 || cost_us < 0) {
+            return;
+        }
+
+        Cell* cell = FindCell(fd);
+        if (cell == nullptr) {
+            return;
+        }
+
+        //every counter is a relaxed add, a snapshot may see one op half counted which is fine for stats
+        int bucket = LatencyBucket(cost_us);
+        if (is_read) {
+            cell->read_ops_.fetch_add(1, std::memory_order_relaxed);
+            cell->read_bytes_.fetch_add(ret, std::memory_order_relaxed);
+            cell->read_histogram_[bucket].fetch_add(1, std::memory_order_relaxed);
+        } else {
+            cell->write_ops_.fetch_add(1, std::memory_order_relaxed);
+            cell->write_bytes_.fetch_add(ret, std::memory_order_relaxed);
+            cell->write_histogram_[bucket].fetch_add(1, std::memory_order_relaxed);
+        }
+    }
+
+    IOStats::Cell* IOStats::FindCell(int fd) {
+        if (fd < 0 || fd >= kMaxTrackedFd) {
+            return nullptr;
+        }
+
+        uint8_t path_class = fd_classes_[fd].load(std::memory_order_relaxed);
+        if (path_class == 0) {
+            return nullptr;
+        }
+
+        return &cells_[CurrentThreadSlot()][path_class - 1];
+    }
+
+    int IOStats::LatencyBucket(long cost_us) {
+        int bucket = 0;
+        while (cost_us > 1 && bucket < kLatencyBuckets - 1) {
+            cost_us >>= 1;
+            ++bucket;
+        }
+        return bucket;
+    }
+
+    int IOStats::CurrentThreadSlot() {
+        if (kCurrentThreadSlot >= 0) {
+            return kCurrentThreadSlot;
+        }
+
+        const pid_t tid = static_cast<pid_t>(GetCurrentThreadId());
+        const int start = static_cast<int>(static_cast<uint32_t>(tid) % (kThreadSlots - 1)) + 1;
+        int slot = 0;
+        for (int i = 0; i < kThreadSlots - 1; ++i) {
+            int probe = (start - 1 + i) % (kThreadSlots - 1) + 1;
+            pid_t expected = 0;
+            if (thread_slots_[probe].tid_.compare_exchange_strong(expected, tid, std::memory_order_acq_rel)) {
+                prctl(PR_GET_NAME, thread_slots_[probe].name_);
+                thread_slots_[probe].name_[kThreadNameLen - 1] = '\0';
+                thread_slots_[probe].named_.store(true, std::memory_order_release);
+                slot = probe;
+                break;
+            }
+            if (expected == tid) {
+                //left by an exited thread whose slot was not freed, the tid now belongs to this one
+                NameThreadSlot(thread_slots_[probe]);
+                slot = probe;
+                break;
+            }
+        }
+
+        if (slot != 0) {
+            pthread_setspecific(thread_exit_key_, &thread_slots_[slot]);
+        }
+        kCurrentThreadSlot = slot;
+        return slot;
+    }
+
+    void IOStats::NameThreadSlot(ThreadSlot &thread_slot) {
+        std::lock_guard<std::mutex> lock(update_mutex_);
+        update_seq_.fetch_add(1, std::memory_order_acq_rel);
+
+        thread_slot.named_.store(false, std::memory_order_release);
+        prctl(PR_GET_NAME, thread_slot.name_);
+        thread_slot.name_[kThreadNameLen - 1] = '\0';
+        thread_slot.named_.store(true, std::memory_order_release);
+
+        update_seq_.fetch_add(1, std::memory_order_release);
+    }
+
+    void IOStats::OnThreadExit(void *thread_slot) {
+        ThreadSlot* slot = static_cast<ThreadSlot*>(thread_slot);
+        slot->owner_->ReleaseThreadSlot(slot->index_);
+        //io from later tls destructors of this thread goes to others
+        kCurrentThreadSlot = 0;
+    }
+
+    void IOStats::ReleaseThreadSlot(int slot) {
+        std::lock_guard<std::mutex> lock(update_mutex_);
+        update_seq_.fetch_add(1, std::memory_order_acq_rel);
+
+        //only the exiting thread counts into its slot, so the cells are stable here
+        for (int path_class = 0; path_class < kPathClassCount; ++path_class) {
+            Cell& cell = cells_[slot][path_class];
+            Cell& others = cells_[0][path_class];
+            others.read_ops_.fetch_add(cell.read_ops_.exchange(0, std::memory_order_relaxed), std::memory_order_relaxed);
+            others.read_bytes_.fetch_add(cell.read_bytes_.exchange(0, std::memory_order_relaxed), std::memory_order_relaxed);
+            others.write_ops_.fetch_add(cell.write_ops_.exchange(0, std::memory_order_relaxed), std::memory_order_relaxed);
+            others.write_bytes_.fetch_add(cell.write_bytes_.exchange(0, std::memory_order_relaxed), std::memory_order_relaxed);
+            for (int i = 0; i < kLatencyBuckets; ++i) {
+                others.read_histogram_[i].fetch_add(cell.read_histogram_[i].exchange(0, std::memory_order_relaxed), std::memory_order_relaxed);
+                others.write_histogram_[i].fetch_add(cell.write_histogram_[i].exchange(0, std::memory_order_relaxed), std::memory_order_relaxed);
+            }
+        }
+
+        ThreadSlot& thread_slot = thread_slots_[slot];
+        thread_slot.named_.store(false, std::memory_order_relaxed);
+        memset(thread_slot.name_, 0, kThreadNameLen);
+        thread_slot.tid_.store(0, std::memory_order_release);
+
+        update_seq_.fetch_add(1, std::memory_order_release);
+    }
+
+    void IOStats::Snapshot(std::vector<int64_t> &records, std::vector<std::string> &thread_names) const {
+        const size_t records_size = records.size();
+        for (int attempt = 0; ; ++attempt) {
+            //a slot freed in between would show its counts both in its slot and in others
+            const uint32_t seq = update_seq_.load(std::memory_order_acquire);
+            records.resize(records_size);
+            SnapshotOnce(records, thread_names);
+            std::atomic_thread_fence(std::memory_order_acquire);
+            if (((seq & 1) == 0 && update_seq_.load(std::memory_order_relaxed) == seq)
+                || attempt + 1 >= kSnapshotRetries) {
+                return;
+            }
+            sched_yield();
+        }
+    }
+
+    void IOStats::SnapshotOnce(std::vector<int64_t> &records, std::vector<std::string> &thread_names) const {
+        thread_names.assign(kThreadSlots, std::string());
+
+        for (int slot = 0; slot < kThreadSlots; ++slot) {
+            const ThreadSlot& thread_slot = thread_slots_[slot];
+            const pid_t tid = thread_slot.tid_.load(std::memory_order_acquire);
+            if (slot != 0 && tid == 0) {
+                continue;
+            }
+            if (thread_slot.named_.load(std::memory_order_acquire)) {
+                thread_names[slot] = thread_slot.name_;
+            }
+
+            for (int path_class = 0; path_class < kPathClassCount; ++path_class) {
+                const Cell& cell = cells_[slot][path_class];
+                int64_t read_ops = cell.read_ops_.load(std::memory_order_relaxed);
+                int64_t write_ops = cell.write_ops_.load(std::memory_order_relaxed);
+                if (read_ops == 0 && write_ops == 0) {
+                    continue;
+                }
+
+                size_t base = records.size();
+                records.resize(base + kRecordStride, 0);
+                records[base + kFieldThreadSlot] = slot;
+                records[base + kFieldThreadId] = tid;
+                records[base + kFieldPathClass] = path_class;
+                records[base + kFieldReadOps] = read_ops;
+                records[base + kFieldReadBytes] = cell.read_bytes_.load(std::memory_order_relaxed);
+                records[base + kFieldWriteOps] = write_ops;
+                records[base + kFieldWriteBytes] = cell.write_bytes_.load(std::memory_order_relaxed);
+                for (int i = 0; i < kLatencyBuckets; ++i) {
+                    records[base + kFieldReadHistogram + i] = cell.read_histogram_[i].load(std::memory_order_relaxed);
+                    records[base + kFieldWriteHistogram + i] = cell.write_histogram_[i].load(std::memory_order_relaxed);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+//
+// Continuous io metrics: byte counts, op counts and latency histograms
+// aggregated per thread and per path class in fixed-size tables.
+//
+
+#ifndef MATRIX_IO_CANARY_IO_STATS_H
+#define MATRIX_IO_CANARY_IO_STATS_H
+
+#include <atomic>
+#include <cstdint>
+#include <mutex>
+#include <pthread.h>
+#include <string>
+#include <sys/types.h>
+#include <vector>
+
+namespace iocanary {
+
+    /**
+     * Keep in sync with IOStatsSnapshot.PATH_CLASS_* in java
+     */
+    typedef enum {
+        kPathOther = 0,
+        kPathDatabases,
+        kPathSharedPrefs,
+        kPathCache,
+        kPathFiles,
+        kPathExternal,
+        kPathPackage,
+
+        //!!kPathClassCount always the last one!!
+        kPathClassCount
+    } PathClass;
+
+    class IOStats {
+    public:
+        //bucket i counts ops costing [2^i, 2^(i+1)) μs, the last one everything above
+        constexpr static const int kLatencyBuckets = 20;
+        //slot 0 takes the threads that do not fit in the table and the counts of exited threads
+        constexpr static const int kThreadSlots = 32;
+
+        /**
+         * Layout of one record in the exported table, keep in sync with IOStatsSnapshot in java
+         */
+        enum RecordField {
+            kFieldThreadSlot = 0,
+            kFieldThreadId,
+            kFieldPathClass,
+            kFieldReadOps,
+            kFieldReadBytes,
+            kFieldWriteOps,
+            kFieldWriteBytes,
+            kFieldReadHistogram,
+            kFieldWriteHistogram = kFieldReadHistogram + kLatencyBuckets,
+            kRecordStride = kFieldWriteHistogram + kLatencyBuckets
+        };
+
+        IOStats();
+        ~IOStats();
+        IOStats(const IOStats&) = delete;
+        IOStats& operator=(IOStats const&) = delete;
+
+        static PathClass Classify(const char* path);
+
+        void OnOpen(int fd, const char* path);
+        void OnRead(int fd, ssize_t read_ret, long read_cost_us);
+        void OnWrite(int fd, ssize_t write_ret, long write_cost_us);
+        void OnClose(int fd);
+
+        /**
+         * Appends one record of kRecordStride values for every cell with traffic, and the
+         * name of every thread slot in use (empty for unused slots).
+         * The counters are cumulative since the stats were enabled, a thread slot is freed when its
+         * thread exits and its counts move to slot 0, so a slot may show another thread next time.
+         */
+        void Snapshot(std::vector<int64_t>& records, std::vector<std::string>& thread_names) const;
+
+    private:
+        constexpr static const int kMaxTrackedFd = 64*1024;
+        constexpr static const int kThreadNameLen = 16;
+
+        struct Cell {
+            std::atomic<int64_t> read_ops_;
+            std::atomic<int64_t> read_bytes_;
+            std::atomic<int64_t> write_ops_;
+            std::atomic<int64_t> write_bytes_;
+            std::atomic<int64_t> read_histogram_[kLatencyBuckets];
+            std::atomic<int64_t> write_histogram_[kLatencyBuckets];
+        };
+
+        struct ThreadSlot {
+            IOStats* owner_;
+            int index_;
+            std::atomic<pid_t> tid_;
+            std::atomic<bool> named_;
+            char name_[kThreadNameLen];
+        };
+
+        //snapshot attempts before accepting one that raced with a slot update
+        constexpr static const int kSnapshotRetries = 3;
+
+        static int LatencyBucket(long cost_us);
+        static void OnThreadExit(void* thread_slot);
+        int CurrentThreadSlot();
+        void NameThreadSlot(ThreadSlot& thread_slot);
+        void ReleaseThreadSlot(int slot);
+        void SnapshotOnce(std::vector<int64_t>& records, std::vector<std::string>& thread_names) const;
+        Cell* FindCell(int fd);
+        void Count(int fd, ssize_t ret, long cost_us, bool is_read);
+
+        //path class + 1 of every tracked fd, 0 for fds not opened through the hook
+        std::atomic<uint8_t> fd_classes_[kMaxTrackedFd];
+        ThreadSlot thread_slots_[kThreadSlots];
+        Cell cells_[kThreadSlots][kPathClassCount];
+        //frees the slot of an exiting thread
+        pthread_key_t thread_exit_key_;
+        //serializes slot updates, update_seq_ is odd while one is in progress
+        std::mutex update_mutex_;
+        std::atomic<uint32_t> update_seq_;
+    };
+}
+
+#endif //MATRIX_IO_CANARY_IO_STATS_H
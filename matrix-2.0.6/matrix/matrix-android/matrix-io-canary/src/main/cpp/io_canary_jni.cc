@@ -49,6 +49,8 @@ namespace iocanary {
 
     static jclass kJavaBridgeClass;
     static jmethodID kMethodIDOnIssuePublish;
+    static jmethodID kMethodIDOnStatsPublish;
+    static jmethodID kMethodIDOnJavaStacksRelease;
 
     static jclass kJavaContextClass;
     static jmethodID kMethodIDGetJavaContext;
@@ -58,6 +60,8 @@ namespace iocanary {
     static jclass kIssueClass;
     static jmethodID kMethodIDIssueConstruct;
 
+    static jclass kStringClass;
+
     static jclass kListClass;
     static jmethodID kMethodIDListConstruct;
     static jmethodID kMethodIDListAdd;
@@ -164,6 +168,104 @@ namespace iocanary {
             }
         }
 
+        void OnStatsPublish(const std::vector<int64_t>& records, const std::vector<std::string>& thread_names) {
+            if (!kInitSuc) {
+                __android_log_print(ANDROID_LOG_ERROR, kTag, "OnStatsPublish kInitSuc false");
+                return;
+            }
+
+            JNIEnv* env;
+            bool attached = false;
+            jint j_ret = kJvm->GetEnv((void**)&env, JNI_VERSION_1_6);
+            if (j_ret == JNI_EDETACHED) {
+                jint jAttachRet = kJvm->AttachCurrentThread(&env, nullptr);
+                if (jAttachRet != JNI_OK) {
+                    __android_log_print(ANDROID_LOG_ERROR, kTag, "OnStatsPublish AttachCurrentThread !JNI_OK");
+                    return;
+                } else {
+                    attached = true;
+                }
+            } else if (j_ret != JNI_OK || env == NULL) {
+                return;
+            }
+
+            jlongArray j_records = env->NewLongArray(records.size());
+            jobjectArray j_thread_names = env->NewObjectArray(thread_names.size(), kStringClass, nullptr);
+            if (j_records != NULL && j_thread_names != NULL) {
+                env->SetLongArrayRegion(j_records, 0, records.size(), reinterpret_cast<const jlong*>(records.data()));
+                for (size_t i = 0; i < thread_names.size(); ++i) {
+                    if (thread_names[i].empty()) {
+                        continue;
+                    }
+                    jstring name = env->NewStringUTF(thread_names[i].c_str());
+                    env->SetObjectArrayElement(j_thread_names, i, name);
+                    env->DeleteLocalRef(name);
+                }
+
+                env->CallStaticVoidMethod(kJavaBridgeClass, kMethodIDOnStatsPublish, j_records, j_thread_names);
+            }
+
+            if (env->ExceptionCheck()) {
+                env->ExceptionDescribe();
+                env->ExceptionClear();
+            }
+            if (j_records != NULL) {
+                env->DeleteLocalRef(j_records);
+            }
+            if (j_thread_names != NULL) {
+                env->DeleteLocalRef(j_thread_names);
+            }
+
+            if (attached) {
+                kJvm->DetachCurrentThread();
+            }
+        }
+
+        void OnJavaStacksRelease(const std::vector<std::string>& stacks) {
+            if (!kInitSuc) {
+                __android_log_print(ANDROID_LOG_ERROR, kTag, "OnJavaStacksRelease kInitSuc false");
+                return;
+            }
+
+            JNIEnv* env;
+            bool attached = false;
+            jint j_ret = kJvm->GetEnv((void**)&env, JNI_VERSION_1_6);
+            if (j_ret == JNI_EDETACHED) {
+                jint jAttachRet = kJvm->AttachCurrentThread(&env, nullptr);
+                if (jAttachRet != JNI_OK) {
+                    __android_log_print(ANDROID_LOG_ERROR, kTag, "OnJavaStacksRelease AttachCurrentThread !JNI_OK");
+                    return;
+                } else {
+                    attached = true;
+                }
+            } else if (j_ret != JNI_OK || env == NULL) {
+                return;
+            }
+
+            jobjectArray j_stacks = env->NewObjectArray(stacks.size(), kStringClass, nullptr);
+            if (j_stacks != NULL) {
+                for (size_t i = 0; i < stacks.size(); ++i) {
+                    jstring stack = env->NewStringUTF(stacks[i].c_str());
+                    env->SetObjectArrayElement(j_stacks, i, stack);
+                    env->DeleteLocalRef(stack);
+                }
+
+                env->CallStaticVoidMethod(kJavaBridgeClass, kMethodIDOnJavaStacksRelease, j_stacks);
+            }
+
+            if (env->ExceptionCheck()) {
+                env->ExceptionDescribe();
+                env->ExceptionClear();
+            }
+            if (j_stacks != NULL) {
+                env->DeleteLocalRef(j_stacks);
+            }
+
+            if (attached) {
+                kJvm->DetachCurrentThread();
+            }
+        }
+
         static void DoProxyOpenLogic(const char *pathname, int flags, mode_t mode, int ret) {
             JNIEnv* env = NULL;
             kJvm->GetEnv((void**)&env, JNI_VERSION_1_6);
@@ -198,12 +300,17 @@ namespace iocanary {
         //todo astrozhou 解决非主线程打开，主线程操作问题
         int ProxyOpen(const char *pathname, int flags, mode_t mode) {
             if(!IsMainThread()) {
-                return original_open(pathname, flags, mode);
+                int ret = original_open(pathname, flags, mode);
+                if (ret != -1) {
+                    iocanary::IOCanary::Get().OnStatsOpen(ret, pathname);
+                }
+                return ret;
             }
 
             int ret = original_open(pathname, flags, mode);
 
             if (ret != -1) {
+                iocanary::IOCanary::Get().OnStatsOpen(ret, pathname);
                 DoProxyOpenLogic(pathname, flags, mode, ret);
             }
 
@@ -212,12 +319,17 @@ namespace iocanary {
 
         int ProxyOpen64(const char *pathname, int flags, mode_t mode) {
             if(!IsMainThread()) {
-                return original_open64(pathname, flags, mode);
+                int ret = original_open64(pathname, flags, mode);
+                if (ret != -1) {
+                    iocanary::IOCanary::Get().OnStatsOpen(ret, pathname);
+                }
+                return ret;
             }
 
             int ret = original_open64(pathname, flags, mode);
 
             if (ret != -1) {
+                iocanary::IOCanary::Get().OnStatsOpen(ret, pathname);
                 DoProxyOpenLogic(pathname, flags, mode, ret);
             }
 
@@ -228,7 +340,8 @@ namespace iocanary {
          *  Proxy for read: callback to the java layer
          */
         ssize_t ProxyRead(int fd, void *buf, size_t size) {
-            if(!IsMainThread()) {
+            const bool is_main_thread = IsMainThread();
+            if(!is_main_thread && !iocanary::IOCanary::Get().IsStatsEnabled()) {
                 return original_read(fd, buf, size);
             }
 
@@ -240,13 +353,17 @@ namespace iocanary {
 
             //__android_log_print(ANDROID_LOG_DEBUG, kTag, "ProxyRead fd:%d buf:%p size:%d ret:%d cost:%d", fd, buf, size, ret, read_cost_us);
 
-            iocanary::IOCanary::Get().OnRead(fd, buf, size, ret, read_cost_us);
+            iocanary::IOCanary::Get().OnStatsRead(fd, ret, read_cost_us);
+            if (is_main_thread) {
+                iocanary::IOCanary::Get().OnRead(fd, buf, size, ret, read_cost_us);
+            }
 
             return ret;
         }
 
         ssize_t ProxyReadChk(int fd, void* buf, size_t count, size_t buf_size) {
-            if(!IsMainThread()) {
+            const bool is_main_thread = IsMainThread();
+            if(!is_main_thread && !iocanary::IOCanary::Get().IsStatsEnabled()) {
                 return original_read_chk(fd, buf, count, buf_size);
             }
 
@@ -258,7 +375,10 @@ namespace iocanary {
 
             //__android_log_print(ANDROID_LOG_DEBUG, kTag, "ProxyRead fd:%d buf:%p size:%d ret:%d cost:%d", fd, buf, size, ret, read_cost_us);
 
-            iocanary::IOCanary::Get().OnRead(fd, buf, count, ret, read_cost_us);
+            iocanary::IOCanary::Get().OnStatsRead(fd, ret, read_cost_us);
+            if (is_main_thread) {
+                iocanary::IOCanary::Get().OnRead(fd, buf, count, ret, read_cost_us);
+            }
 
             return ret;
         }
@@ -267,7 +387,8 @@ namespace iocanary {
          *  Proxy for write: callback to the java layer
          */
         ssize_t ProxyWrite(int fd, const void *buf, size_t size) {
-            if(!IsMainThread()) {
+            const bool is_main_thread = IsMainThread();
+            if(!is_main_thread && !iocanary::IOCanary::Get().IsStatsEnabled()) {
                 return original_write(fd, buf, size);
             }
 
@@ -279,13 +400,17 @@ namespace iocanary {
 
             //__android_log_print(ANDROID_LOG_DEBUG, kTag, "ProxyWrite fd:%d buf:%p size:%d ret:%d cost:%d", fd, buf, size, ret, write_cost_us);
 
-            iocanary::IOCanary::Get().OnWrite(fd, buf, size, ret, write_cost_us);
+            iocanary::IOCanary::Get().OnStatsWrite(fd, ret, write_cost_us);
+            if (is_main_thread) {
+                iocanary::IOCanary::Get().OnWrite(fd, buf, size, ret, write_cost_us);
+            }
 
             return ret;
         }
 
         ssize_t ProxyWriteChk(int fd, const void* buf, size_t count, size_t buf_size) {
-            if(!IsMainThread()) {
+            const bool is_main_thread = IsMainThread();
+            if(!is_main_thread && !iocanary::IOCanary::Get().IsStatsEnabled()) {
                 return original_write_chk(fd, buf, count, buf_size);
             }
 
@@ -297,7 +422,10 @@ namespace iocanary {
 
             //__android_log_print(ANDROID_LOG_DEBUG, kTag, "ProxyWrite fd:%d buf:%p size:%d ret:%d cost:%d", fd, buf, size, ret, write_cost_us);
 
-            iocanary::IOCanary::Get().OnWrite(fd, buf, count, ret, write_cost_us);
+            iocanary::IOCanary::Get().OnStatsWrite(fd, ret, write_cost_us);
+            if (is_main_thread) {
+                iocanary::IOCanary::Get().OnWrite(fd, buf, count, ret, write_cost_us);
+            }
 
             return ret;
         }
@@ -306,6 +434,8 @@ namespace iocanary {
          *  Proxy for close: callback to the java layer
          */
         int ProxyClose(int fd) {
+            //forget the fd before the kernel may hand it out again
+            iocanary::IOCanary::Get().OnStatsClose(fd);
             if(!IsMainThread()) {
                 return original_close(fd);
             }
@@ -321,6 +451,7 @@ namespace iocanary {
          *  Proxy for close above android 10: callback to the java layer
          */
         int Proxy_android_fdsan_close_with_tag(int fd,uint64_t ownerId){
+            iocanary::IOCanary::Get().OnStatsClose(fd);
             if(!IsMainThread()) {
                 return original_android_fdsan_close_with_tag(fd,ownerId);
             }
@@ -339,6 +470,11 @@ namespace iocanary {
             iocanary::IOCanary::Get().SetConfig(static_cast<IOCanaryConfigKey>(key), val);
         }
 
+        JNIEXPORT void JNICALL
+        Java_com_tencent_matrix_iocanary_core_IOCanaryJniBridge_enableStats(JNIEnv *env, jclass type) {
+            iocanary::IOCanary::Get().EnableStats();
+        }
+
         JNIEXPORT jboolean JNICALL
         Java_com_tencent_matrix_iocanary_core_IOCanaryJniBridge_doHook(JNIEnv *env, jclass type) {
             __android_log_print(ANDROID_LOG_INFO, kTag, "doHook");
@@ -443,6 +579,18 @@ namespace iocanary {
                 return false;
             }
 
+            kMethodIDOnStatsPublish = env->GetStaticMethodID(kJavaBridgeClass, "onStatsPublish", "([J[Ljava/lang/String;)V");
+            if (kMethodIDOnStatsPublish == NULL) {
+                __android_log_print(ANDROID_LOG_ERROR, kTag, "InitJniEnv kMethodIDOnStatsPublish NULL");
+                return false;
+            }
+
+            kMethodIDOnJavaStacksRelease = env->GetStaticMethodID(kJavaBridgeClass, "onJavaStacksRelease", "([Ljava/lang/String;)V");
+            if (kMethodIDOnJavaStacksRelease == NULL) {
+                __android_log_print(ANDROID_LOG_ERROR, kTag, "InitJniEnv kMethodIDOnJavaStacksRelease NULL");
+                return false;
+            }
+
             kMethodIDGetJavaContext = env->GetStaticMethodID(kJavaBridgeClass, "getJavaContext", "()Lcom/tencent/matrix/iocanary/core/IOCanaryJniBridge$JavaContext;");
             if (kMethodIDGetJavaContext == NULL) {
                 __android_log_print(ANDROID_LOG_ERROR, kTag, "InitJniEnv kMethodIDGetJavaContext NULL");
@@ -462,6 +610,9 @@ namespace iocanary {
                 return false;
             }
 
+            jclass string_cls = env->FindClass("java/lang/String");
+            kStringClass = reinterpret_cast<jclass>(env->NewGlobalRef(string_cls));
+
             jclass list_cls = env->FindClass("java/util/ArrayList");
             kListClass = reinterpret_cast<jclass>(env->NewGlobalRef(list_cls));
             kMethodIDListConstruct = env->GetMethodID(list_cls, "<init>", "()V");
@@ -480,6 +631,8 @@ namespace iocanary {
             }
 
             iocanary::IOCanary::Get().SetIssuedCallback(OnIssuePublish);
+            iocanary::IOCanary::Get().SetStatsCallback(OnStatsPublish);
+            iocanary::IOCanary::Get().SetJavaStacksReleasedCallback(OnJavaStacksRelease);
 
             kInitSuc = true;
             __android_log_print(ANDROID_LOG_DEBUG, kTag, "JNI_OnLoad done");
@@ -500,6 +653,9 @@ namespace iocanary {
                 if (kListClass) {
                     env->DeleteGlobalRef(kListClass);
                 }
+                if (kStringClass) {
+                    env->DeleteGlobalRef(kStringClass);
+                }
             }
         }
 
@@ -45,6 +45,9 @@ public final class IOConfig {
     private static final boolean DEFAULT_DETECT_CLOSABLE_LEAK           = true;
     private static final boolean DETECT_NETWORK_IO_IN_MAIN_THREAD       = true;
     private static final boolean DETECT_CURSOR_LEAK                     = true;
+    private static final boolean DEFAULT_LAZY_JAVA_CONTEXT              = false;
+    private static final boolean DEFAULT_COLLECT_FILE_IO_STATS          = false;
+    private static final int DEFAULT_FILE_IO_STATS_EXPORT_INTERVAL      = 60 * 1000;
 
     /**
      * The default, lax policy will enable all available detectors
@@ -73,6 +76,22 @@ public final class IOConfig {
         return mDynamicConfig.get(IDynamicConfig.ExptEnum.clicfg_matrix_io_closeable_leak_enable.name(), DEFAULT_DETECT_CLOSABLE_LEAK);
     }
 
+    /**
+     * When enabled, a hooked open only records a stack fingerprint, and the readable stack
+     * is formatted once a detector really publishes an issue for it.
+     */
+    public boolean isLazyJavaContext() {
+        return mDynamicConfig.get(IDynamicConfig.ExptEnum.clicfg_matrix_io_lazy_java_context_enable.name(), DEFAULT_LAZY_JAVA_CONTEXT);
+    }
+
+
+    /**
+     * Continuous metrics mode: per thread and per path class byte counts, op counts and
+     * latency histograms, exported every {@link #getFileIOStatsExportInterval()} ms
+     */
+    public boolean isCollectFileIOStats() {
+        return mDynamicConfig.get(IDynamicConfig.ExptEnum.clicfg_matrix_io_stats_enable.name(), DEFAULT_COLLECT_FILE_IO_STATS);
+    }
 
     //value
     public int getFileMainThreadTriggerThreshold() {
@@ -91,11 +110,15 @@ public final class IOConfig {
         return mDynamicConfig.get(IDynamicConfig.ExptEnum.clicfg_matrix_io_repeated_read_threshold.name(), DEFAULT_FILE_REPEAT_READ_TIMES_THRESHOLD);
     }
 
+    public int getFileIOStatsExportInterval() {
+        return mDynamicConfig.get(IDynamicConfig.ExptEnum.clicfg_matrix_io_stats_export_interval.name(), DEFAULT_FILE_IO_STATS_EXPORT_INTERVAL);
+    }
+
 
     @Override
     public String toString() {
-        return String.format("[IOCanary.IOConfig], main_thread:%b, small_buffer:%b, repeat_read:%b, closeable_leak:%b",
-                isDetectFileIOInMainThread(), isDetectFileIOBufferTooSmall(), isDetectFileIORepeatReadSameFile(), isDetectIOClosableLeak());
+        return String.format("[IOCanary.IOConfig], main_thread:%b, small_buffer:%b, repeat_read:%b, closeable_leak:%b, stats:%b",
+                isDetectFileIOInMainThread(), isDetectFileIOBufferTooSmall(), isDetectFileIORepeatReadSameFile(), isDetectIOClosableLeak(), isCollectFileIOStats());
     }
 
     public static final class Builder {
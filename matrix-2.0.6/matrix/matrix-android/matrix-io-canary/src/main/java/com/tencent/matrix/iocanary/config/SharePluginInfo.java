@@ -36,6 +36,7 @@ public class SharePluginInfo {
         public static final int ISSUE_IO_CLOSABLE_LEAK              = 0x4;
         public static final int ISSUE_NETWORK_IO_IN_MAIN_THREAD     = 0x5;
         public static final int ISSUE_IO_CURSOR_LEAK                = 0x6;
+        public static final int ISSUE_IO_STATS                      = 0x7;
     }
 
     public static final String ISSUE_FILE_PATH            = "path";
@@ -49,4 +50,15 @@ public class SharePluginInfo {
     public static final String ISSUE_FILE_OP_SIZE         = "opSize";
 
     public static final String ISSUE_FILE_REPEAT_COUNT = "repeat";
+
+    public static final String ISSUE_STATS_RECORDS     = "stats";
+    public static final String ISSUE_STATS_THREAD      = "thread";
+    public static final String ISSUE_STATS_TID         = "tid";
+    public static final String ISSUE_STATS_PATH_CLASS  = "pathClass";
+    public static final String ISSUE_STATS_READ_OPS    = "readOps";
+    public static final String ISSUE_STATS_READ_BYTES  = "readBytes";
+    public static final String ISSUE_STATS_WRITE_OPS   = "writeOps";
+    public static final String ISSUE_STATS_WRITE_BYTES = "writeBytes";
+    public static final String ISSUE_STATS_READ_HIST   = "readLatencyHist";
+    public static final String ISSUE_STATS_WRITE_HIST  = "writeLatencyHist";
 }
@@ -30,7 +30,7 @@ import java.util.List;
  *         Created by liyongjie on 2017/6/6.
  */
 
-public class IOCanaryCore implements OnJniIssuePublishListener, IssuePublisher.OnIssueDetectListener {
+public class IOCanaryCore implements OnJniIssuePublishListener, OnJniStatsPublishListener, IssuePublisher.OnIssueDetectListener {
     private static final String TAG = "Matrix.IOCanaryCore";
 
     private final IOConfig                mIOConfig;
@@ -79,7 +79,9 @@ public class IOCanaryCore implements OnJniIssuePublishListener, IssuePublisher.O
 
         if (ioConfig.isDetectFileIOInMainThread()
             || ioConfig.isDetectFileIOBufferTooSmall()
-            || ioConfig.isDetectFileIORepeatReadSameFile()) {
+            || ioConfig.isDetectFileIORepeatReadSameFile()
+            || ioConfig.isCollectFileIOStats()) {
+            IOCanaryJniBridge.setOnStatsPublishListener(this);
             IOCanaryJniBridge.install(ioConfig, this);
         }
 
@@ -100,4 +102,13 @@ public class IOCanaryCore implements OnJniIssuePublishListener, IssuePublisher.O
             mIoCanaryPlugin.onDetectIssue(IOCanaryUtil.convertIOIssueToReportIssue(issues.get(i)));
         }
     }
+
+    @Override
+    public void onStatsPublish(IOStatsSnapshot snapshot) {
+        if (snapshot == null || snapshot.getRecordCount() == 0) {
+            return;
+        }
+
+        mIoCanaryPlugin.onDetectIssue(IOCanaryUtil.convertIOStatsToReportIssue(snapshot));
+    }
 }
@@ -28,10 +28,14 @@ import java.util.ArrayList;
 
 public class IOCanaryJniBridge {
     private static final String TAG = "Matrix.IOCanaryJniBridge";
+    private static final int JAVA_STACK_CACHE_CAPACITY = 512;
 
     private static OnJniIssuePublishListener sOnIssuePublishListener;
+    private static volatile OnJniStatsPublishListener sOnStatsPublishListener;
     private static boolean sIsTryInstall;
     private static boolean sIsLoadJniLib;
+    private static volatile boolean sIsLazyJavaContext;
+    private static volatile JavaStackCache sJavaStackCache;
 
     public static void install(IOConfig config, OnJniIssuePublishListener listener) {
         MatrixLog.v(TAG, "install sIsTryInstall:%b", sIsTryInstall);
@@ -51,6 +55,11 @@ public class IOCanaryJniBridge {
         try {
             //set config
             if (config != null) {
+                if (config.isLazyJavaContext() && sJavaStackCache == null) {
+                    sJavaStackCache = new JavaStackCache(JAVA_STACK_CACHE_CAPACITY);
+                }
+                sIsLazyJavaContext = config.isLazyJavaContext();
+
                 if (config.isDetectFileIOInMainThread()) {
                     enableDetector(DetectorType.MAIN_THREAD_IO);
                     // ms to μs
@@ -66,6 +75,11 @@ public class IOCanaryJniBridge {
                     enableDetector(DetectorType.REPEAT_READ);
                     setConfig(ConfigKey.REPEAT_READ_THRESHOLD, config.getFileRepeatReadThreshold());
                 }
+
+                if (config.isCollectFileIOStats()) {
+                    setConfig(ConfigKey.STATS_EXPORT_INTERVAL, config.getFileIOStatsExportInterval());
+                    enableStats();
+                }
             }
 
             //hook
@@ -77,6 +91,14 @@ public class IOCanaryJniBridge {
         }
     }
 
+    /**
+     * Should be set before {@link #install(IOConfig, OnJniIssuePublishListener)} to receive
+     * the metrics of {@link IOConfig#isCollectFileIOStats()}
+     */
+    public static void setOnStatsPublishListener(OnJniStatsPublishListener listener) {
+        sOnStatsPublishListener = listener;
+    }
+
     public static void uninstall() {
         if (!sIsTryInstall) {
             return;
@@ -84,6 +106,8 @@ public class IOCanaryJniBridge {
 
         doUnHook();
         sIsTryInstall = false;
+        // keep the cache, the native side may still publish or release fingerprints interned before
+        sIsLazyJavaContext = false;
     }
 
     private static boolean loadJni() {
@@ -108,15 +132,59 @@ public class IOCanaryJniBridge {
             return;
         }
 
+        final JavaStackCache stackCache = sJavaStackCache;
+        if (stackCache != null && issues != null) {
+            for (int i = 0; i < issues.size(); i++) {
+                IOIssue issue = issues.get(i);
+                String stack = stackCache.resolve(issue.stack);
+                if (stack != issue.stack) {
+                    issues.set(i, new IOIssue(issue.type, issue.path, issue.fileSize, issue.opCnt, issue.bufferSize,
+                            issue.opCostTime, issue.opType, issue.opSize, issue.threadName, stack, issue.repeatReadCnt));
+                }
+            }
+        }
+
         sOnIssuePublishListener.onIssuePublish(issues);
     }
 
+    /**
+     * 声明为private，给c++部分调用！！！不要干掉！！！
+     */
+    private static void onJavaStacksRelease(String[] stacks) {
+        final JavaStackCache stackCache = sJavaStackCache;
+        if (stackCache == null || stacks == null) {
+            return;
+        }
+
+        for (String stack : stacks) {
+            stackCache.release(stack);
+        }
+    }
+
+    /**
+     * 声明为private，给c++部分调用！！！不要干掉！！！
+     */
+    private static void onStatsPublish(long[] records, String[] threadNames) {
+        final OnJniStatsPublishListener listener = sOnStatsPublishListener;
+        if (listener == null) {
+            return;
+        }
+
+        listener.onStatsPublish(new IOStatsSnapshot(records, threadNames));
+    }
+
     private static final class JavaContext {
         private final String stack;
         private String threadName;
 
         private JavaContext() {
-            stack = IOCanaryUtil.getThrowableStack(new Throwable());
+            final JavaStackCache stackCache = sJavaStackCache;
+            if (sIsLazyJavaContext && stackCache != null) {
+                // only a fingerprint here, the stack is formatted if an issue is published for it
+                stack = stackCache.intern(new Throwable().getStackTrace());
+            } else {
+                stack = IOCanaryUtil.getThrowableStack(new Throwable());
+            }
             if (null != Thread.currentThread()) {
                 threadName = Thread.currentThread().getName();
             }
@@ -156,16 +224,20 @@ public class IOCanaryJniBridge {
      *    kMainThreadThreshold = 0,
      *    kSmallBufferThreshold,
      *    kRepeatReadThreshold,
+     *    kStatsExportInterval,
      * };
      */
     private static final class ConfigKey {
         static final int MAIN_THREAD_THRESHOLD = 0;
         static final int SMALL_BUFFER_THRESHOLD = 1;
         static final int REPEAT_READ_THRESHOLD = 2;
+        static final int STATS_EXPORT_INTERVAL = 3;
     }
 
     private static native void setConfig(int key, long val);
 
+    private static native void enableStats();
+
     private static native boolean doHook();
 
     private static native boolean doUnHook();
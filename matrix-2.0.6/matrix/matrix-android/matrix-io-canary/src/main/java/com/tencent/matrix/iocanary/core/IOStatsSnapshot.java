@@ -0,0 +1,133 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.iocanary.core;
+
+/**
+ * A snapshot of the native io metrics, cumulative since the stats mode was enabled.
+ * <p>
+ * The records are kept in the flat long array handed over by native code, one record of
+ * {@link #RECORD_STRIDE} values per thread and path class that saw any read or write.
+ * The field layout mirrors IOStats::RecordField in io_stats.h.
+ */
+
+public final class IOStatsSnapshot {
+
+    /**
+     * enum PathClass {
+     *    kPathOther = 0,
+     *    kPathDatabases,
+     *    kPathSharedPrefs,
+     *    kPathCache,
+     *    kPathFiles,
+     *    kPathExternal,
+     *    kPathPackage
+     * };
+     */
+    public static final int PATH_CLASS_OTHER = 0;
+    public static final int PATH_CLASS_DATABASES = 1;
+    public static final int PATH_CLASS_SHARED_PREFS = 2;
+    public static final int PATH_CLASS_CACHE = 3;
+    public static final int PATH_CLASS_FILES = 4;
+    public static final int PATH_CLASS_EXTERNAL = 5;
+    public static final int PATH_CLASS_PACKAGE = 6;
+
+    private static final String[] PATH_CLASS_NAMES = {
+            "other", "databases", "shared_prefs", "cache", "files", "external", "package"
+    };
+
+    /**
+     * Bucket i counts the ops costing [2^i, 2^(i+1)) μs, the last one everything above.
+     */
+    public static final int LATENCY_BUCKETS = 20;
+
+    private static final int FIELD_THREAD_SLOT = 0;
+    private static final int FIELD_THREAD_ID = 1;
+    private static final int FIELD_PATH_CLASS = 2;
+    private static final int FIELD_READ_OPS = 3;
+    private static final int FIELD_READ_BYTES = 4;
+    private static final int FIELD_WRITE_OPS = 5;
+    private static final int FIELD_WRITE_BYTES = 6;
+    private static final int FIELD_READ_HISTOGRAM = 7;
+    private static final int FIELD_WRITE_HISTOGRAM = FIELD_READ_HISTOGRAM + LATENCY_BUCKETS;
+    public static final int RECORD_STRIDE = FIELD_WRITE_HISTOGRAM + LATENCY_BUCKETS;
+
+    private final long[] mRecords;
+    private final String[] mThreadNames;
+
+    public IOStatsSnapshot(long[] records, String[] threadNames) {
+        mRecords = records == null ? new long[0] : records;
+        mThreadNames = threadNames == null ? new String[0] : threadNames;
+    }
+
+    public int getRecordCount() {
+        return mRecords.length / RECORD_STRIDE;
+    }
+
+    public String getThreadName(int record) {
+        int slot = (int) field(record, FIELD_THREAD_SLOT);
+        if (slot < 0 || slot >= mThreadNames.length || mThreadNames[slot] == null) {
+            return "";
+        }
+        return mThreadNames[slot];
+    }
+
+    /**
+     * @return 0 for the slot that takes the threads overflowing the native table
+     */
+    public int getThreadId(int record) {
+        return (int) field(record, FIELD_THREAD_ID);
+    }
+
+    public int getPathClass(int record) {
+        return (int) field(record, FIELD_PATH_CLASS);
+    }
+
+    public long getReadOps(int record) {
+        return field(record, FIELD_READ_OPS);
+    }
+
+    public long getReadBytes(int record) {
+        return field(record, FIELD_READ_BYTES);
+    }
+
+    public long getWriteOps(int record) {
+        return field(record, FIELD_WRITE_OPS);
+    }
+
+    public long getWriteBytes(int record) {
+        return field(record, FIELD_WRITE_BYTES);
+    }
+
+    public long getReadLatencyCount(int record, int bucket) {
+        return field(record, FIELD_READ_HISTOGRAM + bucket);
+    }
+
+    public long getWriteLatencyCount(int record, int bucket) {
+        return field(record, FIELD_WRITE_HISTOGRAM + bucket);
+    }
+
+    public static String getPathClassName(int pathClass) {
+        if (pathClass < 0 || pathClass >= PATH_CLASS_NAMES.length) {
+            return PATH_CLASS_NAMES[PATH_CLASS_OTHER];
+        }
+        return PATH_CLASS_NAMES[pathClass];
+    }
+
+    private long field(int record, int field) {
+        return mRecords[record * RECORD_STRIDE + field];
+    }
+}
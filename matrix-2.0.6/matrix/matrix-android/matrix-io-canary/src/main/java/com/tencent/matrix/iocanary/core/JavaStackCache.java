@@ -0,0 +1,152 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.iocanary.core;
+
+import com.tencent.matrix.iocanary.util.IOCanaryUtil;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Interns the raw java stacks captured at open time behind a short fingerprint, so that the
+ * native side can key its sessions without the stack being formatted for every open.
+ * The readable stack is only built by {@link #resolve(String)} when an issue is published,
+ * and at most once per call site.
+ * <p>
+ * Every {@link #intern(StackTraceElement[])} pins the entry until the native side hands the
+ * fingerprint back through {@link #release(String)}, which it does only after any issue found
+ * for it has been published. Only unpinned entries are evicted, so a published fingerprint
+ * can always be resolved.
+ */
+final class JavaStackCache {
+    private static final String FINGERPRINT_PREFIX = "javastack#";
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int mCapacity;
+    private final LinkedHashMap<Long, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+    JavaStackCache(int capacity) {
+        mCapacity = capacity;
+    }
+
+    /**
+     * @return a pinned fingerprint standing for the given frames, the same instance for repeated call sites
+     */
+    String intern(StackTraceElement[] frames) {
+        long hash = hash(frames);
+        synchronized (mEntries) {
+            Entry entry = mEntries.get(hash);
+            if (entry == null) {
+                entry = new Entry(FINGERPRINT_PREFIX + Long.toHexString(hash), frames);
+                mEntries.put(hash, entry);
+            }
+            entry.pins++;
+            evictUnpinned();
+            return entry.fingerprint;
+        }
+    }
+
+    /**
+     * Unpins a fingerprint returned by {@link #intern(StackTraceElement[])}.
+     */
+    void release(String stack) {
+        if (stack == null || !stack.startsWith(FINGERPRINT_PREFIX)) {
+            return;
+        }
+
+        long hash = parseUnsignedHex(stack.substring(FINGERPRINT_PREFIX.length()));
+        synchronized (mEntries) {
+            Entry entry = mEntries.get(hash);
+            if (entry != null && entry.pins > 0) {
+                entry.pins--;
+            }
+            evictUnpinned();
+        }
+    }
+
+    /**
+     * @return the formatted stack of a fingerprint, the input itself if it is not a fingerprint,
+     * or an empty stack if the fingerprint is unknown
+     */
+    String resolve(String stack) {
+        if (stack == null || !stack.startsWith(FINGERPRINT_PREFIX)) {
+            return stack;
+        }
+
+        // toHexString is unsigned, hashes with the top bit set would overflow Long.parseLong
+        long hash = parseUnsignedHex(stack.substring(FINGERPRINT_PREFIX.length()));
+        synchronized (mEntries) {
+            Entry entry = mEntries.get(hash);
+            if (entry == null) {
+                // never publish the fingerprint itself, it means nothing outside this process
+                return "";
+            }
+            if (entry.formatted == null) {
+                entry.formatted = IOCanaryUtil.stackTraceToString(entry.frames);
+                entry.frames = null;
+            }
+            return entry.formatted;
+        }
+    }
+
+    /**
+     * Evicts the least recently used unpinned entries, the ones in flight may keep the cache above its capacity.
+     */
+    private void evictUnpinned() {
+        Iterator<Entry> iterator = mEntries.values().iterator();
+        while (mEntries.size() > mCapacity && iterator.hasNext()) {
+            if (iterator.next().pins == 0) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static long hash(StackTraceElement[] frames) {
+        long hash = FNV_OFFSET_BASIS;
+        if (frames == null) {
+            return hash;
+        }
+        for (StackTraceElement frame : frames) {
+            hash = (hash ^ frame.getClassName().hashCode()) * FNV_PRIME;
+            hash = (hash ^ frame.getMethodName().hashCode()) * FNV_PRIME;
+            hash = (hash ^ frame.getLineNumber()) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static long parseUnsignedHex(String hex) {
+        long value = 0;
+        for (int i = 0; i < hex.length(); i++) {
+            value = (value << 4) | Character.digit(hex.charAt(i), 16);
+        }
+        return value;
+    }
+
+    private static final class Entry {
+        private final String fingerprint;
+        private StackTraceElement[] frames;
+        private String formatted;
+        private int pins;
+
+        private Entry(String fingerprint, StackTraceElement[] frames) {
+            this.fingerprint = fingerprint;
+            this.frames = frames;
+        }
+    }
+}
@@ -20,9 +20,11 @@ import android.content.Context;
 
 import com.tencent.matrix.iocanary.config.SharePluginInfo;
 import com.tencent.matrix.iocanary.core.IOIssue;
+import com.tencent.matrix.iocanary.core.IOStatsSnapshot;
 import com.tencent.matrix.report.Issue;
 //import com.tencent.matrix.util.DeviceUtil;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -124,4 +126,43 @@ public final class IOCanaryUtil {
         issue.setContent(content);
         return issue;
     }
+
+    public static Issue convertIOStatsToReportIssue(IOStatsSnapshot snapshot) {
+        if (snapshot == null) {
+            return null;
+        }
+
+        Issue issue = new Issue(SharePluginInfo.IssueType.ISSUE_IO_STATS);
+        JSONObject content = new JSONObject();
+
+        try {
+            JSONArray records = new JSONArray();
+            for (int i = 0; i < snapshot.getRecordCount(); i++) {
+                JSONObject record = new JSONObject();
+                record.put(SharePluginInfo.ISSUE_STATS_THREAD, snapshot.getThreadName(i));
+                record.put(SharePluginInfo.ISSUE_STATS_TID, snapshot.getThreadId(i));
+                record.put(SharePluginInfo.ISSUE_STATS_PATH_CLASS, IOStatsSnapshot.getPathClassName(snapshot.getPathClass(i)));
+                record.put(SharePluginInfo.ISSUE_STATS_READ_OPS, snapshot.getReadOps(i));
+                record.put(SharePluginInfo.ISSUE_STATS_READ_BYTES, snapshot.getReadBytes(i));
+                record.put(SharePluginInfo.ISSUE_STATS_WRITE_OPS, snapshot.getWriteOps(i));
+                record.put(SharePluginInfo.ISSUE_STATS_WRITE_BYTES, snapshot.getWriteBytes(i));
+
+                JSONArray readHist = new JSONArray();
+                JSONArray writeHist = new JSONArray();
+                for (int bucket = 0; bucket < IOStatsSnapshot.LATENCY_BUCKETS; bucket++) {
+                    readHist.put(snapshot.getReadLatencyCount(i, bucket));
+                    writeHist.put(snapshot.getWriteLatencyCount(i, bucket));
+                }
+                record.put(SharePluginInfo.ISSUE_STATS_READ_HIST, readHist);
+                record.put(SharePluginInfo.ISSUE_STATS_WRITE_HIST, writeHist);
+                records.put(record);
+            }
+            content.put(SharePluginInfo.ISSUE_STATS_RECORDS, records);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+
+        issue.setContent(content);
+        return issue;
+    }
 }
@@ -0,0 +1,274 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.resource.analyzer;
+
+import com.squareup.haha.perflib.ArrayInstance;
+import com.squareup.haha.perflib.ClassInstance;
+import com.squareup.haha.perflib.ClassInstance.FieldValue;
+import com.squareup.haha.perflib.ClassObj;
+import com.squareup.haha.perflib.HahaHelper;
+import com.squareup.haha.perflib.HahaSpy;
+import com.squareup.haha.perflib.Heap;
+import com.squareup.haha.perflib.Instance;
+import com.squareup.haha.perflib.Snapshot;
+import com.squareup.haha.perflib.analysis.ShortestDistanceVisitor;
+import com.squareup.haha.perflib.io.HprofBuffer;
+import com.tencent.matrix.resource.analyzer.model.DuplicatedBitmapResult;
+import com.tencent.matrix.resource.analyzer.model.DuplicatedBitmapResult.DuplicatedBitmapEntry;
+import com.tencent.matrix.resource.analyzer.model.ExcludedBmps;
+import com.tencent.matrix.resource.analyzer.model.HeapSnapshot;
+import com.tencent.matrix.resource.analyzer.model.ReferenceChain;
+import com.tencent.matrix.resource.analyzer.utils.AnalyzeUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Duplicated bitmap analyzer that works on the raw bytes of the mapped hprof.
+ *
+ * Bitmaps are bucketed by buffer size first, then by a hash of the buffer content read straight from
+ * the hprof buffer, and duplicates are confirmed with a byte comparison. Unlike
+ * {@link DuplicatedBitmapAnalyzer} no byte is ever boxed and buffers with a unique size are never read.
+ */
+
+public class BucketedDuplicatedBitmapAnalyzer implements HeapSnapshotAnalyzer<DuplicatedBitmapResult> {
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    // 64-bit FNV-1a.
+    private static final long HASH_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long HASH_PRIME = 0x100000001b3L;
+
+    private final int mMinBmpLeakSize;
+    private final ExcludedBmps mExcludedBmps;
+
+    private final byte[] mChunk = new byte[CHUNK_SIZE];
+    private final byte[] mOtherChunk = new byte[CHUNK_SIZE];
+
+    public BucketedDuplicatedBitmapAnalyzer(int minBmpLeakSize, ExcludedBmps excludedBmps) {
+        mMinBmpLeakSize = minBmpLeakSize;
+        mExcludedBmps = excludedBmps;
+    }
+
+    @Override
+    public DuplicatedBitmapResult analyze(HeapSnapshot heapSnapshot) {
+        final long analysisStartNanoTime = System.nanoTime();
+
+        try {
+            final Snapshot snapshot = heapSnapshot.getSnapshot();
+            new ShortestDistanceVisitor().doVisit(snapshot.getGCRoots());
+            return findDuplicatedBitmap(analysisStartNanoTime, snapshot);
+        } catch (Throwable e) {
+            e.printStackTrace();
+            return DuplicatedBitmapResult.failure(e, AnalyzeUtil.since(analysisStartNanoTime));
+        }
+    }
+
+    private DuplicatedBitmapResult findDuplicatedBitmap(long analysisStartNanoTime, Snapshot snapshot) {
+        final ClassObj bitmapClass = snapshot.findClass("android.graphics.Bitmap");
+        if (bitmapClass == null) {
+            return DuplicatedBitmapResult.noDuplicatedBitmap(AnalyzeUtil.since(analysisStartNanoTime));
+        }
+
+        final Map<Integer, List<BitmapBuffer>> sizeBuckets = new HashMap<>();
+        int bufferCount = 0;
+        for (Heap heap : snapshot.getHeaps()) {
+            if (!"default".equals(heap.getName()) && !"app".equals(heap.getName())) {
+                continue;
+            }
+            for (Instance bitmapInstance : bitmapClass.getHeapInstances(heap.getId())) {
+                if (bitmapInstance.getDistanceToGcRoot() == Integer.MAX_VALUE) {
+                    continue;
+                }
+                final ArrayInstance buffer = HahaHelper.fieldValue(((ClassInstance) bitmapInstance).getValues(), "mBuffer");
+                if (buffer == null) {
+                    System.out.println(" + Skiped a no-data bitmap");
+                    continue;
+                }
+                final int bufferSize = buffer.getSize();
+                if (bufferSize < mMinBmpLeakSize) {
+                    // Ignore tiny bmp leaks.
+                    System.out.println(" + Skiped a bitmap with size: " + bufferSize);
+                    continue;
+                }
+                List<BitmapBuffer> sameSizeBuffers = sizeBuckets.get(bufferSize);
+                if (sameSizeBuffers == null) {
+                    sameSizeBuffers = new ArrayList<>();
+                    sizeBuckets.put(bufferSize, sameSizeBuffers);
+                }
+                sameSizeBuffers.add(new BitmapBuffer(bitmapInstance, buffer, bufferSize));
+                ++bufferCount;
+            }
+        }
+
+        if (bufferCount <= 1) {
+            return DuplicatedBitmapResult.noDuplicatedBitmap(AnalyzeUtil.since(analysisStartNanoTime));
+        }
+
+        final List<DuplicatedBitmapEntry> duplicatedBitmapEntries = new ArrayList<>();
+        for (List<BitmapBuffer> sameSizeBuffers : sizeBuckets.values()) {
+            if (sameSizeBuffers.size() <= 1) {
+                // Unique size, the content can not be duplicated.
+                continue;
+            }
+
+            final Map<Long, List<BitmapBuffer>> hashBuckets = new HashMap<>();
+            for (BitmapBuffer bitmapBuffer : sameSizeBuffers) {
+                final long hash = hashContent(bitmapBuffer);
+                List<BitmapBuffer> sameHashBuffers = hashBuckets.get(hash);
+                if (sameHashBuffers == null) {
+                    sameHashBuffers = new ArrayList<>();
+                    hashBuckets.put(hash, sameHashBuffers);
+                }
+                sameHashBuffers.add(bitmapBuffer);
+            }
+
+            for (List<BitmapBuffer> sameHashBuffers : hashBuckets.values()) {
+                if (sameHashBuffers.size() <= 1) {
+                    continue;
+                }
+                // Hash collisions are possible, so split the bucket into groups of identical content.
+                for (List<BitmapBuffer> duplicatedBuffers : groupByContent(sameHashBuffers)) {
+                    if (duplicatedBuffers.size() <= 1) {
+                        continue;
+                    }
+                    final DuplicatedBitmapEntry entry = buildEntry(snapshot, duplicatedBuffers);
+                    if (entry != null) {
+                        duplicatedBitmapEntries.add(entry);
+                    }
+                }
+            }
+        }
+
+        return DuplicatedBitmapResult.duplicatedBitmapDetected(duplicatedBitmapEntries, AnalyzeUtil.since(analysisStartNanoTime));
+    }
+
+    private DuplicatedBitmapEntry buildEntry(Snapshot snapshot, List<BitmapBuffer> duplicatedBuffers) {
+        final List<Instance> duplicateBitmaps = new ArrayList<>(duplicatedBuffers.size());
+        for (BitmapBuffer bitmapBuffer : duplicatedBuffers) {
+            duplicateBitmaps.add(bitmapBuffer.mBitmap);
+        }
+
+        final List<ReferenceChain> referenceChains
+                = DuplicatedBitmapAnalyzer.findReferenceChains(snapshot, mExcludedBmps, duplicateBitmaps);
+        if (referenceChains.size() <= 1) {
+            return null;
+        }
+
+        // Only now the content of the reported buffer gets copied out of the hprof.
+        final BitmapBuffer first = duplicatedBuffers.get(0);
+        final List<FieldValue> fieldValues = ((ClassInstance) first.mBitmap).getValues();
+        final int width = HahaHelper.fieldValue(fieldValues, "mWidth");
+        final int height = HahaHelper.fieldValue(fieldValues, "mHeight");
+        final byte[] rawBuffer = HahaHelper.asRawByteArray(first.mBuffer, 0,
+                HahaHelper.getArrayInstanceLength(first.mBuffer));
+        return new DuplicatedBitmapEntry(width, height, rawBuffer, referenceChains);
+    }
+
+    private List<List<BitmapBuffer>> groupByContent(List<BitmapBuffer> sameHashBuffers) {
+        final List<List<BitmapBuffer>> groups = new ArrayList<>();
+        for (BitmapBuffer bitmapBuffer : sameHashBuffers) {
+            boolean grouped = false;
+            for (List<BitmapBuffer> group : groups) {
+                if (contentEquals(group.get(0), bitmapBuffer)) {
+                    group.add(bitmapBuffer);
+                    grouped = true;
+                    break;
+                }
+            }
+            if (!grouped) {
+                final List<BitmapBuffer> group = new ArrayList<>();
+                group.add(bitmapBuffer);
+                groups.add(group);
+            }
+        }
+        return groups;
+    }
+
+    private long hashContent(BitmapBuffer bitmapBuffer) {
+        final HprofBuffer hprofBuffer = HahaSpy.buffer(bitmapBuffer.mBuffer);
+        long position = bitmapBuffer.mValuesOffset;
+        int remaining = bitmapBuffer.mSize;
+        long hash = HASH_OFFSET_BASIS;
+        while (remaining >= CHUNK_SIZE) {
+            hprofBuffer.setPosition(position);
+            hprofBuffer.read(mChunk);
+            for (int i = 0; i < CHUNK_SIZE; ++i) {
+                hash ^= mChunk[i] & 0xFF;
+                hash *= HASH_PRIME;
+            }
+            position += CHUNK_SIZE;
+            remaining -= CHUNK_SIZE;
+        }
+        hprofBuffer.setPosition(position);
+        for (int i = 0; i < remaining; ++i) {
+            hash ^= hprofBuffer.readByte() & 0xFF;
+            hash *= HASH_PRIME;
+        }
+        return hash;
+    }
+
+    private boolean contentEquals(BitmapBuffer left, BitmapBuffer right) {
+        if (left.mValuesOffset == right.mValuesOffset) {
+            // Bitmaps sharing the same buffer.
+            return true;
+        }
+        final HprofBuffer hprofBuffer = HahaSpy.buffer(left.mBuffer);
+        long leftPosition = left.mValuesOffset;
+        long rightPosition = right.mValuesOffset;
+        int remaining = left.mSize;
+        while (remaining >= CHUNK_SIZE) {
+            hprofBuffer.setPosition(leftPosition);
+            hprofBuffer.read(mChunk);
+            hprofBuffer.setPosition(rightPosition);
+            hprofBuffer.read(mOtherChunk);
+            if (!Arrays.equals(mChunk, mOtherChunk)) {
+                return false;
+            }
+            leftPosition += CHUNK_SIZE;
+            rightPosition += CHUNK_SIZE;
+            remaining -= CHUNK_SIZE;
+        }
+        hprofBuffer.setPosition(leftPosition);
+        for (int i = 0; i < remaining; ++i) {
+            mChunk[i] = hprofBuffer.readByte();
+        }
+        hprofBuffer.setPosition(rightPosition);
+        for (int i = 0; i < remaining; ++i) {
+            if (mChunk[i] != hprofBuffer.readByte()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class BitmapBuffer {
+        final Instance mBitmap;
+        final ArrayInstance mBuffer;
+        final long mValuesOffset;
+        final int mSize;
+
+        BitmapBuffer(Instance bitmap, ArrayInstance buffer, int size) {
+            mBitmap = bitmap;
+            mBuffer = buffer;
+            mValuesOffset = HahaHelper.getArrayInstanceValuesOffset(buffer);
+            mSize = size;
+        }
+    }
+}
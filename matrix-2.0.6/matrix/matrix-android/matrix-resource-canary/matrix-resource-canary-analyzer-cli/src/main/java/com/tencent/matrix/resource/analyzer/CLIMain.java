@@ -19,12 +19,15 @@ package com.tencent.matrix.resource.analyzer;
 import com.tencent.matrix.resource.analyzer.model.ActivityLeakResult;
 import com.tencent.matrix.resource.analyzer.model.AndroidExcludedBmpRefs;
 import com.tencent.matrix.resource.analyzer.model.AndroidExcludedRefs;
+import com.tencent.matrix.resource.analyzer.model.BatchActivityLeakResult;
 import com.tencent.matrix.resource.analyzer.model.DuplicatedBitmapResult;
 import com.tencent.matrix.resource.analyzer.model.ExcludedBmps;
 import com.tencent.matrix.resource.analyzer.model.ExcludedRefs;
 import com.tencent.matrix.resource.analyzer.model.HeapSnapshot;
 import com.tencent.matrix.resource.analyzer.model.HprofBitmapProvider;
+import com.tencent.matrix.resource.analyzer.model.HprofIndex;
 import com.tencent.matrix.resource.analyzer.utils.BitmapDecoder;
+import com.tencent.matrix.resource.analyzer.utils.HprofIndexWriter;
 import com.tencent.matrix.resource.common.utils.StreamUtil;
 
 import org.apache.commons.cli.CommandLine;
@@ -48,6 +51,7 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.PrintWriter;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
@@ -58,8 +62,10 @@ import java.util.zip.ZipOutputStream;
 
 import javax.imageio.ImageIO;
 
+import static com.tencent.matrix.resource.analyzer.CLIMain.AnalyzerOptions.OPTION_ALL_LEAKS;
 import static com.tencent.matrix.resource.analyzer.CLIMain.AnalyzerOptions.OPTION_COMPRESS_OUTPUT;
 import static com.tencent.matrix.resource.analyzer.CLIMain.AnalyzerOptions.OPTION_HELP;
+import static com.tencent.matrix.resource.analyzer.CLIMain.AnalyzerOptions.OPTION_INDEX;
 import static com.tencent.matrix.resource.analyzer.CLIMain.AnalyzerOptions.OPTION_INPUT;
 import static com.tencent.matrix.resource.analyzer.CLIMain.AnalyzerOptions.OPTION_MIN_BMPLEAK_SIZE;
 import static com.tencent.matrix.resource.analyzer.CLIMain.AnalyzerOptions.OPTION_OUTPUT;
@@ -80,6 +86,8 @@ public final class CLIMain {
     private static File    mOutputFile     = null;
     private static boolean mCompressOutput = false;
     private static int     mMinBmpLeakSize = 5000;
+    private static boolean mAllLeaks       = false;
+    private static boolean mWriteIndex     = false;
 
     private static final String EXTRA_INFO_NAME = "extra.info";
 
@@ -135,6 +143,28 @@ public final class CLIMain {
                         .build();
             }
         },
+        OPTION_ALL_LEAKS {
+            @Override
+            Option build() {
+                return Option.builder("al")
+                        .longOpt("all-leaks")
+                        .desc("Optional. Analyze every destroyed activity found in the hprof with a single"
+                                + " traversal, not only the one recorded in result.info.")
+                        .required(false)
+                        .build();
+            }
+        },
+        OPTION_INDEX {
+            @Override
+            Option build() {
+                return Option.builder("ix")
+                        .longOpt("index")
+                        .desc("Optional. Persist an index of the hprof next to the input file,"
+                                + " so later analyses of the same dump answer leaks from it without parsing the hprof.")
+                        .required(false)
+                        .build();
+            }
+        },
         OPTION_HELP {
             @Override
             Option build() {
@@ -195,6 +225,14 @@ public final class CLIMain {
         if (minBmpLeakSizeVal != null) {
             mMinBmpLeakSize = Integer.parseInt(minBmpLeakSizeVal);
         }
+
+        if (cmdline.hasOption(OPTION_ALL_LEAKS.mOption.getLongOpt())) {
+            mAllLeaks = true;
+        }
+
+        if (cmdline.hasOption(OPTION_INDEX.mOption.getLongOpt())) {
+            mWriteIndex = true;
+        }
     }
 
     //进行分析
@@ -254,7 +292,10 @@ public final class CLIMain {
             if (hprofEntryName == null) {
                 throw new IllegalStateException("hprofEntry is absent in result.info.");
             }
-            final ZipEntry hprofEntry = new ZipEntry(hprofEntryName);
+            ZipEntry hprofEntry = zf.getEntry(hprofEntryName);
+            if (hprofEntry == null) {
+                hprofEntry = new ZipEntry(hprofEntryName);
+            }
 
             //获取 result.info 文件中记录的 泄漏点
             final String leakedActivityKey = resultInfoMap.get("leakedActivityKey");
@@ -267,6 +308,10 @@ public final class CLIMain {
             tempHprofFile = new File(new File("").getAbsoluteFile(), "temp_" + System.currentTimeMillis() + ".hprof");
             //解压到临时文件中
             StreamUtil.extractZipEntry(zf, hprofEntry, tempHprofFile);
+            if (hprofEntry.getTime() > 0) {
+                // Keeps the index keyed by length and modified time valid for the same dump.
+                tempHprofFile.setLastModified(hprofEntry.getTime());
+            }
 
             // Parse extra info if exists.
             //解析额外信息文件 ，一般是不存在的
@@ -308,6 +353,21 @@ public final class CLIMain {
         }
     }
 
+    private static File getHprofIndexFile() {
+        // The extracted hprof is temporary, so the index lives next to the input. It is keyed by the
+        // length and modified time of the hprof, which the extraction takes from the zip entry.
+        return new File(mInputFile.getAbsoluteFile().getParentFile(), mInputFile.getName() + HprofIndex.INDEX_EXT);
+    }
+
+    private static HprofIndex openHprofIndex(File indexFile, File hprofFile) {
+        try {
+            return HprofIndex.open(indexFile, hprofFile);
+        } catch (IOException e) {
+            System.err.println("\n ! Index " + indexFile.getPath() + " is corrupted, rebuild it. " + e.getMessage());
+            return null;
+        }
+    }
+
     /**
      * 真正的开始分析了
      * @param hprofFile 解压后的 .hprof文件
@@ -319,24 +379,69 @@ public final class CLIMain {
      */
     private static void analyzeAndStoreResult(File hprofFile, int sdkVersion, String manufacturer,
                                               String leakedActivityKey, JSONObject extraInfo) throws IOException {
-        //这一步就已经对 .hprof 文件做了分析结果存在他的成员变量 mSnapshot 中
-        final HeapSnapshot heapSnapshot = new HeapSnapshot(hprofFile);
         //这里收集常见不同品牌的 不同SDK版本号的 系统泄漏点，后面分析的时候会规避掉。
         final ExcludedRefs excludedRefs = AndroidExcludedRefs.createAppDefaults(sdkVersion, manufacturer).build();
+        final File indexFile = getHprofIndexFile();
+        HprofIndex hprofIndex = null;
+        if (mWriteIndex) {
+            hprofIndex = openHprofIndex(indexFile, hprofFile);
+        }
         //对传入泄漏点的引用链进行分析并返回 ActivityLeakResult
-        final ActivityLeakResult activityLeakResult
-                = new ActivityLeakAnalyzer(leakedActivityKey, excludedRefs).analyze(heapSnapshot);
+        ActivityLeakResult activityLeakResult = null;
+        BatchActivityLeakResult batchActivityLeakResult = null;
+        if (hprofIndex != null) {
+            // A key the index does not record is a miss, the hprof is parsed for it below.
+            final BatchActivityLeakResult indexedResult = new IndexedActivityLeakAnalyzer(
+                    mAllLeaks ? null : Collections.singleton(leakedActivityKey), excludedRefs).analyze(hprofIndex);
+            if (indexedResult != null && indexedResult.get(leakedActivityKey) != null) {
+                System.out.println("Analyze leaks with hprof index: " + indexFile.getPath());
+                activityLeakResult = indexedResult.get(leakedActivityKey);
+                if (mAllLeaks) {
+                    batchActivityLeakResult = indexedResult;
+                }
+            }
+        }
+
+        HeapSnapshot heapSnapshot = null;
+        if (activityLeakResult == null) {
+            //这一步就已经对 .hprof 文件做了分析结果存在他的成员变量 mSnapshot 中
+            heapSnapshot = new HeapSnapshot(hprofFile);
+            if (mAllLeaks) {
+                // One traversal serves the recorded key and every other destroyed activity in the heap.
+                batchActivityLeakResult = new BatchActivityLeakAnalyzer(excludedRefs).analyze(heapSnapshot);
+                final ActivityLeakResult recordedResult = batchActivityLeakResult.get(leakedActivityKey);
+                if (recordedResult != null) {
+                    activityLeakResult = recordedResult;
+                } else {
+                    activityLeakResult = ActivityLeakResult.failure(batchActivityLeakResult.mFailure != null
+                            ? batchActivityLeakResult.mFailure
+                            : new IllegalStateException("Could not find weak reference with key " + leakedActivityKey),
+                            batchActivityLeakResult.mAnalysisDurationMs);
+                }
+            } else {
+                activityLeakResult = new ActivityLeakAnalyzer(leakedActivityKey, excludedRefs).analyze(heapSnapshot);
+            }
+        }
 
 
         //当系统sdk版本小于 26 的时候进行 重复图片的分析
         DuplicatedBitmapResult duplicatedBmpResult = DuplicatedBitmapResult.noDuplicatedBitmap(0);
         if (sdkVersion < 26) {
+            // Bitmap buffers are not in the index.
+            if (heapSnapshot == null) {
+                heapSnapshot = new HeapSnapshot(hprofFile);
+            }
             final ExcludedBmps excludedBmps = AndroidExcludedBmpRefs.createDefaults().build();
-            duplicatedBmpResult = new DuplicatedBitmapAnalyzer(mMinBmpLeakSize, excludedBmps).analyze(heapSnapshot);
+            duplicatedBmpResult = new BucketedDuplicatedBitmapAnalyzer(mMinBmpLeakSize, excludedBmps).analyze(heapSnapshot);
         } else {
             System.err.println("\n ! SDK version of target device is larger or equal to 26, "
                     + "which is not supported by DuplicatedBitmapAnalyzer.");
         }
+
+        if (mWriteIndex && hprofIndex == null) {
+            HprofIndexWriter.write(heapSnapshot, indexFile);
+            System.out.println("Hprof index stored: " + indexFile.getPath());
+        }
         //准备输出结果了
         final String resultJsonName = "result.json";
         final String bufferContentsRootDirName = "buffer_contents";
@@ -358,6 +463,12 @@ public final class CLIMain {
                     resultJson.put("activityLeakResult", activityLeakResultJson)
                               .put("duplicatedBitmapResult", duplicatedBmpResultJson);
 
+                    if (batchActivityLeakResult != null) {
+                        final JSONObject batchActivityLeakResultJson = new JSONObject();
+                        batchActivityLeakResult.encodeToJSON(batchActivityLeakResultJson);
+                        resultJson.put("batchActivityLeakResult", batchActivityLeakResultJson);
+                    }
+
                     if (extraInfo != null && extraInfo.length() > 0) {
                         resultJson.put(extralInfoKey, extraInfo);
                     }
@@ -414,6 +525,12 @@ public final class CLIMain {
                 resultJson.put("activityLeakResult", activityLeakResultJson)
                           .put("duplicatedBitmapResult", duplicatedBmpResultJson);
 
+                if (batchActivityLeakResult != null) {
+                    final JSONObject batchActivityLeakResultJson = new JSONObject();
+                    batchActivityLeakResult.encodeToJSON(batchActivityLeakResultJson);
+                    resultJson.put("batchActivityLeakResult", batchActivityLeakResultJson);
+                }
+
                 if (extraInfo != null && extraInfo.length() > 0) {
                     resultJson.put(extralInfoKey, extraInfo);
                 }
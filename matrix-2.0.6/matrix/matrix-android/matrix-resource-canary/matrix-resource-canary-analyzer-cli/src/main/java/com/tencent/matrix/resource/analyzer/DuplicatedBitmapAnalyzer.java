@@ -193,48 +193,8 @@ public class DuplicatedBitmapAnalyzer implements HeapSnapshotAnalyzer<Duplicated
                             }
                         }
 
-                        final Map<Instance, Result> results = new ShortestPathFinder(mExcludedBmps)
-                                .findPath(snapshot, duplicateBitmaps);
-                        final List<ReferenceChain> referenceChains = new ArrayList<>();
-                        for (Result result : results.values()) {
-                            if (result.excludingKnown) {
-                                continue;
-                            }
-                            ReferenceNode currRefChainNode = result.referenceChainHead;
-                            while (currRefChainNode.parent != null) {
-                                final ReferenceNode tempNode = currRefChainNode.parent;
-                                if (tempNode.instance == null) {
-                                    currRefChainNode = tempNode;
-                                    continue;
-                                }
-                                final Heap heap = tempNode.instance.getHeap();
-                                if (heap != null && !"app".equals(heap.getName())) {
-                                    break;
-                                } else {
-                                    currRefChainNode = tempNode;
-                                }
-                            }
-                            final Instance gcRootHolder = currRefChainNode.instance;
-                            if (!(gcRootHolder instanceof ClassObj)) {
-                                continue;
-                            }
-                            final String holderClassName = ((ClassObj) gcRootHolder).getClassName();
-                            boolean isExcluded = false;
-                            for (ExcludedBmps.PatternInfo patternInfo : mExcludedBmps.mClassNamePatterns) {
-                                if (!patternInfo.mForGCRootOnly) {
-                                    continue;
-                                }
-                                if (patternInfo.mPattern.matcher(holderClassName).matches()) {
-                                    System.out.println(" + Skipped a bitmap with gc root class: "
-                                            + holderClassName + " by pattern: " + patternInfo.mPattern.toString());
-                                    isExcluded = true;
-                                    break;
-                                }
-                            }
-                            if (!isExcluded) {
-                                referenceChains.add(result.buildReferenceChain());
-                            }
-                        }
+                        final List<ReferenceChain> referenceChains
+                                = findReferenceChains(snapshot, mExcludedBmps, duplicateBitmaps);
                         if (referenceChains.size() > 1) {
                             duplicatedBitmapEntries.add(new DuplicatedBitmapEntry(width, height, rawBuffer, referenceChains));
                         }
@@ -257,6 +217,57 @@ public class DuplicatedBitmapAnalyzer implements HeapSnapshotAnalyzer<Duplicated
         return DuplicatedBitmapResult.duplicatedBitmapDetected(duplicatedBitmapEntries, AnalyzeUtil.since(analysisStartNanoTime));
     }
 
+    /**
+     * Computes reference chains of duplicated bitmaps, skipping those held by excluded gc roots.
+     * Shared with {@link BucketedDuplicatedBitmapAnalyzer}.
+     */
+    static List<ReferenceChain> findReferenceChains(Snapshot snapshot, ExcludedBmps excludedBmps,
+                                                    List<Instance> duplicateBitmaps) {
+        final Map<Instance, Result> results = new ShortestPathFinder(excludedBmps)
+                .findPath(snapshot, duplicateBitmaps);
+        final List<ReferenceChain> referenceChains = new ArrayList<>();
+        for (Result result : results.values()) {
+            if (result.excludingKnown) {
+                continue;
+            }
+            ReferenceNode currRefChainNode = result.referenceChainHead;
+            while (currRefChainNode.parent != null) {
+                final ReferenceNode tempNode = currRefChainNode.parent;
+                if (tempNode.instance == null) {
+                    currRefChainNode = tempNode;
+                    continue;
+                }
+                final Heap heap = tempNode.instance.getHeap();
+                if (heap != null && !"app".equals(heap.getName())) {
+                    break;
+                } else {
+                    currRefChainNode = tempNode;
+                }
+            }
+            final Instance gcRootHolder = currRefChainNode.instance;
+            if (!(gcRootHolder instanceof ClassObj)) {
+                continue;
+            }
+            final String holderClassName = ((ClassObj) gcRootHolder).getClassName();
+            boolean isExcluded = false;
+            for (ExcludedBmps.PatternInfo patternInfo : excludedBmps.mClassNamePatterns) {
+                if (!patternInfo.mForGCRootOnly) {
+                    continue;
+                }
+                if (patternInfo.mPattern.matcher(holderClassName).matches()) {
+                    System.out.println(" + Skipped a bitmap with gc root class: "
+                            + holderClassName + " by pattern: " + patternInfo.mPattern.toString());
+                    isExcluded = true;
+                    break;
+                }
+            }
+            if (!isExcluded) {
+                referenceChains.add(result.buildReferenceChain());
+            }
+        }
+        return referenceChains;
+    }
+
     private ArrayInstance cloneArrayInstance(ArrayInstance orig) {
         try {
             if (mMStackField == null) {
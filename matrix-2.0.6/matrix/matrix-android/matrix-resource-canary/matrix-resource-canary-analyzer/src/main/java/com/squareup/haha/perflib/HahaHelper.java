@@ -183,6 +183,35 @@ public final class HahaHelper {
         }
     }
 
+    private static java.lang.reflect.Field sArrayValuesOffsetField;
+    private static java.lang.reflect.Field sClassInstanceValuesOffsetField;
+
+    public static long getArrayInstanceValuesOffset(ArrayInstance instance) {
+        try {
+            if (sArrayValuesOffsetField == null) {
+                final java.lang.reflect.Field mValuesOffsetField = ArrayInstance.class.getDeclaredField("mValuesOffset");
+                mValuesOffsetField.setAccessible(true);
+                sArrayValuesOffsetField = mValuesOffsetField;
+            }
+            return sArrayValuesOffsetField.getLong(instance);
+        } catch (Throwable thr) {
+            throw new RuntimeException(thr);
+        }
+    }
+
+    public static long getClassInstanceValuesOffset(ClassInstance instance) {
+        try {
+            if (sClassInstanceValuesOffsetField == null) {
+                final java.lang.reflect.Field mValuesOffsetField = ClassInstance.class.getDeclaredField("mValuesOffset");
+                mValuesOffsetField.setAccessible(true);
+                sClassInstanceValuesOffsetField = mValuesOffsetField;
+            }
+            return sClassInstanceValuesOffsetField.getLong(instance);
+        } catch (Throwable thr) {
+            throw new RuntimeException(thr);
+        }
+    }
+
     public static byte[] asRawByteArray(ArrayInstance instance, int start, int elementCount) {
         try {
             final java.lang.reflect.Method asRawByteArrayMethod
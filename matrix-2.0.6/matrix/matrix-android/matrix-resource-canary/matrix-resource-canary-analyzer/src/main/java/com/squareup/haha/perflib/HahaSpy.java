@@ -15,6 +15,8 @@
  */
 package com.squareup.haha.perflib;
 
+import com.squareup.haha.perflib.io.HprofBuffer;
+
 public final class HahaSpy {
 
     public static Instance allocatingThread(Instance instance) {
@@ -29,6 +31,13 @@ public final class HahaSpy {
         return snapshot.findInstance(thread.mId);
     }
 
+    /**
+     * Returns the buffer backing the snapshot of the instance, which is usually the mapped hprof file.
+     */
+    public static HprofBuffer buffer(Instance instance) {
+        return instance.getBuffer();
+    }
+
     private HahaSpy() {
         throw new AssertionError();
     }
@@ -41,10 +41,10 @@ import static com.squareup.haha.perflib.HahaHelper.fieldValue;
  */
 
 public class ActivityLeakAnalyzer implements HeapSnapshotAnalyzer<ActivityLeakResult> {
-    private static final String DESTROYED_ACTIVITY_INFO_CLASSNAME
+    public static final String DESTROYED_ACTIVITY_INFO_CLASSNAME
             = "com.tencent.matrix.resource.analyzer.model.DestroyedActivityInfo";
-    private static final String ACTIVITY_REFERENCE_KEY_FIELDNAME = "mKey";
-    private static final String ACTIVITY_REFERENCE_FIELDNAME = "mActivityRef";
+    public static final String ACTIVITY_REFERENCE_KEY_FIELDNAME = "mKey";
+    public static final String ACTIVITY_REFERENCE_FIELDNAME = "mActivityRef";
 
     private final String mRefKey;
     private final ExcludedRefs mExcludedRefs;
@@ -151,9 +151,17 @@ public class ActivityLeakAnalyzer implements HeapSnapshotAnalyzer<ActivityLeakRe
         //查找最短引用链并 返回结果
         ShortestPathFinder.Result result = pathFinder.findPath(snapshot, leakingRef);
 
+        return buildLeakResult(analysisStartNanoTime, leakingRef, result);
+    }
+
+    /**
+     * Turns a path finding result into an {@link ActivityLeakResult}, shared with {@link BatchActivityLeakAnalyzer}.
+     */
+    static ActivityLeakResult buildLeakResult(long analysisStartNanoTime, Instance leakingRef,
+                                              ShortestPathFinder.Result result) {
         // False alarm, no strong reference path to GC Roots.
         //异常流程不用太关心
-        if (result.referenceChainHead == null) {
+        if (result == null || result.referenceChainHead == null) {
             return ActivityLeakResult.noLeak(AnalyzeUtil.since(analysisStartNanoTime));
         }
 
@@ -0,0 +1,150 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.resource.analyzer;
+
+import com.squareup.haha.perflib.ClassInstance;
+import com.squareup.haha.perflib.ClassObj;
+import com.squareup.haha.perflib.Instance;
+import com.squareup.haha.perflib.Snapshot;
+import com.tencent.matrix.resource.analyzer.model.ActivityLeakResult;
+import com.tencent.matrix.resource.analyzer.model.BatchActivityLeakResult;
+import com.tencent.matrix.resource.analyzer.model.ExcludedRefs;
+import com.tencent.matrix.resource.analyzer.model.HeapSnapshot;
+import com.tencent.matrix.resource.analyzer.utils.AnalyzeUtil;
+import com.tencent.matrix.resource.analyzer.utils.ShortestPathFinder;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.squareup.haha.perflib.HahaHelper.asString;
+import static com.squareup.haha.perflib.HahaHelper.classInstanceValues;
+import static com.squareup.haha.perflib.HahaHelper.fieldValue;
+import static com.tencent.matrix.resource.analyzer.ActivityLeakAnalyzer.ACTIVITY_REFERENCE_FIELDNAME;
+import static com.tencent.matrix.resource.analyzer.ActivityLeakAnalyzer.ACTIVITY_REFERENCE_KEY_FIELDNAME;
+import static com.tencent.matrix.resource.analyzer.ActivityLeakAnalyzer.DESTROYED_ACTIVITY_INFO_CLASSNAME;
+
+/**
+ * Batch version of {@link ActivityLeakAnalyzer}.
+ *
+ * Resolves the keys of all <code>DestroyedActivityInfo</code> instances in a single scan and computes
+ * every reference chain in one shared traversal from the GC roots, so one dump and one parse can serve
+ * all pending leaks instead of dumping and parsing the heap once per key.
+ */
+
+public class BatchActivityLeakAnalyzer implements HeapSnapshotAnalyzer<BatchActivityLeakResult> {
+
+    private final Set<String> mRefKeys;
+    private final ExcludedRefs mExcludedRefs;
+
+    /**
+     * Analyzes every <code>DestroyedActivityInfo</code> present in the snapshot.
+     *
+     * @param excludedRefs 可忽略的引用链
+     */
+    public BatchActivityLeakAnalyzer(ExcludedRefs excludedRefs) {
+        this(null, excludedRefs);
+    }
+
+    /**
+     * @param refKeys      keys to analyze, or null to analyze every key present in the snapshot
+     * @param excludedRefs 可忽略的引用链
+     */
+    public BatchActivityLeakAnalyzer(Collection<String> refKeys, ExcludedRefs excludedRefs) {
+        mRefKeys = (refKeys != null ? new LinkedHashSet<>(refKeys) : null);
+        mExcludedRefs = excludedRefs;
+    }
+
+    @Override
+    public BatchActivityLeakResult analyze(HeapSnapshot heapSnapshot) {
+        final long analysisStartNanoTime = System.nanoTime();
+
+        try {
+            final Snapshot snapshot = heapSnapshot.getSnapshot();
+            final Map<String, Instance> leakingRefs = findLeakingReferences(snapshot);
+            final Map<String, ActivityLeakResult> results = new LinkedHashMap<>();
+
+            if (mRefKeys != null) {
+                for (String refKey : mRefKeys) {
+                    if (!leakingRefs.containsKey(refKey)) {
+                        results.put(refKey, ActivityLeakResult.failure(new IllegalStateException(
+                                "Could not find weak reference with key " + refKey + " in " + leakingRefs.keySet()),
+                                AnalyzeUtil.since(analysisStartNanoTime)));
+                    }
+                }
+            }
+
+            // Different keys may point to the same instance, let the path finder visit it only once.
+            final Set<Instance> targets = new HashSet<>();
+            for (Instance leakingRef : leakingRefs.values()) {
+                if (leakingRef != null) {
+                    targets.add(leakingRef);
+                }
+            }
+
+            final Map<Instance, ShortestPathFinder.Result> paths
+                    = new ShortestPathFinder(mExcludedRefs).findPath(snapshot, targets);
+
+            for (Map.Entry<String, Instance> entry : leakingRefs.entrySet()) {
+                final Instance leakingRef = entry.getValue();
+                if (leakingRef == null) {
+                    // False alarm, weak reference was cleared in between key check and heap dump.
+                    results.put(entry.getKey(), ActivityLeakResult.noLeak(AnalyzeUtil.since(analysisStartNanoTime)));
+                    continue;
+                }
+                results.put(entry.getKey(), ActivityLeakAnalyzer.buildLeakResult(analysisStartNanoTime,
+                        leakingRef, paths.get(leakingRef)));
+            }
+
+            return BatchActivityLeakResult.analyzed(results, AnalyzeUtil.since(analysisStartNanoTime));
+        } catch (Throwable e) {
+            e.printStackTrace();
+            return BatchActivityLeakResult.failure(e, AnalyzeUtil.since(analysisStartNanoTime));
+        }
+    }
+
+    /**
+     * Scans <code>DestroyedActivityInfo</code> instances once and maps each wanted key to the activity
+     * its weak reference still holds, or to null if the reference was cleared.
+     */
+    private Map<String, Instance> findLeakingReferences(Snapshot snapshot) {
+        final ClassObj infoClass = snapshot.findClass(DESTROYED_ACTIVITY_INFO_CLASSNAME);
+        if (infoClass == null) {
+            throw new IllegalStateException("Unabled to find destroy activity info class with name: "
+                    + DESTROYED_ACTIVITY_INFO_CLASSNAME);
+        }
+        final Map<String, Instance> leakingRefs = new LinkedHashMap<>();
+        for (Instance infoInstance : infoClass.getInstancesList()) {
+            final List<ClassInstance.FieldValue> values = classInstanceValues(infoInstance);
+            final String keyCandidate = asString(fieldValue(values, ACTIVITY_REFERENCE_KEY_FIELDNAME));
+            if (mRefKeys != null && !mRefKeys.contains(keyCandidate)) {
+                continue;
+            }
+            final Instance weakRefObj = fieldValue(values, ACTIVITY_REFERENCE_FIELDNAME);
+            if (weakRefObj == null) {
+                continue;
+            }
+            final List<ClassInstance.FieldValue> activityRefs = classInstanceValues(weakRefObj);
+            leakingRefs.put(keyCandidate, fieldValue(activityRefs, "referent"));
+        }
+        return leakingRefs;
+    }
+}
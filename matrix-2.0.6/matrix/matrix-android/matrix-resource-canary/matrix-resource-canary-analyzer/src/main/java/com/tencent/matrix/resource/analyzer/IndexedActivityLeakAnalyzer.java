@@ -0,0 +1,118 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.resource.analyzer;
+
+import com.tencent.matrix.resource.analyzer.model.ActivityLeakResult;
+import com.tencent.matrix.resource.analyzer.model.BatchActivityLeakResult;
+import com.tencent.matrix.resource.analyzer.model.ExcludedRefs;
+import com.tencent.matrix.resource.analyzer.model.HprofIndex;
+import com.tencent.matrix.resource.analyzer.model.ReferenceChain;
+import com.tencent.matrix.resource.analyzer.utils.AnalyzeUtil;
+import com.tencent.matrix.resource.analyzer.utils.HprofIndexPathFinder;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link BatchActivityLeakAnalyzer} answered from a {@link HprofIndex} of the dump instead of a parsed
+ * snapshot, so analyzing the same hprof again does not need to parse it.
+ */
+
+public class IndexedActivityLeakAnalyzer {
+
+    private final Set<String> mRefKeys;
+    private final ExcludedRefs mExcludedRefs;
+
+    /**
+     * @param refKeys      keys to analyze, or null to analyze every key recorded in the index
+     * @param excludedRefs 可忽略的引用链
+     */
+    public IndexedActivityLeakAnalyzer(Collection<String> refKeys, ExcludedRefs excludedRefs) {
+        mRefKeys = (refKeys != null ? new LinkedHashSet<>(refKeys) : null);
+        mExcludedRefs = excludedRefs;
+    }
+
+    /**
+     * @return the results, or null if a wanted key is not recorded in the index, in which case the hprof
+     * has to be parsed to analyze it.
+     */
+    public BatchActivityLeakResult analyze(HprofIndex index) {
+        final long analysisStartNanoTime = System.nanoTime();
+
+        final Map<String, Integer> leakingRefs = new LinkedHashMap<>(index.getDestroyedActivities());
+        if (mRefKeys != null) {
+            if (!leakingRefs.keySet().containsAll(mRefKeys)) {
+                return null;
+            }
+            leakingRefs.keySet().retainAll(mRefKeys);
+        } else if (leakingRefs.isEmpty()) {
+            return null;
+        }
+
+        try {
+            // Different keys may point to the same instance, let the path finder visit it only once.
+            final Set<Integer> targets = new HashSet<>();
+            for (int leakingRef : leakingRefs.values()) {
+                if (leakingRef != HprofIndex.NO_OBJECT) {
+                    targets.add(leakingRef);
+                }
+            }
+
+            final Map<Integer, HprofIndexPathFinder.Result> paths
+                    = new HprofIndexPathFinder(index, mExcludedRefs).findPath(targets);
+
+            final Map<String, ActivityLeakResult> results = new LinkedHashMap<>();
+            for (Map.Entry<String, Integer> entry : leakingRefs.entrySet()) {
+                final int leakingRef = entry.getValue();
+                if (leakingRef == HprofIndex.NO_OBJECT) {
+                    // False alarm, weak reference was cleared in between key check and heap dump.
+                    results.put(entry.getKey(), ActivityLeakResult.noLeak(AnalyzeUtil.since(analysisStartNanoTime)));
+                    continue;
+                }
+                results.put(entry.getKey(), buildLeakResult(analysisStartNanoTime, index, leakingRef,
+                        paths.get(leakingRef)));
+            }
+
+            return BatchActivityLeakResult.analyzed(results, AnalyzeUtil.since(analysisStartNanoTime));
+        } catch (Throwable e) {
+            e.printStackTrace();
+            return BatchActivityLeakResult.failure(e, AnalyzeUtil.since(analysisStartNanoTime));
+        }
+    }
+
+    private static ActivityLeakResult buildLeakResult(long analysisStartNanoTime, HprofIndex index, int leakingRef,
+                                                      HprofIndexPathFinder.Result result) throws IOException {
+        // False alarm, no strong reference path to GC Roots.
+        if (result == null) {
+            return ActivityLeakResult.noLeak(AnalyzeUtil.since(analysisStartNanoTime));
+        }
+
+        final ReferenceChain referenceChain = result.buildReferenceChain();
+        final String className = index.getClassName(leakingRef);
+        if (result.excludingKnown || referenceChain.isEmpty()) {
+            return ActivityLeakResult.noLeak(AnalyzeUtil.since(analysisStartNanoTime));
+        } else {
+            return ActivityLeakResult.leakDetected(false, className, referenceChain,
+                    AnalyzeUtil.since(analysisStartNanoTime));
+        }
+    }
+}
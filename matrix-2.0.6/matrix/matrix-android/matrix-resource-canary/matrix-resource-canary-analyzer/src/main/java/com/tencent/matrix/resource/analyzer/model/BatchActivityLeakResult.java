@@ -0,0 +1,88 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.resource.analyzer.model;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Leak results of every destroyed activity found in one heap snapshot, keyed by
+ * <code>DestroyedActivityInfo.mKey</code>.
+ */
+
+public final class BatchActivityLeakResult extends AnalyzeResult {
+
+    public static BatchActivityLeakResult analyzed(Map<String, ActivityLeakResult> results, long analysisDurationMs) {
+        return new BatchActivityLeakResult(results, null, analysisDurationMs);
+    }
+
+    public static BatchActivityLeakResult failure(Throwable failure, long analysisDurationMs) {
+        return new BatchActivityLeakResult(Collections.<String, ActivityLeakResult>emptyMap(), failure, analysisDurationMs);
+    }
+
+    /**
+     * Result of each analyzed key, in the order the keys were found in the heap.
+     */
+    public final Map<String, ActivityLeakResult> mResults;
+
+    /**
+     * Null unless the whole analysis failed.
+     */
+    public final Throwable mFailure;
+
+    /**
+     * Total time spent analyzing the heap for all keys.
+     */
+    public final long mAnalysisDurationMs;
+
+    private BatchActivityLeakResult(Map<String, ActivityLeakResult> results, Throwable failure, long analysisDurationMs) {
+        mResults = Collections.unmodifiableMap(new LinkedHashMap<>(results));
+        mFailure = failure;
+        mAnalysisDurationMs = analysisDurationMs;
+    }
+
+    public ActivityLeakResult get(String refKey) {
+        return mResults.get(refKey);
+    }
+
+    public boolean isLeakFound() {
+        for (ActivityLeakResult result : mResults.values()) {
+            if (result.mLeakFound) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void encodeToJSON(JSONObject jsonObject) throws JSONException {
+        final JSONObject resultsJson = new JSONObject();
+        for (Map.Entry<String, ActivityLeakResult> entry : mResults.entrySet()) {
+            final JSONObject resultJson = new JSONObject();
+            entry.getValue().encodeToJSON(resultJson);
+            resultsJson.put(entry.getKey(), resultJson);
+        }
+        jsonObject.put("leakFound", isLeakFound())
+                  .put("failure", String.valueOf(mFailure))
+                  .put("analysisDurationMs", mAnalysisDurationMs)
+                  .put("results", resultsJson);
+    }
+}
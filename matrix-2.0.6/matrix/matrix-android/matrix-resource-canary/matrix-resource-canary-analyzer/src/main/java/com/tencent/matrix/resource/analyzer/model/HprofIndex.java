@@ -0,0 +1,798 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.resource.analyzer.model;
+
+import com.squareup.haha.perflib.Type;
+import com.tencent.matrix.resource.common.utils.DigestUtil;
+import com.tencent.matrix.resource.common.utils.StreamUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Off-heap index of a parsed hprof file, persisted next to the dump and memory-mapped by later runs so
+ * repeated queries do not need to parse the hprof again.
+ *
+ * Objects are addressed by their position in the id-sorted object table. The index is written by
+ * {@link com.tencent.matrix.resource.analyzer.utils.HprofIndexWriter}, layout:
+ * <pre>
+ *   header    magic, version, hprof length, hprof last modified time, hprof md5, counts, id size,
+ *             crc32 of the body
+ *   objects   ids, kinds, flags, class indexes, values offsets in hprof, shallow sizes, retained sizes,
+ *             distances to gc root, next instances to gc root, immediate dominators
+ *   edges     outgoing and incoming hard references in CSR form
+ *   roots     objects referred by gc roots, root kinds and threads of java local roots
+ *   refs      every object field, static field and array entry reference in CSR form, with the
+ *             reference type and field name, as leak path finding walks them
+ *   names     field names, thread names and destroyed activity keys referred by the other tables
+ *   threads   object index and name of each thread
+ *   keys      destroyed activity keys and the activities their weak references hold
+ *   classes   object index, super class and name of each class
+ *   fields    name and type of the instance fields each class declares in CSR form, then name, type
+ *             and value of its static fields in CSR form, so field values can be described without
+ *             parsing the hprof
+ * </pre>
+ */
+
+public final class HprofIndex {
+    public static final String INDEX_EXT = ".midx";
+
+    public static final int MAGIC = 0x4D494458; // "MIDX"
+    public static final int VERSION = 3;
+
+    public static final int HEADER_SIZE = 112;
+    public static final int HEADER_CRC_OFFSET = 104;
+    public static final int DIGEST_LENGTH = 32;
+
+    public static final byte KIND_CLASS = 0;
+    public static final byte KIND_INSTANCE = 1;
+    public static final byte KIND_ARRAY = 2;
+
+    /**
+     * Primitive arrays, arrays of primitive wrappers and primitive wrappers, never part of a leak path.
+     */
+    public static final byte FLAG_PRIMITIVE_OR_WRAPPER = 1;
+    public static final byte FLAG_STRING = 2;
+
+    /**
+     * Roots that leak path finding does not start from, such as interned strings or finalizing objects.
+     */
+    public static final byte ROOT_IGNORED = 0;
+    public static final byte ROOT_JAVA_LOCAL = 1;
+    public static final byte ROOT_OTHER = 2;
+
+    public static final byte REF_INSTANCE_FIELD = 0;
+    public static final byte REF_STATIC_FIELD = 1;
+    public static final byte REF_ARRAY_ENTRY = 2;
+
+    public static final int NO_OBJECT = -1;
+    /**
+     * Immediate dominator value of objects only dominated by the virtual root.
+     */
+    public static final int DOMINATOR_ROOT = -2;
+
+    private final File mHprofFile;
+    private final long mHprofLength;
+    private final long mHprofLastModified;
+    private final String mHprofDigest;
+    private final int mObjectCount;
+    private final int mIdSize;
+
+    private final LongBuffer mIds;
+    private final ByteBuffer mKinds;
+    private final ByteBuffer mFlags;
+    private final IntBuffer mClassIndexes;
+    private final LongBuffer mValuesOffsets;
+    private final IntBuffer mShallowSizes;
+    private final LongBuffer mRetainedSizes;
+    private final IntBuffer mDistances;
+    private final IntBuffer mNextToGcRoot;
+    private final IntBuffer mDominators;
+    private final IntBuffer mOutStarts;
+    private final IntBuffer mOutEdges;
+    private final IntBuffer mInStarts;
+    private final IntBuffer mInEdges;
+    private final IntBuffer mRoots;
+    private final ByteBuffer mRootKinds;
+    private final IntBuffer mRootThreads;
+    private final IntBuffer mRefStarts;
+    private final IntBuffer mRefTargets;
+    private final IntBuffer mRefNames;
+    private final ByteBuffer mRefTypes;
+    private final String[] mNames;
+    private final Map<Integer, String> mThreadNames;
+    private final Map<String, Integer> mDestroyedActivities;
+    private final int[] mClassObjectIndexes;
+    private final int[] mSuperClasses;
+    private final String[] mClassNames;
+    private final int[] mFieldStarts;
+    private final int[] mFieldNames;
+    private final byte[] mFieldTypes;
+    private final int[] mStaticStarts;
+    private final int[] mStaticNames;
+    private final byte[] mStaticTypes;
+    private final long[] mStaticValues;
+
+    /**
+     * Value of a field, a boxed primitive or for {@link Type#OBJECT} fields the index of the object
+     * referred, null if it is null or absent from the index.
+     */
+    public static final class FieldValue {
+        public final String name;
+        public final Type type;
+        public final Object value;
+
+        FieldValue(String name, Type type, Object value) {
+            this.name = name;
+            this.type = type;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Returns the sidecar index file of the hprof file.
+     */
+    public static File indexFileOf(File hprofFile) {
+        return new File(hprofFile.getParentFile(), hprofFile.getName() + INDEX_EXT);
+    }
+
+    /**
+     * Maps the index file, verifying its version, checksum and that it was built from the hprof file.
+     * The hprof is trusted when its length and last modified time match, otherwise it is only hashed
+     * to compare its {@link DigestUtil} md5, so an untouched dump is not hashed again.
+     *
+     * @return the index, or null if it is absent, outdated or was built from another hprof.
+     */
+    public static HprofIndex open(File indexFile, File hprofFile) throws IOException {
+        if (!indexFile.isFile() || indexFile.length() < HEADER_SIZE) {
+            return null;
+        }
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(indexFile, "r");
+            final FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("index file is too large: " + channel.size());
+            }
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                    || buffer.getLong(8) != hprofFile.length()) {
+                return null;
+            }
+            final String digest = readString(buffer, 24, DIGEST_LENGTH, Charset.forName("US-ASCII"));
+            if (buffer.getLong(16) != hprofFile.lastModified()
+                    && !digest.equalsIgnoreCase(DigestUtil.getMD5String(hprofFile))) {
+                return null;
+            }
+            if (buffer.getLong(HEADER_CRC_OFFSET) != computeBodyCrc(buffer)) {
+                throw new IOException("index file is corrupted: " + indexFile);
+            }
+            return new HprofIndex(buffer, hprofFile, digest);
+        } finally {
+            // The mapping stays valid after the channel is closed.
+            StreamUtil.closeQuietly(raf);
+        }
+    }
+
+    private static long computeBodyCrc(ByteBuffer buffer) {
+        final CRC32 crc = new CRC32();
+        final ByteBuffer body = buffer.duplicate();
+        body.position(HEADER_SIZE);
+        final byte[] chunk = new byte[64 * 1024];
+        while (body.hasRemaining()) {
+            final int length = Math.min(chunk.length, body.remaining());
+            body.get(chunk, 0, length);
+            crc.update(chunk, 0, length);
+        }
+        return crc.getValue();
+    }
+
+    private HprofIndex(ByteBuffer buffer, File hprofFile, String hprofDigest) {
+        mHprofFile = hprofFile;
+        mHprofLength = buffer.getLong(8);
+        mHprofLastModified = buffer.getLong(16);
+        mHprofDigest = hprofDigest;
+        mObjectCount = buffer.getInt(56);
+        final int classCount = buffer.getInt(60);
+        final int outEdgeCount = buffer.getInt(64);
+        final int inEdgeCount = buffer.getInt(68);
+        final int rootCount = buffer.getInt(72);
+        final int refCount = buffer.getInt(76);
+        final int nameCount = buffer.getInt(80);
+        final int threadCount = buffer.getInt(84);
+        final int keyCount = buffer.getInt(88);
+        final int fieldCount = buffer.getInt(92);
+        final int staticCount = buffer.getInt(96);
+        mIdSize = buffer.getInt(100);
+
+        final int n = mObjectCount;
+        int offset = HEADER_SIZE;
+        mIds = slice(buffer, offset, n * 8).asLongBuffer();
+        offset += n * 8;
+        mKinds = slice(buffer, offset, n);
+        offset += n;
+        mFlags = slice(buffer, offset, n);
+        offset += n;
+        mClassIndexes = slice(buffer, offset, n * 4).asIntBuffer();
+        offset += n * 4;
+        mValuesOffsets = slice(buffer, offset, n * 8).asLongBuffer();
+        offset += n * 8;
+        mShallowSizes = slice(buffer, offset, n * 4).asIntBuffer();
+        offset += n * 4;
+        mRetainedSizes = slice(buffer, offset, n * 8).asLongBuffer();
+        offset += n * 8;
+        mDistances = slice(buffer, offset, n * 4).asIntBuffer();
+        offset += n * 4;
+        mNextToGcRoot = slice(buffer, offset, n * 4).asIntBuffer();
+        offset += n * 4;
+        mDominators = slice(buffer, offset, n * 4).asIntBuffer();
+        offset += n * 4;
+        mOutStarts = slice(buffer, offset, (n + 1) * 4).asIntBuffer();
+        offset += (n + 1) * 4;
+        mOutEdges = slice(buffer, offset, outEdgeCount * 4).asIntBuffer();
+        offset += outEdgeCount * 4;
+        mInStarts = slice(buffer, offset, (n + 1) * 4).asIntBuffer();
+        offset += (n + 1) * 4;
+        mInEdges = slice(buffer, offset, inEdgeCount * 4).asIntBuffer();
+        offset += inEdgeCount * 4;
+        mRoots = slice(buffer, offset, rootCount * 4).asIntBuffer();
+        offset += rootCount * 4;
+        mRootKinds = slice(buffer, offset, rootCount);
+        offset += rootCount;
+        mRootThreads = slice(buffer, offset, rootCount * 4).asIntBuffer();
+        offset += rootCount * 4;
+        mRefStarts = slice(buffer, offset, (n + 1) * 4).asIntBuffer();
+        offset += (n + 1) * 4;
+        mRefTargets = slice(buffer, offset, refCount * 4).asIntBuffer();
+        offset += refCount * 4;
+        mRefNames = slice(buffer, offset, refCount * 4).asIntBuffer();
+        offset += refCount * 4;
+        mRefTypes = slice(buffer, offset, refCount);
+        offset += refCount;
+
+        // The name and class tables are small, decode them eagerly so lookups stay cheap.
+        final Charset utf8 = Charset.forName("UTF-8");
+        mNames = new String[nameCount];
+        for (int i = 0; i < nameCount; ++i) {
+            final int nameLength = buffer.getInt(offset);
+            mNames[i] = readString(buffer, offset + 4, nameLength, utf8);
+            offset += 4 + nameLength;
+        }
+        mThreadNames = new HashMap<>(threadCount);
+        for (int i = 0; i < threadCount; ++i) {
+            mThreadNames.put(buffer.getInt(offset), mNames[buffer.getInt(offset + 4)]);
+            offset += 8;
+        }
+        mDestroyedActivities = new LinkedHashMap<>(keyCount);
+        for (int i = 0; i < keyCount; ++i) {
+            mDestroyedActivities.put(mNames[buffer.getInt(offset)], buffer.getInt(offset + 4));
+            offset += 8;
+        }
+        mClassObjectIndexes = new int[classCount];
+        mSuperClasses = new int[classCount];
+        mClassNames = new String[classCount];
+        for (int i = 0; i < classCount; ++i) {
+            mClassObjectIndexes[i] = buffer.getInt(offset);
+            mSuperClasses[i] = buffer.getInt(offset + 4);
+            final int nameLength = buffer.getInt(offset + 8);
+            mClassNames[i] = readString(buffer, offset + 12, nameLength, utf8);
+            offset += 12 + nameLength;
+        }
+        mFieldStarts = readInts(buffer, offset, classCount + 1);
+        offset += (classCount + 1) * 4;
+        mFieldNames = readInts(buffer, offset, fieldCount);
+        offset += fieldCount * 4;
+        mFieldTypes = readBytes(buffer, offset, fieldCount);
+        offset += fieldCount;
+        mStaticStarts = readInts(buffer, offset, classCount + 1);
+        offset += (classCount + 1) * 4;
+        mStaticNames = readInts(buffer, offset, staticCount);
+        offset += staticCount * 4;
+        mStaticTypes = readBytes(buffer, offset, staticCount);
+        offset += staticCount;
+        mStaticValues = new long[staticCount];
+        for (int i = 0; i < staticCount; ++i) {
+            mStaticValues[i] = buffer.getLong(offset);
+            offset += 8;
+        }
+    }
+
+    private static int[] readInts(ByteBuffer buffer, int offset, int count) {
+        final int[] result = new int[count];
+        for (int i = 0; i < count; ++i) {
+            result[i] = buffer.getInt(offset + i * 4);
+        }
+        return result;
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer, int offset, int count) {
+        final byte[] result = new byte[count];
+        final ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.get(result);
+        return result;
+    }
+
+    private static String readString(ByteBuffer buffer, int offset, int length, Charset charset) {
+        final byte[] bytes = new byte[length];
+        final ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.get(bytes);
+        return new String(bytes, charset);
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        final ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice();
+    }
+
+    public File getHprofFile() {
+        return mHprofFile;
+    }
+
+    public long getHprofLength() {
+        return mHprofLength;
+    }
+
+    public long getHprofLastModified() {
+        return mHprofLastModified;
+    }
+
+    public String getHprofDigest() {
+        return mHprofDigest;
+    }
+
+    public int getObjectCount() {
+        return mObjectCount;
+    }
+
+    public int getClassCount() {
+        return mClassNames.length;
+    }
+
+    /**
+     * Size of object ids in the hprof file, which is also the size of an object field or array entry.
+     */
+    public int getIdSize() {
+        return mIdSize;
+    }
+
+    /**
+     * @return index of the object with the hprof id, or {@link #NO_OBJECT}.
+     */
+    public int indexOf(long id) {
+        int low = 0;
+        int high = mObjectCount - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final long midId = mIds.get(mid);
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return NO_OBJECT;
+    }
+
+    public long getId(int index) {
+        return mIds.get(index);
+    }
+
+    public byte getKind(int index) {
+        return mKinds.get(index);
+    }
+
+    /**
+     * @return {@link #FLAG_PRIMITIVE_OR_WRAPPER} and {@link #FLAG_STRING} bits of the object.
+     */
+    public byte getFlags(int index) {
+        return mFlags.get(index);
+    }
+
+    /**
+     * Class of an instance or array, or the class itself for class objects.
+     */
+    public String getClassName(int index) {
+        final int classIndex = mClassIndexes.get(index);
+        return (classIndex >= 0 ? mClassNames[classIndex] : null);
+    }
+
+    /**
+     * Names of the class returned by {@link #getClassName(int)} and of its super classes, nearest first.
+     */
+    public List<String> getClassHierarchy(int index) {
+        final List<String> result = new ArrayList<>();
+        int classIndex = mClassIndexes.get(index);
+        while (classIndex >= 0 && result.size() <= mClassNames.length) {
+            result.add(mClassNames[classIndex]);
+            classIndex = mSuperClasses[classIndex];
+        }
+        return result;
+    }
+
+    /**
+     * Offset of the field or element values in the hprof file, -1 for class objects.
+     */
+    public long getValuesOffset(int index) {
+        return mValuesOffsets.get(index);
+    }
+
+    public int getShallowSize(int index) {
+        return mShallowSizes.get(index);
+    }
+
+    public long getRetainedSize(int index) {
+        return mRetainedSizes.get(index);
+    }
+
+    public int getDistanceToGcRoot(int index) {
+        return mDistances.get(index);
+    }
+
+    public int getNextInstanceToGcRoot(int index) {
+        return mNextToGcRoot.get(index);
+    }
+
+    /**
+     * @return the immediate dominator, {@link #DOMINATOR_ROOT} or {@link #NO_OBJECT} if unreachable.
+     */
+    public int getImmediateDominator(int index) {
+        return mDominators.get(index);
+    }
+
+    public int[] getReferences(int index) {
+        return copyRange(mOutStarts, mOutEdges, index);
+    }
+
+    public int[] getReferrers(int index) {
+        return copyRange(mInStarts, mInEdges, index);
+    }
+
+    private static int[] copyRange(IntBuffer starts, IntBuffer edges, int index) {
+        final int start = starts.get(index);
+        final int[] result = new int[starts.get(index + 1) - start];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = edges.get(start + i);
+        }
+        return result;
+    }
+
+    public int[] getGcRoots() {
+        final int[] result = new int[mRoots.limit()];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = mRoots.get(i);
+        }
+        return result;
+    }
+
+    public int getGcRootCount() {
+        return mRoots.limit();
+    }
+
+    /**
+     * @return the object referred by the root at the position of {@link #getGcRoots()}.
+     */
+    public int getGcRoot(int root) {
+        return mRoots.get(root);
+    }
+
+    /**
+     * @return {@link #ROOT_IGNORED}, {@link #ROOT_JAVA_LOCAL} or {@link #ROOT_OTHER} for the root at the
+     * position of {@link #getGcRoots()}.
+     */
+    public byte getGcRootKind(int root) {
+        return mRootKinds.get(root);
+    }
+
+    /**
+     * @return the thread holding a java local root, or {@link #NO_OBJECT}.
+     */
+    public int getGcRootThread(int root) {
+        return mRootThreads.get(root);
+    }
+
+    /**
+     * @return the thread name, or null if the object is not a thread or its name could not be read.
+     */
+    public String getThreadName(int index) {
+        return mThreadNames.get(index);
+    }
+
+    /**
+     * Labelled references of the object are numbered from this position up to, but not including,
+     * {@link #getFieldReferenceEnd(int)}.
+     */
+    public int getFieldReferenceStart(int index) {
+        return mRefStarts.get(index);
+    }
+
+    public int getFieldReferenceEnd(int index) {
+        return mRefStarts.get(index + 1);
+    }
+
+    public int getFieldReferenceTarget(int ref) {
+        return mRefTargets.get(ref);
+    }
+
+    /**
+     * @return {@link #REF_INSTANCE_FIELD}, {@link #REF_STATIC_FIELD} or {@link #REF_ARRAY_ENTRY}.
+     */
+    public byte getFieldReferenceType(int ref) {
+        return mRefTypes.get(ref);
+    }
+
+    /**
+     * Field name of the reference, or the element position like <code>[3]</code> for array entries.
+     */
+    public String getFieldReferenceName(int ref) {
+        final int name = mRefNames.get(ref);
+        return (mRefTypes.get(ref) == REF_ARRAY_ENTRY ? "[" + name + "]" : mNames[name]);
+    }
+
+    /**
+     * Static fields of the class returned by {@link #getClassName(int)}, not of its super classes.
+     */
+    public List<FieldValue> getStaticFieldValues(int index) {
+        final List<FieldValue> result = new ArrayList<>();
+        final int classIndex = mClassIndexes.get(index);
+        if (classIndex < 0) {
+            return result;
+        }
+        for (int i = mStaticStarts[classIndex]; i < mStaticStarts[classIndex + 1]; ++i) {
+            final Type type = Type.getType(mStaticTypes[i]);
+            final long bits = mStaticValues[i];
+            final Object value;
+            switch (type) {
+                case OBJECT:
+                    value = (bits != NO_OBJECT ? Integer.valueOf((int) bits) : null);
+                    break;
+                case BOOLEAN:
+                    value = (bits != 0);
+                    break;
+                case CHAR:
+                    value = (char) bits;
+                    break;
+                case FLOAT:
+                    value = Float.intBitsToFloat((int) bits);
+                    break;
+                case DOUBLE:
+                    value = Double.longBitsToDouble(bits);
+                    break;
+                case BYTE:
+                    value = (byte) bits;
+                    break;
+                case SHORT:
+                    value = (short) bits;
+                    break;
+                case INT:
+                    value = (int) bits;
+                    break;
+                default:
+                    value = bits;
+                    break;
+            }
+            result.add(new FieldValue(mNames[mStaticNames[i]], type, value));
+        }
+        return result;
+    }
+
+    /**
+     * Reads the instance fields of the class instance from the hprof file, the fields its class declares
+     * first and then those of its super classes, in hprof order.
+     */
+    public List<FieldValue> readInstanceFieldValues(int index) throws IOException {
+        final List<FieldValue> result = new ArrayList<>();
+        final long valuesOffset = mValuesOffsets.get(index);
+        if (mKinds.get(index) != KIND_INSTANCE || valuesOffset < 0) {
+            return result;
+        }
+        final List<Integer> fields = new ArrayList<>();
+        int valuesLength = 0;
+        int classIndex = mClassIndexes.get(index);
+        for (int depth = 0; classIndex >= 0 && depth <= mClassNames.length; ++depth) {
+            for (int i = mFieldStarts[classIndex]; i < mFieldStarts[classIndex + 1]; ++i) {
+                fields.add(i);
+                valuesLength += getTypeSize(Type.getType(mFieldTypes[i]));
+            }
+            classIndex = mSuperClasses[classIndex];
+        }
+
+        final DataInputStream in = readHprof(valuesOffset, valuesLength);
+        for (int field : fields) {
+            final Type type = Type.getType(mFieldTypes[field]);
+            final Object value;
+            switch (type) {
+                case OBJECT:
+                    final int object = indexOf(readId(in));
+                    value = (object != NO_OBJECT ? Integer.valueOf(object) : null);
+                    break;
+                case BOOLEAN:
+                    value = in.readByte() != 0;
+                    break;
+                case CHAR:
+                    value = in.readChar();
+                    break;
+                case FLOAT:
+                    value = in.readFloat();
+                    break;
+                case DOUBLE:
+                    value = in.readDouble();
+                    break;
+                case BYTE:
+                    value = in.readByte();
+                    break;
+                case SHORT:
+                    value = in.readShort();
+                    break;
+                case INT:
+                    value = in.readInt();
+                    break;
+                default:
+                    value = in.readLong();
+                    break;
+            }
+            result.add(new FieldValue(mNames[mFieldNames[field]], type, value));
+        }
+        return result;
+    }
+
+    /**
+     * Reads the entries of the object array from the hprof file.
+     *
+     * @return index of the object each entry refers, or {@link #NO_OBJECT}.
+     */
+    public int[] readArrayEntries(int index) throws IOException {
+        final long valuesOffset = mValuesOffsets.get(index);
+        if (mKinds.get(index) != KIND_ARRAY || valuesOffset < 0) {
+            return new int[0];
+        }
+        final int[] result = new int[mShallowSizes.get(index) / mIdSize];
+        final DataInputStream in = readHprof(valuesOffset, result.length * mIdSize);
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = indexOf(readId(in));
+        }
+        return result;
+    }
+
+    private DataInputStream readHprof(long offset, int length) throws IOException {
+        final byte[] bytes = new byte[length];
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(mHprofFile, "r");
+            raf.seek(offset);
+            raf.readFully(bytes);
+        } finally {
+            StreamUtil.closeQuietly(raf);
+        }
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+
+    /**
+     * Size of a field or array entry of the type in the hprof file.
+     */
+    public int getTypeSize(Type type) {
+        return (type == Type.OBJECT ? mIdSize : type.getSize());
+    }
+
+    private long readId(DataInputStream in) throws IOException {
+        // Read signed like haha does, which is how the ids in the index were read.
+        switch (mIdSize) {
+            case 1:
+                return in.readByte();
+            case 2:
+                return in.readShort();
+            case 4:
+                return in.readInt();
+            default:
+                return in.readLong();
+        }
+    }
+
+    /**
+     * Keys of the destroyed activity infos found in the hprof, in heap order, mapped to the activity
+     * their weak reference still holds or {@link #NO_OBJECT} if it was cleared. Empty if the keys could
+     * not be read.
+     */
+    public Map<String, Integer> getDestroyedActivities() {
+        return Collections.unmodifiableMap(mDestroyedActivities);
+    }
+
+    /**
+     * Instances (not subclasses) of the class, found without touching the hprof.
+     */
+    public List<Integer> findInstances(String className) {
+        final List<Integer> result = new ArrayList<>();
+        int targetClass = -1;
+        for (int i = 0; i < mClassNames.length; ++i) {
+            if (mClassNames[i].equals(className)) {
+                targetClass = i;
+                break;
+            }
+        }
+        if (targetClass < 0) {
+            return result;
+        }
+        for (int i = 0; i < mObjectCount; ++i) {
+            if (mClassIndexes.get(i) == targetClass && mKinds.get(i) != KIND_CLASS) {
+                result.add(i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Shortest hard reference path from the object to a gc root, the object itself first.
+     */
+    public int[] getPathToGcRoot(int index) {
+        if (mDistances.get(index) == Integer.MAX_VALUE) {
+            return new int[0];
+        }
+        final List<Integer> path = new ArrayList<>();
+        int current = index;
+        while (current != NO_OBJECT && path.size() <= mObjectCount) {
+            path.add(current);
+            current = mNextToGcRoot.get(current);
+        }
+        final int[] result = new int[path.size()];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = path.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Sums up retained sizes of the top level dominators per class name, which answers "what holds
+     * the memory" without walking the graph.
+     */
+    public Map<String, Long> getRetainedSizeByClass() {
+        final long[] sizes = new long[mClassNames.length];
+        for (int i = 0; i < mObjectCount; ++i) {
+            final int classIndex = mClassIndexes.get(i);
+            if (classIndex >= 0 && mDominators.get(i) == DOMINATOR_ROOT) {
+                sizes[classIndex] += mRetainedSizes.get(i);
+            }
+        }
+        final Map<String, Long> result = new HashMap<>();
+        for (int i = 0; i < sizes.length; ++i) {
+            if (sizes[i] > 0) {
+                result.put(mClassNames[i], sizes[i]);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.resource.analyzer.utils;
+
+import com.squareup.haha.perflib.Type;
+import com.tencent.matrix.resource.analyzer.model.ExcludedRefs;
+import com.tencent.matrix.resource.analyzer.model.Exclusion;
+import com.tencent.matrix.resource.analyzer.model.HprofIndex;
+import com.tencent.matrix.resource.analyzer.model.ReferenceChain;
+import com.tencent.matrix.resource.analyzer.model.ReferenceTraceElement;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.tencent.matrix.resource.analyzer.model.ReferenceTraceElement.Holder.ARRAY;
+import static com.tencent.matrix.resource.analyzer.model.ReferenceTraceElement.Holder.CLASS;
+import static com.tencent.matrix.resource.analyzer.model.ReferenceTraceElement.Holder.OBJECT;
+import static com.tencent.matrix.resource.analyzer.model.ReferenceTraceElement.Holder.THREAD;
+
+/**
+ * {@link ShortestPathFinder} over a {@link HprofIndex}, so a leak can be traced again without parsing
+ * the hprof. Roots and references are visited in the order the writer recorded them from the parsed
+ * snapshot, which gives the same paths and exclusions.
+ *
+ * Field descriptions of the chain are read from the hprof at the values offsets the index keeps.
+ *
+ * Not thread safe.
+ */
+public final class HprofIndexPathFinder extends ShortestPathSearch<Integer> {
+    private final HprofIndex index;
+
+    public HprofIndexPathFinder(HprofIndex index, ExcludedRefs excludedRefs) {
+        super(excludedRefs);
+        this.index = index;
+    }
+
+    public static final class Result {
+        private final HprofIndex index;
+        private final Node<Integer> referenceChainHead;
+        public final boolean excludingKnown;
+
+        Result(HprofIndex index, Node<Integer> referenceChainHead, boolean excludingKnown) {
+            this.index = index;
+            this.referenceChainHead = referenceChainHead;
+            this.excludingKnown = excludingKnown;
+        }
+
+        public ReferenceChain buildReferenceChain() throws IOException {
+            List<ReferenceTraceElement> elements = new ArrayList<>();
+            // We iterate from the leak to the GC root
+            Node<Integer> node = new Node<>(null, null, false, referenceChainHead, null, null);
+            while (node != null) {
+                ReferenceTraceElement element = buildReferenceTraceElement(node);
+                if (element != null) {
+                    elements.add(0, element);
+                }
+                node = node.parent;
+            }
+            return new ReferenceChain(elements);
+        }
+
+        private ReferenceTraceElement buildReferenceTraceElement(Node<Integer> node) throws IOException {
+            if (node.parent == null || node.parent.root || node.parent.object == null) {
+                // Ignore any root node.
+                return null;
+            }
+            final int holder = node.parent.object;
+            final String className = index.getClassName(holder);
+            ReferenceTraceElement.Holder holderType;
+            String extra = null;
+
+            final byte kind = index.getKind(holder);
+            if (kind == HprofIndex.KIND_CLASS) {
+                holderType = CLASS;
+            } else if (kind == HprofIndex.KIND_ARRAY) {
+                holderType = ARRAY;
+            } else {
+                final List<String> hierarchy = index.getClassHierarchy(holder);
+                // Same as HahaHelper.extendsThread, which only matches java.lang.Thread itself.
+                if (hierarchy.size() > 1 && Thread.class.getName().equals(className)) {
+                    holderType = THREAD;
+                    String threadName = index.getThreadName(holder);
+                    extra = "(named '" + threadName + "')";
+                } else {
+                    holderType = OBJECT;
+                    extra = describeAnonymousClass(className, hierarchy.size() > 1 ? hierarchy.get(1) : null);
+                }
+            }
+            return new ReferenceTraceElement(node.referenceName, node.referenceType, holderType,
+                    className, extra, node.exclusion, describeFields(holder));
+        }
+
+        /**
+         * Same descriptions as {@link ShortestPathFinder.Result} gives from the parsed snapshot.
+         */
+        private List<String> describeFields(int holder) throws IOException {
+            List<String> fields = new ArrayList<>();
+
+            final byte kind = index.getKind(holder);
+            if (kind == HprofIndex.KIND_ARRAY) {
+                final String className = index.getClassName(holder);
+                if (className != null && getArrayType(className) == Type.OBJECT) {
+                    final int[] entries = index.readArrayEntries(holder);
+                    for (int i = 0; i < entries.length; i++) {
+                        fields.add("[" + i + "] = " + describeObject(entries[i]));
+                    }
+                }
+                return fields;
+            }
+            for (HprofIndex.FieldValue field : index.getStaticFieldValues(holder)) {
+                fields.add("static " + field.name + " = " + describeValue(field));
+            }
+            if (kind == HprofIndex.KIND_INSTANCE) {
+                for (HprofIndex.FieldValue field : index.readInstanceFieldValues(holder)) {
+                    fields.add(field.name + " = " + describeValue(field));
+                }
+            }
+            return fields;
+        }
+
+        private String describeValue(HprofIndex.FieldValue field) {
+            if (field.type == Type.OBJECT) {
+                return describeObject(field.value != null ? (Integer) field.value : HprofIndex.NO_OBJECT);
+            }
+            return String.valueOf(field.value);
+        }
+
+        /**
+         * Same as the toString() of the haha instance.
+         */
+        private String describeObject(int object) {
+            if (object == HprofIndex.NO_OBJECT) {
+                return "null";
+            }
+            String className = index.getClassName(object);
+            final byte kind = index.getKind(object);
+            if (kind == HprofIndex.KIND_CLASS) {
+                return className.replace('/', '.');
+            }
+            final long uniqueId = index.getId(object) & (0xffffffffffffffffL >>> ((8 - index.getIdSize()) * 8));
+            if (kind == HprofIndex.KIND_ARRAY && className != null) {
+                final int length = index.getShallowSize(object) / index.getTypeSize(getArrayType(className));
+                if (className.endsWith("[]")) {
+                    className = className.substring(0, className.length() - 2);
+                }
+                return String.format("%s[%d]@%d (0x%x)", className, length, uniqueId, uniqueId);
+            }
+            return String.format("%s@%d (0x%x)", className, uniqueId, uniqueId);
+        }
+    }
+
+    /**
+     * Entry type of the array class, haha names primitive array classes after their entry type.
+     */
+    private static Type getArrayType(String arrayClassName) {
+        for (Type type : Type.values()) {
+            if (type != Type.OBJECT && Type.getClassNameOfPrimitiveArray(type).equals(arrayClassName)) {
+                return type;
+            }
+        }
+        return Type.OBJECT;
+    }
+
+    /**
+     * @param targetReferences indexes of the objects to find paths for.
+     * @return path of every reachable target, by object index.
+     */
+    public Map<Integer, Result> findPath(Collection<Integer> targetReferences) {
+        final Map<Integer, Result> results = new HashMap<>();
+        for (Map.Entry<Integer, Node<Integer>> entry : search(targetReferences).entrySet()) {
+            final Node<Integer> node = entry.getValue();
+            results.put(entry.getKey(), new Result(index, node, node.exclusion != null));
+        }
+        return results;
+    }
+
+    @Override
+    ObjectSet<Integer> newObjectSet() {
+        final BitSet set = new BitSet(index.getObjectCount());
+        return new ObjectSet<Integer>() {
+            @Override
+            public boolean contains(Integer object) {
+                return set.get(object);
+            }
+
+            @Override
+            public void add(Integer object) {
+                set.set(object);
+            }
+        };
+    }
+
+    /**
+     * Root nodes hold the position of the root in {@link HprofIndex#getGcRoots()}.
+     */
+    @Override
+    void enqueueGcRoots() {
+        final int rootCount = index.getGcRootCount();
+        for (int i = 0; i < rootCount; ++i) {
+            switch (index.getGcRootKind(i)) {
+                case HprofIndex.ROOT_JAVA_LOCAL:
+                    enqueueJavaLocalRoot(index.getThreadName(index.getGcRootThread(i)), i);
+                    break;
+                case HprofIndex.ROOT_OTHER:
+                    enqueueRoot(null, i);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    @Override
+    void visitRoot(Node<Integer> node) {
+        final int child = index.getGcRoot(node.object);
+        if (index.getGcRootKind(node.object) == HprofIndex.ROOT_JAVA_LOCAL) {
+            final int thread = index.getGcRootThread(node.object);
+            enqueueJavaLocal(node, thread != HprofIndex.NO_OBJECT ? Integer.valueOf(thread) : null, child);
+        } else {
+            enqueueReferredObject(node, child);
+        }
+    }
+
+    @Override
+    void visitObject(Node<Integer> node) {
+        final int object = node.object;
+        final int end = index.getFieldReferenceEnd(object);
+        final byte kind = index.getKind(object);
+        if (kind == HprofIndex.KIND_CLASS) {
+            Map<String, Exclusion> ignoredStaticFields =
+                    excludedRefs.staticFieldNameByClassName.get(index.getClassName(object));
+            for (int ref = index.getFieldReferenceStart(object); ref < end; ++ref) {
+                enqueueStaticField(node, ignoredStaticFields, index.getFieldReferenceName(ref),
+                        index.getFieldReferenceTarget(ref));
+            }
+        } else if (kind == HprofIndex.KIND_INSTANCE) {
+            InstanceExclusions exclusions = getInstanceExclusions(index.getClassHierarchy(object));
+            if (exclusions == null) {
+                return;
+            }
+            for (int ref = index.getFieldReferenceStart(object); ref < end; ++ref) {
+                enqueueInstanceField(node, exclusions, index.getFieldReferenceName(ref),
+                        index.getFieldReferenceTarget(ref));
+            }
+        } else {
+            for (int ref = index.getFieldReferenceStart(object); ref < end; ++ref) {
+                enqueueArrayEntry(node, index.getFieldReferenceName(ref), index.getFieldReferenceTarget(ref));
+            }
+        }
+    }
+
+    @Override
+    boolean isString(Integer object) {
+        return (index.getFlags(object) & HprofIndex.FLAG_STRING) != 0;
+    }
+
+    @Override
+    boolean isPrimitiveOrWrapper(Integer object) {
+        return (index.getFlags(object) & HprofIndex.FLAG_PRIMITIVE_OR_WRAPPER) != 0;
+    }
+}
@@ -0,0 +1,551 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.resource.analyzer.utils;
+
+import com.squareup.haha.perflib.ArrayInstance;
+import com.squareup.haha.perflib.ClassInstance;
+import com.squareup.haha.perflib.ClassObj;
+import com.squareup.haha.perflib.Field;
+import com.squareup.haha.perflib.HahaHelper;
+import com.squareup.haha.perflib.HahaSpy;
+import com.squareup.haha.perflib.Heap;
+import com.squareup.haha.perflib.Instance;
+import com.squareup.haha.perflib.RootObj;
+import com.squareup.haha.perflib.Snapshot;
+import com.squareup.haha.perflib.Type;
+import com.tencent.matrix.resource.analyzer.ActivityLeakAnalyzer;
+import com.tencent.matrix.resource.analyzer.model.HeapSnapshot;
+import com.tencent.matrix.resource.analyzer.model.HprofIndex;
+import com.tencent.matrix.resource.common.utils.DigestUtil;
+import com.tencent.matrix.resource.common.utils.StreamUtil;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import static com.squareup.haha.perflib.HahaHelper.asString;
+import static com.squareup.haha.perflib.HahaHelper.classInstanceValues;
+import static com.squareup.haha.perflib.HahaHelper.fieldValue;
+import static com.squareup.haha.perflib.HahaHelper.isPrimitiveOrWrapperArray;
+import static com.squareup.haha.perflib.HahaHelper.isPrimitiveWrapper;
+import static com.squareup.haha.perflib.HahaHelper.threadName;
+
+/**
+ * Builds the {@link HprofIndex} of a parsed heap snapshot and persists it next to the hprof file.
+ *
+ * Computing dominators is the expensive part, so this is meant to run once per uploaded dump and
+ * be reused by the following analyses of the same file.
+ */
+
+public final class HprofIndexWriter {
+
+    /**
+     * Writes the index to {@link HprofIndex#indexFileOf(File)} of the snapshot's hprof file.
+     */
+    public static File write(HeapSnapshot heapSnapshot) throws IOException {
+        final File indexFile = HprofIndex.indexFileOf(heapSnapshot.getHprofFile());
+        write(heapSnapshot, indexFile);
+        return indexFile;
+    }
+
+    /**
+     * The hprof file is hashed here, and only hashed again by {@link HprofIndex#open(File, File)} if its
+     * last modified time changes.
+     */
+    public static void write(HeapSnapshot heapSnapshot, File indexFile) throws IOException {
+        final File hprofFile = heapSnapshot.getHprofFile();
+        final String hprofDigest = DigestUtil.getMD5String(hprofFile);
+        final Snapshot snapshot = heapSnapshot.getSnapshot();
+        snapshot.computeDominators();
+
+        // Objects are addressed by their position in the id-sorted table, so lookups need no map.
+        final List<Instance> objectList = new ArrayList<>();
+        final List<ClassObj> classList = new ArrayList<>();
+        for (Heap heap : snapshot.getHeaps()) {
+            classList.addAll(heap.getClasses());
+            objectList.addAll(heap.getClasses());
+            objectList.addAll(heap.getInstances());
+        }
+        final Instance[] objects = objectList.toArray(new Instance[objectList.size()]);
+        Arrays.sort(objects, new Comparator<Instance>() {
+            @Override
+            public int compare(Instance lhs, Instance rhs) {
+                return lhs.getId() < rhs.getId() ? -1 : (lhs.getId() == rhs.getId() ? 0 : 1);
+            }
+        });
+        final int n = objects.length;
+        final long[] ids = new long[n];
+        for (int i = 0; i < n; ++i) {
+            ids[i] = objects[i].getId();
+        }
+
+        final ClassObj[] classes = classList.toArray(new ClassObj[classList.size()]);
+        Arrays.sort(classes, new Comparator<ClassObj>() {
+            @Override
+            public int compare(ClassObj lhs, ClassObj rhs) {
+                return lhs.getId() < rhs.getId() ? -1 : (lhs.getId() == rhs.getId() ? 0 : 1);
+            }
+        });
+        final long[] classIds = new long[classes.length];
+        for (int i = 0; i < classes.length; ++i) {
+            classIds[i] = classes[i].getId();
+        }
+
+        // Incoming edges come straight from haha, outgoing ones are their transposition.
+        final int[] inStarts = new int[n + 1];
+        final int[] outCounts = new int[n];
+        for (int i = 0; i < n; ++i) {
+            int count = 0;
+            for (Instance referrer : objects[i].getHardReferences()) {
+                final int referrerIndex = indexOf(ids, referrer);
+                if (referrerIndex >= 0) {
+                    ++outCounts[referrerIndex];
+                    ++count;
+                }
+            }
+            inStarts[i + 1] = inStarts[i] + count;
+        }
+        final int[] inEdges = new int[inStarts[n]];
+        final int[] outStarts = new int[n + 1];
+        for (int i = 0; i < n; ++i) {
+            outStarts[i + 1] = outStarts[i] + outCounts[i];
+        }
+        final int[] outEdges = new int[outStarts[n]];
+        final int[] outFill = Arrays.copyOf(outStarts, n);
+        for (int i = 0; i < n; ++i) {
+            int inFill = inStarts[i];
+            for (Instance referrer : objects[i].getHardReferences()) {
+                final int referrerIndex = indexOf(ids, referrer);
+                if (referrerIndex >= 0) {
+                    inEdges[inFill++] = referrerIndex;
+                    outEdges[outFill[referrerIndex]++] = i;
+                }
+            }
+        }
+
+        // Names of fields, threads and keys share one table.
+        final Map<String, Integer> names = new LinkedHashMap<>();
+
+        final Collection<RootObj> gcRoots = snapshot.getGCRoots();
+        final int[] roots = new int[gcRoots.size()];
+        final byte[] rootKinds = new byte[gcRoots.size()];
+        final int[] rootThreads = new int[gcRoots.size()];
+        final Set<Instance> threads = new LinkedHashSet<>();
+        int rootCount = 0;
+        for (RootObj root : gcRoots) {
+            final int rootIndex = indexOf(ids, root.getReferredInstance());
+            if (rootIndex >= 0) {
+                roots[rootCount] = rootIndex;
+                rootKinds[rootCount] = rootKindOf(root);
+                rootThreads[rootCount] = HprofIndex.NO_OBJECT;
+                if (rootKinds[rootCount] == HprofIndex.ROOT_JAVA_LOCAL) {
+                    final Instance thread = allocatingThreadOf(root);
+                    rootThreads[rootCount] = indexOf(ids, thread);
+                    if (rootThreads[rootCount] >= 0) {
+                        threads.add(thread);
+                    }
+                }
+                ++rootCount;
+            }
+        }
+
+        // References as ShortestPathFinder walks them, keeping the field names for the reference chain.
+        final byte[] flags = new byte[n];
+        final int[] refStarts = new int[n + 1];
+        final IntList refTargets = new IntList();
+        final IntList refNames = new IntList();
+        final IntList refTypes = new IntList();
+        for (int i = 0; i < n; ++i) {
+            final Instance object = objects[i];
+            flags[i] = flagsOf(object);
+            if (object instanceof ClassObj) {
+                for (Map.Entry<Field, Object> entry : ((ClassObj) object).getStaticFieldValues().entrySet()) {
+                    final Field field = entry.getKey();
+                    if (field.getType() == Type.OBJECT && !"$staticOverhead".equals(field.getName())) {
+                        addReference(ids, (Instance) entry.getValue(), nameIdOf(names, field.getName()),
+                                HprofIndex.REF_STATIC_FIELD, refTargets, refNames, refTypes);
+                    }
+                }
+            } else if (object instanceof ClassInstance) {
+                for (ClassInstance.FieldValue fieldValue : ((ClassInstance) object).getValues()) {
+                    final Field field = fieldValue.getField();
+                    if (field.getType() == Type.OBJECT) {
+                        addReference(ids, (Instance) fieldValue.getValue(), nameIdOf(names, field.getName()),
+                                HprofIndex.REF_INSTANCE_FIELD, refTargets, refNames, refTypes);
+                    }
+                }
+                if (object.getClassObj() != null
+                        && Thread.class.getName().equals(object.getClassObj().getClassName())) {
+                    threads.add(object);
+                }
+            } else if (object instanceof ArrayInstance && ((ArrayInstance) object).getArrayType() == Type.OBJECT) {
+                final Object[] values = ((ArrayInstance) object).getValues();
+                for (int j = 0; j < values.length; ++j) {
+                    addReference(ids, (Instance) values[j], j,
+                            HprofIndex.REF_ARRAY_ENTRY, refTargets, refNames, refTypes);
+                }
+            }
+            refStarts[i + 1] = refTargets.size();
+        }
+
+        final IntList threadEntries = new IntList();
+        for (Instance thread : threads) {
+            final String threadName = threadNameOf(thread);
+            if (threadName != null) {
+                threadEntries.add(indexOf(ids, thread));
+                threadEntries.add(nameIdOf(names, threadName));
+            }
+        }
+
+        final IntList keyEntries = new IntList();
+        for (Map.Entry<String, Instance> entry : findDestroyedActivities(snapshot).entrySet()) {
+            keyEntries.add(nameIdOf(names, entry.getKey()));
+            keyEntries.add(indexOf(ids, entry.getValue()));
+        }
+
+        // Field layouts and static values, the instance field values stay in the hprof.
+        final int[] fieldStarts = new int[classes.length + 1];
+        final IntList fieldNames = new IntList();
+        final IntList fieldTypes = new IntList();
+        final int[] staticStarts = new int[classes.length + 1];
+        final IntList staticNames = new IntList();
+        final IntList staticTypes = new IntList();
+        final List<Long> staticValues = new ArrayList<>();
+        for (int i = 0; i < classes.length; ++i) {
+            for (Field field : classes[i].getFields()) {
+                fieldNames.add(nameIdOf(names, field.getName()));
+                fieldTypes.add(field.getType().getTypeId());
+            }
+            fieldStarts[i + 1] = fieldNames.size();
+            for (Map.Entry<Field, Object> entry : classes[i].getStaticFieldValues().entrySet()) {
+                final Field field = entry.getKey();
+                staticNames.add(nameIdOf(names, field.getName()));
+                staticTypes.add(field.getType().getTypeId());
+                staticValues.add(staticValueBitsOf(ids, field.getType(), entry.getValue()));
+            }
+            staticStarts[i + 1] = staticNames.size();
+        }
+
+        DataOutputStream dos = null;
+        CheckedOutputStream cos = null;
+        try {
+            final FileOutputStream fos = new FileOutputStream(indexFile);
+            final DataOutputStream headerOs = new DataOutputStream(fos);
+            headerOs.writeInt(HprofIndex.MAGIC);
+            headerOs.writeInt(HprofIndex.VERSION);
+            headerOs.writeLong(hprofFile.length());
+            headerOs.writeLong(hprofFile.lastModified());
+            headerOs.write(hprofDigest.getBytes(Charset.forName("US-ASCII")), 0, HprofIndex.DIGEST_LENGTH);
+            headerOs.writeInt(n);
+            headerOs.writeInt(classes.length);
+            headerOs.writeInt(outEdges.length);
+            headerOs.writeInt(inEdges.length);
+            headerOs.writeInt(rootCount);
+            headerOs.writeInt(refTargets.size());
+            headerOs.writeInt(names.size());
+            headerOs.writeInt(threadEntries.size() / 2);
+            headerOs.writeInt(keyEntries.size() / 2);
+            headerOs.writeInt(fieldNames.size());
+            headerOs.writeInt(staticNames.size());
+            headerOs.writeInt(snapshot.getTypeSize(Type.OBJECT));
+            headerOs.writeLong(0); // Body crc, patched below.
+            headerOs.flush();
+
+            cos = new CheckedOutputStream(new BufferedOutputStream(fos, 64 * 1024), new CRC32());
+            dos = new DataOutputStream(cos);
+            for (int i = 0; i < n; ++i) {
+                dos.writeLong(ids[i]);
+            }
+            for (int i = 0; i < n; ++i) {
+                dos.writeByte(kindOf(objects[i]));
+            }
+            dos.write(flags);
+            for (int i = 0; i < n; ++i) {
+                final ClassObj classObj = (objects[i] instanceof ClassObj
+                        ? (ClassObj) objects[i] : objects[i].getClassObj());
+                dos.writeInt(classObj != null ? Arrays.binarySearch(classIds, classObj.getId()) : -1);
+            }
+            for (int i = 0; i < n; ++i) {
+                dos.writeLong(valuesOffsetOf(objects[i]));
+            }
+            for (int i = 0; i < n; ++i) {
+                dos.writeInt(objects[i].getSize());
+            }
+            for (int i = 0; i < n; ++i) {
+                dos.writeLong(objects[i].getTotalRetainedSize());
+            }
+            for (int i = 0; i < n; ++i) {
+                dos.writeInt(objects[i].getDistanceToGcRoot());
+            }
+            for (int i = 0; i < n; ++i) {
+                dos.writeInt(indexOf(ids, objects[i].getNextInstanceToGcRoot()));
+            }
+            for (int i = 0; i < n; ++i) {
+                final Instance dominator = objects[i].getImmediateDominator();
+                dos.writeInt(dominator == Snapshot.SENTINEL_ROOT ? HprofIndex.DOMINATOR_ROOT : indexOf(ids, dominator));
+            }
+            writeInts(dos, outStarts);
+            writeInts(dos, outEdges);
+            writeInts(dos, inStarts);
+            writeInts(dos, inEdges);
+            for (int i = 0; i < rootCount; ++i) {
+                dos.writeInt(roots[i]);
+            }
+            dos.write(rootKinds, 0, rootCount);
+            for (int i = 0; i < rootCount; ++i) {
+                dos.writeInt(rootThreads[i]);
+            }
+            writeInts(dos, refStarts);
+            refTargets.writeTo(dos);
+            refNames.writeTo(dos);
+            for (int i = 0; i < refTypes.size(); ++i) {
+                dos.writeByte(refTypes.get(i));
+            }
+            final Charset utf8 = Charset.forName("UTF-8");
+            for (String name : names.keySet()) {
+                final byte[] nameBytes = name.getBytes(utf8);
+                dos.writeInt(nameBytes.length);
+                dos.write(nameBytes);
+            }
+            threadEntries.writeTo(dos);
+            keyEntries.writeTo(dos);
+            for (ClassObj classObj : classes) {
+                dos.writeInt(Arrays.binarySearch(ids, classObj.getId()));
+                final ClassObj superClassObj = classObj.getSuperClassObj();
+                dos.writeInt(superClassObj != null ? Arrays.binarySearch(classIds, superClassObj.getId()) : -1);
+                final byte[] nameBytes = classObj.getClassName().getBytes(utf8);
+                dos.writeInt(nameBytes.length);
+                dos.write(nameBytes);
+            }
+            writeInts(dos, fieldStarts);
+            fieldNames.writeTo(dos);
+            for (int i = 0; i < fieldTypes.size(); ++i) {
+                dos.writeByte(fieldTypes.get(i));
+            }
+            writeInts(dos, staticStarts);
+            staticNames.writeTo(dos);
+            for (int i = 0; i < staticTypes.size(); ++i) {
+                dos.writeByte(staticTypes.get(i));
+            }
+            for (long value : staticValues) {
+                dos.writeLong(value);
+            }
+            dos.flush();
+        } finally {
+            StreamUtil.closeQuietly(dos);
+        }
+
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(indexFile, "rw");
+            raf.seek(HprofIndex.HEADER_CRC_OFFSET);
+            raf.writeLong(cos.getChecksum().getValue());
+        } finally {
+            StreamUtil.closeQuietly(raf);
+        }
+    }
+
+    private static int indexOf(long[] ids, Instance instance) {
+        if (instance == null) {
+            return HprofIndex.NO_OBJECT;
+        }
+        final int index = Arrays.binarySearch(ids, instance.getId());
+        return (index >= 0 ? index : HprofIndex.NO_OBJECT);
+    }
+
+    private static void addReference(long[] ids, Instance child, int name, byte type,
+                                     IntList targets, IntList names, IntList types) {
+        final int childIndex = indexOf(ids, child);
+        if (childIndex >= 0) {
+            targets.add(childIndex);
+            names.add(name);
+            types.add(type);
+        }
+    }
+
+    /**
+     * Static value as {@link HprofIndex#getStaticFieldValues(int)} decodes it, the object index for
+     * object fields and the raw bits of primitives.
+     */
+    private static long staticValueBitsOf(long[] ids, Type type, Object value) {
+        if (type == Type.OBJECT) {
+            return (value instanceof Instance ? indexOf(ids, (Instance) value) : HprofIndex.NO_OBJECT);
+        } else if (value instanceof Boolean) {
+            return ((Boolean) value ? 1 : 0);
+        } else if (value instanceof Character) {
+            return (Character) value;
+        } else if (value instanceof Float) {
+            return Float.floatToRawIntBits((Float) value);
+        } else if (value instanceof Double) {
+            return Double.doubleToRawLongBits((Double) value);
+        } else if (value instanceof Number) {
+            return ((Number) value).longValue();
+        } else {
+            return 0;
+        }
+    }
+
+    private static int nameIdOf(Map<String, Integer> names, String name) {
+        Integer id = names.get(name);
+        if (id == null) {
+            id = names.size();
+            names.put(name, id);
+        }
+        return id;
+    }
+
+    private static byte flagsOf(Instance instance) {
+        byte flags = 0;
+        if (isPrimitiveOrWrapperArray(instance) || isPrimitiveWrapper(instance)) {
+            flags |= HprofIndex.FLAG_PRIMITIVE_OR_WRAPPER;
+        }
+        if (instance.getClassObj() != null && String.class.getName().equals(instance.getClassObj().getClassName())) {
+            flags |= HprofIndex.FLAG_STRING;
+        }
+        return flags;
+    }
+
+    private static byte rootKindOf(RootObj root) {
+        switch (root.getRootType()) {
+            case JAVA_LOCAL:
+                return HprofIndex.ROOT_JAVA_LOCAL;
+            case INTERNED_STRING:
+            case DEBUGGER:
+            case INVALID_TYPE:
+            case UNREACHABLE:
+            case UNKNOWN:
+            case FINALIZING:
+                return HprofIndex.ROOT_IGNORED;
+            default:
+                return HprofIndex.ROOT_OTHER;
+        }
+    }
+
+    private static Instance allocatingThreadOf(RootObj root) {
+        try {
+            return HahaSpy.allocatingThread(root);
+        } catch (Throwable thr) {
+            return null;
+        }
+    }
+
+    private static String threadNameOf(Instance thread) {
+        try {
+            return threadName(thread);
+        } catch (Throwable thr) {
+            return null;
+        }
+    }
+
+    /**
+     * Same lookup as {@link com.tencent.matrix.resource.analyzer.BatchActivityLeakAnalyzer}, so leaks can be
+     * analyzed from the index. Infos without a readable key are skipped, and no key is recorded if the
+     * infos themselves can not be read.
+     */
+    private static Map<String, Instance> findDestroyedActivities(Snapshot snapshot) {
+        final Map<String, Instance> result = new LinkedHashMap<>();
+        final ClassObj infoClass = snapshot.findClass(ActivityLeakAnalyzer.DESTROYED_ACTIVITY_INFO_CLASSNAME);
+        if (infoClass == null) {
+            return result;
+        }
+        try {
+            for (Instance infoInstance : infoClass.getInstancesList()) {
+                final List<ClassInstance.FieldValue> values = classInstanceValues(infoInstance);
+                final String key = asString(fieldValue(values, ActivityLeakAnalyzer.ACTIVITY_REFERENCE_KEY_FIELDNAME));
+                final Instance weakRefObj = fieldValue(values, ActivityLeakAnalyzer.ACTIVITY_REFERENCE_FIELDNAME);
+                if (key == null || weakRefObj == null) {
+                    continue;
+                }
+                result.put(key, (Instance) fieldValue(classInstanceValues(weakRefObj), "referent"));
+            }
+        } catch (Throwable thr) {
+            result.clear();
+        }
+        return result;
+    }
+
+    private static byte kindOf(Instance instance) {
+        if (instance instanceof ClassObj) {
+            return HprofIndex.KIND_CLASS;
+        } else if (instance instanceof ArrayInstance) {
+            return HprofIndex.KIND_ARRAY;
+        } else {
+            return HprofIndex.KIND_INSTANCE;
+        }
+    }
+
+    private static long valuesOffsetOf(Instance instance) {
+        if (instance instanceof ArrayInstance) {
+            return HahaHelper.getArrayInstanceValuesOffset((ArrayInstance) instance);
+        } else if (instance instanceof ClassInstance) {
+            return HahaHelper.getClassInstanceValuesOffset((ClassInstance) instance);
+        } else {
+            return -1;
+        }
+    }
+
+    private static void writeInts(DataOutputStream dos, int[] values) throws IOException {
+        for (int value : values) {
+            dos.writeInt(value);
+        }
+    }
+
+    private static final class IntList {
+        private int[] mValues = new int[1024];
+        private int mSize = 0;
+
+        void add(int value) {
+            if (mSize == mValues.length) {
+                mValues = Arrays.copyOf(mValues, mSize * 2);
+            }
+            mValues[mSize++] = value;
+        }
+
+        int get(int position) {
+            return mValues[position];
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        void writeTo(DataOutputStream dos) throws IOException {
+            for (int i = 0; i < mSize; ++i) {
+                dos.writeInt(mValues[i]);
+            }
+        }
+    }
+
+    private HprofIndexWriter() {
+        throw new UnsupportedOperationException();
+    }
+}
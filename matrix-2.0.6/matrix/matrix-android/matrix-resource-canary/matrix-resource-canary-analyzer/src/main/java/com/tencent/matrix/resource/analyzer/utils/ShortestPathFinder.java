@@ -35,11 +35,8 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
 
 import static com.squareup.haha.perflib.HahaHelper.extendsThread;
@@ -51,10 +48,6 @@ import static com.tencent.matrix.resource.analyzer.model.ReferenceTraceElement.H
 import static com.tencent.matrix.resource.analyzer.model.ReferenceTraceElement.Holder.CLASS;
 import static com.tencent.matrix.resource.analyzer.model.ReferenceTraceElement.Holder.OBJECT;
 import static com.tencent.matrix.resource.analyzer.model.ReferenceTraceElement.Holder.THREAD;
-import static com.tencent.matrix.resource.analyzer.model.ReferenceTraceElement.Type.ARRAY_ENTRY;
-import static com.tencent.matrix.resource.analyzer.model.ReferenceTraceElement.Type.INSTANCE_FIELD;
-import static com.tencent.matrix.resource.analyzer.model.ReferenceTraceElement.Type.LOCAL;
-import static com.tencent.matrix.resource.analyzer.model.ReferenceTraceElement.Type.STATIC_FIELD;
 
 /**
  * This class is ported from LeakCanary.
@@ -63,30 +56,16 @@ import static com.tencent.matrix.resource.analyzer.model.ReferenceTraceElement.T
  *
  * Finds the shortest path from a reference to a gc root, ignoring excluded
  * refs first and then including the ones that are not "always ignorable" as needed if no path is
- * found.
+ * found. The search itself is {@link ShortestPathSearch}, this class reads the parsed snapshot for it.
  */
-public final class ShortestPathFinder {
-    private static final String ANONYMOUS_CLASS_NAME_PATTERN = "^.+\\$\\d+$";
-
-    //可忽略的引用链
-    private final ExcludedRefs excludedRefs;
-    private final Queue<ReferenceNode> toVisitQueue;
-    private final Queue<ReferenceNode> toVisitIfNoPathQueue;
-    private final Set<Instance> toVisitSet;
-    private final Set<Instance> toVisitIfNoPathSet;
-    private final Set<Instance> visitedSet;
-    private boolean canIgnoreStrings;
+public final class ShortestPathFinder extends ShortestPathSearch<Instance> {
+    private Snapshot snapshot;
 
     /**
      * @param excludedRefs 可忽略的引用链
      */
     public ShortestPathFinder(ExcludedRefs excludedRefs) {
-        this.excludedRefs = excludedRefs;
-        toVisitQueue = new LinkedList<>();
-        toVisitIfNoPathQueue = new LinkedList<>();
-        toVisitSet = new HashSet<>();
-        toVisitIfNoPathSet = new HashSet<>();
-        visitedSet = new HashSet<>();
+        super(excludedRefs);
     }
 
     public static final class Result {
@@ -145,32 +124,11 @@ public final class ShortestPathFinder {
                     holderType = THREAD;
                     String threadName = threadName(holder);
                     extra = "(named '" + threadName + "')";
-                } else if (className.matches(ANONYMOUS_CLASS_NAME_PATTERN)) {
-                    String parentClassName = classObj.getSuperClassObj().getClassName();
-                    if (Object.class.getName().equals(parentClassName)) {
-                        holderType = OBJECT;
-                        try {
-                            // This is an anonymous class implementing an interface. The API does not give access
-                            // to the interfaces implemented by the class. We check if it's in the class path and
-                            // use that instead.
-                            Class<?> actualClass = Class.forName(classObj.getClassName());
-                            Class<?>[] interfaces = actualClass.getInterfaces();
-                            if (interfaces.length > 0) {
-                                Class<?> implementedInterface = interfaces[0];
-                                extra = "(anonymous implementation of " + implementedInterface.getName() + ")";
-                            } else {
-                                extra = "(anonymous subclass of java.lang.Object)";
-                            }
-                        } catch (ClassNotFoundException ignored) {
-                            // Ignored.
-                        }
-                    } else {
-                        holderType = OBJECT;
-                        // Makes it easier to figure out which anonymous class we're looking at.
-                        extra = "(anonymous subclass of " + parentClassName + ")";
-                    }
                 } else {
                     holderType = OBJECT;
+                    ClassObj superClassObj = classObj.getSuperClassObj();
+                    extra = describeAnonymousClass(className,
+                            superClassObj != null ? superClassObj.getClassName() : null);
                 }
             }
             return new ReferenceTraceElement(referenceName, type, holderType,
@@ -252,96 +210,59 @@ public final class ShortestPathFinder {
      */
     public Map<Instance, Result> findPath(Snapshot snapshot, Collection<Instance> targetReferences) {
         final Map<Instance, Result> results = new HashMap<>();
-
-        if (targetReferences.isEmpty()) {
-            return results;
-        }
-
-        //重置状态
-        clearState();
-        //将gcroot 添加到 引用链集合中
-        enqueueGcRoots(snapshot);
-
-        //是否可以忽略String，一般都是可以忽略的
-        canIgnoreStrings = true;
-        for (Instance targetReference : targetReferences) {
-            //如果泄漏点是String 则不忽略String类型 ，一般泄漏点都不是String
-            if (isString(targetReference)) {
-                canIgnoreStrings = false;
-                break;
+        this.snapshot = snapshot;
+        try {
+            //从所有 gcroot 开始广度优先查找，找到的每个泄漏点都保存了整个引用链
+            for (Map.Entry<Instance, Node<Instance>> entry : search(targetReferences).entrySet()) {
+                final Node<Instance> node = entry.getValue();
+                results.put(entry.getKey(), new Result(toReferenceNode(node), node.exclusion != null));
             }
+        } finally {
+            this.snapshot = null;
         }
+        return results;
+    }
 
-        final Set<Instance> targetRefSet = new HashSet<>(targetReferences);
-
-        while (!toVisitQueue.isEmpty() || !toVisitIfNoPathQueue.isEmpty()) {
-            ReferenceNode node;
-            //拿到一个引用，第一次取的话就是GCRoot
-            if (!toVisitQueue.isEmpty()) {
-                //从队列头取出一个
-                node = toVisitQueue.poll();
-            } else {
-                node = toVisitIfNoPathQueue.poll();
-                if (node.exclusion == null) {
-                    throw new IllegalStateException("Expected node to have an exclusion " + node);
-                }
-            }
-
-            // Termination
-            // 引用链已经触及到 泄漏点了，可以终止了
-            if (targetRefSet.contains(node.instance)) {
-                //找到了 泄漏点，这个已经保存了整个引用链了
-                results.put(node.instance, new Result(node, node.exclusion != null));
-                //删除泄漏点
-                targetRefSet.remove(node.instance);
-                if (targetRefSet.isEmpty()) {
-                    break;
-                }
-            }
+    private static ReferenceNode toReferenceNode(Node<Instance> node) {
+        final List<Node<Instance>> nodes = new ArrayList<>();
+        for (Node<Instance> current = node; current != null; current = current.parent) {
+            nodes.add(current);
+        }
+        ReferenceNode result = null;
+        for (int i = nodes.size() - 1; i >= 0; --i) {
+            final Node<Instance> current = nodes.get(i);
+            result = new ReferenceNode(current.exclusion, current.object, result,
+                    current.referenceName, current.referenceType);
+        }
+        return result;
+    }
 
-            //避免重复记录
-            if (checkSeen(node)) {
-                continue;
+    @Override
+    ObjectSet<Instance> newObjectSet() {
+        final Set<Instance> set = new HashSet<>();
+        return new ObjectSet<Instance>() {
+            @Override
+            public boolean contains(Instance object) {
+                return set.contains(object);
             }
 
-
-            if (node.instance instanceof RootObj) {//处理 gcRoot
-                visitRootObj(node);
-            } else if (node.instance instanceof ClassObj) {//处理字节码对象
-                visitClassObj(node);
-            } else if (node.instance instanceof ClassInstance) {//处理类实例对象
-                visitClassInstance(node);
-            } else if (node.instance instanceof ArrayInstance) {//处理数组对象
-                visitArrayInstance(node);
-            } else {
-                throw new IllegalStateException("Unexpected type for " + node.instance);
+            @Override
+            public void add(Instance object) {
+                set.add(object);
             }
-        }
-        return results;
-    }
-
-    private void clearState() {
-        toVisitQueue.clear();
-        toVisitIfNoPathQueue.clear();
-        toVisitSet.clear();
-        toVisitIfNoPathSet.clear();
-        visitedSet.clear();
+        };
     }
 
     /**
      * 将需要分析的Gc root 加入到 引用链集合中
-     * @param snapshot
      */
-    private void enqueueGcRoots(Snapshot snapshot) {
+    @Override
+    void enqueueGcRoots() {
         for (RootObj rootObj : snapshot.getGCRoots()) {
             switch (rootObj.getRootType()) {
                 case JAVA_LOCAL:
                     Instance thread = HahaSpy.allocatingThread(rootObj);
-                    String threadName = threadName(thread);
-                    Exclusion params = excludedRefs.threadNames.get(threadName);
-                    if (params == null || !params.alwaysExclude) {
-                        enqueue(params, null, rootObj, null, null);
-                    }
+                    enqueueJavaLocalRoot(threadName(thread), rootObj);
                     break;
                 case INTERNED_STRING:
                 case DEBUGGER:
@@ -369,7 +290,7 @@ public final class ShortestPathFinder {
                 case NATIVE_STACK:
                 case JAVA_STATIC:
                     //上面这些 直接加入到队列
-                    enqueue(null, null, rootObj, null, null);
+                    enqueueRoot(null, rootObj);
                     break;
                 default:
                     throw new UnsupportedOperationException("Unknown root type:" + rootObj.getRootType());
@@ -377,37 +298,37 @@ public final class ShortestPathFinder {
         }
     }
 
-    private boolean checkSeen(ReferenceNode node) {
-        return !visitedSet.add(node.instance);
-    }
-
     //将 Gcroot 依赖的对象加入到引用链队列中
-    private void visitRootObj(ReferenceNode node) {
-        RootObj rootObj = (RootObj) node.instance;
-//        System.out.println("visitRootObj "+rootObj.toString());
+    @Override
+    void visitRoot(Node<Instance> node) {
+        RootObj rootObj = (RootObj) node.object;
         //获取到被gcroot 引用的 对象
         Instance child = rootObj.getReferredInstance();
 
         //如果是 java本地栈 类型则会排除一些东西，不过这都不重要，重要的是将 Gcroot 依赖的对象加入到引用链队列中
         if (rootObj.getRootType() == RootType.JAVA_LOCAL) {
-            Instance holder = HahaSpy.allocatingThread(rootObj);
-            // We switch the parent node with the thread instance that holds
-            // the local reference.
-            Exclusion exclusion = null;
-            if (node.exclusion != null) {
-                exclusion = node.exclusion;
-            }
-            ReferenceNode parent = new ReferenceNode(null, holder, null, null, null);
-            enqueue(exclusion, parent, child, "<Java Local>", LOCAL);
+            enqueueJavaLocal(node, HahaSpy.allocatingThread(rootObj), child);
         } else {
-            enqueue(null, node, child, null, null);
+            enqueueReferredObject(node, child);
+        }
+    }
+
+    @Override
+    void visitObject(Node<Instance> node) {
+        if (node.object instanceof ClassObj) {//处理字节码对象
+            visitClassObj(node);
+        } else if (node.object instanceof ClassInstance) {//处理类实例对象
+            visitClassInstance(node);
+        } else if (node.object instanceof ArrayInstance) {//处理数组对象
+            visitArrayInstance(node);
+        } else {
+            throw new IllegalStateException("Unexpected type for " + node.object);
         }
     }
 
     //将字节码文件的静态变量对象加入到引用链队列中
-    private void visitClassObj(ReferenceNode node) {
-        ClassObj classObj = (ClassObj) node.instance;
-//        System.out.println("visitClassObj "+classObj.getClassName());
+    private void visitClassObj(Node<Instance> node) {
+        ClassObj classObj = (ClassObj) node.object;
         Map<String, Exclusion> ignoredStaticFields =
                 excludedRefs.staticFieldNameByClassName.get(classObj.getClassName());
         for (Map.Entry<Field, Object> entry : classObj.getStaticFieldValues().entrySet()) {
@@ -419,124 +340,51 @@ public final class ShortestPathFinder {
             if ("$staticOverhead".equals(fieldName)) {
                 continue;
             }
-            Instance child = (Instance) entry.getValue();
-            boolean visit = true;
-            if (ignoredStaticFields != null) {
-                Exclusion params = ignoredStaticFields.get(fieldName);
-                if (params != null) {
-                    visit = false;
-                    if (!params.alwaysExclude) {
-                        enqueue(params, node, child, fieldName, STATIC_FIELD);
-                    }
-                }
-            }
-            if (visit) {
-                enqueue(null, node, child, fieldName, STATIC_FIELD);
-            }
+            enqueueStaticField(node, ignoredStaticFields, fieldName, (Instance) entry.getValue());
         }
     }
 
     //将实例对象 加入到引用链队列中
-    private void visitClassInstance(ReferenceNode node) {
-        ClassInstance classInstance = (ClassInstance) node.instance;
-//        System.out.println("visitClassInstance "+classInstance.toString());
-        Map<String, Exclusion> ignoredFields = new LinkedHashMap<>();
-        ClassObj superClassObj = classInstance.getClassObj();
-        Exclusion classExclusion = null;
-        while (superClassObj != null) {
-            Exclusion params = excludedRefs.classNames.get(superClassObj.getClassName());
-            if (params != null && (classExclusion == null || !classExclusion.alwaysExclude)) {
-                // true overrides null or false.
-                classExclusion = params;
-            }
-            Map<String, Exclusion> classIgnoredFields =
-                    excludedRefs.fieldNameByClassName.get(superClassObj.getClassName());
-            if (classIgnoredFields != null) {
-                ignoredFields.putAll(classIgnoredFields);
-            }
-            superClassObj = superClassObj.getSuperClassObj();
+    private void visitClassInstance(Node<Instance> node) {
+        ClassInstance classInstance = (ClassInstance) node.object;
+        List<String> classHierarchy = new ArrayList<>();
+        for (ClassObj superClassObj = classInstance.getClassObj(); superClassObj != null;
+             superClassObj = superClassObj.getSuperClassObj()) {
+            classHierarchy.add(superClassObj.getClassName());
         }
-
-        if (classExclusion != null && classExclusion.alwaysExclude) {
+        InstanceExclusions exclusions = getInstanceExclusions(classHierarchy);
+        if (exclusions == null) {
             return;
         }
 
         for (ClassInstance.FieldValue fieldValue : classInstance.getValues()) {
-            Exclusion fieldExclusion = classExclusion;
             Field field = fieldValue.getField();
             if (field.getType() != Type.OBJECT) {
                 continue;
             }
-            Instance child = (Instance) fieldValue.getValue();
-            String fieldName = field.getName();
-            Exclusion params = ignoredFields.get(fieldName);
-            // If we found a field exclusion and it's stronger than a class exclusion
-            if (params != null && (fieldExclusion == null || (params.alwaysExclude
-                    && !fieldExclusion.alwaysExclude))) {
-                fieldExclusion = params;
-            }
-            enqueue(fieldExclusion, node, child, fieldName, INSTANCE_FIELD);
+            enqueueInstanceField(node, exclusions, field.getName(), (Instance) fieldValue.getValue());
         }
     }
 
     //将对象数组加入到 引用链队列中
-    private void visitArrayInstance(ReferenceNode node) {
-        ArrayInstance arrayInstance = (ArrayInstance) node.instance;
-//        System.out.println("visitArrayInstance "+arrayInstance.toString());
+    private void visitArrayInstance(Node<Instance> node) {
+        ArrayInstance arrayInstance = (ArrayInstance) node.object;
         Type arrayType = arrayInstance.getArrayType();
         if (arrayType == Type.OBJECT) {
             Object[] values = arrayInstance.getValues();
             for (int i = 0; i < values.length; i++) {
-                Instance child = (Instance) values[i];
-                enqueue(null, node, child, "[" + i + "]", ARRAY_ENTRY);
+                enqueueArrayEntry(node, "[" + i + "]", (Instance) values[i]);
             }
         }
     }
 
-    /**
-     *
-     * @param exclusion
-     * @param parent
-     * @param child 子引用
-     * @param referenceName
-     * @param referenceType
-     */
-    private void enqueue(Exclusion exclusion, ReferenceNode parent, Instance child, String referenceName,
-                         ReferenceTraceElement.Type referenceType) {
-        if (child == null) {
-            return;
-        }
-        if (isPrimitiveOrWrapperArray(child) || isPrimitiveWrapper(child)) {
-            return;
-        }
-        // Whether we want to visit now or later, we should skip if this is already to visit.
-        if (toVisitSet.contains(child)) {
-            return;
-        }
-        boolean visitNow = exclusion == null;
-        if (!visitNow && toVisitIfNoPathSet.contains(child)) {
-            return;
-        }
-        if (canIgnoreStrings && isString(child)) {
-            return;
-        }
-        if (visitedSet.contains(child)) {
-            return;
-        }
-        //创建一个引用节点
-        ReferenceNode childNode = new ReferenceNode(exclusion, child, parent, referenceName, referenceType);
-        //添加到 引用链集合中
-        if (visitNow) {
-            toVisitSet.add(child);
-            //放到队列尾部
-            toVisitQueue.add(childNode);
-        } else {
-            toVisitIfNoPathSet.add(child);
-            toVisitIfNoPathQueue.add(childNode);
-        }
+    @Override
+    boolean isPrimitiveOrWrapper(Instance instance) {
+        return isPrimitiveOrWrapperArray(instance) || isPrimitiveWrapper(instance);
     }
 
-    private static boolean isString(Instance instance) {
+    @Override
+    boolean isString(Instance instance) {
         return instance.getClassObj() != null && instance.getClassObj()
                 .getClassName()
                 .equals(String.class.getName());
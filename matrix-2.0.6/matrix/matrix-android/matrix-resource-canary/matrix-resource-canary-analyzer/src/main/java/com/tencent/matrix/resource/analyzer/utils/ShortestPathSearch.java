@@ -0,0 +1,348 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.resource.analyzer.utils;
+
+import com.tencent.matrix.resource.analyzer.model.ExcludedRefs;
+import com.tencent.matrix.resource.analyzer.model.Exclusion;
+import com.tencent.matrix.resource.analyzer.model.ReferenceTraceElement;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+import static com.tencent.matrix.resource.analyzer.model.ReferenceTraceElement.Type.ARRAY_ENTRY;
+import static com.tencent.matrix.resource.analyzer.model.ReferenceTraceElement.Type.INSTANCE_FIELD;
+import static com.tencent.matrix.resource.analyzer.model.ReferenceTraceElement.Type.LOCAL;
+import static com.tencent.matrix.resource.analyzer.model.ReferenceTraceElement.Type.STATIC_FIELD;
+
+/**
+ * Breadth first search from the gc roots shared by {@link ShortestPathFinder} and
+ * {@link HprofIndexPathFinder}, which only differ in how they read the heap. Excluded refs are
+ * ignored first and the ones that are not "always ignorable" are included as needed if no path is
+ * found.
+ *
+ * Not thread safe.
+ *
+ * @param <T> an object of the heap, or a gc root for the root nodes.
+ */
+abstract class ShortestPathSearch<T> {
+    static final String ANONYMOUS_CLASS_NAME_PATTERN = "^.+\\$\\d+$";
+
+    /**
+     * A gc root when {@link #root} is true, an object reached from one otherwise.
+     */
+    static final class Node<T> {
+        final Exclusion exclusion;
+        final T object;
+        final boolean root;
+        final Node<T> parent;
+        final String referenceName;
+        final ReferenceTraceElement.Type referenceType;
+
+        Node(Exclusion exclusion, T object, boolean root, Node<T> parent, String referenceName,
+             ReferenceTraceElement.Type referenceType) {
+            this.exclusion = exclusion;
+            this.object = object;
+            this.root = root;
+            this.parent = parent;
+            this.referenceName = referenceName;
+            this.referenceType = referenceType;
+        }
+    }
+
+    interface ObjectSet<T> {
+        boolean contains(T object);
+
+        void add(T object);
+    }
+
+    /**
+     * Exclusions applying to the fields of an instance, collected over its class hierarchy.
+     */
+    static final class InstanceExclusions {
+        final Exclusion classExclusion;
+        final Map<String, Exclusion> ignoredFields;
+
+        InstanceExclusions(Exclusion classExclusion, Map<String, Exclusion> ignoredFields) {
+            this.classExclusion = classExclusion;
+            this.ignoredFields = ignoredFields;
+        }
+    }
+
+    final ExcludedRefs excludedRefs;
+    private final Queue<Node<T>> toVisitQueue;
+    private final Queue<Node<T>> toVisitIfNoPathQueue;
+    private ObjectSet<T> toVisitSet;
+    private ObjectSet<T> toVisitIfNoPathSet;
+    private ObjectSet<T> visitedSet;
+    private boolean canIgnoreStrings;
+
+    ShortestPathSearch(ExcludedRefs excludedRefs) {
+        this.excludedRefs = excludedRefs;
+        toVisitQueue = new LinkedList<>();
+        toVisitIfNoPathQueue = new LinkedList<>();
+    }
+
+    abstract ObjectSet<T> newObjectSet();
+
+    /**
+     * Adds the gc roots to start from, by {@link #enqueueRoot(Exclusion, Object)} or
+     * {@link #enqueueJavaLocalRoot(String, Object)}.
+     */
+    abstract void enqueueGcRoots();
+
+    /**
+     * Adds the object the gc root refers to, by {@link #enqueueReferredObject(Node, Object)} or
+     * {@link #enqueueJavaLocal(Node, Object, Object)}.
+     */
+    abstract void visitRoot(Node<T> node);
+
+    /**
+     * Adds the objects referred by the static fields, instance fields or entries of the object.
+     */
+    abstract void visitObject(Node<T> node);
+
+    abstract boolean isString(T object);
+
+    /**
+     * Primitive arrays, arrays of primitive wrappers and primitive wrappers, never part of a leak path.
+     */
+    abstract boolean isPrimitiveOrWrapper(T object);
+
+    /**
+     * @return the node reaching each target with the shortest path, the targets no path is found for
+     * are absent.
+     */
+    final Map<T, Node<T>> search(Collection<T> targetReferences) {
+        final Map<T, Node<T>> results = new HashMap<>();
+
+        if (targetReferences.isEmpty()) {
+            return results;
+        }
+
+        clearState();
+        enqueueGcRoots();
+
+        canIgnoreStrings = true;
+        for (T targetReference : targetReferences) {
+            if (isString(targetReference)) {
+                canIgnoreStrings = false;
+                break;
+            }
+        }
+
+        final Set<T> targetRefSet = new HashSet<>(targetReferences);
+
+        while (!toVisitQueue.isEmpty() || !toVisitIfNoPathQueue.isEmpty()) {
+            Node<T> node;
+            if (!toVisitQueue.isEmpty()) {
+                node = toVisitQueue.poll();
+            } else {
+                node = toVisitIfNoPathQueue.poll();
+                if (node.exclusion == null) {
+                    throw new IllegalStateException("Expected node to have an exclusion " + node);
+                }
+            }
+
+            // Every root is enqueued once and none of them is a target.
+            if (node.root) {
+                visitRoot(node);
+                continue;
+            }
+
+            // Termination
+            if (targetRefSet.contains(node.object)) {
+                results.put(node.object, node);
+                targetRefSet.remove(node.object);
+                if (targetRefSet.isEmpty()) {
+                    break;
+                }
+            }
+
+            if (visitedSet.contains(node.object)) {
+                continue;
+            }
+            visitedSet.add(node.object);
+
+            visitObject(node);
+        }
+        return results;
+    }
+
+    private void clearState() {
+        toVisitQueue.clear();
+        toVisitIfNoPathQueue.clear();
+        toVisitSet = newObjectSet();
+        toVisitIfNoPathSet = newObjectSet();
+        visitedSet = newObjectSet();
+    }
+
+    final void enqueueRoot(Exclusion exclusion, T root) {
+        final Node<T> node = new Node<>(exclusion, root, true, null, null, null);
+        if (exclusion == null) {
+            toVisitQueue.add(node);
+        } else {
+            toVisitIfNoPathQueue.add(node);
+        }
+    }
+
+    final void enqueueJavaLocalRoot(String threadName, T root) {
+        Exclusion params = excludedRefs.threadNames.get(threadName);
+        if (params == null || !params.alwaysExclude) {
+            enqueueRoot(params, root);
+        }
+    }
+
+    final void enqueueReferredObject(Node<T> root, T child) {
+        enqueue(null, root, child, null, null);
+    }
+
+    final void enqueueJavaLocal(Node<T> root, T thread, T child) {
+        // We switch the parent node with the thread instance that holds
+        // the local reference.
+        Node<T> parent = new Node<>(null, thread, false, null, null, null);
+        enqueue(root.exclusion, parent, child, "<Java Local>", LOCAL);
+    }
+
+    /**
+     * @param ignoredStaticFields excluded static fields of the class, or null.
+     */
+    final void enqueueStaticField(Node<T> node, Map<String, Exclusion> ignoredStaticFields, String fieldName,
+                                  T child) {
+        boolean visit = true;
+        if (ignoredStaticFields != null) {
+            Exclusion params = ignoredStaticFields.get(fieldName);
+            if (params != null) {
+                visit = false;
+                if (!params.alwaysExclude) {
+                    enqueue(params, node, child, fieldName, STATIC_FIELD);
+                }
+            }
+        }
+        if (visit) {
+            enqueue(null, node, child, fieldName, STATIC_FIELD);
+        }
+    }
+
+    /**
+     * @param classHierarchy names of the class of the instance and of its super classes, nearest first.
+     * @return null if the instance is always excluded and none of its fields should be visited.
+     */
+    final InstanceExclusions getInstanceExclusions(Iterable<String> classHierarchy) {
+        Map<String, Exclusion> ignoredFields = new LinkedHashMap<>();
+        Exclusion classExclusion = null;
+        for (String className : classHierarchy) {
+            Exclusion params = excludedRefs.classNames.get(className);
+            if (params != null && (classExclusion == null || !classExclusion.alwaysExclude)) {
+                // true overrides null or false.
+                classExclusion = params;
+            }
+            Map<String, Exclusion> classIgnoredFields = excludedRefs.fieldNameByClassName.get(className);
+            if (classIgnoredFields != null) {
+                ignoredFields.putAll(classIgnoredFields);
+            }
+        }
+
+        if (classExclusion != null && classExclusion.alwaysExclude) {
+            return null;
+        }
+        return new InstanceExclusions(classExclusion, ignoredFields);
+    }
+
+    final void enqueueInstanceField(Node<T> node, InstanceExclusions exclusions, String fieldName, T child) {
+        Exclusion fieldExclusion = exclusions.classExclusion;
+        Exclusion params = exclusions.ignoredFields.get(fieldName);
+        // If we found a field exclusion and it's stronger than a class exclusion
+        if (params != null && (fieldExclusion == null || (params.alwaysExclude
+                && !fieldExclusion.alwaysExclude))) {
+            fieldExclusion = params;
+        }
+        enqueue(fieldExclusion, node, child, fieldName, INSTANCE_FIELD);
+    }
+
+    final void enqueueArrayEntry(Node<T> node, String referenceName, T child) {
+        enqueue(null, node, child, referenceName, ARRAY_ENTRY);
+    }
+
+    private void enqueue(Exclusion exclusion, Node<T> parent, T child, String referenceName,
+                         ReferenceTraceElement.Type referenceType) {
+        if (child == null) {
+            return;
+        }
+        if (isPrimitiveOrWrapper(child)) {
+            return;
+        }
+        // Whether we want to visit now or later, we should skip if this is already to visit.
+        if (toVisitSet.contains(child)) {
+            return;
+        }
+        boolean visitNow = exclusion == null;
+        if (!visitNow && toVisitIfNoPathSet.contains(child)) {
+            return;
+        }
+        if (canIgnoreStrings && isString(child)) {
+            return;
+        }
+        if (visitedSet.contains(child)) {
+            return;
+        }
+        Node<T> childNode = new Node<>(exclusion, child, false, parent, referenceName, referenceType);
+        if (visitNow) {
+            toVisitSet.add(child);
+            toVisitQueue.add(childNode);
+        } else {
+            toVisitIfNoPathSet.add(child);
+            toVisitIfNoPathQueue.add(childNode);
+        }
+    }
+
+    /**
+     * Makes it easier to figure out which anonymous class a holder is.
+     *
+     * @param parentClassName super class of the anonymous class.
+     * @return what the class extends or implements, or null if it is not anonymous or its interface is
+     * unknown.
+     */
+    static String describeAnonymousClass(String className, String parentClassName) {
+        if (!className.matches(ANONYMOUS_CLASS_NAME_PATTERN)) {
+            return null;
+        }
+        if (Object.class.getName().equals(parentClassName)) {
+            try {
+                // This is an anonymous class implementing an interface. The API does not give access
+                // to the interfaces implemented by the class. We check if it's in the class path and
+                // use that instead.
+                Class<?> actualClass = Class.forName(className);
+                Class<?>[] interfaces = actualClass.getInterfaces();
+                if (interfaces.length > 0) {
+                    Class<?> implementedInterface = interfaces[0];
+                    return "(anonymous implementation of " + implementedInterface.getName() + ")";
+                } else {
+                    return "(anonymous subclass of java.lang.Object)";
+                }
+            } catch (ClassNotFoundException ignored) {
+                return null;
+            }
+        }
+        return "(anonymous subclass of " + parentClassName + ")";
+    }
+}
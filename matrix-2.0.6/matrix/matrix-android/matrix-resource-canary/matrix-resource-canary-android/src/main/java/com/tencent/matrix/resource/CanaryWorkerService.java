@@ -17,19 +17,21 @@
 package com.tencent.matrix.resource;
 
 import static com.tencent.matrix.resource.common.utils.StreamUtil.closeQuietly;
-import static com.tencent.matrix.resource.common.utils.StreamUtil.copyFileToStream;
 
 import android.content.Context;
 import android.content.Intent;
 import android.os.Build;
 
 import com.tencent.matrix.Matrix;
+import com.tencent.matrix.batterycanary.utils.BatteryCanaryUtil;
 import com.tencent.matrix.resource.analyzer.model.HeapDump;
+import com.tencent.matrix.resource.common.utils.ParallelZipWriter;
 import com.tencent.matrix.resource.dumper.DumpStorageManager;
 import com.tencent.matrix.resource.hproflib.HprofBufferShrinker;
 import com.tencent.matrix.util.MatrixLog;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -39,8 +41,7 @@ import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.zip.Deflater;
 
 /**
  * Created by tangyinsheng on 2017/7/11.
@@ -53,6 +54,9 @@ public class CanaryWorkerService extends MatrixJobIntentService {
     private static final String ACTION_SHRINK_HPROF = "com.tencent.matrix.resource.worker.action.SHRINK_HPROF";
     private static final String EXTRA_PARAM_HEAPDUMP = "com.tencent.matrix.resource.worker.param.HEAPDUMP";
 
+    private static final int MAX_COMPRESS_THREADS = 4;
+    private static final int HOT_BATTERY_TEMPERATURE = 400; // In tenths of a degree Celsius.
+
     /**
      * @param heapDump 内部包含了 dump下来的内存快照和 泄漏的activity 类名
      */
@@ -93,40 +97,47 @@ public class CanaryWorkerService extends MatrixJobIntentService {
         //获取 .hprof 文件 的父文件夹
         final File hprofDir = heapDump.getHprofFile().getParentFile();
         //创建裁剪后 .hprof 文件对象
-        final File shrinkedHProfFile = new File(hprofDir, getShrinkHprofName(heapDump.getHprofFile()));
+        final File shrinkedHProfFile = heapDump.isShrunk()
+                ? heapDump.getHprofFile() : new File(hprofDir, getShrinkHprofName(heapDump.getHprofFile()));
         //创建 最终上报的压缩文件对象 路径 如：dump_result_10305_20230330152524.zip
         final File zipResFile = new File(hprofDir, getResultZipName("dump_result_" + android.os.Process.myPid()));
         //获取原始 .hprof 文件
         final File hprofFile = heapDump.getHprofFile();
-        ZipOutputStream zos = null;
+        ParallelZipWriter zipWriter = null;
         try {
             long startTime = System.currentTimeMillis();
             //真正的进行裁剪，源文件是 hprofFile ，裁剪后的文件是 shrinkedHProfFile
-            new HprofBufferShrinker().shrink(hprofFile, shrinkedHProfFile);
-            MatrixLog.i(TAG, "shrink hprof file %s, size: %dk to %s, size: %dk, use time:%d",
-                    hprofFile.getPath(), hprofFile.length() / 1024, shrinkedHProfFile.getPath(), shrinkedHProfFile.length() / 1024, (System.currentTimeMillis() - startTime));
+            if (!heapDump.isShrunk()) {
+                new HprofBufferShrinker().shrink(hprofFile, shrinkedHProfFile);
+                MatrixLog.i(TAG, "shrink hprof file %s, size: %dk to %s, size: %dk, use time:%d",
+                        hprofFile.getPath(), hprofFile.length() / 1024, shrinkedHProfFile.getPath(), shrinkedHProfFile.length() / 1024, (System.currentTimeMillis() - startTime));
+            }
 
             //创建zip流
-            zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(zipResFile)));
+            final long hprofLength = shrinkedHProfFile.length();
+            final int threadCount = getCompressThreadCount();
+            final int compressLevel = getCompressLevel();
+            zipWriter = new ParallelZipWriter(new BufferedOutputStream(new FileOutputStream(zipResFile),
+                    ParallelZipWriter.getBlockSize(hprofLength, threadCount)), compressLevel, threadCount);
 
             //创建信息文件
-            final ZipEntry resultInfoEntry = new ZipEntry("result.info");
-            final ZipEntry shrinkedHProfEntry = new ZipEntry(shrinkedHProfFile.getName());
+            final String shrinkedHProfEntryName = shrinkedHProfFile.getName();
 
             //信息文件写入内容，并压缩到 压缩文件中
-            zos.putNextEntry(resultInfoEntry);
-            final PrintWriter pw = new PrintWriter(new OutputStreamWriter(zos, Charset.forName("UTF-8")));
+            final ByteArrayOutputStream resultInfo = new ByteArrayOutputStream();
+            final PrintWriter pw = new PrintWriter(new OutputStreamWriter(resultInfo, Charset.forName("UTF-8")));
             pw.println("# Resource Canary Result Infomation. THIS FILE IS IMPORTANT FOR THE ANALYZER !!");
             pw.println("sdkVersion=" + Build.VERSION.SDK_INT);
             pw.println("manufacturer=" + Matrix.with().getPluginByClass(ResourcePlugin.class).getConfig().getManufacture());
-            pw.println("hprofEntry=" + shrinkedHProfEntry.getName());
+            pw.println("hprofEntry=" + shrinkedHProfEntryName);
             pw.println("leakedActivityKey=" + heapDump.getReferenceKey());
             pw.flush();
-            zos.closeEntry();
+            zipWriter.putEntry("result.info", resultInfo.toByteArray());
 
-            zos.putNextEntry(shrinkedHProfEntry);
-            copyFileToStream(shrinkedHProfFile, zos);
-            zos.closeEntry();
+            zipWriter.putEntry(shrinkedHProfEntryName, shrinkedHProfFile);
+            zipWriter.close();
+            MatrixLog.i(TAG, "compress hprof size: %dk to %dk, level: %d, threads: %d",
+                    hprofLength / 1024, zipResFile.length() / 1024, compressLevel, threadCount);
 
             shrinkedHProfFile.delete();
             hprofFile.delete();
@@ -138,7 +149,41 @@ public class CanaryWorkerService extends MatrixJobIntentService {
         } catch (IOException e) {
             MatrixLog.printErrStackTrace(TAG, e, "");
         } finally {
-            closeQuietly(zos);
+            closeQuietly(zipWriter);
+        }
+    }
+
+    /**
+     * Deflates serially when the device is hot or saving power, otherwise uses a few cores.
+     */
+    private int getCompressThreadCount() {
+        if (isDeviceUnderPressure()) {
+            return 1;
+        }
+        return Math.max(1, Math.min(MAX_COMPRESS_THREADS, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    private int getCompressLevel() {
+        if (isDeviceUnderPressure()) {
+            return Deflater.BEST_SPEED;
+        }
+        try {
+            if (BatteryCanaryUtil.isDeviceCharging(this)) {
+                return Deflater.BEST_COMPRESSION;
+            }
+        } catch (Throwable ignored) {
+            // Battery canary is not packaged.
+        }
+        return Deflater.DEFAULT_COMPRESSION;
+    }
+
+    private boolean isDeviceUnderPressure() {
+        try {
+            return BatteryCanaryUtil.isDeviceOnPowerSave(this)
+                    || BatteryCanaryUtil.getBatteryTemperatureImmediately(this) >= HOT_BATTERY_TEMPERATURE;
+        } catch (Throwable ignored) {
+            // Battery canary is not packaged.
+            return false;
         }
     }
 
@@ -17,7 +17,9 @@
 package com.tencent.matrix.resource.analyzer.model;
 
 import android.app.Activity;
+import android.os.SystemClock;
 
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
 
 /**
@@ -35,11 +37,20 @@ public class DestroyedActivityInfo {
     public final String mActivityName;
 
     public final WeakReference<Activity> mActivityRef;
+    public final long mDestroyedUptimeMillis;
     public int mDetectedCount = 0;
 
     public DestroyedActivityInfo(String key, Activity activity, String activityName) {
+        this(key, activity, activityName, null);
+    }
+
+    /**
+     * @param refQueue queue the activity reference is enqueued to once the activity is collected, or null.
+     */
+    public DestroyedActivityInfo(String key, Activity activity, String activityName, ReferenceQueue<? super Activity> refQueue) {
         mKey = key;
         mActivityName = activityName;
-        mActivityRef = new WeakReference<>(activity);
+        mActivityRef = new WeakReference<>(activity, refQueue);
+        mDestroyedUptimeMillis = SystemClock.uptimeMillis();
     }
 }
@@ -33,12 +33,20 @@ public class HeapDump implements Serializable {
     private final File mHprofFile;
     private final String mRefKey;
     private final String mActivityName;
-
+    private final boolean mShrunk;
 
     public HeapDump(File hprofFile, String refKey, String activityName) {
+        this(hprofFile, refKey, activityName, false);
+    }
+
+    /**
+     * @param shrunk true if the hprof file was shrunk while being dumped.
+     */
+    public HeapDump(File hprofFile, String refKey, String activityName, boolean shrunk) {
         mHprofFile = Preconditions.checkNotNull(hprofFile, "hprofFile");
         mRefKey = Preconditions.checkNotNull(refKey, "refKey");
         mActivityName = Preconditions.checkNotNull(activityName, "activityName");
+        mShrunk = shrunk;
     }
 
     public File getHprofFile() {
@@ -53,4 +61,8 @@ public class HeapDump implements Serializable {
         return mActivityName;
     }
 
+    public boolean isShrunk() {
+        return mShrunk;
+    }
+
 }
@@ -49,6 +49,7 @@ public final class ResourceConfig {
     private static final long DEFAULT_DETECT_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
     private static final long DEFAULT_DETECT_INTERVAL_MILLIS_BG = TimeUnit.MINUTES.toMillis(20);
     private static final int DEFAULT_MAX_REDETECT_TIMES = 10;
+    private static final long DEFAULT_GC_QUIET_PERIOD_MILLIS = TimeUnit.SECONDS.toMillis(10);
     private static final DumpMode DEFAULT_DUMP_HPROF_MODE = DumpMode.MANUAL_DUMP;
 
     private final IDynamicConfig mDynamicConfig;
@@ -56,13 +57,15 @@ public final class ResourceConfig {
     private final boolean mDetectDebugger;
     private final String mTargetActivity;
     private final String mManufacture;
+    private final boolean mDetectByRefQueue;
 
-    private ResourceConfig(IDynamicConfig dynamicConfig, DumpMode dumpHprofMode, boolean detectDebuger, String targetActivity, String manufacture) {
+    private ResourceConfig(IDynamicConfig dynamicConfig, DumpMode dumpHprofMode, boolean detectDebuger, String targetActivity, String manufacture, boolean detectByRefQueue) {
         this.mDynamicConfig = dynamicConfig;
         this.mDumpHprofMode = dumpHprofMode;
         this.mDetectDebugger = detectDebuger;
         this.mTargetActivity = targetActivity;
         this.mManufacture = manufacture;
+        this.mDetectByRefQueue = detectByRefQueue;
     }
 
     public long getScanIntervalMillis() {
@@ -77,6 +80,18 @@ public final class ResourceConfig {
         return mDynamicConfig.get(IDynamicConfig.ExptEnum.clicfg_matrix_resource_max_detect_times.name(), DEFAULT_MAX_REDETECT_TIMES);
     }
 
+    /**
+     * In reference queue detection mode, a gc is only forced when no destroyed activity was collected
+     * by the system within this period.
+     */
+    public long getGcQuietPeriodMillis() {
+        return mDynamicConfig.get(IDynamicConfig.ExptEnum.clicfg_matrix_resource_gc_quiet_period_millis.name(), DEFAULT_GC_QUIET_PERIOD_MILLIS);
+    }
+
+    public boolean getDetectByRefQueue() {
+        return mDetectByRefQueue;
+    }
+
     public DumpMode getDumpHprofMode() {
         return mDumpHprofMode;
     }
@@ -100,6 +115,7 @@ public final class ResourceConfig {
         private String mTargetActivity;
         private boolean mDetectDebugger = false;
         private String mManufacture;
+        private boolean mDetectByRefQueue = false;
 
         public Builder dynamicConfig(IDynamicConfig dynamicConfig) {
             this.dynamicConfig = dynamicConfig;
@@ -126,8 +142,16 @@ public final class ResourceConfig {
             return this;
         }
 
+        /**
+         * Detects collected activities through a reference queue instead of forcing gc on every scan.
+         */
+        public Builder setDetectByRefQueue(boolean enabled) {
+            mDetectByRefQueue = enabled;
+            return this;
+        }
+
         public ResourceConfig build() {
-            return new ResourceConfig(dynamicConfig, mDefaultDumpHprofMode, mDetectDebugger, mTargetActivity, mManufacture);
+            return new ResourceConfig(dynamicConfig, mDefaultDumpHprofMode, mDetectDebugger, mTargetActivity, mManufacture, mDetectByRefQueue);
         }
     }
 }
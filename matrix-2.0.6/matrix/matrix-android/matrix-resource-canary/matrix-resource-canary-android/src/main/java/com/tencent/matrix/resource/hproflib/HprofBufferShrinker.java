@@ -31,15 +31,22 @@ import com.tencent.tinker.ziputils.ziputil.TinkerZipUtil;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
@@ -54,6 +61,10 @@ public class HprofBufferShrinker {
 
     private static final String PROPERTY_NAME = "extra.info";
 
+    private static final String SPILL_FILE_SUFFIX = ".spill";
+    private static final int TRAILING_SEGMENT_SIZE_LIMIT = 1024 * 1024;
+    private static final long SPILL_SIZE_LIMIT = 32 * 1024 * 1024;
+
     private final Set<ID>         mBmpBufferIds                   = new HashSet<>();
     //保存原始数组数据
     private final Map<ID, byte[]> mBufferIdToElementDataMap       = new HashMap<>();
@@ -213,6 +224,37 @@ public class HprofBufferShrinker {
         }
     }
 
+    /**
+     * Shrinks the hprof read from <code>hprofIn</code> in a single pass, so the source can be the pipe of a
+     * forked dump process and the full hprof never needs to be stored on disk.
+     *
+     * Bitmap and String bookkeeping is done while the stream is consumed. Arrays which a String or Bitmap
+     * visited later may still own are parked in a spill file next to <code>hprofOut</code>, and Bitmap instances
+     * are held back until their buffers are deduplicated. Both are appended as a trailing heap dump segment when
+     * the stream ends. Once the spill file reaches {@link #SPILL_SIZE_LIMIT}, such arrays are kept unshrunk.
+     *
+     * @param hprofIn hprof stream, which is consumed but not closed.
+     * @param hprofOut shrunk hprof file.
+     * @throws IOException
+     */
+    public void shrink(InputStream hprofIn, File hprofOut) throws IOException {
+        final File spillFile = new File(hprofOut.getPath() + SPILL_FILE_SUFFIX);
+        OutputStream os = null;
+        HprofStreamShrinkVisitor visitor = null;
+        try {
+            os = new BufferedOutputStream(new FileOutputStream(hprofOut));
+            visitor = new HprofStreamShrinkVisitor(new HprofWriter(os), spillFile);
+            new HprofReader(hprofIn instanceof BufferedInputStream ? hprofIn : new BufferedInputStream(hprofIn))
+                    .accept(visitor);
+        } finally {
+            if (visitor != null) {
+                visitor.closeSpill();
+            }
+            MatrixUtil.closeQuietly(os);
+            spillFile.delete();
+        }
+    }
+
     /**
      * 这个visiter主要是收集信息，收集 Bitmap和String对象 并记录他们的成员变量 为下面做分析做准备
      */
@@ -468,4 +510,474 @@ public class HprofBufferShrinker {
             };
         }
     }
+
+    private ID readBmpBufferId(byte[] instanceData) throws IOException {
+        if (mMBufferFieldNameStringId == null) {
+            return null;
+        }
+        ID bufferId = null;
+        Boolean isRecycled = null;
+        final ByteArrayInputStream bais = new ByteArrayInputStream(instanceData);
+        for (Field field : mBmpClassInstanceFields) {
+            final Type fieldType = Type.getType(field.typeId);
+            if (fieldType == null) {
+                throw new IllegalStateException("visit bmp instance failed, lost type def of typeId: " + field.typeId);
+            }
+            if (mMBufferFieldNameStringId.equals(field.nameId)) {
+                bufferId = (ID) IOUtil.readValue(bais, fieldType, mIdSize);
+            } else if (mMRecycledFieldNameStringId != null && mMRecycledFieldNameStringId.equals(field.nameId)) {
+                isRecycled = (Boolean) IOUtil.readValue(bais, fieldType, mIdSize);
+            } else if (bufferId == null || isRecycled == null) {
+                IOUtil.skipValue(bais, fieldType, mIdSize);
+            } else {
+                break;
+            }
+        }
+        final boolean reguardAsNotRecycledBmp = (isRecycled == null || !isRecycled);
+        if (bufferId == null || !reguardAsNotRecycledBmp || bufferId.equals(mNullBufferId)) {
+            return null;
+        }
+        return bufferId;
+    }
+
+    private ID readStringValueId(byte[] instanceData) throws IOException {
+        if (mValueFieldNameStringId == null) {
+            return null;
+        }
+        final ByteArrayInputStream bais = new ByteArrayInputStream(instanceData);
+        for (Field field : mStringClassInstanceFields) {
+            final Type fieldType = Type.getType(field.typeId);
+            if (fieldType == null) {
+                throw new IllegalStateException("visit string instance failed, lost type def of typeId: " + field.typeId);
+            }
+            if (mValueFieldNameStringId.equals(field.nameId)) {
+                final ID strValueId = (ID) IOUtil.readValue(bais, fieldType, mIdSize);
+                return (strValueId.equals(mNullBufferId) ? null : strValueId);
+            }
+            IOUtil.skipValue(bais, fieldType, mIdSize);
+        }
+        return null;
+    }
+
+    /**
+     * Replaces the mBuffer id of a Bitmap instance with the id of the buffer kept for the same content.
+     */
+    private void deduplicateBmpBufferId(byte[] instanceData) throws IOException {
+        if (mMBufferFieldNameStringId == null) {
+            return;
+        }
+        int bufferIdPos = 0;
+        final ByteArrayInputStream bais = new ByteArrayInputStream(instanceData);
+        for (Field field : mBmpClassInstanceFields) {
+            final Type fieldType = Type.getType(field.typeId);
+            if (fieldType == null) {
+                throw new IllegalStateException("visit instance failed, lost type def of typeId: " + field.typeId);
+            }
+            if (mMBufferFieldNameStringId.equals(field.nameId)) {
+                final ID bufferId = (ID) IOUtil.readValue(bais, fieldType, mIdSize);
+                final ID deduplicatedId = mBmpBufferIdToDeduplicatedIdMap.get(bufferId);
+                if (deduplicatedId != null && !bufferId.equals(deduplicatedId) && !bufferId.equals(mNullBufferId)) {
+                    final ByteBuffer bBuf = ByteBuffer.wrap(instanceData);
+                    bBuf.position(bufferIdPos);
+                    bBuf.put(deduplicatedId.getBytes());
+                }
+                return;
+            }
+            bufferIdPos += IOUtil.skipValue(bais, fieldType, mIdSize);
+        }
+    }
+
+    /**
+     * Single pass variant of the three visitors above. See {@link #shrink(InputStream, File)}.
+     */
+    private class HprofStreamShrinkVisitor extends HprofVisitor {
+        private final File mSpillFile;
+        private DataOutputStream mSpillOut = null;
+        private int mSpillCount = 0;
+        private long mSpillSize = 0;
+        // Content of the spilled arrays which may still turn out to be bitmap buffers.
+        private final Map<ID, String> mSpilledBufferMd5Map = new LinkedHashMap<>();
+
+        private final Map<String, ID> mBmpBufferContentToIdMap = new HashMap<>();
+        private final List<DeferredInstance> mDeferredBmpInstances = new ArrayList<>();
+        private final List<byte[]> mPendingStringInstanceData = new ArrayList<>();
+
+        private int mCurrHeapId = 0;
+        private ID mCurrHeapNameId = null;
+
+        private boolean mHeapDumpEndVisited = false;
+        private int mHeapDumpEndTimestamp = 0;
+
+        HprofStreamShrinkVisitor(HprofWriter hprofWriter, File spillFile) {
+            super(hprofWriter);
+            mSpillFile = spillFile;
+        }
+
+        @Override
+        public void visitHeader(String text, int idSize, long timestamp) {
+            mIdSize = idSize;
+            mNullBufferId = ID.createNullID(idSize);
+            super.visitHeader(text, idSize, timestamp);
+        }
+
+        @Override
+        public void visitStringRecord(ID id, String text, int timestamp, long length) {
+            if (mBitmapClassNameStringId == null && "android.graphics.Bitmap".equals(text)) {
+                mBitmapClassNameStringId = id;
+            } else if (mMBufferFieldNameStringId == null && "mBuffer".equals(text)) {
+                mMBufferFieldNameStringId = id;
+            } else if (mMRecycledFieldNameStringId == null && "mRecycled".equals(text)) {
+                mMRecycledFieldNameStringId = id;
+            } else if (mStringClassNameStringId == null && "java.lang.String".equals(text)) {
+                mStringClassNameStringId = id;
+            } else if (mValueFieldNameStringId == null && "value".equals(text)) {
+                mValueFieldNameStringId = id;
+            }
+            super.visitStringRecord(id, text, timestamp, length);
+        }
+
+        @Override
+        public void visitLoadClassRecord(int serialNumber, ID classObjectId, int stackTraceSerial, ID classNameStringId, int timestamp, long length) {
+            if (mBmpClassId == null && mBitmapClassNameStringId != null && mBitmapClassNameStringId.equals(classNameStringId)) {
+                mBmpClassId = classObjectId;
+            } else if (mStringClassId == null && mStringClassNameStringId != null && mStringClassNameStringId.equals(classNameStringId)) {
+                mStringClassId = classObjectId;
+            }
+            super.visitLoadClassRecord(serialNumber, classObjectId, stackTraceSerial, classNameStringId, timestamp, length);
+        }
+
+        @Override
+        public void visitUnconcernedRecord(int tag, int timestamp, long length, byte[] data) {
+            if (tag == HprofConstants.RECORD_TAG_HEAP_DUMP_END) {
+                // Emitted after the trailing segment in visitEnd.
+                mHeapDumpEndVisited = true;
+                mHeapDumpEndTimestamp = timestamp;
+                return;
+            }
+            super.visitUnconcernedRecord(tag, timestamp, length, data);
+        }
+
+        @Override
+        public HprofHeapDumpVisitor visitHeapDumpRecord(int tag, int timestamp, long length) {
+            return new HprofHeapDumpVisitor(super.visitHeapDumpRecord(tag, timestamp, length)) {
+                @Override
+                public void visitHeapDumpInfo(int heapId, ID heapNameId) {
+                    mCurrHeapId = heapId;
+                    mCurrHeapNameId = heapNameId;
+                    super.visitHeapDumpInfo(heapId, heapNameId);
+                }
+
+                @Override
+                public void visitHeapDumpClass(ID id, int stackSerialNumber, ID superClassId, ID classLoaderId, int instanceSize, Field[] staticFields, Field[] instanceFields) {
+                    try {
+                        if (mBmpClassInstanceFields == null && mBmpClassId != null && mBmpClassId.equals(id)) {
+                            mBmpClassInstanceFields = instanceFields;
+                            for (DeferredInstance bmpInstance : mDeferredBmpInstances) {
+                                collectBmpBufferId(bmpInstance.instanceData);
+                            }
+                        } else if (mStringClassInstanceFields == null && mStringClassId != null && mStringClassId.equals(id)) {
+                            mStringClassInstanceFields = instanceFields;
+                            for (byte[] instanceData : mPendingStringInstanceData) {
+                                collectStringValueId(instanceData);
+                            }
+                            mPendingStringInstanceData.clear();
+                        }
+                    } catch (Throwable thr) {
+                        throw new RuntimeException(thr);
+                    }
+                    super.visitHeapDumpClass(id, stackSerialNumber, superClassId, classLoaderId, instanceSize, staticFields, instanceFields);
+                }
+
+                @Override
+                public void visitHeapDumpInstance(ID id, int stackId, ID typeId, byte[] instanceData) {
+                    try {
+                        if (mBmpClassId != null && mBmpClassId.equals(typeId)) {
+                            // Its mBuffer may still be merged into an identical buffer read later.
+                            mDeferredBmpInstances.add(new DeferredInstance(mCurrHeapId, mCurrHeapNameId, id, stackId, typeId, instanceData));
+                            if (mBmpClassInstanceFields != null) {
+                                collectBmpBufferId(instanceData);
+                            }
+                            return;
+                        }
+                        if (mStringClassId != null && mStringClassId.equals(typeId)) {
+                            if (mStringClassInstanceFields != null) {
+                                collectStringValueId(instanceData);
+                            } else {
+                                mPendingStringInstanceData.add(instanceData);
+                            }
+                        }
+                    } catch (Throwable thr) {
+                        throw new RuntimeException(thr);
+                    }
+                    super.visitHeapDumpInstance(id, stackId, typeId, instanceData);
+                }
+
+                @Override
+                public void visitHeapDumpPrimitiveArray(int tag, ID id, int stackId, int numElements, int typeId, byte[] elements) {
+                    try {
+                        boolean spilled = true;
+                        if (mStringValueIds.contains(id)) {
+                            super.visitHeapDumpPrimitiveArray(tag, id, stackId, numElements, typeId, elements);
+                        } else if (mBmpBufferIds.contains(id)) {
+                            // Only buffers shared with a later bitmap are kept, so the first one of each content waits.
+                            if (registerBmpBuffer(id, DigestUtil.getMD5String(elements))) {
+                                spilled = spill(tag, id, stackId, numElements, typeId, elements);
+                            }
+                        } else if (mayBeBmpBuffer(typeId)) {
+                            // Owner not visited yet. Its content is hashed now so the spill file is read only once.
+                            spilled = spill(tag, id, stackId, numElements, typeId, elements);
+                            if (spilled) {
+                                mSpilledBufferMd5Map.put(id, DigestUtil.getMD5String(elements));
+                            }
+                        } else if (mayBeStringValue(typeId)) {
+                            // Owner not visited yet, it may turn out to be a string value.
+                            spilled = spill(tag, id, stackId, numElements, typeId, elements);
+                        }
+                        if (!spilled) {
+                            // The spill file is full, keep the array unshrunk rather than lose a string value
+                            // or a bitmap buffer.
+                            super.visitHeapDumpPrimitiveArray(tag, id, stackId, numElements, typeId, elements);
+                        }
+                    } catch (Throwable thr) {
+                        throw new RuntimeException(thr);
+                    }
+                }
+            };
+        }
+
+        @Override
+        public void visitEnd() {
+            try {
+                if (mSpillCount > 0 || !mDeferredBmpInstances.isEmpty()) {
+                    writeTrailingSegments();
+                }
+                if (mHeapDumpEndVisited) {
+                    super.visitUnconcernedRecord(HprofConstants.RECORD_TAG_HEAP_DUMP_END, mHeapDumpEndTimestamp, 0, new byte[0]);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            MatrixLog.i(TAG, "stream shrink done, spilled arrays: %d (%d bytes), bitmaps: %d, unique bitmap buffers: %d",
+                    mSpillCount, mSpillSize, mDeferredBmpInstances.size(), mBmpBufferContentToIdMap.size());
+            super.visitEnd();
+        }
+
+        void closeSpill() {
+            MatrixUtil.closeQuietly(mSpillOut);
+            mSpillOut = null;
+        }
+
+        private void collectBmpBufferId(byte[] instanceData) throws IOException {
+            final ID bufferId = readBmpBufferId(instanceData);
+            if (bufferId != null) {
+                mBmpBufferIds.add(bufferId);
+            }
+        }
+
+        private void collectStringValueId(byte[] instanceData) throws IOException {
+            final ID strValueId = readStringValueId(instanceData);
+            if (strValueId != null) {
+                mStringValueIds.add(strValueId);
+            }
+        }
+
+        /**
+         * Load class records precede the heap dump, so an array can only belong to the String or Bitmap class
+         * if that class is loaded and, once its class dump is visited, declares the referencing field.
+         */
+        private boolean mayBeStringValue(int typeId) {
+            if (mStringClassId == null || (typeId != Type.CHAR.getTypeId() && typeId != Type.BYTE.getTypeId())) {
+                return false;
+            }
+            return mStringClassInstanceFields == null || hasField(mStringClassInstanceFields, mValueFieldNameStringId);
+        }
+
+        private boolean mayBeBmpBuffer(int typeId) {
+            if (mBmpClassId == null || typeId != Type.BYTE.getTypeId()) {
+                return false;
+            }
+            return mBmpClassInstanceFields == null || hasField(mBmpClassInstanceFields, mMBufferFieldNameStringId);
+        }
+
+        private boolean hasField(Field[] fields, ID fieldNameId) {
+            if (fieldNameId == null) {
+                return false;
+            }
+            for (Field field : fields) {
+                if (fieldNameId.equals(field.nameId)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return true if it is the first buffer with this content, otherwise it is merged into that one.
+         */
+        private boolean registerBmpBuffer(ID bufferId, String buffMd5) {
+            final ID mergedBufferId = mBmpBufferContentToIdMap.get(buffMd5);
+            if (mergedBufferId == null) {
+                mBmpBufferContentToIdMap.put(buffMd5, bufferId);
+                return true;
+            }
+            mBmpBufferIdToDeduplicatedIdMap.put(mergedBufferId, mergedBufferId);
+            mBmpBufferIdToDeduplicatedIdMap.put(bufferId, mergedBufferId);
+            return false;
+        }
+
+        /**
+         * @return false if the spill file has reached {@link #SPILL_SIZE_LIMIT}, the array is not spilled then.
+         */
+        private boolean spill(int tag, ID id, int stackId, int numElements, int typeId, byte[] elements) throws IOException {
+            if (mSpillSize + elements.length > SPILL_SIZE_LIMIT) {
+                return false;
+            }
+            if (mSpillOut == null) {
+                mSpillOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mSpillFile)));
+            }
+            mSpillOut.writeInt(mCurrHeapId);
+            mSpillOut.write(mCurrHeapNameId != null ? mCurrHeapNameId.getBytes() : mNullBufferId.getBytes());
+            mSpillOut.writeByte(tag);
+            mSpillOut.write(id.getBytes());
+            mSpillOut.writeInt(stackId);
+            mSpillOut.writeInt(numElements);
+            mSpillOut.writeByte(typeId);
+            mSpillOut.writeInt(elements.length);
+            mSpillOut.write(elements);
+            ++mSpillCount;
+            mSpillSize += elements.length;
+            return true;
+        }
+
+        private void writeTrailingSegments() throws IOException {
+            final TrailingSegmentWriter segmentWriter = new TrailingSegmentWriter((HprofWriter) hv);
+            if (mSpillCount > 0) {
+                closeSpill();
+                // Bitmap buffers spilled before their owner was visited are registered first, so that every
+                // buffer knows whether it has a duplicate when the spill file is read.
+                for (Map.Entry<ID, String> spilledBuffer : mSpilledBufferMd5Map.entrySet()) {
+                    if (mBmpBufferIds.contains(spilledBuffer.getKey())) {
+                        registerBmpBuffer(spilledBuffer.getKey(), spilledBuffer.getValue());
+                    }
+                }
+                readSpill(segmentWriter);
+            }
+            for (DeferredInstance bmpInstance : mDeferredBmpInstances) {
+                if (mBmpClassInstanceFields != null) {
+                    deduplicateBmpBufferId(bmpInstance.instanceData);
+                }
+                segmentWriter.switchHeap(bmpInstance.heapId, bmpInstance.heapNameId);
+                segmentWriter.visitor().visitHeapDumpInstance(bmpInstance.id, bmpInstance.stackId, bmpInstance.typeId, bmpInstance.instanceData);
+                segmentWriter.grow(bmpInstance.instanceData.length);
+            }
+            segmentWriter.finish();
+        }
+
+        private void readSpill(TrailingSegmentWriter segmentWriter) throws IOException {
+            DataInputStream spillIn = null;
+            try {
+                spillIn = new DataInputStream(new BufferedInputStream(new FileInputStream(mSpillFile)));
+                for (int i = 0; i < mSpillCount; ++i) {
+                    final int heapId = spillIn.readInt();
+                    final ID spilledHeapNameId = readSpilledId(spillIn);
+                    final ID heapNameId = (spilledHeapNameId.equals(mNullBufferId) ? null : spilledHeapNameId);
+                    final int tag = spillIn.readUnsignedByte();
+                    final ID id = readSpilledId(spillIn);
+                    final int stackId = spillIn.readInt();
+                    final int numElements = spillIn.readInt();
+                    final int typeId = spillIn.readUnsignedByte();
+                    final int elementsLength = spillIn.readInt();
+                    final boolean kept = mStringValueIds.contains(id)
+                            || (mBmpBufferIds.contains(id) && id.equals(mBmpBufferIdToDeduplicatedIdMap.get(id)));
+                    if (!kept) {
+                        IOUtil.skip(spillIn, elementsLength);
+                        continue;
+                    }
+                    final byte[] elements = new byte[elementsLength];
+                    spillIn.readFully(elements);
+                    segmentWriter.switchHeap(heapId, heapNameId);
+                    segmentWriter.visitor().visitHeapDumpPrimitiveArray(tag, id, stackId, numElements, typeId, elements);
+                    segmentWriter.grow(elementsLength);
+                }
+            } catch (EOFException e) {
+                throw new IOException("spill file is truncated: " + mSpillFile.getPath(), e);
+            } finally {
+                MatrixUtil.closeQuietly(spillIn);
+            }
+        }
+
+        private ID readSpilledId(DataInputStream in) throws IOException {
+            final byte[] idBytes = new byte[mIdSize];
+            in.readFully(idBytes);
+            return new ID(idBytes);
+        }
+    }
+
+    /**
+     * Writes records into heap dump segments of bounded size, repeating the heap info at each segment start.
+     */
+    private static class TrailingSegmentWriter {
+        private final HprofWriter mWriter;
+        private HprofHeapDumpVisitor mSegmentVisitor = null;
+        private int mSegmentSize = 0;
+        private int mHeapId = 0;
+        private ID mHeapNameId = null;
+
+        TrailingSegmentWriter(HprofWriter writer) {
+            mWriter = writer;
+        }
+
+        /**
+         * @param heapNameId null if the source hprof has no heap info.
+         */
+        void switchHeap(int heapId, ID heapNameId) {
+            final boolean heapChanged = (mHeapId != heapId
+                    || (mHeapNameId == null ? heapNameId != null : !mHeapNameId.equals(heapNameId)));
+            if (mSegmentVisitor == null || mSegmentSize >= TRAILING_SEGMENT_SIZE_LIMIT) {
+                finish();
+                mSegmentVisitor = mWriter.visitHeapDumpRecord(HprofConstants.RECORD_TAG_HEAP_DUMP_SEGMENT, 0, 0);
+                if (heapNameId != null) {
+                    mSegmentVisitor.visitHeapDumpInfo(heapId, heapNameId);
+                }
+            } else if (heapChanged && heapNameId != null) {
+                mSegmentVisitor.visitHeapDumpInfo(heapId, heapNameId);
+            }
+            mHeapId = heapId;
+            mHeapNameId = heapNameId;
+        }
+
+        HprofHeapDumpVisitor visitor() {
+            return mSegmentVisitor;
+        }
+
+        void grow(int size) {
+            mSegmentSize += size;
+        }
+
+        void finish() {
+            if (mSegmentVisitor != null) {
+                mSegmentVisitor.visitEnd();
+                mSegmentVisitor = null;
+                mSegmentSize = 0;
+            }
+        }
+    }
+
+    private static class DeferredInstance {
+        final int heapId;
+        final ID heapNameId;
+        final ID id;
+        final int stackId;
+        final ID typeId;
+        final byte[] instanceData;
+
+        DeferredInstance(int heapId, ID heapNameId, ID id, int stackId, ID typeId, byte[] instanceData) {
+            this.heapId = heapId;
+            this.heapNameId = heapNameId;
+            this.id = id;
+            this.stackId = stackId;
+            this.typeId = typeId;
+            this.instanceData = instanceData;
+        }
+    }
 }
@@ -3,12 +3,16 @@ package com.tencent.matrix.resource.processor;
 import android.os.Build;
 
 import com.tencent.matrix.Matrix;
+import com.tencent.matrix.memorydump.DumpHandler;
+import com.tencent.matrix.memorydump.MemoryDumpManager;
 import com.tencent.matrix.report.Issue;
 import com.tencent.matrix.resource.CanaryWorkerService;
 import com.tencent.matrix.resource.ResourcePlugin;
 import com.tencent.matrix.resource.analyzer.ActivityLeakAnalyzer;
+import com.tencent.matrix.resource.analyzer.BatchActivityLeakAnalyzer;
 import com.tencent.matrix.resource.analyzer.model.ActivityLeakResult;
 import com.tencent.matrix.resource.analyzer.model.AndroidExcludedRefs;
+import com.tencent.matrix.resource.analyzer.model.BatchActivityLeakResult;
 import com.tencent.matrix.resource.analyzer.model.DestroyedActivityInfo;
 import com.tencent.matrix.resource.analyzer.model.ExcludedRefs;
 import com.tencent.matrix.resource.analyzer.model.HeapDump;
@@ -17,14 +21,19 @@ import com.tencent.matrix.resource.config.ResourceConfig;
 import com.tencent.matrix.resource.config.SharePluginInfo;
 import com.tencent.matrix.resource.dumper.AndroidHeapDumper;
 import com.tencent.matrix.resource.dumper.DumpStorageManager;
+import com.tencent.matrix.resource.hproflib.HprofBufferShrinker;
 import com.tencent.matrix.resource.watcher.ActivityRefWatcher;
 import com.tencent.matrix.util.MatrixLog;
+import com.tencent.matrix.util.MatrixUtil;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.Future;
+import java.util.concurrent.RunnableFuture;
 
 /**
  * Created by Yves on 2021/2/25
@@ -71,6 +80,38 @@ public abstract class BaseLeakProcessor {
         return mHeapDumpHandler;
     }
 
+    /**
+     * Fork-dumps the heap and shrinks it while it is read from the pipe, so only the shrunk hprof is
+     * written to <code>shrunkHprof</code>.
+     */
+    protected boolean dumpAndShrinkHprof(File shrunkHprof) {
+        final DumpHandler handler = MemoryDumpManager.dumpStream();
+        if (handler == null) {
+            return false;
+        }
+        boolean shrunk = false;
+        try {
+            new HprofBufferShrinker().shrink(handler.getStream(), shrunkHprof);
+            shrunk = true;
+        } catch (Throwable thr) {
+            MatrixLog.printErrStackTrace(TAG, thr, "shrink hprof stream failed");
+        } finally {
+            // Closing the pipe also unblocks the dump process if shrinking stopped early.
+            MatrixUtil.closeQuietly(handler.getStream());
+        }
+        final Future<Boolean> result = handler.getResult();
+        if (result instanceof RunnableFuture) {
+            // Nobody else waits for the dump process, reap it here.
+            ((RunnableFuture<Boolean>) result).run();
+        }
+        try {
+            return result.get() && shrunk;
+        } catch (Throwable thr) {
+            MatrixLog.printErrStackTrace(TAG, thr, "");
+            return false;
+        }
+    }
+
     public ActivityRefWatcher getWatcher() {
         return mWatcher;
     }
@@ -105,6 +146,27 @@ public abstract class BaseLeakProcessor {
         return result;
     }
 
+    /**
+     * Analyzes several destroyed activities with one parse of the hprof file and one shared
+     * reference chain traversal.
+     */
+    protected BatchActivityLeakResult analyze(File hprofFile, Collection<String> referenceKeys) {
+        setAnalyzing(true);
+        final HeapSnapshot heapSnapshot;
+        BatchActivityLeakResult result;
+        String manufacture = Matrix.with().getPluginByClass(ResourcePlugin.class).getConfig().getManufacture();
+        final ExcludedRefs excludedRefs = AndroidExcludedRefs.createAppDefaults(Build.VERSION.SDK_INT, manufacture).build();
+        try {
+            heapSnapshot = new HeapSnapshot(hprofFile);
+            result = new BatchActivityLeakAnalyzer(referenceKeys, excludedRefs).analyze(heapSnapshot);
+        } catch (IOException e) {
+            result = BatchActivityLeakResult.failure(e, 0);
+        }
+        getWatcher().triggerGc();
+        setAnalyzing(false);
+        return result;
+    }
+
     final protected void publishIssue(int issueType, ResourceConfig.DumpMode dumpMode, String activity, String refKey, String detail, String cost) {
         Issue issue = new Issue(issueType);
         JSONObject content = new JSONObject();
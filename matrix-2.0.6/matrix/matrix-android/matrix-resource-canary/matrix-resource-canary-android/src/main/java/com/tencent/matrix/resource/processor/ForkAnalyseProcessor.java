@@ -2,8 +2,8 @@ package com.tencent.matrix.resource.processor;
 
 import android.os.Build;
 
-import com.tencent.matrix.memorydump.MemoryDumpManager;
 import com.tencent.matrix.resource.analyzer.model.ActivityLeakResult;
+import com.tencent.matrix.resource.analyzer.model.BatchActivityLeakResult;
 import com.tencent.matrix.resource.analyzer.model.DestroyedActivityInfo;
 import com.tencent.matrix.resource.config.ResourceConfig;
 import com.tencent.matrix.resource.config.SharePluginInfo;
@@ -11,6 +11,8 @@ import com.tencent.matrix.resource.watcher.ActivityRefWatcher;
 import com.tencent.matrix.util.MatrixLog;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * HPROF file analysis processor using fork dump.
@@ -40,10 +42,18 @@ public class ForkAnalyseProcessor extends BaseLeakProcessor {
 
         getWatcher().triggerGc();
 
-        if (dumpAndAnalyse(
-                destroyedActivityInfo.mActivityName,
-                destroyedActivityInfo.mKey
-        )) {
+        // Other destroyed activities confirmed as leaked share the same dump and analysis,
+        // the ones still being redetected stay pending for their own turn.
+        final List<DestroyedActivityInfo> infos = new ArrayList<>();
+        infos.add(destroyedActivityInfo);
+        for (DestroyedActivityInfo info : getWatcher().getDestroyedActivityInfos()) {
+            if (info != destroyedActivityInfo && info.mActivityRef.get() != null
+                    && getWatcher().isLeakConfirmed(info)) {
+                infos.add(info);
+            }
+        }
+
+        if (dumpAndAnalyse(infos)) {
             getWatcher().markPublished(destroyedActivityInfo.mActivityName, false);
             return true;
         }
@@ -51,7 +61,9 @@ public class ForkAnalyseProcessor extends BaseLeakProcessor {
         return false;
     }
 
-    private boolean dumpAndAnalyse(String activity, String key) {
+    private boolean dumpAndAnalyse(List<DestroyedActivityInfo> infos) {
+        final String activity = infos.get(0).mActivityName;
+        final String key = infos.get(0).mKey;
 
         /* Dump */
 
@@ -60,7 +72,8 @@ public class ForkAnalyseProcessor extends BaseLeakProcessor {
         final File hprof = getDumpStorageManager().newHprofFile();
 
         if (hprof != null) {
-            if (!MemoryDumpManager.dumpBlock(hprof.getPath())) {
+            // Leak analysis does not need primitive array contents, so analyze the shrunk hprof.
+            if (!dumpAndShrinkHprof(hprof)) {
                 MatrixLog.e(TAG, String.format("heap dump for further analyzing activity with key [%s] was failed, just ignore.",
                         key));
                 return false;
@@ -84,20 +97,32 @@ public class ForkAnalyseProcessor extends BaseLeakProcessor {
         try {
             final long analyseStart = System.currentTimeMillis();
 
-            final ActivityLeakResult leaks = analyze(hprof, key);
-            MatrixLog.i(TAG, String.format("analyze cost=%sms refString=%s",
-                    System.currentTimeMillis() - analyseStart, key));
-
-            if (leaks.mLeakFound) {
-                final String leakChain = leaks.toString();
-                publishIssue(
-                        SharePluginInfo.IssueType.LEAK_FOUND,
-                        ResourceConfig.DumpMode.FORK_ANALYSE,
-                        activity, key, leakChain,
-                        String.valueOf(System.currentTimeMillis() - dumpStart));
-                MatrixLog.i(TAG, leakChain);
-            } else {
-                MatrixLog.i(TAG, "leak not found");
+            final List<String> keys = new ArrayList<>(infos.size());
+            for (DestroyedActivityInfo info : infos) {
+                keys.add(info.mKey);
+            }
+            final BatchActivityLeakResult batchLeaks = analyze(hprof, keys);
+            MatrixLog.i(TAG, String.format("analyze cost=%sms refString=%s, batch size=%s",
+                    System.currentTimeMillis() - analyseStart, key, infos.size()));
+
+            for (DestroyedActivityInfo info : infos) {
+                final ActivityLeakResult leaks = batchLeaks.get(info.mKey);
+                if (leaks != null && leaks.mLeakFound) {
+                    final String leakChain = leaks.toString();
+                    publishIssue(
+                            SharePluginInfo.IssueType.LEAK_FOUND,
+                            ResourceConfig.DumpMode.FORK_ANALYSE,
+                            info.mActivityName, info.mKey, leakChain,
+                            String.valueOf(System.currentTimeMillis() - dumpStart));
+                    MatrixLog.i(TAG, leakChain);
+                    if (info != infos.get(0)) {
+                        // Reported along with the current one, no need to dump for it again.
+                        getWatcher().markPublished(info.mActivityName, false);
+                        getWatcher().getDestroyedActivityInfos().remove(info);
+                    }
+                } else {
+                    MatrixLog.i(TAG, "leak not found, refString=%s", info.mKey);
+                }
             }
 
         } catch (OutOfMemoryError error) {
@@ -2,7 +2,6 @@ package com.tencent.matrix.resource.processor;
 
 import android.os.Build;
 
-import com.tencent.matrix.memorydump.MemoryDumpManager;
 import com.tencent.matrix.resource.analyzer.model.DestroyedActivityInfo;
 import com.tencent.matrix.resource.analyzer.model.HeapDump;
 import com.tencent.matrix.resource.config.ResourceConfig;
@@ -41,7 +40,7 @@ public class ForkDumpProcessor extends BaseLeakProcessor {
             return true;
         }
 
-        if (!MemoryDumpManager.dumpBlock(hprof.getPath())) {
+        if (!dumpAndShrinkHprof(hprof)) {
             MatrixLog.e(TAG, String.format("heap dump for further analyzing activity with key [%s] was failed, just ignore.",
                     destroyedActivityInfo.mKey));
             return true;
@@ -54,7 +53,7 @@ public class ForkDumpProcessor extends BaseLeakProcessor {
         getWatcher().triggerGc();
 
         getHeapDumpHandler().process(
-                new HeapDump(hprof, destroyedActivityInfo.mKey, destroyedActivityInfo.mActivityName));
+                new HeapDump(hprof, destroyedActivityInfo.mKey, destroyedActivityInfo.mActivityName, true));
 
         return true;
     }
@@ -20,6 +20,7 @@ import android.app.Application;
 import android.os.Debug;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.SystemClock;
 
 import com.tencent.matrix.report.FilePublisher;
 import com.tencent.matrix.resource.ResourcePlugin;
@@ -37,11 +38,15 @@ import com.tencent.matrix.resource.watcher.RetryableTaskExecutor.RetryableTask;
 import com.tencent.matrix.util.MatrixHandlerThread;
 import com.tencent.matrix.util.MatrixLog;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by tangyinsheng on 2017/6/2.
@@ -73,6 +78,26 @@ public class ActivityRefWatcher extends FilePublisher implements Watcher {
 
     private final ResourceConfig.DumpMode mDumpHprofMode;
 
+    private final boolean mDetectByRefQueue;
+    private final long mGcQuietPeriodMillis;
+    private final ReferenceQueue<Activity> mActivityRefQueue;
+    private Thread mRefQueueReaper;
+    private volatile long mLastEnqueuedUptimeMillis;
+
+    private final AtomicInteger mCycleGcCount = new AtomicInteger();
+    private final AtomicLong mCycleGcCostMillis = new AtomicLong();
+    private final AtomicInteger mTotalGcCount = new AtomicInteger();
+    private final AtomicLong mTotalGcCostMillis = new AtomicLong();
+
+    private volatile OnDetectCycleListener mDetectCycleListener;
+
+    /**
+     * Observes the forced gc cost of every detection cycle.
+     */
+    public interface OnDetectCycleListener {
+        void onDetectCycle(int gcCount, long gcCostMillis, int pendingCount);
+    }
+
     public static class ComponentFactory {
 
         protected RetryableTaskExecutor createDetectExecutor(ResourceConfig config, HandlerThread handlerThread) {
@@ -129,6 +154,9 @@ public class ActivityRefWatcher extends FilePublisher implements Watcher {
         mMaxRedetectTimes = config.getMaxRedetectTimes();
         mLeakProcessor = componentFactory.createLeakProcess(mDumpHprofMode, this);
         mDestroyedActivityInfos = new ConcurrentLinkedQueue<>();
+        mDetectByRefQueue = config.getDetectByRefQueue();
+        mGcQuietPeriodMillis = config.getGcQuietPeriodMillis();
+        mActivityRefQueue = mDetectByRefQueue ? new ReferenceQueue<Activity>() : null;
     }
 
     public void onForeground(boolean isForeground) {
@@ -148,6 +176,10 @@ public class ActivityRefWatcher extends FilePublisher implements Watcher {
         @Override
         public void onActivityDestroyed(Activity activity) {
             pushDestroyedActivityInfo(activity);
+            if (mDetectByRefQueue) {
+                // Wait for the system to collect it, the scan task decides whether gc has to be forced.
+                return;
+            }
             mHandler.postDelayed(new Runnable() {
                 @Override
                 public void run() {
@@ -163,6 +195,7 @@ public class ActivityRefWatcher extends FilePublisher implements Watcher {
         final Application app = mResourcePlugin.getApplication();
         if (app != null) {
             app.registerActivityLifecycleCallbacks(mRemovedActivityMonitor);
+            startRefQueueReaper();
             scheduleDetectProcedure();
             MatrixLog.i(TAG, "watcher is started.");
         }
@@ -184,6 +217,7 @@ public class ActivityRefWatcher extends FilePublisher implements Watcher {
 
     @Override
     public void destroy() {
+        stopRefQueueReaper();
         mDetectExecutor.quit();
         mHandlerThread.quitSafely();
         mLeakProcessor.onDestroy();
@@ -204,7 +238,7 @@ public class ActivityRefWatcher extends FilePublisher implements Watcher {
                 .append('_').append(Long.toHexString(uuid.getMostSignificantBits())).append(Long.toHexString(uuid.getLeastSignificantBits()));
         final String key = keyBuilder.toString();
         final DestroyedActivityInfo destroyedActivityInfo
-                = new DestroyedActivityInfo(key, activity, activityName);
+                = new DestroyedActivityInfo(key, activity, activityName, mActivityRefQueue);
         mDestroyedActivityInfos.add(destroyedActivityInfo);
         synchronized (mDestroyedActivityInfos) {
             mDestroyedActivityInfos.notifyAll();
@@ -212,6 +246,45 @@ public class ActivityRefWatcher extends FilePublisher implements Watcher {
         MatrixLog.d(TAG, "mDestroyedActivityInfos add %s", activityName);
     }
 
+    private synchronized void startRefQueueReaper() {
+        if (!mDetectByRefQueue || mRefQueueReaper != null) {
+            return;
+        }
+        mLastEnqueuedUptimeMillis = SystemClock.uptimeMillis();
+        mRefQueueReaper = new Thread("matrix_res_ref_reaper") {
+            @Override
+            public void run() {
+                while (!isInterrupted()) {
+                    final Reference<? extends Activity> ref;
+                    try {
+                        ref = mActivityRefQueue.remove();
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                    mLastEnqueuedUptimeMillis = SystemClock.uptimeMillis();
+                    final Iterator<DestroyedActivityInfo> infoIt = mDestroyedActivityInfos.iterator();
+                    while (infoIt.hasNext()) {
+                        final DestroyedActivityInfo destroyedActivityInfo = infoIt.next();
+                        if (destroyedActivityInfo.mActivityRef == ref) {
+                            MatrixLog.v(TAG, "activity with key [%s] was recycled.", destroyedActivityInfo.mKey);
+                            infoIt.remove();
+                            break;
+                        }
+                    }
+                }
+            }
+        };
+        mRefQueueReaper.setDaemon(true);
+        mRefQueueReaper.start();
+    }
+
+    private synchronized void stopRefQueueReaper() {
+        if (mRefQueueReaper != null) {
+            mRefQueueReaper.interrupt();
+            mRefQueueReaper = null;
+        }
+    }
+
     private void scheduleDetectProcedure() {
         mDetectExecutor.executeInBackground(mScanDestroyedActivitiesTask);
     }
@@ -247,6 +320,22 @@ public class ActivityRefWatcher extends FilePublisher implements Watcher {
                 return Status.RETRY;
             }
 
+            mCycleGcCount.set(0);
+            mCycleGcCostMillis.set(0);
+            final Status status = mDetectByRefQueue ? scanByRefQueue() : scanByForcedGc();
+            final int gcCount = mCycleGcCount.get();
+            final long gcCostMillis = mCycleGcCostMillis.get();
+            MatrixLog.i(TAG, "detect cycle done, forced gc count: %d, cost: %dms, pending: %d",
+                    gcCount, gcCostMillis, mDestroyedActivityInfos.size());
+            final OnDetectCycleListener listener = mDetectCycleListener;
+            if (listener != null) {
+                listener.onDetectCycle(gcCount, gcCostMillis, mDestroyedActivityInfos.size());
+            }
+            return status;
+        }
+
+        private Status scanByForcedGc() {
+
 //            final WeakReference<Object[]> sentinelRef = new WeakReference<>(new Object[1024 * 1024]); // alloc big object
             triggerGc();
             triggerGc();
@@ -278,8 +367,7 @@ public class ActivityRefWatcher extends FilePublisher implements Watcher {
 
                 ++destroyedActivityInfo.mDetectedCount;
 
-                if (destroyedActivityInfo.mDetectedCount < mMaxRedetectTimes
-                        && !mResourcePlugin.getConfig().getDetectDebugger()) {
+                if (!isLeakConfirmed(destroyedActivityInfo)) {
                     // Although the sentinel tell us the activity should have been recycled,
                     // system may still ignore it, so try again until we reach max retry times.
                     MatrixLog.i(TAG, "activity with key [%s] should be recycled but actually still exists in %s times, wait for next detection to confirm.",
@@ -306,6 +394,66 @@ public class ActivityRefWatcher extends FilePublisher implements Watcher {
             triggerGc();
             return Status.RETRY;
         }
+
+        /**
+         * Collected activities are removed by the reaper thread, so gc is forced at most once, and only
+         * after the system has not collected any destroyed activity for a quiet period.
+         */
+        private Status scanByRefQueue() {
+            final long now = SystemClock.uptimeMillis();
+            if (now - mLastEnqueuedUptimeMillis < mGcQuietPeriodMillis) {
+                MatrixLog.v(TAG, "destroyed activities are still being recycled, wait for next detection.");
+                return Status.RETRY;
+            }
+
+            boolean gcTriggered = false;
+            final Iterator<DestroyedActivityInfo> infoIt = mDestroyedActivityInfos.iterator();
+
+            while (infoIt.hasNext()) {
+                final DestroyedActivityInfo destroyedActivityInfo = infoIt.next();
+                if ((mDumpHprofMode == ResourceConfig.DumpMode.NO_DUMP || mDumpHprofMode == ResourceConfig.DumpMode.AUTO_DUMP)
+                        && !mResourcePlugin.getConfig().getDetectDebugger()
+                        && isPublished(destroyedActivityInfo.mActivityName)) {
+                    MatrixLog.v(TAG, "activity with key [%s] was already published.", destroyedActivityInfo.mActivityName);
+                    infoIt.remove();
+                    continue;
+                }
+                if (now - destroyedActivityInfo.mDestroyedUptimeMillis < mGcQuietPeriodMillis) {
+                    // Give the system a chance to collect it first.
+                    continue;
+                }
+                if (!gcTriggered && destroyedActivityInfo.mActivityRef.get() != null) {
+                    triggerGc();
+                    gcTriggered = true;
+                }
+                if (destroyedActivityInfo.mActivityRef.get() == null) {
+                    MatrixLog.v(TAG, "activity with key [%s] was already recycled.", destroyedActivityInfo.mKey);
+                    infoIt.remove();
+                    continue;
+                }
+
+                ++destroyedActivityInfo.mDetectedCount;
+
+                if (!isLeakConfirmed(destroyedActivityInfo)) {
+                    MatrixLog.i(TAG, "activity with key [%s] should be recycled but actually still exists in %s times, wait for next detection to confirm.",
+                            destroyedActivityInfo.mKey, destroyedActivityInfo.mDetectedCount);
+                    continue;
+                }
+
+                MatrixLog.i(TAG, "activity with key [%s] was suspected to be a leaked instance. mode[%s]", destroyedActivityInfo.mKey, mDumpHprofMode);
+
+                if (mLeakProcessor == null) {
+                    throw new NullPointerException("LeakProcessor not found!!!");
+                }
+
+                if (mLeakProcessor.process(destroyedActivityInfo)) {
+                    MatrixLog.i(TAG, "the leaked activity [%s] with key [%s] has been processed. stop polling", destroyedActivityInfo.mActivityName, destroyedActivityInfo.mKey);
+                    infoIt.remove();
+                }
+            }
+
+            return Status.RETRY;
+        }
     };
 
     public BaseLeakProcessor getLeakProcessor() {
@@ -320,8 +468,29 @@ public class ActivityRefWatcher extends FilePublisher implements Watcher {
         return mDestroyedActivityInfos;
     }
 
+    /**
+     * Whether the activity has been detected alive enough times to be reported as leaked.
+     */
+    public boolean isLeakConfirmed(DestroyedActivityInfo info) {
+        return info.mDetectedCount >= mMaxRedetectTimes
+                || mResourcePlugin.getConfig().getDetectDebugger();
+    }
+
+    public void setOnDetectCycleListener(OnDetectCycleListener listener) {
+        mDetectCycleListener = listener;
+    }
+
+    public int getTotalGcCount() {
+        return mTotalGcCount.get();
+    }
+
+    public long getTotalGcCostMillis() {
+        return mTotalGcCostMillis.get();
+    }
+
     public void triggerGc() {
         MatrixLog.v(TAG, "triggering gc...");
+        final long start = SystemClock.uptimeMillis();
         Runtime.getRuntime().gc();
         try {
             Thread.sleep(100);
@@ -329,6 +498,11 @@ public class ActivityRefWatcher extends FilePublisher implements Watcher {
             MatrixLog.printErrStackTrace(TAG, e, "");
         }
         Runtime.getRuntime().runFinalization();
+        final long cost = SystemClock.uptimeMillis() - start;
+        mCycleGcCount.incrementAndGet();
+        mCycleGcCostMillis.addAndGet(cost);
+        mTotalGcCount.incrementAndGet();
+        mTotalGcCostMillis.addAndGet(cost);
         MatrixLog.v(TAG, "gc was triggered.");
     }
 }
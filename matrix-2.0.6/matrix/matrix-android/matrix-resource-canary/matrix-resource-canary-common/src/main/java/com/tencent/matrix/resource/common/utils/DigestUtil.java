@@ -16,6 +16,10 @@
 
 package com.tencent.matrix.resource.common.utils;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
@@ -39,6 +43,25 @@ public final class DigestUtil {
         }
     }
 
+    public static String getMD5String(File file) throws IOException {
+        InputStream is = null;
+        try {
+            final MessageDigest md = MessageDigest.getInstance("MD5");
+            is = new FileInputStream(file);
+            final byte[] buffer = new byte[64 * 1024];
+            int bytesRead;
+            while ((bytesRead = is.read(buffer)) > 0) {
+                md.update(buffer, 0, bytesRead);
+            }
+            return bytesToHexString(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            // Should not happen.
+            throw new IllegalStateException(e);
+        } finally {
+            StreamUtil.closeQuietly(is);
+        }
+    }
+
     private static String bytesToHexString(byte[] bytes) {
         final StringBuilder sb = new StringBuilder();
         for (byte b : bytes) {
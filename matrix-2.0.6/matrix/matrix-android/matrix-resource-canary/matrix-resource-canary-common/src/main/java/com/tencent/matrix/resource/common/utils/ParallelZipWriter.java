@@ -0,0 +1,367 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.resource.common.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Zip writer which deflates every entry as independent blocks on a small thread pool, in the way of pigz.
+ *
+ * Each block is primed with the last 32K of its predecessor and ends with a sync flush, so the
+ * concatenated blocks form one ordinary deflate stream and the result can be read by any zip reader.
+ * Entries are written with a data descriptor, zip64 is not supported.
+ */
+public final class ParallelZipWriter implements Closeable {
+    private static final int MIN_BLOCK_SIZE = 128 * 1024;
+    private static final int MAX_BLOCK_SIZE = 1024 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIR_SIGNATURE = 0x06054b50;
+    private static final int ZIP_VERSION = 20;
+    // Sizes and crc follow the data (bit 3), names are UTF-8 (bit 11).
+    private static final int GENERAL_PURPOSE_FLAGS = 0x0808;
+    private static final int METHOD_DEFLATED = 8;
+    private static final long MAX_ZIP32_SIZE = 0xFFFFFFFFL;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final OutputStream mOut;
+    private final int mLevel;
+    private final int mThreadCount;
+    private final ExecutorService mExecutor;
+    private final List<EntryRecord> mEntries = new ArrayList<>();
+    private long mOffset = 0;
+    private boolean mClosed = false;
+
+    /**
+     * @param out destination, closed along with this writer.
+     * @param level deflate level, see {@link Deflater}.
+     * @param threadCount size of the compression pool, values less than 2 deflate in the calling thread.
+     */
+    public ParallelZipWriter(OutputStream out, int level, int threadCount) {
+        mOut = Preconditions.checkNotNull(out, "out");
+        mLevel = level;
+        mThreadCount = Math.max(1, threadCount);
+        mExecutor = (mThreadCount > 1 ? Executors.newFixedThreadPool(mThreadCount, new DeflateThreadFactory()) : null);
+    }
+
+    /**
+     * Block size for an input of <code>length</code> bytes, so that every pool thread gets a few blocks.
+     */
+    public static int getBlockSize(long length, int threadCount) {
+        final long perBlock = length / (Math.max(1, threadCount) * 4L);
+        if (perBlock <= MIN_BLOCK_SIZE) {
+            return MIN_BLOCK_SIZE;
+        }
+        if (perBlock >= MAX_BLOCK_SIZE) {
+            return MAX_BLOCK_SIZE;
+        }
+        return Integer.highestOneBit((int) perBlock);
+    }
+
+    public void putEntry(String name, byte[] data) throws IOException {
+        putEntry(name, new ByteArrayInputStream(data), data.length);
+    }
+
+    public void putEntry(String name, File file) throws IOException {
+        InputStream is = null;
+        try {
+            is = new FileInputStream(file);
+            putEntry(name, is, file.length());
+        } finally {
+            StreamUtil.closeQuietly(is);
+        }
+    }
+
+    private void putEntry(String name, InputStream is, long expectedLength) throws IOException {
+        if (mClosed) {
+            throw new IOException("writer is closed.");
+        }
+        final EntryRecord entry = new EntryRecord(name, mOffset, toDosTime(System.currentTimeMillis()));
+        writeLocalHeader(entry);
+
+        final int blockSize = getBlockSize(expectedLength, mThreadCount);
+        final int maxInFlight = mThreadCount * 2;
+        final ArrayDeque<Future<byte[]>> inFlight = new ArrayDeque<>();
+        final CRC32 crc = new CRC32();
+        byte[] dictionary = null;
+        byte[] block = readBlock(is, blockSize);
+        try {
+            while (true) {
+                final byte[] next = (block.length == blockSize ? readBlock(is, blockSize) : new byte[0]);
+                final boolean last = (next.length == 0);
+                crc.update(block, 0, block.length);
+                entry.size += block.length;
+                final DeflateTask task = new DeflateTask(block, dictionary, last, mLevel);
+                if (mExecutor != null) {
+                    inFlight.addLast(mExecutor.submit(task));
+                    while (inFlight.size() >= maxInFlight) {
+                        writeCompressed(entry, inFlight.removeFirst());
+                    }
+                } else {
+                    writeCompressed(entry, task.call());
+                }
+                if (last) {
+                    break;
+                }
+                dictionary = Arrays.copyOfRange(block, Math.max(0, block.length - DICTIONARY_SIZE), block.length);
+                block = next;
+            }
+            while (!inFlight.isEmpty()) {
+                writeCompressed(entry, inFlight.removeFirst());
+            }
+        } finally {
+            for (Future<byte[]> future : inFlight) {
+                future.cancel(true);
+            }
+        }
+        entry.crc = crc.getValue();
+        if (entry.size > MAX_ZIP32_SIZE || entry.compressedSize > MAX_ZIP32_SIZE) {
+            throw new IOException("entry " + name + " is too large, zip64 is not supported.");
+        }
+        writeDataDescriptor(entry);
+        mEntries.add(entry);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        try {
+            final long centralDirOffset = mOffset;
+            for (EntryRecord entry : mEntries) {
+                writeCentralHeader(entry);
+            }
+            final long centralDirSize = mOffset - centralDirOffset;
+            final ByteArrayOutputStream eocd = new ByteArrayOutputStream(22);
+            writeLEInt(eocd, END_OF_CENTRAL_DIR_SIGNATURE);
+            writeLEShort(eocd, 0);
+            writeLEShort(eocd, 0);
+            writeLEShort(eocd, mEntries.size());
+            writeLEShort(eocd, mEntries.size());
+            writeLEInt(eocd, (int) centralDirSize);
+            writeLEInt(eocd, (int) centralDirOffset);
+            writeLEShort(eocd, 0);
+            write(eocd.toByteArray());
+            mOut.flush();
+        } finally {
+            if (mExecutor != null) {
+                mExecutor.shutdownNow();
+            }
+            mOut.close();
+        }
+    }
+
+    private void writeCompressed(EntryRecord entry, Future<byte[]> future) throws IOException {
+        try {
+            writeCompressed(entry, future.get());
+        } catch (InterruptedException e) {
+            throw new IOException("interrupted while deflating " + entry.name, e);
+        } catch (ExecutionException e) {
+            throw new IOException("failed to deflate " + entry.name, e.getCause());
+        }
+    }
+
+    private void writeCompressed(EntryRecord entry, byte[] compressed) throws IOException {
+        write(compressed);
+        entry.compressedSize += compressed.length;
+    }
+
+    private void writeLocalHeader(EntryRecord entry) throws IOException {
+        final ByteArrayOutputStream header = new ByteArrayOutputStream(30 + entry.nameBytes.length);
+        writeLEInt(header, LOCAL_HEADER_SIGNATURE);
+        writeLEShort(header, ZIP_VERSION);
+        writeLEShort(header, GENERAL_PURPOSE_FLAGS);
+        writeLEShort(header, METHOD_DEFLATED);
+        writeLEInt(header, entry.dosTime);
+        writeLEInt(header, 0);
+        writeLEInt(header, 0);
+        writeLEInt(header, 0);
+        writeLEShort(header, entry.nameBytes.length);
+        writeLEShort(header, 0);
+        header.write(entry.nameBytes);
+        write(header.toByteArray());
+    }
+
+    private void writeDataDescriptor(EntryRecord entry) throws IOException {
+        final ByteArrayOutputStream descriptor = new ByteArrayOutputStream(16);
+        writeLEInt(descriptor, DATA_DESCRIPTOR_SIGNATURE);
+        writeLEInt(descriptor, (int) entry.crc);
+        writeLEInt(descriptor, (int) entry.compressedSize);
+        writeLEInt(descriptor, (int) entry.size);
+        write(descriptor.toByteArray());
+    }
+
+    private void writeCentralHeader(EntryRecord entry) throws IOException {
+        final ByteArrayOutputStream header = new ByteArrayOutputStream(46 + entry.nameBytes.length);
+        writeLEInt(header, CENTRAL_HEADER_SIGNATURE);
+        writeLEShort(header, ZIP_VERSION);
+        writeLEShort(header, ZIP_VERSION);
+        writeLEShort(header, GENERAL_PURPOSE_FLAGS);
+        writeLEShort(header, METHOD_DEFLATED);
+        writeLEInt(header, entry.dosTime);
+        writeLEInt(header, (int) entry.crc);
+        writeLEInt(header, (int) entry.compressedSize);
+        writeLEInt(header, (int) entry.size);
+        writeLEShort(header, entry.nameBytes.length);
+        writeLEShort(header, 0); // Extra field length.
+        writeLEShort(header, 0); // Comment length.
+        writeLEShort(header, 0); // Disk number.
+        writeLEShort(header, 0); // Internal attributes.
+        writeLEInt(header, 0);   // External attributes.
+        writeLEInt(header, (int) entry.localHeaderOffset);
+        header.write(entry.nameBytes);
+        write(header.toByteArray());
+    }
+
+    private void write(byte[] data) throws IOException {
+        mOut.write(data);
+        mOffset += data.length;
+    }
+
+    private static byte[] readBlock(InputStream is, int blockSize) throws IOException {
+        final byte[] buffer = new byte[blockSize];
+        int total = 0;
+        int bytesRead;
+        while (total < blockSize && (bytesRead = is.read(buffer, total, blockSize - total)) > 0) {
+            total += bytesRead;
+        }
+        return (total == blockSize ? buffer : Arrays.copyOf(buffer, total));
+    }
+
+    private static int toDosTime(long millis) {
+        final Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis(millis);
+        final int year = cal.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return ((year - 1980) << 25) | ((cal.get(Calendar.MONTH) + 1) << 21) | (cal.get(Calendar.DAY_OF_MONTH) << 16)
+                | (cal.get(Calendar.HOUR_OF_DAY) << 11) | (cal.get(Calendar.MINUTE) << 5) | (cal.get(Calendar.SECOND) >> 1);
+    }
+
+    private static void writeLEShort(OutputStream out, int value) throws IOException {
+        out.write(value & 0xFF);
+        out.write((value >>> 8) & 0xFF);
+    }
+
+    private static void writeLEInt(OutputStream out, int value) throws IOException {
+        out.write(value & 0xFF);
+        out.write((value >>> 8) & 0xFF);
+        out.write((value >>> 16) & 0xFF);
+        out.write((value >>> 24) & 0xFF);
+    }
+
+    private static final class DeflateTask implements Callable<byte[]> {
+        private final byte[] mBlock;
+        private final byte[] mDictionary;
+        private final boolean mLast;
+        private final int mLevel;
+
+        DeflateTask(byte[] block, byte[] dictionary, boolean last, int level) {
+            mBlock = block;
+            mDictionary = dictionary;
+            mLast = last;
+            mLevel = level;
+        }
+
+        @Override
+        public byte[] call() {
+            final Deflater deflater = new Deflater(mLevel, true);
+            try {
+                if (mDictionary != null) {
+                    deflater.setDictionary(mDictionary);
+                }
+                deflater.setInput(mBlock);
+                final ByteArrayOutputStream out = new ByteArrayOutputStream(mBlock.length / 2 + 64);
+                final byte[] buffer = new byte[16 * 1024];
+                if (mLast) {
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        final int len = deflater.deflate(buffer);
+                        out.write(buffer, 0, len);
+                    }
+                } else {
+                    // A sync flush ends the block on a byte boundary without closing the stream.
+                    int len;
+                    do {
+                        len = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                        out.write(buffer, 0, len);
+                    } while (len == buffer.length);
+                }
+                return out.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+
+    private static final class EntryRecord {
+        final String name;
+        final byte[] nameBytes;
+        final long localHeaderOffset;
+        final int dosTime;
+        long crc;
+        long size;
+        long compressedSize;
+
+        EntryRecord(String name, long localHeaderOffset, int dosTime) {
+            this.name = name;
+            this.nameBytes = name.getBytes(UTF8);
+            this.localHeaderOffset = localHeaderOffset;
+            this.dosTime = dosTime;
+        }
+    }
+
+    private static final class DeflateThreadFactory implements ThreadFactory {
+        private final AtomicInteger mIndex = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "matrix_res_deflate_" + mIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}